@@ -5,16 +5,27 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.psddev.dari.util.AbstractStorageItem;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StorageItemMove;
+import com.psddev.dari.util.StorageItemMultipartUpload;
 import com.psddev.dari.util.StorageItemOriginUrl;
 import com.psddev.dari.util.SettingsException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -22,7 +33,7 @@ import java.util.Map;
  * {@link com.psddev.dari.util.StorageItem} implementation that uses
  * <a href="http://aws.amazon.com/s3/">Amazon S3</a>.
  */
-public class S3StorageItem extends AbstractStorageItem implements StorageItemOriginUrl {
+public class S3StorageItem extends AbstractStorageItem implements StorageItemMultipartUpload, StorageItemMove, StorageItemOriginUrl {
 
     /**
      * Sub-setting key for S3 bucket name.
@@ -50,11 +61,18 @@ public class S3StorageItem extends AbstractStorageItem implements StorageItemOri
      */
     public static final String CANNED_ACCESS_CONTROL_LIST_SETTING = "cannedAccessControlList";
 
+    // S3 rejects multipart uploads with smaller parts, except for the last.
+    private static final int MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+
+    // S3 doesn't allow copying more than 5 GB in a single request.
+    private static final long MAXIMUM_COPY_SIZE = 5L * 1024L * 1024L * 1024L;
+
     private transient String secret;
     private transient String bucket;
     private transient String access;
     private transient String originBaseUrl;
     private transient CannedAccessControlList cannedAccessControlList;
+    private transient volatile AmazonS3Client multipartClient;
 
     public String getBucket() {
         return bucket;
@@ -96,8 +114,34 @@ public class S3StorageItem extends AbstractStorageItem implements StorageItemOri
         this.cannedAccessControlList = cannedAccessControlList;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param multipartPartSize Must be {@code 0} or at least 5 MB.
+     * @throws IllegalArgumentException If the given size is too small
+     *         for S3.
+     */
+    @Override
+    public void setMultipartPartSize(int multipartPartSize) {
+        if (multipartPartSize > 0 && multipartPartSize < MINIMUM_PART_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "Multipart part size [%s] is less than the S3 minimum of [%s] bytes!",
+                    multipartPartSize, MINIMUM_PART_SIZE));
+        }
+
+        super.setMultipartPartSize(multipartPartSize);
+    }
+
     @Override
     public void initialize(String settingsKey, Map<String, Object> settings) {
+        Integer partSize = ObjectUtils.to(Integer.class, settings.get(MULTIPART_PART_SIZE_SUB_SETTING));
+
+        if (partSize != null && partSize > 0 && partSize < MINIMUM_PART_SIZE) {
+            throw new SettingsException(
+                    settingsKey + "/" + MULTIPART_PART_SIZE_SUB_SETTING,
+                    String.format("Must be at least [%s] bytes for S3!", MINIMUM_PART_SIZE));
+        }
+
         super.initialize(settingsKey, settings);
 
         setBucket(ObjectUtils.to(String.class, settings.get(BUCKET_SUB_SETTING)));
@@ -128,6 +172,12 @@ public class S3StorageItem extends AbstractStorageItem implements StorageItemOri
 
     @Override
     protected void saveData(InputStream data) throws IOException {
+        PutObjectRequest poRequest = new PutObjectRequest(getBucket(), getPath(), data, createObjectMetadata(true));
+        poRequest.setCannedAcl(ObjectUtils.firstNonNull(getCannedAccessControlList(), CannedAccessControlList.PublicRead));
+        createClient().putObject(poRequest);
+    }
+
+    private ObjectMetadata createObjectMetadata(boolean contentLength) {
         ObjectMetadata metadata = new ObjectMetadata();
 
         metadata.setContentType(getContentType());
@@ -141,7 +191,9 @@ public class S3StorageItem extends AbstractStorageItem implements StorageItemOri
                     switch (key) {
 
                         case Headers.CONTENT_LENGTH:
-                            values.forEach(value -> metadata.setHeader(key, ObjectUtils.to(Long.class, value)));
+                            if (contentLength) {
+                                values.forEach(value -> metadata.setHeader(key, ObjectUtils.to(Long.class, value)));
+                            }
                             break;
 
                         default:
@@ -152,9 +204,109 @@ public class S3StorageItem extends AbstractStorageItem implements StorageItemOri
             });
         }
 
-        PutObjectRequest poRequest = new PutObjectRequest(getBucket(), getPath(), data, metadata);
-        poRequest.setCannedAcl(ObjectUtils.firstNonNull(getCannedAccessControlList(), CannedAccessControlList.PublicRead));
-        createClient().putObject(poRequest);
+        return metadata;
+    }
+
+    @Override
+    public String startMultipartUpload() throws IOException {
+        // Each part sets its own length.
+        ObjectMetadata metadata = createObjectMetadata(false);
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(getBucket(), getPath(), metadata);
+        request.setCannedACL(ObjectUtils.firstNonNull(getCannedAccessControlList(), CannedAccessControlList.PublicRead));
+        return getMultipartClient().initiateMultipartUpload(request).getUploadId();
+    }
+
+    @Override
+    public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException {
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(getBucket())
+                .withKey(getPath())
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withInputStream(new ByteArrayInputStream(data, 0, length))
+                .withPartSize(length);
+
+        return getMultipartClient().uploadPart(request).getETag();
+    }
+
+    @Override
+    public void completeMultipartUpload(String uploadId, List<String> partTags) throws IOException {
+        List<PartETag> partETags = new ArrayList<>();
+
+        for (int i = 0, size = partTags.size(); i < size; ++ i) {
+            partETags.add(new PartETag(i + 1, partTags.get(i)));
+        }
+
+        getMultipartClient().completeMultipartUpload(new CompleteMultipartUploadRequest(getBucket(), getPath(), uploadId, partETags));
+    }
+
+    @Override
+    public void abortMultipartUpload(String uploadId) throws IOException {
+        getMultipartClient().abortMultipartUpload(new AbortMultipartUploadRequest(getBucket(), getPath(), uploadId));
+    }
+
+    // Shared by all parts of the same upload so that the connections are
+    // reused.
+    private AmazonS3Client getMultipartClient() {
+        if (multipartClient == null) {
+            multipartClient = createClient();
+        }
+
+        return multipartClient;
+    }
+
+    @Override
+    public void moveData(String newPath) throws IOException {
+        AmazonS3Client client = createClient();
+        CannedAccessControlList acl = ObjectUtils.firstNonNull(getCannedAccessControlList(), CannedAccessControlList.PublicRead);
+        long length = client.getObjectMetadata(getBucket(), getPath()).getContentLength();
+
+        if (length <= MAXIMUM_COPY_SIZE) {
+            client.copyObject(new CopyObjectRequest(getBucket(), getPath(), getBucket(), newPath).withCannedAccessControlList(acl));
+
+        } else {
+            copyInParts(client, newPath, length, acl);
+        }
+
+        client.deleteObject(getBucket(), getPath());
+    }
+
+    // Objects larger than the maximum copy size must be copied in parts.
+    private void copyInParts(AmazonS3Client client, String newPath, long length, CannedAccessControlList acl) {
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(getBucket(), newPath, createObjectMetadata(false));
+
+        request.setCannedACL(acl);
+
+        String uploadId = client.initiateMultipartUpload(request).getUploadId();
+
+        try {
+            List<PartETag> partETags = new ArrayList<>();
+            int partNumber = 1;
+
+            for (long offset = 0; offset < length; offset += MAXIMUM_COPY_SIZE, ++ partNumber) {
+                partETags.add(client.copyPart(new CopyPartRequest()
+                        .withSourceBucketName(getBucket())
+                        .withSourceKey(getPath())
+                        .withDestinationBucketName(getBucket())
+                        .withDestinationKey(newPath)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFirstByte(offset)
+                        .withLastByte(Math.min(offset + MAXIMUM_COPY_SIZE, length) - 1))
+                        .getPartETag());
+            }
+
+            client.completeMultipartUpload(new CompleteMultipartUploadRequest(getBucket(), newPath, uploadId, partETags));
+
+        } catch (RuntimeException error) {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(getBucket(), newPath, uploadId));
+            throw error;
+        }
+    }
+
+    @Override
+    public void deleteData() throws IOException {
+        createClient().deleteObject(getBucket(), getPath());
     }
 
     @Override
@@ -1070,6 +1070,8 @@ public abstract class AbstractDatabase<C> implements Database {
                 state.setStatus(StateStatus.SAVED);
                 state.fireTrigger(new AfterSaveTrigger());
             }
+
+            RecalculationQueueTask.enqueue(validates);
         }
 
         if (hasDeletes) {
@@ -28,7 +28,8 @@ public class AsyncDatabaseWriter<E> extends AsyncConsumer<E> {
     /**
      * Creates a new instance that runs in the given {@code executor},
      * consumes items from the given {@code input} queue, and writes
-     * them to the given {@code database}.
+     * them to the given {@code database}. Items are removed from the
+     * queue in batches of up to {@code commitSize}.
      *
      * @param executor If {@code null}, uses the default executor.
      * @param input Can't be {@code null}.
@@ -62,6 +63,8 @@ public class AsyncDatabaseWriter<E> extends AsyncConsumer<E> {
         this.operation = operation;
         this.commitSize = commitSize;
         this.isCommitEventually = isCommitEventually;
+
+        setBatchSize(commitSize);
     }
 
     /**
@@ -2,8 +2,6 @@ package com.psddev.dari.db;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -12,8 +10,6 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -78,10 +74,7 @@ public class BootstrapDebugServlet extends HttpServlet {
                     String filename = "bootstrap." + StringUtils.toNormalized(projectName) + "." + StringUtils.toNormalized(pkgName) + "." + new DateTime().toString("yyyyMMdd.HHmm") + ".txt.gz";
                     response.setHeader("Content-Disposition", "attachment; filename=" + filename);
                     try {
-                        GZIPOutputStream gzOut = new GZIPOutputStream(response.getOutputStream());
-                        Writer outputWriter = new OutputStreamWriter(gzOut);
-                        BootstrapPackage.Static.writeContents(selectedDatabase, pkg, additionalTypes, outputWriter, projectName);
-                        gzOut.finish();
+                        BootstrapPackage.Static.writeContents(selectedDatabase, pkg, additionalTypes, response.getOutputStream(), projectName);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -115,14 +108,8 @@ public class BootstrapDebugServlet extends HttpServlet {
                                     commitSize = 1;
                                 }
 
-                                String contentType = file.getContentType();
                                 String fileName = file.getName();
-                                InputStream input = file.getInputStream();
-                                InputStream fileInput = input;
-
-                                if ((contentType != null && ("application/x-gzip".equals(contentType) || "application/gzip".equals(contentType))) || (fileName != null && fileName.endsWith(".gz"))) {
-                                    fileInput = new GZIPInputStream(input);
-                                }
+                                InputStream fileInput = file.getInputStream();
                                 boolean deleteFirst = false;
 
                                 if (action.equals(DELETE_AND_IMPORT_BUTTON_TEXT)) {
@@ -0,0 +1,379 @@
+package com.psddev.dari.db;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Task;
+import com.psddev.dari.util.TaskExecutor;
+
+/**
+ * Writes the records of a {@link BootstrapPackage} in a pipeline.
+ *
+ * <p>Each query is split into partitions by ID ranges, which are read and
+ * serialized to JSON by a pool of readers, and then written in order by
+ * this task, so that the output is the same as when it's written
+ * serially. Only a few partitions are read ahead of the writer at a time
+ * to bound the memory use.</p>
+ *
+ * <p>The referenced records are deduplicated by the writer across all
+ * partitions of the same type, just like in a serial export, so that the
+ * readers don't need to share any state.</p>
+ */
+class BootstrapExportTask extends Task {
+
+    public static final String EXECUTOR_PREFIX = "Bootstrap Export";
+    public static final String READER_EXECUTOR_PREFIX = EXECUTOR_PREFIX + " Readers";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapExportTask.class);
+
+    private static final int MAX_SEEN_REFERENCE_IDS_SIZE = 100000;
+    private static final int CHUNK_SIZE = 100;
+    private static final int CHUNK_QUEUE_SIZE = 16;
+    private static final Chunk END = new Chunk(null, null);
+
+    private final Database database;
+    private final Writer writer;
+    private final Long rowCount;
+    private final Map<UUID, Map<String, ObjectType>> followReferences;
+    private final List<Source> sources = new ArrayList<Source>();
+
+    public BootstrapExportTask(Database database, String packageName, Writer writer, Long rowCount, Map<UUID, Map<String, ObjectType>> followReferences) {
+        super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + packageName);
+        this.database = database;
+        this.writer = writer;
+        this.rowCount = rowCount;
+        this.followReferences = followReferences;
+    }
+
+    /**
+     * Adds the given {@code query} to be exported after all queries that
+     * were added before.
+     *
+     * @param partitioned If {@code true}, the query is split into ID
+     *        ranges that are read in parallel.
+     */
+    public void addQuery(Query<?> query, boolean partitioned) {
+        sources.add(new Source(query, partitioned));
+    }
+
+    /**
+     * Runs this task in the export executor, so that its progress can be
+     * seen in {@link com.psddev.dari.util.TaskDebugServlet}, and waits for
+     * it to finish.
+     */
+    public void export() throws IOException {
+        submit();
+
+        try {
+            getFuture().get();
+
+        } catch (InterruptedException error) {
+            stop();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+
+        } catch (ExecutionException error) {
+            throw new IOException(error.getCause());
+        }
+
+        Throwable error = getLastException();
+
+        if (error instanceof IOException) {
+            throw (IOException) error;
+
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+    }
+
+    @Override
+    protected void doTask() throws IOException {
+        if (rowCount != null) {
+            setProgressTotal(rowCount);
+        }
+
+        List<Query<?>> partitions = new ArrayList<Query<?>>();
+
+        for (Source source : sources) {
+            if (source.partitioned) {
+                partitions.addAll(partition(source.query));
+
+            } else {
+                partitions.add(source.query);
+            }
+        }
+
+        int threads = Settings.getOrDefault(int.class, BootstrapPackage.Static.EXPORT_THREADS_SETTING, Runtime.getRuntime().availableProcessors());
+        TaskExecutor readers = TaskExecutor.Static.getInstance(READER_EXECUTOR_PREFIX);
+        List<BlockingQueue<Chunk>> queues = new ArrayList<BlockingQueue<Chunk>>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        int size = partitions.size();
+
+        LOGGER.info("Exporting [{}] partitions with [{}] readers", size, threads);
+
+        UUID lastTypeId = null;
+        Set<UUID> seenIds = new HashSet<UUID>();
+
+        try {
+            for (int i = 0; i < size && shouldContinue(); ++ i) {
+
+                // Keep the readers ahead of the writer.
+                for (int next = futures.size(), limit = Math.min(size, i + Math.max(threads, 1)); next < limit; ++ next) {
+                    Query<?> partition = partitions.get(next);
+                    BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(CHUNK_QUEUE_SIZE);
+
+                    queues.add(queue);
+                    futures.add(readers.submit(() -> read(partition, queue)));
+                }
+
+                setProgress("Writing partition " + (i + 1) + " of " + size);
+
+                BlockingQueue<Chunk> queue = queues.get(i);
+
+                for (Chunk chunk; (chunk = queue.take()) != END;) {
+                    if (chunk.error != null) {
+                        throw new IOException(chunk.error);
+                    }
+
+                    int rows = 0;
+
+                    for (Line line : chunk.lines) {
+                        if (line.referenceId == null) {
+                            if (!line.typeId.equals(lastTypeId) || seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
+                                seenIds.clear();
+                            }
+
+                            lastTypeId = line.typeId;
+
+                        } else if (!seenIds.add(line.referenceId)) {
+                            continue;
+                        }
+
+                        writer.write(line.json);
+                        writer.write('\n');
+                        ++ rows;
+                    }
+
+                    addProgressIndex(rows);
+                }
+
+                queues.set(i, null);
+            }
+
+            writer.flush();
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // Splits the given query into ID ranges that contain about the
+    // configured number of rows each.
+    private List<Query<?>> partition(Query<?> query) {
+        List<Query<?>> partitions = new ArrayList<Query<?>>();
+        long partitionSize = Math.max(1L, Settings.getOrDefault(long.class, BootstrapPackage.Static.EXPORT_PARTITION_SIZE_SETTING, 10000L));
+        List<UUID> boundaries = new ArrayList<UUID>();
+
+        // Walks the IDs by seeking past the previous boundary, so that
+        // each step only skips over one partition's worth of rows.
+        try {
+            for (UUID boundary = null; shouldContinue();) {
+                Query<?> next = query.clone()
+                        .noCache()
+                        .referenceOnly()
+                        .resolveToReferenceOnly()
+                        .sortAscending("_id");
+
+                if (boundary != null) {
+                    next.and("_id > ?", boundary);
+                }
+
+                List<?> items = next.select(partitionSize - 1, 1).getItems();
+                Object item = items.isEmpty() ? null : items.get(0);
+
+                if (!(item instanceof Recordable)) {
+                    break;
+                }
+
+                boundary = ((Recordable) item).getState().getId();
+
+                boundaries.add(boundary);
+            }
+
+        } catch (RuntimeException error) {
+            // Boundary query timed out, so just read it serially.
+            partitions.add(query);
+            return partitions;
+        }
+
+        UUID lower = null;
+
+        for (UUID upper : boundaries) {
+            Query<?> partition = query.clone().and("_id <= ?", upper);
+
+            if (lower != null) {
+                partition.and("_id > ?", lower);
+            }
+
+            partitions.add(partition);
+            lower = upper;
+        }
+
+        partitions.add(lower != null ? query.clone().and("_id > ?", lower) : query);
+        return partitions;
+    }
+
+    // Reads and serializes all records in the given partition into
+    // chunks of rows.
+    private void read(Query<?> partition, BlockingQueue<Chunk> queue) {
+        try {
+            List<Line> lines = new ArrayList<Line>();
+            UUID lastTypeId = null;
+            Set<UUID> seenIds = new HashSet<UUID>();
+
+            for (Object o : partition.clone().noCache().resolveToReferenceOnly().iterable(100)) {
+                if (!(o instanceof Recordable)) {
+                    continue;
+                }
+
+                State state = ((Recordable) o).getState();
+                UUID typeId = state.getTypeId();
+
+                lines.add(new Line(typeId, null, ObjectUtils.toJson(state.getSimpleValues(true))));
+
+                Map<String, ObjectType> followReferencesFieldMap = followReferences.get(typeId);
+
+                if (followReferencesFieldMap != null) {
+                    if (!typeId.equals(lastTypeId) || seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
+                        seenIds.clear();
+                    }
+
+                    lastTypeId = typeId;
+                    appendReferences(state, followReferencesFieldMap, seenIds, lines);
+                }
+
+                if (lines.size() >= CHUNK_SIZE) {
+                    queue.put(new Chunk(lines, null));
+                    lines = new ArrayList<Line>();
+                }
+            }
+
+            if (!lines.isEmpty()) {
+                queue.put(new Chunk(lines, null));
+            }
+
+            queue.put(END);
+
+        } catch (InterruptedException error) {
+            // Writer stopped, so there's no one to read the rest.
+
+        } catch (Throwable error) {
+            queue.clear();
+            queue.offer(new Chunk(null, error));
+        }
+    }
+
+    // Appends the records that the fields in the given map refer to. The
+    // given seenIds only avoids querying for them again in this partition,
+    // and the writer does the actual deduplication.
+    private void appendReferences(State state, Map<String, ObjectType> followReferencesFieldMap, Set<UUID> seenIds, List<Line> lines) {
+        UUID typeId = state.getTypeId();
+
+        for (Map.Entry<String, ObjectType> entry : followReferencesFieldMap.entrySet()) {
+            Object reference = state.getRawValue(entry.getKey());
+            Set<UUID> referenceIds = new HashSet<UUID>();
+
+            if (reference instanceof Collection) {
+                for (Object referenceObj : ((Collection<?>) reference)) {
+                    if (referenceObj instanceof Recordable) {
+                        UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) referenceObj).getState().getId());
+                        if (referenceUUID != null && !seenIds.contains(referenceUUID)) {
+                            referenceIds.add(referenceUUID);
+                        }
+                    }
+                }
+
+            } else if (reference instanceof Recordable) {
+                UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) reference).getState().getId());
+                if (referenceUUID != null && !seenIds.contains(referenceUUID)) {
+                    referenceIds.add(referenceUUID);
+                }
+            }
+
+            if (!referenceIds.isEmpty()) {
+                for (Object ref : Query.fromType(entry.getValue()).noCache().using(database).where("_id = ?", referenceIds).selectAll()) {
+                    if (ref instanceof Recordable) {
+                        Recordable refr = (Recordable) ref;
+                        UUID refId = refr.getState().getId();
+
+                        seenIds.add(refId);
+                        lines.add(new Line(typeId, refId, ObjectUtils.toJson(refr.getState().getSimpleValues(true))));
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Source {
+
+        public final Query<?> query;
+        public final boolean partitioned;
+
+        public Source(Query<?> query, boolean partitioned) {
+            this.query = query;
+            this.partitioned = partitioned;
+        }
+    }
+
+    private static class Chunk {
+
+        public final List<Line> lines;
+        public final Throwable error;
+
+        public Chunk(List<Line> lines, Throwable error) {
+            this.lines = lines;
+            this.error = error;
+        }
+    }
+
+    private static class Line {
+
+        public final UUID typeId;
+        public final UUID referenceId;
+        public final String json;
+
+        // The given typeId is of the record that's being exported, even
+        // for the lines of the records that it refers to.
+        public Line(UUID typeId, UUID referenceId, String json) {
+            this.typeId = typeId;
+            this.referenceId = referenceId;
+            this.json = json;
+        }
+    }
+}
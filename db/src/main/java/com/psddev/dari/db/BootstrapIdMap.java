@@ -0,0 +1,103 @@
+package com.psddev.dari.db;
+
+import java.util.UUID;
+
+/**
+ * Map of remote to local IDs used by {@link BootstrapImportTask} that
+ * stores the IDs in primitive arrays, so that it doesn't create any
+ * objects per entry even when millions of IDs are translated.
+ */
+class BootstrapIdMap {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys = new long[INITIAL_CAPACITY * 2];
+    private long[] values = new long[INITIAL_CAPACITY * 2];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // Returns the slot that contains the given key, or the empty slot
+    // where it should be put.
+    private int findSlot(long msb, long lsb) {
+        int mask = used.length - 1;
+
+        for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+            if (!used[slot]
+                    || (keys[slot * 2] == msb
+                    && keys[slot * 2 + 1] == lsb)) {
+
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Returns the local ID that the given remote {@code id} translates to.
+     *
+     * @return May be {@code null}.
+     */
+    public UUID get(UUID id) {
+        int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+        return used[slot] ? new UUID(values[slot * 2], values[slot * 2 + 1]) : null;
+    }
+
+    /** Translates the given remote {@code id} to the given {@code localId}. */
+    public void put(UUID id, UUID localId) {
+        if ((size + 1) * 2 > used.length) {
+            resize();
+        }
+
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int slot = findSlot(msb, lsb);
+
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot * 2] = msb;
+            keys[slot * 2 + 1] = lsb;
+            ++ size;
+        }
+
+        values[slot * 2] = localId.getMostSignificantBits();
+        values[slot * 2 + 1] = localId.getLeastSignificantBits();
+    }
+
+    // Doubles the capacity to keep the load factor at or below 50%.
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        int capacity = oldUsed.length * 2;
+
+        keys = new long[capacity * 2];
+        values = new long[capacity * 2];
+        used = new boolean[capacity];
+
+        for (int i = 0, length = oldUsed.length; i < length; ++ i) {
+            if (oldUsed[i]) {
+                int slot = findSlot(oldKeys[i * 2], oldKeys[i * 2 + 1]);
+
+                used[slot] = true;
+                keys[slot * 2] = oldKeys[i * 2];
+                keys[slot * 2 + 1] = oldKeys[i * 2 + 1];
+                values[slot * 2] = oldValues[i * 2];
+                values[slot * 2 + 1] = oldValues[i * 2 + 1];
+            }
+        }
+    }
+}
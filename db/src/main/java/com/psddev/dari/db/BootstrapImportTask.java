@@ -1,24 +1,29 @@
 package com.psddev.dari.db;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.AsyncQueue;
+import com.psddev.dari.util.AsyncRingBuffer;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Task;
 import com.psddev.dari.util.TypeReference;
@@ -41,12 +46,20 @@ class BootstrapImportTask extends Task {
     private final List<AsyncDatabaseWriter<Record>> deleters = new ArrayList<AsyncDatabaseWriter<Record>>();
     private AsyncQueue<Record> deleteQueue;
     private final Map<UUID, ObjectType> unknownTypes = new HashMap<UUID, ObjectType>();
-    private boolean needsTranslation;
     private final Pattern uuidPattern = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", Pattern.CASE_INSENSITIVE);
-    private final Map<UUID, UUID> remoteToLocalIdMap = new HashMap<UUID, UUID>();
-    private final Map<String, String> remoteToLocalIdStringMap = new HashMap<String, String>();
+    private final BootstrapIdMap remoteToLocalIdMap = new BootstrapIdMap();
+    private int translationVersion;
+    private ObjectType objType;
+    private final Set<String> typeNames = new HashSet<String>();
+    private boolean isAllTypes;
+    private final Map<String, String> typeMapTypeFields = new HashMap<String, String>();
+    private int numRows;
     private static final TypeReference<Map<String, Object>> MAP_STRING_OBJECT_TYPE = new TypeReference<Map<String, Object>>() { };
 
+    // Number of rows that are read ahead so that their unique values can
+    // be looked up together.
+    private static final int WINDOW_SIZE = 500;
+
     public BootstrapImportTask(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize) {
         super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + filename);
         this.database = database;
@@ -56,9 +69,9 @@ class BootstrapImportTask extends Task {
         this.numWriters = numWriters;
         this.commitSize = commitSize;
         this.queueSize = numWriters * commitSize;
-        this.saveQueue = new AsyncQueue<Record>(new ArrayBlockingQueue<Record>(queueSize));
+        this.saveQueue = new AsyncQueue<Record>(new AsyncRingBuffer<Record>(queueSize));
         if (deleteFirst) {
-            this.deleteQueue = new AsyncQueue<Record>(new ArrayBlockingQueue<Record>(queueSize));
+            this.deleteQueue = new AsyncQueue<Record>(new AsyncRingBuffer<Record>(queueSize));
         }
     }
 
@@ -79,7 +92,7 @@ class BootstrapImportTask extends Task {
             tasks.addAll(deleters);
             tasks.addAll(savers);
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(fileInputStream));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(decompress(fileInputStream), StandardCharsets.UTF_8));
             String line;
             // get headers
             // read leading blank lines
@@ -113,9 +126,6 @@ class BootstrapImportTask extends Task {
             }
             UUID localObjTypeId = database.getEnvironment().getTypeByClass(ObjectType.class).getId();
             UUID globalsId = new UUID(-1L, -1L);
-            Set<String> typeNames = new HashSet<String>();
-            boolean isAllTypes = false;
-            Map<String, String> typeMapTypeFields = new HashMap<String, String>();
             if (headers.get(BootstrapPackage.Static.TYPES_HEADER).trim().equals(BootstrapPackage.Static.ALL_TYPES_HEADER_VALUE)) {
                 isAllTypes = true;
                 if (deleteFirst) {
@@ -197,9 +207,8 @@ class BootstrapImportTask extends Task {
                 }
             }
             LOGGER.info("Importing data from " + filename + " . . . ");
-            int numRows = 0;
-            boolean afterObjectTypes = false;
-            ObjectType objType = database.getEnvironment().getTypeByClass(ObjectType.class);
+            objType = database.getEnvironment().getTypeByClass(ObjectType.class);
+            List<String> window = new ArrayList<String>(WINDOW_SIZE);
             while (null != (line = reader.readLine())) {
                 if (!shouldContinue()) {
                     break;
@@ -214,92 +223,15 @@ class BootstrapImportTask extends Task {
                 if (!line.startsWith("{") || !line.endsWith("}")) {
                     throw new RuntimeException("Invalid line in input file: " + line);
                 }
-                line = translateIds(line);
-                Map<String, Object> stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                UUID globalId = new UUID(-1L, -1L);
-                UUID zeroTypeId = new UUID(0L, 0L);
-                try {
-                    UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
-                    if (id == null) {
-                        LOGGER.error("Invalid line in input file: " + line);
-                        continue;
-                    }
-                    if (id.equals(globalId)) {
-                        LOGGER.debug("Not importing " + globalId);
-                        continue;
-                    }
-                    ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
-                    if (type == null) {
-                        if (zeroTypeId.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
-                            LOGGER.debug("Not importing type " + zeroTypeId);
-                        } else {
-                            LOGGER.error("Unknown type in line: " + line);
-                        }
-                        continue;
-                    }
-                    Record record = null;
-                    if (!objType.equals(type)) {
-                        for (ObjectIndex index : type.getIndexes()) {
-                            if (index.isUnique()) {
-                                Object uniqueValue = stateMap.get(index.getField());
-                                if (!ObjectUtils.isBlank(uniqueValue)) {
-                                    record = (Record) Query.fromAll().using(database).noCache().where(index.getUniqueName() + " = ?", uniqueValue).first();
-                                    if (record != null) {
-                                        addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), record.getId());
-                                        stateMap.put("_id", record.getId());
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (record == null) {
-                        Object obj = type.createObject(id);
-                        if (obj instanceof Record) {
-                            record = (Record) obj;
-                        } else {
-                            LOGGER.error("Unknown type in line: " + line);
-                            continue;
-                        }
-                    }
-
-                    if (!afterObjectTypes && !objType.equals(type)) {
-                        afterObjectTypes = true;
-                        // this is the first line after all of the objectTypes, potentially need to re-parse it.
-                        prepareIdTranslation();
-                        line = translateIds(line);
-                        stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                    }
-
-                    if ((typeMapTypeFields.containsKey(ObjectUtils.to(String.class, stateMap.get("_type"))) || objType.equals(type)) && record.getState().isNew()) {
-                        String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
-                        Object localObj;
-                        if (objType.equals(type)) {
-                            localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
-                        } else {
-                            localObj = Query.fromType(type).where(typeMapField + " = ?", ObjectUtils.to(String.class, stateMap.get(typeMapField))).first();
-                        }
-                        if (localObj instanceof Recordable) {
-                            UUID localId = ((Recordable) localObj).getState().getId();
-                            addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), localId);
-                            stateMap.put("_id", localId);
-                        }
-                        if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
-                            record.getState().setResolveToReferenceOnly(true);
-                            record.getState().setValues(stateMap);
-                            saveQueue.add(record);
-                        }
-                    } else {
-                        record.getState().setResolveToReferenceOnly(true);
-                        record.getState().setValues(stateMap);
-                        saveQueue.add(record);
-                    }
-
-                    setProgressIndex(++numRows);
-                } catch (RuntimeException t) {
-                    LOGGER.error("Error when saving state at " + stateMap.get("_id") + ": ", t);
+                window.add(line);
+                if (window.size() >= WINDOW_SIZE) {
+                    importWindow(window);
+                    window.clear();
                 }
             }
+            if (!window.isEmpty() && shouldContinue()) {
+                importWindow(window);
+            }
         } catch (RuntimeException e) {
             for (Task task : tasks) {
                 task.stop();
@@ -337,21 +269,207 @@ class BootstrapImportTask extends Task {
         }
     }
 
-    private void prepareIdTranslation() {
-        needsTranslation = !remoteToLocalIdMap.isEmpty();
-        for (Map.Entry<UUID, UUID> entry : remoteToLocalIdMap.entrySet()) {
-            remoteToLocalIdStringMap.put(entry.getKey().toString(), entry.getValue().toString());
+    // Detects the gzip-compressed output of BootstrapPackage.Static#writeContents
+    // by its magic number, so that it can be imported as is.
+    private static InputStream decompress(InputStream input) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input);
+
+        bufferedInput.mark(2);
+
+        int magic = bufferedInput.read() | (bufferedInput.read() << 8);
+
+        bufferedInput.reset();
+
+        return magic == GZIPInputStream.GZIP_MAGIC
+                ? new GZIPInputStream(bufferedInput, 65536)
+                : bufferedInput;
+    }
+
+    // Imports all rows in the given window. The rows are parsed up front
+    // so that the unique values can be looked up with one query per index
+    // instead of one query per row.
+    private void importWindow(List<String> lines) {
+        List<Row> rows = new ArrayList<Row>(lines.size());
+        Map<String, ObjectIndex> uniqueIndexes = new HashMap<String, ObjectIndex>();
+        Map<String, Set<String>> uniqueValues = new HashMap<String, Set<String>>();
+        Map<ObjectType, Set<String>> typeMapValues = new HashMap<ObjectType, Set<String>>();
+
+        for (String line : lines) {
+            Row row = new Row(line);
+            Map<String, Object> stateMap = row.getStateMap();
+            ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
+
+            rows.add(row);
+
+            if (type == null || objType.equals(type)) {
+                continue;
+            }
+
+            for (ObjectIndex index : type.getIndexes()) {
+                if (index.isUnique()) {
+                    Object uniqueValue = stateMap.get(index.getField());
+
+                    if (uniqueValue instanceof String && !ObjectUtils.isBlank(uniqueValue)) {
+                        uniqueIndexes.put(index.getUniqueName(), index);
+                        uniqueValues.computeIfAbsent(index.getUniqueName(), k -> new LinkedHashSet<String>()).add((String) uniqueValue);
+                    }
+                }
+            }
+
+            String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
+
+            if (typeMapField != null) {
+                String typeMapValue = ObjectUtils.to(String.class, stateMap.get(typeMapField));
+
+                if (typeMapValue != null) {
+                    typeMapValues.computeIfAbsent(type, k -> new LinkedHashSet<String>()).add(typeMapValue);
+                }
+            }
+        }
+
+        Map<String, Matches<Record>> uniqueMatches = new HashMap<String, Matches<Record>>();
+
+        for (Map.Entry<String, Set<String>> entry : uniqueValues.entrySet()) {
+            String uniqueName = entry.getKey();
+            ObjectIndex index = uniqueIndexes.get(uniqueName);
+            String field = index.getField();
+            Matches<Record> matches = new Matches<Record>(entry.getValue(), index.isCaseSensitive());
+
+            for (Object item : Query.fromAll().using(database).noCache().where(uniqueName + " = ?", new ArrayList<String>(entry.getValue())).selectAll()) {
+                if (item instanceof Record) {
+                    matches.put(((Record) item).getState().getRawValue(field), (Record) item);
+                }
+            }
+
+            uniqueMatches.put(uniqueName, matches);
+        }
+
+        Map<ObjectType, Matches<Object>> typeMapMatches = new HashMap<ObjectType, Matches<Object>>();
+
+        for (Map.Entry<ObjectType, Set<String>> entry : typeMapValues.entrySet()) {
+            ObjectType type = entry.getKey();
+            String typeMapField = typeMapTypeFields.get(type.getInternalName());
+            ObjectIndex index = type.getIndex(typeMapField);
+            Matches<Object> matches = new Matches<Object>(entry.getValue(), index == null || index.isCaseSensitive());
+
+            for (Object item : Query.fromType(type).where(typeMapField + " = ?", new ArrayList<String>(entry.getValue())).selectAll()) {
+                if (item instanceof Recordable) {
+                    matches.put(((Recordable) item).getState().getRawValue(typeMapField), item);
+                }
+            }
+
+            typeMapMatches.put(type, matches);
+        }
+
+        List<Record> records = new ArrayList<Record>(rows.size());
+
+        for (Row row : rows) {
+            importRow(row, uniqueMatches, typeMapMatches, records);
+        }
+
+        saveQueue.addAll(records);
+    }
+
+    private void importRow(Row row, Map<String, Matches<Record>> uniqueMatches, Map<ObjectType, Matches<Object>> typeMapMatches, List<Record> records) {
+        String line = row.getLine();
+        Map<String, Object> stateMap = row.getStateMap();
+        UUID globalId = new UUID(-1L, -1L);
+        UUID zeroTypeId = new UUID(0L, 0L);
+        try {
+            UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
+            if (id == null) {
+                LOGGER.error("Invalid line in input file: " + line);
+                return;
+            }
+            if (id.equals(globalId)) {
+                LOGGER.debug("Not importing " + globalId);
+                return;
+            }
+            ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
+            if (type == null) {
+                if (zeroTypeId.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
+                    LOGGER.debug("Not importing type " + zeroTypeId);
+                } else {
+                    LOGGER.error("Unknown type in line: " + line);
+                }
+                return;
+            }
+            Record record = null;
+            if (!objType.equals(type)) {
+                for (ObjectIndex index : type.getIndexes()) {
+                    if (index.isUnique()) {
+                        Object uniqueValue = stateMap.get(index.getField());
+                        if (!ObjectUtils.isBlank(uniqueValue)) {
+                            Matches<Record> matches = uniqueMatches.get(index.getUniqueName());
+                            if (matches != null && matches.isQueried(uniqueValue)) {
+                                record = matches.get((String) uniqueValue);
+                            } else {
+                                record = (Record) Query.fromAll().using(database).noCache().where(index.getUniqueName() + " = ?", uniqueValue).first();
+                            }
+                            if (record != null) {
+                                addTranslatedId(id, record.getId());
+                                // re-parse so that the references to itself are translated too.
+                                stateMap = row.getStateMap();
+                                stateMap.put("_id", record.getId());
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            if (record == null) {
+                Object obj = type.createObject(id);
+                if (obj instanceof Record) {
+                    record = (Record) obj;
+                } else {
+                    LOGGER.error("Unknown type in line: " + line);
+                    return;
+                }
+            }
+
+            if ((typeMapTypeFields.containsKey(ObjectUtils.to(String.class, stateMap.get("_type"))) || objType.equals(type)) && record.getState().isNew()) {
+                String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
+                Object localObj;
+                if (objType.equals(type)) {
+                    localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
+                } else {
+                    String typeMapValue = ObjectUtils.to(String.class, stateMap.get(typeMapField));
+                    Matches<Object> matches = typeMapMatches.get(type);
+                    if (matches != null && matches.isQueried(typeMapValue)) {
+                        localObj = matches.get(typeMapValue);
+                    } else {
+                        localObj = Query.fromType(type).where(typeMapField + " = ?", typeMapValue).first();
+                    }
+                }
+                if (localObj instanceof Recordable) {
+                    UUID localId = ((Recordable) localObj).getState().getId();
+                    addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), localId);
+                    stateMap.put("_id", localId);
+                }
+                if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
+                    record.getState().setResolveToReferenceOnly(true);
+                    record.getState().setValues(stateMap);
+                    records.add(record);
+                }
+            } else {
+                record.getState().setResolveToReferenceOnly(true);
+                record.getState().setValues(stateMap);
+                records.add(record);
+            }
+
+            setProgressIndex(++numRows);
+        } catch (RuntimeException t) {
+            LOGGER.error("Error when saving state at " + stateMap.get("_id") + ": ", t);
         }
     }
 
     private void addTranslatedId(UUID fromId, UUID toId) {
-        needsTranslation = true;
         remoteToLocalIdMap.put(fromId, toId);
-        remoteToLocalIdStringMap.put(fromId.toString(), toId.toString());
+        ++ translationVersion;
     }
 
     private String translateIds(String line) {
-        if (!needsTranslation) {
+        if (remoteToLocalIdMap.isEmpty()) {
             return line;
         }
         StringBuilder newLine = new StringBuilder();
@@ -363,8 +481,8 @@ class BootstrapImportTask extends Task {
             int end = idMatcher.end();
             newLine.append(line.substring(cursor, start));
             String remoteId = line.substring(start, end);
-            String localId;
-            if ((localId = remoteToLocalIdStringMap.get(remoteId)) != null) {
+            UUID localId;
+            if ((localId = remoteToLocalIdMap.get(UUID.fromString(remoteId))) != null) {
                 found = true;
                 newLine.append(localId);
             } else {
@@ -372,7 +490,7 @@ class BootstrapImportTask extends Task {
             }
             cursor = end;
             ObjectType unknownType;
-            if (localId != null && (unknownType = unknownTypes.remove(UUID.fromString(localId))) != null) {
+            if (localId != null && (unknownType = unknownTypes.remove(localId)) != null) {
                 saveQueue.add(unknownType);
             }
         }
@@ -384,4 +502,86 @@ class BootstrapImportTask extends Task {
         }
     }
 
+    // Row that's been read ahead and parsed with the IDs that were
+    // translated at the time. It's re-parsed if more IDs have been
+    // translated since.
+    private class Row {
+
+        private final String line;
+        private Map<String, Object> stateMap;
+        private int version;
+
+        public Row(String line) {
+            this.line = line;
+            parse();
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public Map<String, Object> getStateMap() {
+            if (version != translationVersion) {
+                parse();
+            }
+            return stateMap;
+        }
+
+        private void parse() {
+            version = translationVersion;
+            stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(translateIds(line)));
+        }
+    }
+
+    // Objects found by one of the batched queries, keyed by the values
+    // that they were queried with.
+    static class Matches<T> {
+
+        private final Set<String> values;
+        private final boolean caseSensitive;
+        private final Map<String, T> exact = new HashMap<String, T>();
+        private final Map<String, T> folded = new HashMap<String, T>();
+
+        public Matches(Set<String> values, boolean caseSensitive) {
+            this.values = values;
+            this.caseSensitive = caseSensitive;
+        }
+
+        // Returns true if the given value was part of the query, so that
+        // a missing match means that there's no such object.
+        public boolean isQueried(Object value) {
+            return value instanceof String && values.contains(value);
+        }
+
+        public void put(Object value, T match) {
+            if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) {
+                    put(item, match);
+                }
+
+            } else {
+                String string = ObjectUtils.to(String.class, value);
+
+                if (string != null) {
+                    exact.put(string, match);
+
+                    if (!caseSensitive) {
+                        folded.putIfAbsent(fold(string), match);
+                    }
+                }
+            }
+        }
+
+        // Falls back to the folded value if the index compares the values
+        // case-insensitively.
+        public T get(String value) {
+            T match = exact.get(value);
+
+            return match != null || caseSensitive ? match : folded.get(fold(value));
+        }
+
+        private static String fold(String value) {
+            return value.trim().toLowerCase(Locale.ENGLISH);
+        }
+    }
 }
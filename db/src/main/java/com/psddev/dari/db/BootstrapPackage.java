@@ -1,10 +1,13 @@
 package com.psddev.dari.db;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,6 +16,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import org.joda.time.DateTime;
 
@@ -145,7 +149,21 @@ public class BootstrapPackage extends Record {
         public static final String ROW_COUNT_HEADER = "Row Count";
         public static final String ALL_TYPES_HEADER_VALUE = "ALL";
 
-        private static final int MAX_SEEN_REFERENCE_IDS_SIZE = 100000;
+        private static final int GZIP_BUFFER_SIZE = 65536;
+
+        /**
+         * Setting key for the number of threads that read the records in
+         * parallel during {@link #writeContents}. Defaults to the number of
+         * processors.
+         */
+        public static final String EXPORT_THREADS_SETTING = "dari/bootstrapExportThreads";
+
+        /**
+         * Setting key for the approximate number of records in each ID
+         * range that's read by one thread during {@link #writeContents}.
+         * Defaults to {@code 10000}.
+         */
+        public static final String EXPORT_PARTITION_SIZE_SETTING = "dari/bootstrapExportPartitionSize";
 
         public static BootstrapPackage getPackage(Database database, String name) {
             return getPackagesMap(database).get(name);
@@ -261,6 +279,19 @@ public class BootstrapPackage extends Record {
             return allTypes;
         }
 
+        /**
+         * Writes the contents of the given {@code pkg} to the given
+         * {@code output} as gzip-compressed text, which can be read back
+         * by {@link #importContents} as is.
+         */
+        public static void writeContents(Database database, BootstrapPackage pkg, Set<ObjectType> additionalTypes, OutputStream output, String projectName) throws IOException {
+            GZIPOutputStream gzipOutput = new GZIPOutputStream(output, GZIP_BUFFER_SIZE);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzipOutput, StandardCharsets.UTF_8), GZIP_BUFFER_SIZE);
+
+            writeContents(database, pkg, additionalTypes, writer, projectName);
+            gzipOutput.finish();
+        }
+
         public static void writeContents(Database database, BootstrapPackage pkg, Set<ObjectType> additionalTypes, Writer writer, String projectName) throws IOException {
             boolean first = true;
             boolean needsObjectTypeMap = false;
@@ -438,20 +469,16 @@ public class BootstrapPackage extends Record {
             writer.write('\n');
             writer.flush();
 
+            BootstrapExportTask exporter = new BootstrapExportTask(database, pkg.getName(), writer, count, followReferences);
+
             // ObjectType records first
             if (exportTypes.isEmpty() || exportTypes.contains(objType) || needsObjectTypeMap) {
-                for (Object r : Query.fromType(objType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
-                    writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
-                    writer.write('\n');
-                }
+                exporter.addQuery(Query.fromType(objType).using(database), false);
             }
 
             // Then other mapping types
             for (ObjectType typeMapType : typeMaps) {
-                for (Object r : Query.fromType(typeMapType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
-                    writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
-                    writer.write('\n');
-                }
+                exporter.addQuery(Query.fromType(typeMapType).using(database), false);
             }
 
             // Then everything else
@@ -459,67 +486,16 @@ public class BootstrapPackage extends Record {
                 concreteTypeIds.clear(); // should already be empty
                 concreteTypeIds.add(null);
             }
-            UUID lastTypeId = null;
-            Set<UUID> seenIds = new HashSet<UUID>();
             query.getOptions().put(SqlDatabase.USE_JDBC_FETCH_SIZE_QUERY_OPTION, false);
             for (UUID typeId : concreteTypeIds) {
                 Query<?> concreteQuery = query.clone();
                 if (typeId != null) {
                     concreteQuery.where("_type = ?", typeId);
                 }
-                for (Object o : concreteQuery.noCache().resolveToReferenceOnly().iterable(100)) {
-                    if (o instanceof Recordable) {
-                        Recordable r = (Recordable) o;
-                        writer.write(ObjectUtils.toJson(r.getState().getSimpleValues(true)));
-                        writer.write('\n');
-                        if (!pkg.isInit()) {
-                            if (lastTypeId == null || !lastTypeId.equals(r.getState().getTypeId())) {
-                                seenIds.clear();
-                            } else if (seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
-                                seenIds.clear();
-                            }
-                            lastTypeId = r.getState().getTypeId();
-                            Map<String, ObjectType> followReferencesFieldMap;
-                            if ((followReferencesFieldMap = followReferences.get(r.getState().getTypeId())) != null) {
-                                for (Map.Entry<String, ObjectType> entry : followReferencesFieldMap.entrySet()) {
-                                    Object reference = r.getState().getRawValue(entry.getKey());
-                                    Set<UUID> referenceIds = new HashSet<UUID>();
-                                    if (reference instanceof Collection) {
-                                        for (Object referenceObj : ((Collection<?>) reference)) {
-                                            if (referenceObj instanceof Recordable) {
-                                                UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) referenceObj).getState().getId());
-                                                if (referenceUUID != null) {
-                                                    if (!seenIds.contains(referenceUUID)) {
-                                                        referenceIds.add(referenceUUID);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    } else if (reference instanceof Recordable) {
-                                        UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) reference).getState().getId());
-                                        if (referenceUUID != null) {
-                                            if (!seenIds.contains(referenceUUID)) {
-                                                referenceIds.add(referenceUUID);
-                                            }
-                                        }
-                                    }
-                                    if (!referenceIds.isEmpty()) {
-                                        for (Object ref : Query.fromType(entry.getValue()).noCache().using(database).where("_id = ?", referenceIds).selectAll()) {
-                                            if (ref instanceof Recordable) {
-                                                Recordable refr = (Recordable) ref;
-                                                seenIds.add(refr.getState().getId());
-                                                writer.write(ObjectUtils.toJson(refr.getState().getSimpleValues(true)));
-                                                writer.write('\n');
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+                exporter.addQuery(concreteQuery, true);
             }
 
+            exporter.export();
             writer.flush();
         }
 
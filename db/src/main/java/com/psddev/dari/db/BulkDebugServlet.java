@@ -14,6 +14,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.psddev.dari.util.AsyncQueue;
+import com.psddev.dari.util.AsyncRingBuffer;
 import com.psddev.dari.util.DebugFilter;
 import com.psddev.dari.util.StringUtils;
 import com.psddev.dari.util.TaskExecutor;
@@ -59,7 +60,7 @@ public class BulkDebugServlet extends HttpServlet {
 
             if ("index".equals(action)) {
                 String executor = INDEXER_PREFIX + (selectedType != null ? selectedType.getInternalName() : "ALL");
-                AsyncQueue<Object> queue = new AsyncQueue<Object>();
+                AsyncQueue<Object> queue = new AsyncQueue<Object>(new AsyncRingBuffer<Object>(AsyncQueue.DEFAULT_QUEUE_CAPACITY));
                 Query<Object> query = Query
                         .fromType(selectedType)
                         .resolveToReferenceOnly();
@@ -83,7 +84,7 @@ public class BulkDebugServlet extends HttpServlet {
                 Database destination = Database.Static.getInstance(wp.param(String.class, "destination"));
 
                 String executor = COPIER_PREFIX + " from " + source + " to " + destination;
-                AsyncQueue<Object> queue = new AsyncQueue<Object>();
+                AsyncQueue<Object> queue = new AsyncQueue<Object>(new AsyncRingBuffer<Object>(AsyncQueue.DEFAULT_QUEUE_CAPACITY));
                 Query<Object> query = Query
                         .fromType(selectedType)
                         .resolveToReferenceOnly();
@@ -0,0 +1,27 @@
+package com.psddev.dari.db;
+
+/**
+ * Strategies for counting the number of objects that match a
+ * {@link Query}.
+ *
+ * @see Query#countStrategy
+ */
+public enum CountStrategy {
+
+    /** Counts all matching objects every time. */
+    EXACT,
+
+    /**
+     * Counts all matching objects, but reuses the count for the queries
+     * with the same shape for a short time, so it may be slightly stale.
+     */
+    CACHED,
+
+    /**
+     * Estimates the count using the database's statistics, such as the
+     * row estimates from the query planner, which is fast but may be
+     * wildly inaccurate. Falls back to {@link #CACHED} when the database
+     * can't estimate the count.
+     */
+    ESTIMATED
+}
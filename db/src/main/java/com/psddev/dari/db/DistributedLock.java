@@ -1,39 +1,238 @@
 package com.psddev.dari.db;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.TaskExecutor;
 import com.psddev.dari.util.UuidUtils;
 
-/** Enforces mutual exclusion across multiple VMs using a {@link Database}. */
+/**
+ * Enforces mutual exclusion across multiple VMs using a {@link Database}.
+ *
+ * <p>The threads within a VM first contend on a local lock that's shared
+ * by all instances for the same key, so that only one of them at a time
+ * talks to the database. The holder of the local lock then acquires a
+ * lease that's stored in the database and renewed in the background
+ * until it's unlocked. Waiting for a lease held by another VM is done by
+ * polling the database with an exponential backoff.</p>
+ */
 public class DistributedLock implements Lock {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DistributedLock.class);
     private static final long TIMEOUT = 10000;
     private static final long TRY_INTERVAL = 50L;
+    private static final long MAXIMUM_TRY_INTERVAL = 1000L;
+    private static final long RENEW_INTERVAL = TIMEOUT / 3;
+    private static final String HEARTBEAT_EXECUTOR = "Distributed Lock Heartbeats";
+
+    private static final LoadingCache<List<Object>, ReentrantLock> LOCAL_LOCKS = CacheBuilder
+            .newBuilder()
+            .weakValues()
+            .build(new CacheLoader<List<Object>, ReentrantLock>() {
+
+        @Override
+        public ReentrantLock load(List<Object> key) {
+            return new ReentrantLock();
+        }
+    });
 
     private final String lockId = UUID.randomUUID().toString();
     private final Database database;
     private final String keyString;
     private final UUID keyId;
+    private final UUID counterId;
+    private final ReentrantLock localLock;
     private final AtomicReference<Thread> holderRef = new AtomicReference<Thread>();
+    private volatile long fencingToken;
+    private volatile ScheduledFuture<?> heartbeat;
 
     protected DistributedLock(Database database, String key) {
         this.database = database;
         this.keyString = key;
         this.keyId = UuidUtils.fromBytes(StringUtils.md5(key));
+        this.counterId = UuidUtils.fromBytes(StringUtils.md5("lock/" + key));
+        this.localLock = LOCAL_LOCKS.getUnchecked(Arrays.asList(database, keyId));
+    }
+
+    /**
+     * Returns the fencing token of the lease that was last acquired by
+     * this lock. The tokens come from a counter that's stored in the
+     * database separately from the lease and never deleted, so they
+     * increase with every acquisition of the same key across all VMs,
+     * and can be used to reject the writes from a holder whose lease has
+     * expired.
+     *
+     * @return {@code 0} if this lock was never acquired.
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    private void checkReentrant() {
+        if (Thread.currentThread().equals(holderRef.get()) || localLock.isHeldByCurrentThread()) {
+            throw new ReentrantException();
+        }
+    }
+
+    // Waits a little while longer each time it's called, up to the
+    // maximum try interval.
+    private static long backOff(long interval) throws InterruptedException {
+        Thread.sleep(interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1));
+        return Math.min(interval * 2, MAXIMUM_TRY_INTERVAL);
+    }
+
+    private State findKey() {
+        return findById(keyId);
+    }
+
+    private State findById(UUID id) {
+        return State.getInstance(Query
+                .from(Object.class)
+                .where("_id = ?", id)
+                .using(database)
+                .noCache()
+                .master()
+                .first());
+    }
+
+    // Increments the counter that issues the fencing tokens. A new
+    // counter starts at the database time, so that it continues after
+    // the tokens that used to be based on the time.
+    private long nextFencingToken() {
+        State counter = findById(counterId);
+
+        if (counter == null) {
+            counter = new State();
+            counter.setDatabase(database);
+            counter.setId(counterId);
+            counter.put("keyString", keyString);
+            counter.put("fencingToken", database.now());
+        }
+
+        counter.incrementAtomically("fencingToken", 1);
+        counter.saveImmediately();
+
+        return ObjectUtils.to(long.class, counter.get("fencingToken"));
+    }
+
+    // Tries to acquire the lease in the database. Must be called while
+    // holding the local lock.
+    private boolean tryLease() {
+        State key = findKey();
+
+        if (key == null) {
+            key = new State();
+            key.setDatabase(database);
+            key.setId(keyId);
+            key.put("keyString", keyString);
+
+        } else {
+            if (key.get("lockId") == null
+                    || ObjectUtils.to(long.class, key.get("lastPing")) + TIMEOUT < database.now()) {
+                LOGGER.debug("Timeout exceeded: [{}]", this);
+            } else {
+                return false;
+            }
+        }
+
+        // Issued before the lease is saved, so that a holder that stalls
+        // after saving can't get a newer token than the next holder.
+        long token = nextFencingToken();
+
+        try {
+            key.replaceAtomically("lockId", lockId);
+            key.replaceAtomically("lastPing", database.now());
+            key.saveImmediately();
+
+        } catch (DatabaseException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof AtomicOperation.ReplacementException) {
+                LOGGER.debug("Stolen by a different VM: [{}]", this);
+                return false;
+            } else {
+                throw ex;
+            }
+        }
+
+        fencingToken = token;
+        holderRef.set(Thread.currentThread());
+        heartbeat = TaskExecutor.Static.getInstance(HEARTBEAT_EXECUTOR).scheduleWithFixedDelay(this::renew, RENEW_INTERVAL, RENEW_INTERVAL, TimeUnit.MILLISECONDS);
+        LOGGER.debug("Acquired [{}]", this);
+        return true;
+    }
+
+    // Tries to acquire the lease, and releases the local lock if that
+    // fails, so that the other threads in this VM can try.
+    private boolean tryLeaseOrUnlock() {
+        boolean acquired = false;
+
+        try {
+            acquired = tryLease();
+
+        } finally {
+            if (!acquired) {
+                localLock.unlock();
+            }
+        }
+
+        return acquired;
+    }
+
+    // Renews the lease in the background while this lock is held.
+    // Synchronized with #unlock so that the lease isn't saved again after
+    // it's deleted.
+    private void renew() {
+        synchronized (holderRef) {
+            if (holderRef.get() == null) {
+                return;
+            }
+
+            try {
+                State key = findKey();
+
+                if (key == null || !lockId.equals(key.get("lockId"))) {
+                    LOGGER.warn("Lost the lease on [{}]!", this);
+                    stopHeartbeat();
+                    return;
+                }
+
+                key.replaceAtomically("lockId", lockId);
+                key.replaceAtomically("lastPing", database.now());
+                key.saveImmediately();
+
+            } catch (RuntimeException error) {
+                LOGGER.warn(String.format("Can't renew the lease on [%s]!", this), error);
+            }
+        }
+    }
+
+    private void stopHeartbeat() {
+        ScheduledFuture<?> h = heartbeat;
+
+        if (h != null) {
+            h.cancel(false);
+            heartbeat = null;
+        }
     }
 
     // --- Lock support ---
@@ -46,15 +245,22 @@ public class DistributedLock implements Lock {
      */
     @Override
     public void lock() {
-        if (!tryLock()) {
+        checkReentrant();
+        localLock.lock();
+
+        if (!tryLeaseOrUnlock()) {
             LOGGER.debug("Waiting to acquire [{}]", this);
+
+            long interval = TRY_INTERVAL;
+
             do {
                 try {
-                    Thread.sleep(TRY_INTERVAL);
+                    interval = backOff(interval);
                 } catch (InterruptedException ex) {
                     // Ignore thread interruption and keep trying to lock.
                 }
-            } while (!tryLock());
+                localLock.lock();
+            } while (!tryLeaseOrUnlock());
         }
     }
 
@@ -66,11 +272,18 @@ public class DistributedLock implements Lock {
      */
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        if (!tryLock()) {
+        checkReentrant();
+        localLock.lockInterruptibly();
+
+        if (!tryLeaseOrUnlock()) {
             LOGGER.debug("Waiting to acquire [{}] interruptibly", this);
+
+            long interval = TRY_INTERVAL;
+
             do {
-                Thread.sleep(TRY_INTERVAL);
-            } while (!tryLock());
+                interval = backOff(interval);
+                localLock.lockInterruptibly();
+            } while (!tryLeaseOrUnlock());
         }
     }
 
@@ -82,57 +295,17 @@ public class DistributedLock implements Lock {
     /**
      * {@inheritDoc}
      *
+     * <p>Returns {@code false} without querying the database if another
+     * thread in this VM holds the lock.</p>
+     *
      * @throws ReentrantException If this lock is already held by the
      *         current thread.
      */
     @Override
     public boolean tryLock() {
-        if (Thread.currentThread().equals(holderRef.get())) {
-            throw new ReentrantException();
-        }
-
-        synchronized (holderRef) {
-            State key = State.getInstance(Query
-                    .from(Object.class)
-                    .where("_id = ?", keyId)
-                    .using(database)
-                    .noCache()
-                    .master()
-                    .first());
-
-            if (key == null) {
-                key = new State();
-                key.setDatabase(database);
-                key.setId(keyId);
-                key.put("keyString", keyString);
-
-            } else {
-                if (ObjectUtils.to(long.class, key.get("lastPing")) + TIMEOUT < database.now()) {
-                    LOGGER.debug("Timeout exceeded: [{}]", this);
-                } else {
-                    return false;
-                }
-            }
+        checkReentrant();
 
-            try {
-                key.replaceAtomically("lockId", lockId);
-                key.replaceAtomically("lastPing", database.now());
-                key.saveImmediately();
-
-            } catch (DatabaseException ex) {
-                Throwable cause = ex.getCause();
-                if (cause instanceof AtomicOperation.ReplacementException) {
-                    LOGGER.debug("Stolen by a different VM: [{}]", this);
-                    return false;
-                } else {
-                    throw ex;
-                }
-            }
-
-            holderRef.set(Thread.currentThread());
-            LOGGER.debug("Acquired [{}]", this);
-            return true;
-        }
+        return localLock.tryLock() && tryLeaseOrUnlock();
     }
 
     /**
@@ -143,17 +316,29 @@ public class DistributedLock implements Lock {
      */
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        long end = database.now() + unit.toMillis(time);
+        checkReentrant();
+
+        long end = System.nanoTime() + unit.toNanos(time);
+        long interval = TRY_INTERVAL;
+
+        while (true) {
+            if (localLock.tryLock(end - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                if (tryLeaseOrUnlock()) {
+                    return true;
+                }
 
-        do {
-            if (tryLock()) {
-                return true;
             } else {
-                Thread.sleep(TRY_INTERVAL);
+                return false;
             }
-        } while (database.now() < end);
 
-        return false;
+            long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+
+            if (remaining <= 0L) {
+                return false;
+            }
+
+            interval = backOff(Math.min(interval, remaining));
+        }
     }
 
     /**
@@ -174,25 +359,25 @@ public class DistributedLock implements Lock {
             throw new IllegalMonitorStateException("Not the lock owner!");
         }
 
-        synchronized (holderRef) {
-            try {
-                LOGGER.debug("Releasing [{}]", this);
-
-                State key = State.getInstance(Query
-                        .from(Object.class)
-                        .where("_id = ?", keyId)
-                        .using(database)
-                        .noCache()
-                        .master()
-                        .first());
-
-                if (key != null && lockId.equals(key.get("lockId"))) {
-                    key.deleteImmediately();
-                }
+        try {
+            synchronized (holderRef) {
+                try {
+                    LOGGER.debug("Releasing [{}]", this);
+                    stopHeartbeat();
+
+                    State key = findKey();
+
+                    if (key != null && lockId.equals(key.get("lockId"))) {
+                        key.deleteImmediately();
+                    }
 
-            } finally {
-                holderRef.set(null);
+                } finally {
+                    holderRef.set(null);
+                }
             }
+
+        } finally {
+            localLock.unlock();
         }
     }
 
@@ -0,0 +1,236 @@
+package com.psddev.dari.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Paginated result that's selected by seeking past the sort values of
+ * the last item in the previous page, instead of skipping over all items
+ * before it, so that deep pages are as fast as the first.
+ *
+ * <p>The cursor returned by {@link #getNextCursor} is an opaque string
+ * that's safe to use in a URL, and it should be passed back to
+ * {@link Query#selectAfter} along with the same query to get the next
+ * page. It's only possible to move forward, so there are no cursors for
+ * the previous pages.</p>
+ *
+ * @see Query#selectAfter
+ */
+public class KeysetPaginatedResult<E> extends PaginatedResult<E> {
+
+    private final PaginatedResult<E> result;
+    private final String cursor;
+    private final String nextCursor;
+    private Long count;
+
+    private KeysetPaginatedResult(long offset, int limit, PaginatedResult<E> result, String cursor, String nextCursor) {
+        super(offset, limit, 0, result.getItems());
+
+        this.result = result;
+        this.cursor = cursor;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns the cursor that this result was selected with.
+     *
+     * @return {@code null} if this is the first page.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Returns the cursor that can be used to select the next page.
+     *
+     * @return {@code null} if this is the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The count is calculated lazily, since it requires another
+     * query.</p>
+     */
+    @Override
+    public long getCount() {
+        if (count == null) {
+            count = getOffset() + result.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return result.hasNext();
+    }
+
+    /**
+     * Selects the page of the given {@code query} that comes after the
+     * given {@code cursor}.
+     *
+     * @see Query#selectAfter
+     */
+    static <T> KeysetPaginatedResult<T> select(Query<T> query, String cursor, int limit) {
+        Query<T> seekQuery = query.clone();
+        List<String> keys = new ArrayList<String>();
+        List<Boolean> ascendings = new ArrayList<Boolean>();
+        boolean idAscending = true;
+        boolean idSorted = false;
+
+        for (Sorter sorter : query.getSorters()) {
+            String operator = sorter.getOperator();
+            boolean ascending = Sorter.ASCENDING_OPERATOR.equals(operator);
+
+            if (!ascending && !Sorter.DESCENDING_OPERATOR.equals(operator)) {
+                throw new IllegalArgumentException(String.format(
+                        "Can't seek using [%s] sorter!", operator));
+            }
+
+            String key = (String) sorter.getOptions().get(0);
+
+            if (Query.ID_KEY.equals(key)) {
+                idAscending = ascending;
+                idSorted = true;
+
+                // Sorters after the ID never apply, since it's unique.
+                break;
+            }
+
+            keys.add(key);
+            ascendings.add(ascending);
+            seekQuery.and(key + " != missing");
+        }
+
+        if (!idSorted) {
+            seekQuery.sortAscending(Query.ID_KEY);
+        }
+
+        long offset = 0L;
+
+        if (!ObjectUtils.isBlank(cursor)) {
+            List<Object> position = decode(cursor);
+
+            if (position.size() != keys.size() + 2) {
+                throw new IllegalArgumentException(String.format(
+                        "[%s] isn't a valid cursor for [%s]!", cursor, query));
+            }
+
+            offset = ObjectUtils.to(long.class, position.get(0));
+            seekQuery.and(createSeekPredicate(keys, ascendings, position.subList(2, position.size()), ObjectUtils.to(UUID.class, position.get(1)), idAscending));
+        }
+
+        PaginatedResult<T> result = seekQuery.select(0, limit);
+        List<T> items = result.getItems();
+        String nextCursor = null;
+
+        if (result.hasNext() && !items.isEmpty()) {
+            State last = State.getInstance(items.get(items.size() - 1));
+            List<Object> position = new ArrayList<Object>();
+
+            position.add(offset + items.size());
+            position.add(last.getId().toString());
+
+            for (String key : keys) {
+                position.add(toCursorValue(key, last.getByPath(key)));
+            }
+
+            nextCursor = encode(position);
+        }
+
+        return new KeysetPaginatedResult<T>(offset, limit, result, cursor, nextCursor);
+    }
+
+    // Creates the equivalent of (k1, k2, ..., id) > (v1, v2, ..., lastId),
+    // with the comparisons flipped for the descending keys.
+    private static Predicate createSeekPredicate(List<String> keys, List<Boolean> ascendings, List<Object> values, UUID lastId, boolean idAscending) {
+        List<Predicate> alternatives = new ArrayList<Predicate>();
+
+        for (int i = 0, size = keys.size(); i <= size; ++ i) {
+            List<Predicate> conditions = new ArrayList<Predicate>();
+
+            for (int j = 0; j < i; ++ j) {
+                conditions.add(new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, keys.get(j), Collections.singletonList(values.get(j))));
+            }
+
+            if (i < size) {
+                conditions.add(new ComparisonPredicate(
+                        ascendings.get(i) ? PredicateParser.GREATER_THAN_OPERATOR : PredicateParser.LESS_THAN_OPERATOR,
+                        false,
+                        keys.get(i),
+                        Collections.singletonList(values.get(i))));
+
+            } else {
+                conditions.add(new ComparisonPredicate(
+                        idAscending ? PredicateParser.GREATER_THAN_OPERATOR : PredicateParser.LESS_THAN_OPERATOR,
+                        false,
+                        Query.ID_KEY,
+                        Collections.singletonList(lastId)));
+            }
+
+            alternatives.add(conditions.size() == 1 ? conditions.get(0) : new CompoundPredicate(PredicateParser.AND_OPERATOR, conditions));
+        }
+
+        return alternatives.size() == 1 ? alternatives.get(0) : new CompoundPredicate(PredicateParser.OR_OPERATOR, alternatives);
+    }
+
+    // Converts the given sort value into a form that survives the round
+    // trip through JSON and can still be compared in a predicate.
+    private static Object toCursorValue(String key, Object value) {
+        if (value instanceof Recordable) {
+            return ((Recordable) value).getState().getId().toString();
+
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+
+        } else if (value instanceof UUID) {
+            return value.toString();
+
+        } else if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+            throw new IllegalStateException(String.format(
+                    "Can't seek using [%s] value in [%s]!", value, key));
+        }
+
+        return value;
+    }
+
+    private static String encode(List<Object> position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ObjectUtils.toJson(position).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Object> decode(String cursor) {
+        Object position;
+
+        try {
+            position = ObjectUtils.fromJson(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+
+        } catch (RuntimeException error) {
+            throw new IllegalArgumentException(String.format(
+                    "[%s] isn't a valid cursor!", cursor), error);
+        }
+
+        if (!(position instanceof List)) {
+            throw new IllegalArgumentException(String.format(
+                    "[%s] isn't a valid cursor!", cursor));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) position;
+
+        return list;
+    }
+}
@@ -4,6 +4,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -94,6 +95,7 @@ public class Metric extends Record {
     public void incrementDimensionAt(double amount, String dimension, DateTime time) {
         try {
             getMetricAccess().incrementMetric(owner.getId(), time, dimension, amount);
+            clearPreFetched();
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.incrementMetric() : " + e.getLocalizedMessage());
         }
@@ -120,6 +122,13 @@ public class Metric extends Record {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getDimensionId() : " + e.getLocalizedMessage());
         }
         MetricIncrementQueue.queueIncrement(getOwner().getId(), dimensionId, time, getMetricAccess(), amount, within);
+        clearPreFetched();
+    }
+
+    // Removes the metric data that was pre-fetched into the owner, since
+    // it's stale after any write.
+    private void clearPreFetched() {
+        MetricAccess.Static.clearExtras(getOwner().getExtras());
     }
 
     /**
@@ -182,6 +191,7 @@ public class Metric extends Record {
     public void setDimensionAt(double amount, String dimension, DateTime time) {
         try {
             getMetricAccess().setMetric(getOwner().getId(), time, dimension, amount);
+            clearPreFetched();
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.setMetric() : " + e.getLocalizedMessage());
         }
@@ -191,6 +201,7 @@ public class Metric extends Record {
     public void deleteAll() {
         try {
             getMetricAccess().deleteMetric(getOwner().getId());
+            clearPreFetched();
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.deleteMetric() : " + e.getLocalizedMessage());
         }
@@ -208,8 +219,10 @@ public class Metric extends Record {
         try {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
-            Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
-            Double metricValue = getMetricAccess().getMetric(getOwner().getId(), dimension, startTimestamp, endTimestamp);
+            if (!getMetricAccess().isAggregatedInMemory()) {
+                Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
+            }
+            Double metricValue = getMetricAccess().getMetric(getOwner(), dimension, startTimestamp, endTimestamp);
             return metricValue == null ? 0.0 : metricValue;
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getMetric() : " + e.getLocalizedMessage());
@@ -256,8 +269,10 @@ public class Metric extends Record {
         try {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
-            Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
-            Double metricValue = getMetricAccess().getMetric(getOwner().getId(), dimension, startTimestamp, endTimestamp);
+            if (!getMetricAccess().isAggregatedInMemory()) {
+                Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
+            }
+            Double metricValue = getMetricAccess().getMetric(getOwner(), dimension, startTimestamp, endTimestamp);
             return metricValue == null;
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getMetric() : " + e.getLocalizedMessage());
@@ -341,6 +356,7 @@ public class Metric extends Record {
     public void repair() {
         try {
             getMetricAccess().reconstructCumulativeAmounts(getOwner().getId());
+            clearPreFetched();
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.reconstructCumulativeAmounts() : " + e.getLocalizedMessage());
         }
@@ -359,6 +375,7 @@ public class Metric extends Record {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
             getMetricAccess().resummarize(getOwner().getId(), getMetricAccess().getDimensionId(dimensionValue), interval, startTimestamp, endTimestamp);
+            clearPreFetched();
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.resummarize() : " + e.getLocalizedMessage());
         }
@@ -416,8 +433,6 @@ public class Metric extends Record {
 
     public static class Static {
 
-        private static final String EXTRA_METRICS_FETCHED_PREFIX = "dari.metric.preFetched.";
-
         /**
          * Resummarize all metric values in the given field (all dimensions)
          * within a date range to a new interval. This submits a Task to be
@@ -442,11 +457,83 @@ public class Metric extends Record {
             return mdb.submitResummarizeAllTask(interval, startTimestamp, endTimestamp, parallel, executor, name);
         }
 
+        /**
+         * Loads the sums of all metric fields in all given {@code objects}
+         * using one query per batch of objects for each field, so that
+         * calling {@link Metric#getSum} on each object afterwards doesn't
+         * query the database again.
+         *
+         * @param objects Can't be {@code null}. Typically the items of a
+         *        {@link com.psddev.dari.util.PaginatedResult}.
+         */
+        public static void preFetch(Iterable<?> objects) {
+            preFetchByDimensionBetween(objects, null, null, null);
+        }
+
+        /**
+         * Loads the metric values associated with the given
+         * {@code dimension} between the given {@code start} and {@code end}
+         * in all metric fields of all given {@code objects} using one query
+         * per batch of objects for each field, so that calling
+         * {@link Metric#getByDimensionBetween} with the same arguments on
+         * each object afterwards doesn't query the database again.
+         *
+         * @param objects Can't be {@code null}.
+         * @param dimension May be {@code null}.
+         * @param start If {@code null}, beginning of time.
+         * @param end If {@code null}, end of time.
+         */
+        public static void preFetchByDimensionBetween(Iterable<?> objects, String dimension, DateTime start, DateTime end) {
+            Long startTimestamp = (start == null ? null : start.getMillis());
+            Long endTimestamp = (end == null ? null : end.getMillis());
+            Map<MetricAccess, List<State>> ownersByMetricAccess = new HashMap<MetricAccess, List<State>>();
+            for (Object object : objects) {
+                if (object == null) {
+                    continue;
+                }
+                State state = State.getInstance(object);
+                ObjectType type = state.getType();
+                if (type == null) {
+                    continue;
+                }
+                List<ObjectField> fields = new ArrayList<ObjectField>(type.getMetricFields());
+                fields.addAll(state.getDatabase().getEnvironment().getMetricFields());
+                for (ObjectField field : fields) {
+                    MetricAccess mdb = MetricAccess.Static.getMetricAccess(state.getDatabase(), type, field);
+                    if (mdb != null) {
+                        List<State> owners = ownersByMetricAccess.get(mdb);
+                        if (owners == null) {
+                            owners = new ArrayList<State>();
+                            ownersByMetricAccess.put(mdb, owners);
+                        }
+                        owners.add(state);
+                    }
+                }
+            }
+            for (Map.Entry<MetricAccess, List<State>> entry : ownersByMetricAccess.entrySet()) {
+                MetricAccess mdb = entry.getKey();
+                try {
+                    UUID dimensionId = mdb.getDimensionId(dimension);
+                    MetricAccess.Static.preFetchMetricData(mdb, entry.getValue(), dimensionId, startTimestamp, endTimestamp, false);
+                    String extraKey = getPreFetchedExtraKey(dimensionId, startTimestamp, endTimestamp);
+                    for (State owner : entry.getValue()) {
+                        owner.getExtras().put(extraKey, true);
+                    }
+                } catch (SQLException ex) {
+                    LOGGER.warn("Exception when prefetching Metrics for " + entry.getValue().size() + " objects: " + ex.getLocalizedMessage());
+                }
+            }
+        }
+
+        private static String getPreFetchedExtraKey(UUID dimensionId, Long startTimestamp, Long endTimestamp) {
+            return MetricAccess.METRIC_PRE_FETCHED_EXTRA_PREFIX + ObjectUtils.to(String.class, dimensionId) + '.' + ObjectUtils.to(String.class, startTimestamp) + '.' + ObjectUtils.to(String.class, endTimestamp);
+        }
+
         private static void preFetchMetrics(State state, UUID dimensionId, Long startTimestamp, Long endTimestamp) {
             if (state == null || state.getType() == null) {
                 return;
             }
-            String extraKey = EXTRA_METRICS_FETCHED_PREFIX + ObjectUtils.to(String.class, dimensionId) + '.' + ObjectUtils.to(String.class, startTimestamp) + '.' + ObjectUtils.to(String.class, endTimestamp);
+            String extraKey = getPreFetchedExtraKey(dimensionId, startTimestamp, endTimestamp);
             if (Boolean.TRUE.equals(state.getExtra(extraKey))) {
                 return;
             }
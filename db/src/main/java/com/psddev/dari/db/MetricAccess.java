@@ -1,5 +1,6 @@
 package com.psddev.dari.db;
 
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -9,15 +10,19 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -27,8 +32,6 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.psddev.dari.util.AsyncConsumer;
-import com.psddev.dari.util.AsyncQueue;
 import com.psddev.dari.util.CompactMap;
 import com.psddev.dari.util.Task;
 import com.psddev.dari.util.UuidUtils;
@@ -46,6 +49,7 @@ class MetricAccess {
     public static final String METRIC_DIMENSION_VALUE_FIELD = "value";
     public static final String METRIC_DATA_FIELD = "data";
     public static final String METRIC_CACHE_EXTRA_PREFIX = "dari.metric.cache.";
+    public static final String METRIC_PRE_FETCHED_EXTRA_PREFIX = "dari.metric.preFetched.";
 
     public static final int AMOUNT_DECIMAL_PLACES = 6;
     public static final long AMOUNT_DECIMAL_SHIFT = (long) Math.pow(10, AMOUNT_DECIMAL_PLACES);
@@ -57,6 +61,7 @@ class MetricAccess {
 
     private static final int QUERY_TIMEOUT = 3;
     private static final int DIMENSION_CACHE_SIZE = 1000;
+    private static final int PRE_FETCH_BATCH_SIZE = 500;
 
     private static final String CACHE_MIN = "min";
     private static final String CACHE_MAX = "max";
@@ -69,6 +74,7 @@ class MetricAccess {
     private final String fieldName;
     private final MetricAccessDatabase db;
     private final UUID typeId;
+    private final MetricAggregationCache aggregationCache;
 
     private MetricInterval eventDateProcessor;
 
@@ -78,6 +84,7 @@ class MetricAccess {
         this.symbol = field.getUniqueName();
         this.fieldName = field.getInternalName();
         this.eventDateProcessor = interval;
+        this.aggregationCache = database != null && field.as(FieldData.class).isAggregateInMemory() ? new MetricAggregationCache(this) : null;
     }
 
     public UUID getTypeId() {
@@ -95,6 +102,14 @@ class MetricAccess {
         return db;
     }
 
+    /**
+     * Returns {@code true} if the metric values are served from the
+     * {@link MetricAggregationCache} when possible.
+     */
+    public boolean isAggregatedInMemory() {
+        return aggregationCache != null;
+    }
+
     public int getSymbolId() {
         return db.getSymbolId(symbol);
     }
@@ -123,22 +138,53 @@ class MetricAccess {
     }
 
     public Double getMetric(UUID id, String dimensionValue, Long startTimestamp, Long endTimestamp) throws SQLException {
-        if (startTimestamp == null) {
-            byte[] data = getMaxData(id, getDimensionId(dimensionValue), endTimestamp);
-            if (data == null) {
-                return null;
+        if (aggregationCache != null && aggregationCache.covers(startTimestamp, endTimestamp)) {
+            MetricAggregationCache.Buckets buckets = aggregationCache.get(id, getDimensionId(dimensionValue));
+            if (buckets.covers(startTimestamp, endTimestamp)) {
+                return buckets.sum(startTimestamp, endTimestamp);
             }
-            return Static.amountFromBytes(data, CUMULATIVEAMOUNT_POSITION);
+        }
+
+        if (startTimestamp == null) {
+            return Static.calculateMetric(getMaxData(id, getDimensionId(dimensionValue), endTimestamp), null, false);
         } else {
             List<byte[]> datas = getMaxMinData(id, getDimensionId(dimensionValue), startTimestamp, endTimestamp);
-            if (datas.get(0) == null) {
-                return null;
+            return Static.calculateMetric(datas.get(0), datas.get(1), true);
+        }
+    }
+
+    /**
+     * Same as {@link #getMetric(UUID, String, Long, Long)}, but uses the
+     * data in the extras of the given {@code owner} if it was loaded by
+     * {@link Static#preFetchMetricData}.
+     *
+     * @param owner Can't be {@code null}.
+     */
+    public Double getMetric(State owner, String dimensionValue, Long startTimestamp, Long endTimestamp) throws SQLException {
+        UUID dimensionId = getDimensionId(dimensionValue);
+        Map<String, Object> extras = owner.getExtras();
+
+        synchronized (extras) {
+            String maxKey = getCacheKey(dimensionId, endTimestamp, CACHE_MAX);
+
+            if (extras.containsKey(maxKey)) {
+                if (startTimestamp == null) {
+                    return Static.calculateMetric((byte[]) extras.get(maxKey), null, false);
+                }
+
+                String minKey = getCacheKey(dimensionId, startTimestamp, CACHE_MIN);
+
+                if (extras.containsKey(minKey)) {
+                    return Static.calculateMetric((byte[]) extras.get(maxKey), (byte[]) extras.get(minKey), true);
+                }
             }
-            double maxCumulativeAmount = Static.amountFromBytes(datas.get(0), CUMULATIVEAMOUNT_POSITION);
-            double minCumulativeAmount = Static.amountFromBytes(datas.get(1), CUMULATIVEAMOUNT_POSITION);
-            double minAmount = Static.amountFromBytes(datas.get(1), AMOUNT_POSITION);
-            return maxCumulativeAmount - (minCumulativeAmount - minAmount);
         }
+
+        return getMetric(owner.getId(), dimensionValue, startTimestamp, endTimestamp);
+    }
+
+    private String getCacheKey(UUID dimensionId, Long timestamp, String position) {
+        return METRIC_CACHE_EXTRA_PREFIX + getSymbolId() + '.' + dimensionId + '.' + timestamp + '.' + position;
     }
 
     /**
@@ -192,7 +238,7 @@ class MetricAccess {
             return false;
         }
         synchronized (extras) {
-            return (extras.containsKey(METRIC_CACHE_EXTRA_PREFIX + getSymbolId() + '.' + dimensionId + '.' + timestamp + '.' + position));
+            return extras.containsKey(getCacheKey(dimensionId, timestamp, position));
         }
     }
 
@@ -200,7 +246,7 @@ class MetricAccess {
         Map<String, Object> extras = getCachedStateExtras(cachingDb, id);
         if (extras != null) {
             synchronized (extras) {
-                return (byte[]) extras.get(METRIC_CACHE_EXTRA_PREFIX + getSymbolId() + '.' + dimensionId + '.' + timestamp + '.' + position);
+                return (byte[]) extras.get(getCacheKey(dimensionId, timestamp, position));
             }
         }
         return null;
@@ -210,22 +256,64 @@ class MetricAccess {
         Map<String, Object> extras = getCachedStateExtras(cachingDb, id);
         if (extras != null) {
             synchronized (extras) {
-                extras.put(METRIC_CACHE_EXTRA_PREFIX + getSymbolId() + '.' + dimensionId + '.' + timestamp + '.' + position, data);
+                extras.put(getCacheKey(dimensionId, timestamp, position), data);
             }
         }
     }
 
+    /**
+     * Adds the given {@code amount} that's waiting to be written to the
+     * in-memory aggregation and the metric rankings, so that it can be
+     * read immediately.
+     */
+    void aggregateIncrement(UUID id, UUID dimensionId, DateTime time, double amount) {
+        if (amount == 0) {
+            return;
+        }
+        long eventDate;
+        try {
+            eventDate = getEventDate(time);
+        } catch (RuntimeException error) {
+            // Reported when the increment is written.
+            return;
+        }
+        applyIncrement(id, dimensionId, eventDate, amount);
+    }
+
+    // Updates the in-memory aggregation and the metric rankings.
+    private void applyIncrement(UUID id, UUID dimensionId, long eventDate, double amount) {
+        if (aggregationCache != null) {
+            aggregationCache.increment(id, dimensionId, eventDate, amount);
+        }
+        if (db instanceof SqlDatabase) {
+            SqlMetricRanking metricRanking = ((SqlDatabase) db).getMetricRanking();
+            if (metricRanking != null) {
+                metricRanking.increment(symbol, id, getTypeId(), eventDate, amount);
+            }
+        }
+    }
+
+    // Returns the cumulative amount of all rows before the given timestamp.
+    Double getCumulativeAmountBefore(UUID id, UUID dimensionId, long endTimestamp) throws SQLException {
+        byte[] data = Static.getDataByIdAndDimension(getDatabase(), id, getTypeId(), getSymbolId(), dimensionId, null, endTimestamp, false);
+        return Static.calculateMetric(data, null, false);
+    }
+
+    // Returns the amount of each interval since the given timestamp.
+    Map<DateTime, Double> getIntervalAmountsSince(UUID id, UUID dimensionId, long startTimestamp) throws SQLException {
+        return Static.getMetricTimelineByIdAndDimension(getDatabase(), id, getTypeId(), getSymbolId(), dimensionId, startTimestamp, null, getEventDateProcessor(), false);
+    }
+
+    private void invalidateAggregation(UUID id) {
+        if (aggregationCache != null) {
+            aggregationCache.invalidate(id);
+        }
+    }
+
     private void clearCachedData(CachingDatabase cachingDb, UUID id) {
         Map<String, Object> extras = getCachedStateExtras(cachingDb, id);
         if (extras != null) {
-            synchronized (extras) {
-                Set<String> keys = new HashSet<String>(extras.keySet());
-                for (String key : keys) {
-                    if (key.startsWith(METRIC_CACHE_EXTRA_PREFIX)) {
-                        extras.remove(key);
-                    }
-                }
-            }
+            Static.clearExtras(extras);
         }
     }
 
@@ -251,6 +339,12 @@ class MetricAccess {
         if (metricInterval == null) {
             metricInterval = getEventDateProcessor();
         }
+        if (aggregationCache != null && startTimestamp != null && aggregationCache.covers(startTimestamp, endTimestamp)) {
+            MetricAggregationCache.Buckets buckets = aggregationCache.get(id, getDimensionId(dimensionValue));
+            if (buckets.covers(startTimestamp, endTimestamp)) {
+                return buckets.timeline(startTimestamp, endTimestamp, metricInterval);
+            }
+        }
         return Static.getMetricTimelineByIdAndDimension(getDatabase(), id, getTypeId(), getSymbolId(), getDimensionId(dimensionValue), startTimestamp, endTimestamp, metricInterval, false);
     }
 
@@ -259,12 +353,19 @@ class MetricAccess {
     }
 
     public void incrementMetricByDimensionId(UUID id, DateTime time, UUID dimensionId, Double amount) throws SQLException {
+        incrementMetricByDimensionId(id, time, dimensionId, amount, true);
+    }
+
+    void incrementMetricByDimensionId(UUID id, DateTime time, UUID dimensionId, Double amount, boolean aggregate) throws SQLException {
         // This actually causes some problems if it's not here
         if (amount == 0) {
             return;
         }
         boolean isImplicitEventDate = (time == null);
         long eventDate = getEventDate(time);
+        if (aggregate) {
+            applyIncrement(id, dimensionId, eventDate, amount);
+        }
         Static.doIncrementUpdateOrInsert(getDatabase(), id, getTypeId(), getSymbolId(), dimensionId, amount, eventDate, isImplicitEventDate);
         if (!dimensionId.equals(UuidUtils.ZERO_UUID)) {
             // Do an additional increment for the null dimension to maintain the sum
@@ -291,24 +392,28 @@ class MetricAccess {
             Static.doSetUpdateOrInsert(getDatabase(), id, getTypeId(), getSymbolId(), UuidUtils.ZERO_UUID, allDimensionsAmount, 0L);
         }
         clearCachedData(Static.getCachingDatabase(), id);
+        invalidateAggregation(id);
         recalculateImmediateIndexedMethods(id);
     }
 
     public void deleteMetric(UUID id) throws SQLException {
         Static.doMetricDelete(getDatabase(), id, getTypeId(), getSymbolId());
         clearCachedData(Static.getCachingDatabase(), id);
+        invalidateAggregation(id);
         recalculateImmediateIndexedMethods(id);
     }
 
     public void reconstructCumulativeAmounts(UUID id) throws SQLException {
         Static.doReconstructCumulativeAmounts(getDatabase(), id, getTypeId(), getSymbolId(), null);
         clearCachedData(Static.getCachingDatabase(), id);
+        invalidateAggregation(id);
         recalculateImmediateIndexedMethods(id);
     }
 
     public void resummarize(UUID id, UUID dimensionId, MetricInterval interval, Long startTimestamp, Long endTimestamp) throws SQLException {
         Static.doResummarize(getDatabase(), id, getTypeId(), getSymbolId(), dimensionId, interval, startTimestamp, endTimestamp);
         clearCachedData(Static.getCachingDatabase(), id);
+        invalidateAggregation(id);
     }
 
     public Task submitResummarizeAllTask(MetricInterval interval, Long startTimestamp, Long endTimestamp, int numParallel, String executor, String name) {
@@ -448,18 +553,21 @@ class MetricAccess {
             sqlBuilder.append(" FROM ");
             sqlBuilder.append(Static.getMetricTableIdentifier(db));
             sqlBuilder.append(" WHERE ");
-            vendor.appendIdentifier(sqlBuilder, METRIC_ID_FIELD);
-            sqlBuilder.append(" = ");
-            vendor.appendValue(sqlBuilder, id);
 
-            if (symbolId != null) {
+            if (id != null) {
+                vendor.appendIdentifier(sqlBuilder, METRIC_ID_FIELD);
+                sqlBuilder.append(" = ");
+                vendor.appendValue(sqlBuilder, id);
                 sqlBuilder.append(" AND ");
+            }
+
+            if (symbolId != null) {
                 vendor.appendIdentifier(sqlBuilder, METRIC_SYMBOL_FIELD);
                 sqlBuilder.append(" = ");
                 vendor.appendValue(sqlBuilder, symbolId);
+                sqlBuilder.append(" AND ");
             }
 
-            sqlBuilder.append(" AND ");
             vendor.appendIdentifier(sqlBuilder, METRIC_TYPE_FIELD);
             sqlBuilder.append(" = ");
             vendor.appendValue(sqlBuilder, typeId);
@@ -919,6 +1027,23 @@ class MetricAccess {
             return bytes;
         }
 
+        // Calculates the metric value from the given max and min data rows.
+        private static Double calculateMetric(byte[] maxData, byte[] minData, boolean between) {
+            if (maxData == null) {
+                return null;
+            }
+
+            double maxCumulativeAmount = amountFromBytes(maxData, CUMULATIVEAMOUNT_POSITION);
+
+            if (!between) {
+                return maxCumulativeAmount;
+            }
+
+            double minCumulativeAmount = amountFromBytes(minData, CUMULATIVEAMOUNT_POSITION);
+            double minAmount = amountFromBytes(minData, AMOUNT_POSITION);
+            return maxCumulativeAmount - (minCumulativeAmount - minAmount);
+        }
+
         private static double amountFromBytes(byte[] bytes, int position) {
             long amountLong = 0;
 
@@ -1114,6 +1239,8 @@ class MetricAccess {
 
         static void doResummarize(MetricAccessDatabase db, UUID id, UUID typeId, int symbolId, UUID dimensionId, MetricInterval interval, Long minEventDate, Long maxEventDate) throws SQLException {
             String selectSql = getAllDataSql(db, id, typeId, symbolId, dimensionId, minEventDate, maxEventDate, true);
+            Map<String, List<List<Object>>> deleteBatches = new LinkedHashMap<String, List<List<Object>>>();
+            Map<String, List<List<Object>>> insertBatches = new LinkedHashMap<String, List<List<Object>>>();
 
             Connection connection = db.openConnection();
             try {
@@ -1135,8 +1262,9 @@ class MetricAccess {
                             Long intervalTimestamp = interval.process(new DateTime(timestamp));
 
                             if (!intervalTimestamp.equals(lastIntervalTimestamp)) {
-                                if (lastIntervalTimestamp != null) {
-                                    doResummarizeDataRows(db, id, typeId, symbolId, dimensionId, lastIntervalTimestamp, firstTimestamp, lastTimestamp, currentIntervalAmount, currentIntervalCumulativeAmount);
+                                if (lastIntervalTimestamp != null && !(firstTimestamp.equals(lastTimestamp) && lastTimestamp.equals(lastIntervalTimestamp))) {
+                                    addDeleteDataRowsBetween(db, deleteBatches, id, typeId, symbolId, dimensionId, firstTimestamp, lastTimestamp);
+                                    addMetricInsert(db, insertBatches, id, typeId, symbolId, dimensionId, currentIntervalAmount, currentIntervalCumulativeAmount, lastIntervalTimestamp);
                                 }
                                 firstTimestamp = timestamp;
                                 lastIntervalTimestamp = intervalTimestamp;
@@ -1146,8 +1274,9 @@ class MetricAccess {
                             currentIntervalAmount += amt;
                             currentIntervalCumulativeAmount = cumAmt;
                         }
-                        if (lastIntervalTimestamp != null) {
-                            doResummarizeDataRows(db, id, typeId, symbolId, dimensionId, lastIntervalTimestamp, firstTimestamp, lastTimestamp, currentIntervalAmount, currentIntervalCumulativeAmount);
+                        if (lastIntervalTimestamp != null && !(firstTimestamp.equals(lastTimestamp) && lastTimestamp.equals(lastIntervalTimestamp))) {
+                            addDeleteDataRowsBetween(db, deleteBatches, id, typeId, symbolId, dimensionId, firstTimestamp, lastTimestamp);
+                            addMetricInsert(db, insertBatches, id, typeId, symbolId, dimensionId, currentIntervalAmount, currentIntervalCumulativeAmount, lastIntervalTimestamp);
                         }
                     } finally {
                         result.close();
@@ -1155,35 +1284,51 @@ class MetricAccess {
                 } finally {
                     statement.close();
                 }
-            } finally {
-                db.closeConnection(connection);
-            }
-        }
-
-        private static void doResummarizeDataRows(MetricAccessDatabase db, UUID id, UUID typeId, int symbolId, UUID dimensionId, long eventDate, long firstTimestamp, long lastTimestamp, double amount, double cumulativeAmount) throws SQLException {
-            if (firstTimestamp == lastTimestamp && lastTimestamp == eventDate) {
-                // nothing to do. . .
-                return;
-            }
 
-            SqlVendor vendor = db.getMetricVendor();
-            Connection connection = db.openConnection();
-
-            try {
-                // First delete old rows, then insert the new row
-                List<Object> deleteParameters = new ArrayList<Object>();
-                String deleteSql = getDeleteDataRowsBetweenSql(db, deleteParameters, id, typeId, symbolId, dimensionId, firstTimestamp, lastTimestamp);
+                // The intervals don't overlap, so all old rows can be
+                // deleted before any of the new rows are inserted. Rows are
+                // batched by their SQL, since some vendors write the data
+                // into it instead of binding it.
+                if (!deleteBatches.isEmpty()) {
+                    boolean autoCommit = connection.getAutoCommit();
+                    connection.setAutoCommit(false);
+                    try {
+                        for (Map.Entry<String, List<List<Object>>> entry : deleteBatches.entrySet()) {
+                            SqlDatabase.Static.executeBatchUpdate(connection, entry.getKey(), entry.getValue());
+                        }
+                        for (Map.Entry<String, List<List<Object>>> entry : insertBatches.entrySet()) {
+                            SqlDatabase.Static.executeBatchUpdate(connection, entry.getKey(), entry.getValue());
+                        }
+                        connection.commit();
 
-                List<Object> insertParameters = new ArrayList<Object>();
-                String insertSql = getMetricInsertSql(db, insertParameters, id, typeId, symbolId, dimensionId, amount, cumulativeAmount, eventDate);
+                    } catch (SQLException error) {
+                        connection.rollback();
+                        throw error;
 
-                SqlDatabase.Static.executeUpdateWithList(vendor, connection, deleteSql, deleteParameters);
-                SqlDatabase.Static.executeUpdateWithList(vendor, connection, insertSql, insertParameters);
+                    } finally {
+                        connection.setAutoCommit(autoCommit);
+                    }
+                }
 
             } finally {
                 db.closeConnection(connection);
             }
+        }
 
+        // Adds the parameters for deleting the rows between the given
+        // timestamps to the batch for its SQL.
+        private static void addDeleteDataRowsBetween(MetricAccessDatabase db, Map<String, List<List<Object>>> batches, UUID id, UUID typeId, int symbolId, UUID dimensionId, long firstTimestamp, long lastTimestamp) {
+            List<Object> parameters = new ArrayList<Object>();
+            String sql = getDeleteDataRowsBetweenSql(db, parameters, id, typeId, symbolId, dimensionId, firstTimestamp, lastTimestamp);
+            batches.computeIfAbsent(sql, k -> new ArrayList<List<Object>>()).add(parameters);
+        }
+
+        // Adds the parameters for inserting the summarized row to the batch
+        // for its SQL.
+        private static void addMetricInsert(MetricAccessDatabase db, Map<String, List<List<Object>>> batches, UUID id, UUID typeId, int symbolId, UUID dimensionId, double amount, double cumulativeAmount, long eventDate) {
+            List<Object> parameters = new ArrayList<Object>();
+            String sql = getMetricInsertSql(db, parameters, id, typeId, symbolId, dimensionId, amount, cumulativeAmount, eventDate);
+            batches.computeIfAbsent(sql, k -> new ArrayList<List<Object>>()).add(parameters);
         }
 
         private static String getDeleteDataRowsBetweenSql(MetricAccessDatabase db, List<Object> parameters, UUID id, UUID typeId, int symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate) {
@@ -1423,6 +1568,8 @@ class MetricAccess {
             private final int symbolId;
             private final Long minEventDate;
             private final Long maxEventDate;
+            private final UUID minId;
+            private final UUID maxId;
             private final int fetchSize;
             private List<Metric.DistinctIds> items;
             private boolean done = false;
@@ -1434,12 +1581,24 @@ class MetricAccess {
             private UUID lastDimensionId = null;
 
             public DistinctIdsIterator(MetricAccessDatabase database, UUID typeId, int symbolId, Long minEventDate, Long maxEventDate, int fetchSize) {
+                this(database, typeId, symbolId, minEventDate, maxEventDate, null, null, null, fetchSize);
+            }
+
+            public DistinctIdsIterator(MetricAccessDatabase database, UUID typeId, int symbolId, Long minEventDate, Long maxEventDate, UUID minId, UUID maxId, Metric.DistinctIds after, int fetchSize) {
                 this.database = database;
                 this.typeId = typeId;
                 this.symbolId = symbolId;
                 this.minEventDate = minEventDate;
                 this.maxEventDate = maxEventDate;
+                this.minId = minId;
+                this.maxId = maxId;
                 this.fetchSize = fetchSize;
+
+                if (after != null) {
+                    this.lastId = after.id;
+                    this.lastTypeId = after.typeId;
+                    this.lastDimensionId = after.dimensionId;
+                }
             }
 
             @Override
@@ -1544,6 +1703,18 @@ class MetricAccess {
                     sql.append(" >= ");
                     vendor.appendMetricEncodeTimestampSql(sql, null, minEventDate, '0');
                 }
+                if (minId != null) {
+                    sql.append(" AND ");
+                    vendor.appendIdentifier(sql, MetricAccess.METRIC_ID_FIELD);
+                    sql.append(" >= ");
+                    vendor.appendValue(sql, minId);
+                }
+                if (maxId != null) {
+                    sql.append(" AND ");
+                    vendor.appendIdentifier(sql, MetricAccess.METRIC_ID_FIELD);
+                    sql.append(" < ");
+                    vendor.appendValue(sql, maxId);
+                }
 
                 if (lastId != null && lastTypeId != null && lastDimensionId != null) {
                     sql.append(" AND ("); vendor.appendIdentifier(sql, MetricAccess.METRIC_TYPE_FIELD); sql.append(" > "); vendor.appendValue(sql, lastTypeId);  sql.append(" OR ("); // AND (typeId > lastTypeId OR (
@@ -1576,6 +1747,106 @@ class MetricAccess {
             return new DistinctIdsIterator(database, typeId, symbolId, startTimestamp, endTimestamp, 1000);
         }
 
+        /**
+         * Returns the distinct IDs whose {@code id} is within the given
+         * range, starting after the given {@code after}, which is usually
+         * the last one that was processed before an interruption.
+         *
+         * @param minId Inclusive. If {@code null}, the range is unbounded.
+         * @param maxId Exclusive. If {@code null}, the range is unbounded.
+         * @param after May be {@code null}.
+         */
+        static Iterator<Metric.DistinctIds> getDistinctIds(MetricAccessDatabase database, UUID typeId, int symbolId, Long startTimestamp, Long endTimestamp, UUID minId, UUID maxId, Metric.DistinctIds after) {
+            return new DistinctIdsIterator(database, typeId, symbolId, startTimestamp, endTimestamp, minId, maxId, after, 1000);
+        }
+
+        /**
+         * Splits the {@code id} column of the metric table for the given
+         * {@code symbolId} into about the given number of ranges that can
+         * be processed independently.
+         *
+         * <p>The ranges are interpolated between the smallest and the
+         * largest IDs, using the byte order of the binary and UUID column
+         * types that the metric table is created with, and aren't
+         * necessarily balanced, since the IDs are often time-based.</p>
+         *
+         * @return The boundaries between the ranges in ascending order.
+         *         Never {@code null}. Empty if there's only one range.
+         */
+        static List<UUID> getIdRangeBoundaries(MetricAccessDatabase db, int symbolId, int count) throws SQLException {
+            SqlVendor vendor = db.getMetricVendor();
+            StringBuilder sql = new StringBuilder();
+            sql.append("SELECT MIN(");
+            vendor.appendIdentifier(sql, METRIC_ID_FIELD);
+            sql.append("), MAX(");
+            vendor.appendIdentifier(sql, METRIC_ID_FIELD);
+            sql.append(") FROM ");
+            sql.append(getMetricTableIdentifier(db));
+            sql.append(" WHERE ");
+            vendor.appendIdentifier(sql, METRIC_SYMBOL_FIELD);
+            sql.append(" = ");
+            vendor.appendValue(sql, symbolId);
+
+            UUID min = null;
+            UUID max = null;
+            Connection connection = db.openReadConnection();
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet result = db.executeQueryBeforeTimeout(statement, sql.toString(), 0);
+                    try {
+                        if (result.next()) {
+                            min = vendor.getUuid(result, 1);
+                            max = vendor.getUuid(result, 2);
+                        }
+                    } finally {
+                        result.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                db.closeConnection(connection);
+            }
+
+            return splitIdRange(min, max, count);
+        }
+
+        // Interpolates count - 1 boundaries between the given IDs, treating
+        // them as unsigned 128-bit numbers.
+        static List<UUID> splitIdRange(UUID min, UUID max, int count) {
+            List<UUID> boundaries = new ArrayList<UUID>();
+
+            if (min == null || max == null || count < 2) {
+                return boundaries;
+            }
+
+            BigInteger low = new BigInteger(1, UuidUtils.toBytes(min));
+            BigInteger span = new BigInteger(1, UuidUtils.toBytes(max)).subtract(low);
+
+            if (span.signum() <= 0) {
+                return boundaries;
+            }
+
+            BigInteger divisor = BigInteger.valueOf(count);
+
+            for (int i = 1; i < count; ++ i) {
+                byte[] value = low.add(span.multiply(BigInteger.valueOf(i)).divide(divisor)).toByteArray();
+                byte[] bytes = new byte[16];
+                int length = Math.min(value.length, 16);
+
+                System.arraycopy(value, value.length - length, bytes, 16 - length, length);
+
+                UUID boundary = UuidUtils.fromBytes(bytes);
+
+                if (!boundary.equals(min) && (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary))) {
+                    boundaries.add(boundary);
+                }
+            }
+
+            return boundaries;
+        }
+
         private static UUID getDimensionIdByValue(MetricAccessDatabase db, String dimensionValue, boolean master) throws SQLException {
             String sql = getDimensionIdByValueSql(db, dimensionValue);
             Connection connection = master ? db.openConnection() : db.openReadConnection();
@@ -1680,6 +1951,92 @@ class MetricAccess {
 
         }
 
+        /**
+         * Loads the metric data of the given {@code metricAccess} for all
+         * given {@code owners} into their extras using one query per
+         * batch of {@value #PRE_FETCH_BATCH_SIZE} owners, so that
+         * {@link MetricAccess#getMetric(State, String, Long, Long)} doesn't
+         * have to query for each one.
+         *
+         * @param owners Must all be of the type of the given
+         *        {@code metricAccess}.
+         */
+        public static void preFetchMetricData(MetricAccess metricAccess, Collection<State> owners, UUID dimensionId, Long startTimestamp, Long endTimestamp, boolean master) throws SQLException {
+            MetricAccessDatabase db = metricAccess.getDatabase();
+
+            if (db == null || owners.isEmpty()) {
+                return;
+            }
+
+            SqlVendor vendor = db.getMetricVendor();
+            boolean selectMinData = startTimestamp != null;
+            String maxKey = metricAccess.getCacheKey(dimensionId, endTimestamp, CACHE_MAX);
+            String minKey = selectMinData ? metricAccess.getCacheKey(dimensionId, startTimestamp, CACHE_MIN) : null;
+            List<State> ownersList = new ArrayList<State>(owners);
+
+            for (int from = 0, size = ownersList.size(); from < size; from += PRE_FETCH_BATCH_SIZE) {
+                Map<UUID, State> ownersById = new HashMap<UUID, State>();
+                StringBuilder extraWhereSql = new StringBuilder();
+                StringBuilder extraSelectSql = new StringBuilder();
+
+                for (State owner : ownersList.subList(from, Math.min(from + PRE_FETCH_BATCH_SIZE, size))) {
+                    ownersById.put(owner.getId(), owner);
+                }
+
+                vendor.appendIdentifier(extraWhereSql, METRIC_ID_FIELD);
+                extraWhereSql.append(" IN (");
+
+                for (UUID id : ownersById.keySet()) {
+                    vendor.appendValue(extraWhereSql, id);
+                    extraWhereSql.append(", ");
+                }
+
+                extraWhereSql.setLength(extraWhereSql.length() - 2);
+                extraWhereSql.append(')');
+                vendor.appendIdentifier(extraSelectSql, METRIC_ID_FIELD);
+
+                String sql = getDataSql(db, null, metricAccess.getTypeId(), metricAccess.getSymbolId(), dimensionId, startTimestamp, endTimestamp, selectMinData, true, extraSelectSql.toString(), extraSelectSql.toString(), extraWhereSql.toString());
+                Map<UUID, List<byte[]>> datasById = new HashMap<UUID, List<byte[]>>();
+                Connection connection = master ? db.openConnection() : db.openReadConnection();
+
+                try {
+                    Statement statement = connection.createStatement();
+                    try {
+                        ResultSet result = db.executeQueryBeforeTimeout(statement, sql, QUERY_TIMEOUT);
+                        try {
+                            while (result.next()) {
+                                List<byte[]> datas = new ArrayList<byte[]>();
+                                datas.add(result.getBytes(1));
+                                datas.add(selectMinData ? result.getBytes(2) : null);
+                                datasById.put(vendor.getUuid(result, selectMinData ? 3 : 2), datas);
+                            }
+                        } finally {
+                            result.close();
+                        }
+                    } finally {
+                        statement.close();
+                    }
+                } finally {
+                    db.closeConnection(connection);
+                }
+
+                // Owners without any data are cached too, so that they're
+                // not queried again.
+                for (Map.Entry<UUID, State> entry : ownersById.entrySet()) {
+                    List<byte[]> datas = datasById.get(entry.getKey());
+                    Map<String, Object> extras = entry.getValue().getExtras();
+
+                    synchronized (extras) {
+                        extras.put(maxKey, datas != null ? datas.get(0) : null);
+
+                        if (selectMinData) {
+                            extras.put(minKey, datas != null ? datas.get(1) : null);
+                        }
+                    }
+                }
+            }
+        }
+
         public static MetricAccess getMetricAccess(Database db, ObjectType type, ObjectField field) {
             if (db == null || field == null) {
                 return null;
@@ -1721,6 +2078,19 @@ class MetricAccess {
                             field.as(MetricAccess.FieldData.class).getEventDateProcessor());
         }
 
+        /**
+         * Removes all metric data and the markers of what was pre-fetched
+         * from the given {@code extras}, so that the next read goes to the
+         * database.
+         *
+         * @param extras Can't be {@code null}.
+         */
+        public static void clearExtras(Map<String, Object> extras) {
+            synchronized (extras) {
+                extras.keySet().removeIf(key -> key.startsWith(METRIC_CACHE_EXTRA_PREFIX) || key.startsWith(METRIC_PRE_FETCHED_EXTRA_PREFIX));
+            }
+        }
+
         public static CachingDatabase getCachingDatabase() {
             Database db = Database.Static.getDefault();
             while (db instanceof ForwardingDatabase) {
@@ -1764,6 +2134,7 @@ class MetricAccess {
         private transient MetricInterval eventDateProcessor;
 
         private boolean metricValue;
+        private boolean aggregateInMemory;
         private String eventDateProcessorClassName;
 
         public boolean isMetricValue() {
@@ -1774,6 +2145,14 @@ class MetricAccess {
             this.metricValue = metricValue;
         }
 
+        public boolean isAggregateInMemory() {
+            return aggregateInMemory;
+        }
+
+        public void setAggregateInMemory(boolean aggregateInMemory) {
+            this.aggregateInMemory = aggregateInMemory;
+        }
+
         public String getEventDateProcessorClassName() {
             return eventDateProcessorClassName;
         }
@@ -1885,8 +2264,21 @@ class MetricAccess {
     }
 }
 
+/**
+ * Resummarizes all metric values for a symbol, split into ranges of the
+ * {@code id} column that are processed in parallel.
+ *
+ * <p>The progress in each range is saved as a
+ * {@link MetricResummarizationTask.ResummarizationCheckpoint}, so that a
+ * task with the same executor and name that's interrupted can resume
+ * where it left off, as long as it's resummarizing the same dates with
+ * the same interval.</p>
+ */
 class ResummarizeTask extends Task {
-    private static final int QUEUE_SIZE = 200;
+
+    private static final int PARTITIONS_PER_WORKER = 4;
+    private static final int CHECKPOINT_INTERVAL = 100;
+
     private final MetricAccessDatabase database;
     private final int symbolId;
     private final MetricInterval interval;
@@ -1895,8 +2287,9 @@ class ResummarizeTask extends Task {
     private final int numConsumers;
     private final String executor;
     private final String name;
-    private final AsyncQueue<Metric.DistinctIds> queue = new AsyncQueue<Metric.DistinctIds>(new ArrayBlockingQueue<Metric.DistinctIds>(QUEUE_SIZE));
-    private final List<ResummarizeConsumer> consumers = new ArrayList<ResummarizeConsumer>();
+    private final List<ResummarizeWorker> workers = new ArrayList<ResummarizeWorker>();
+    private final AtomicLong resummarizedCount = new AtomicLong();
+    private volatile boolean completed;
 
     public ResummarizeTask(MetricAccessDatabase database, int symbolId, MetricInterval interval, Long startTimestamp, Long endTimestamp, int numConsumers, String executor, String name) {
         super(executor, name);
@@ -1910,64 +2303,191 @@ class ResummarizeTask extends Task {
         this.name = name;
     }
 
+    /**
+     * Returns {@code true} if all ranges were resummarized during the
+     * last run of this task.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
     public void doTask() throws Exception {
+        completed = false;
+        resummarizedCount.set(0);
         DistributedLock lock = new DistributedLock(database, executor + ":" + name);
         boolean locked = false;
         try {
             if (lock.tryLock()) {
                 locked = true;
-                for (int i = 0; i < numConsumers; i++) {
-                    ResummarizeConsumer consumer = new ResummarizeConsumer(database, symbolId, interval, startTimestamp, endTimestamp, queue, executor);
-                    consumers.add(consumer);
-                    consumer.submit();
+                String taskKey = executor + ":" + name;
+                List<MetricResummarizationTask.ResummarizationCheckpoint> checkpoints = findCheckpoints(taskKey);
+                if (checkpoints.isEmpty()) {
+                    checkpoints = createCheckpoints(taskKey);
                 }
-                Iterator<Metric.DistinctIds> iter = MetricAccess.Static.getDistinctIds(database, null, symbolId, startTimestamp, endTimestamp);
-                int i = 0;
-                while (shouldContinue() && iter.hasNext()) {
-                    this.setProgressIndex(++i);
-                    Metric.DistinctIds tuple = iter.next();
-                    queue.add(tuple);
+
+                Queue<MetricResummarizationTask.ResummarizationCheckpoint> pending = new ConcurrentLinkedQueue<MetricResummarizationTask.ResummarizationCheckpoint>();
+                for (MetricResummarizationTask.ResummarizationCheckpoint checkpoint : checkpoints) {
+                    if (!checkpoint.isComplete()) {
+                        pending.add(checkpoint);
+                    }
+                }
+
+                MetricAccess.LOGGER.info("Resummarizing [{}] of [{}] ranges with [{}] workers", new Object[] { pending.size(), checkpoints.size(), numConsumers });
+
+                for (int i = 0, size = Math.min(numConsumers, pending.size()); i < size; i++) {
+                    ResummarizeWorker worker = new ResummarizeWorker(this, pending, executor);
+                    workers.add(worker);
+                    worker.submit();
                 }
-                this.setProgressTotal(i);
-                queue.closeAutomatically();
+
                 boolean done;
                 do {
                     Thread.sleep(1000);
                     done = true;
-                    for (Task task : consumers) {
+                    for (Task task : workers) {
                         if (task.isRunning()) {
                             done = false;
                         }
                     }
                 } while (shouldContinue() && !done);
+
+                if (!done) {
+                    for (Task task : workers) {
+                        task.stop();
+                    }
+                    return;
+                }
+
+                for (Task task : workers) {
+                    Throwable error = task.getLastException();
+                    if (error instanceof Exception) {
+                        throw (Exception) error;
+                    } else if (error != null) {
+                        throw new RuntimeException(error);
+                    }
+                }
+
+                for (MetricResummarizationTask.ResummarizationCheckpoint checkpoint : checkpoints) {
+                    if (!checkpoint.isComplete()) {
+                        return;
+                    }
+                }
+
+                for (MetricResummarizationTask.ResummarizationCheckpoint checkpoint : checkpoints) {
+                    checkpoint.delete();
+                }
+                completed = true;
             }
         } finally {
+            workers.clear();
             if (locked) {
                 lock.unlock();
             }
         }
     }
+
+    // Finds the checkpoints that were saved by an earlier run of this task
+    // with the same parameters, and discards the rest.
+    private List<MetricResummarizationTask.ResummarizationCheckpoint> findCheckpoints(String taskKey) {
+        List<MetricResummarizationTask.ResummarizationCheckpoint> checkpoints = Query
+                .from(MetricResummarizationTask.ResummarizationCheckpoint.class)
+                .using(database)
+                .noCache()
+                .master()
+                .where("task = ?", taskKey)
+                .selectAll();
+
+        for (MetricResummarizationTask.ResummarizationCheckpoint checkpoint : checkpoints) {
+            if (checkpoint.getSymbolId() != symbolId
+                    || !Objects.equals(checkpoint.getStartTimestamp(), startTimestamp)
+                    || !Objects.equals(checkpoint.getEndTimestamp(), endTimestamp)
+                    || !interval.getClass().getName().equals(checkpoint.getIntervalClassName())
+                    || checkpoint.getPartitions() != checkpoints.size()) {
+
+                for (MetricResummarizationTask.ResummarizationCheckpoint stale : checkpoints) {
+                    stale.delete();
+                }
+                return new ArrayList<MetricResummarizationTask.ResummarizationCheckpoint>();
+            }
+        }
+
+        return checkpoints;
+    }
+
+    // Splits the metric table into ranges and saves a checkpoint at the
+    // beginning of each.
+    private List<MetricResummarizationTask.ResummarizationCheckpoint> createCheckpoints(String taskKey) throws SQLException {
+        List<UUID> boundaries = MetricAccess.Static.getIdRangeBoundaries(database, symbolId, Math.max(numConsumers, 1) * PARTITIONS_PER_WORKER);
+        List<MetricResummarizationTask.ResummarizationCheckpoint> checkpoints = new ArrayList<MetricResummarizationTask.ResummarizationCheckpoint>();
+        int partitions = boundaries.size() + 1;
+        UUID minId = null;
+
+        for (int i = 0; i < partitions; i++) {
+            UUID maxId = i < boundaries.size() ? boundaries.get(i) : null;
+            MetricResummarizationTask.ResummarizationCheckpoint checkpoint = new MetricResummarizationTask.ResummarizationCheckpoint(taskKey, i, partitions);
+
+            checkpoint.getState().setDatabase(database);
+            checkpoint.setSymbolId(symbolId);
+            checkpoint.setStartTimestamp(startTimestamp);
+            checkpoint.setEndTimestamp(endTimestamp);
+            checkpoint.setIntervalClassName(interval.getClass().getName());
+            checkpoint.setMinId(minId);
+            checkpoint.setMaxId(maxId);
+            checkpoint.saveImmediately();
+            checkpoints.add(checkpoint);
+            minId = maxId;
+        }
+
+        return checkpoints;
+    }
+
+    boolean isStopping() {
+        return !shouldContinue();
+    }
+
+    // Resummarizes the IDs in the given range, starting after its last
+    // checkpoint.
+    void resummarize(MetricResummarizationTask.ResummarizationCheckpoint checkpoint, Task worker) throws SQLException {
+        Iterator<Metric.DistinctIds> iter = MetricAccess.Static.getDistinctIds(database, null, symbolId, startTimestamp, endTimestamp, checkpoint.getMinId(), checkpoint.getMaxId(), checkpoint.getLast());
+        int count = 0;
+
+        while (iter.hasNext()) {
+            if (isStopping() || worker.isStopRequested()) {
+                checkpoint.saveImmediately();
+                return;
+            }
+
+            Metric.DistinctIds tuple = iter.next();
+            MetricAccess.Static.doResummarize(database, tuple.id, tuple.typeId, symbolId, tuple.dimensionId, interval, startTimestamp, endTimestamp);
+            checkpoint.setLast(tuple);
+            setProgressIndex(resummarizedCount.incrementAndGet());
+
+            if (++count % CHECKPOINT_INTERVAL == 0) {
+                checkpoint.saveImmediately();
+            }
+        }
+
+        checkpoint.setComplete(true);
+        checkpoint.saveImmediately();
+    }
 }
 
-class ResummarizeConsumer extends AsyncConsumer<Metric.DistinctIds> {
-    private final MetricAccessDatabase database;
-    private final int symbolId;
-    private final MetricInterval interval;
-    private final Long startTimestamp;
-    private final Long endTimestamp;
+class ResummarizeWorker extends Task {
+    private final ResummarizeTask parent;
+    private final Queue<MetricResummarizationTask.ResummarizationCheckpoint> pending;
 
-    public ResummarizeConsumer(MetricAccessDatabase database, int symbolId, MetricInterval interval, Long startTimestamp, Long endTimestamp, AsyncQueue<Metric.DistinctIds> input, String executor) {
-        super(executor, input);
-        this.database = database;
-        this.symbolId = symbolId;
-        this.interval = interval;
-        this.startTimestamp = startTimestamp;
-        this.endTimestamp = endTimestamp;
+    public ResummarizeWorker(ResummarizeTask parent, Queue<MetricResummarizationTask.ResummarizationCheckpoint> pending, String executor) {
+        super(executor, parent.getName() + " Worker");
+        this.parent = parent;
+        this.pending = pending;
     }
 
     @Override
-    protected void consume(Metric.DistinctIds tuple) throws Exception {
-        MetricAccess.Static.doResummarize(database, tuple.id, tuple.typeId, symbolId, tuple.dimensionId, interval, startTimestamp, endTimestamp);
+    protected void doTask() throws Exception {
+        MetricResummarizationTask.ResummarizationCheckpoint checkpoint;
+        while (shouldContinue() && !parent.isStopping() && (checkpoint = pending.poll()) != null) {
+            setProgress("Range " + (checkpoint.getPartition() + 1) + " of " + checkpoint.getPartitions());
+            parent.resummarize(checkpoint, this);
+        }
     }
-
 }
@@ -0,0 +1,361 @@
+package com.psddev.dari.db;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * In-memory tier in front of the metric table for the fields annotated
+ * with {@code @MetricValue(aggregateInMemory = true)}.
+ *
+ * <p>For each recently read ID and dimension, it keeps the amount of each
+ * interval within a rolling window that's specified in the
+ * {@value #WINDOW_SECONDS_SETTING} setting (defaults to 8 days), plus the
+ * cumulative amount before it. Sums and timelines whose start falls
+ * within the window are then calculated without a query.</p>
+ *
+ * <p>Local increments, including the ones waiting in
+ * {@link MetricIncrementQueue}, are added to the buckets in place. The
+ * increments from the other servers are picked up when the buckets are
+ * reloaded from the database, every {@value #RECONCILE_SECONDS_SETTING}
+ * seconds (defaults to {@code 60}). The total number of buckets across
+ * all fields is bounded by the {@value #MAXIMUM_BUCKETS_SETTING} setting
+ * (defaults to {@code 250000}).</p>
+ */
+final class MetricAggregationCache {
+
+    public static final String WINDOW_SECONDS_SETTING = "dari/metricAggregationWindowSeconds";
+    public static final String RECONCILE_SECONDS_SETTING = "dari/metricAggregationReconcileSeconds";
+    public static final String MAXIMUM_BUCKETS_SETTING = "dari/metricAggregationMaximumBuckets";
+
+    private static final long DEFAULT_WINDOW_SECONDS = 8L * 24L * 60L * 60L;
+    private static final long DEFAULT_RECONCILE_SECONDS = 60L;
+    private static final long DEFAULT_MAXIMUM_BUCKETS = 250000L;
+
+    // Number of new event dates that can be added to the loaded buckets
+    // before they're reloaded, so that their weight stays accurate.
+    private static final int GROWTH_ALLOWANCE = 64;
+
+    // Shared across all fields so that the memory bound is global. Each
+    // entry holds the buckets of all dimensions of an ID, so that they can
+    // be invalidated together, and it's put again whenever its buckets
+    // change so that it's weighed again.
+    private static final Cache<Key, Entry> ENTRIES = CacheBuilder
+            .newBuilder()
+            .expireAfterWrite(Settings.getOrDefault(long.class, RECONCILE_SECONDS_SETTING, DEFAULT_RECONCILE_SECONDS), TimeUnit.SECONDS)
+            .maximumWeight(Settings.getOrDefault(long.class, MAXIMUM_BUCKETS_SETTING, DEFAULT_MAXIMUM_BUCKETS))
+            .weigher((Key key, Entry entry) -> entry.weight)
+            .build();
+
+    private final MetricAccess metricAccess;
+
+    public MetricAggregationCache(MetricAccess metricAccess) {
+        this.metricAccess = metricAccess;
+    }
+
+    /**
+     * Returns the buckets for the given {@code id} and {@code dimensionId},
+     * loading them from the database if necessary.
+     *
+     * @return Never {@code null}.
+     */
+    public Buckets get(UUID id, UUID dimensionId) throws SQLException {
+        Key key = new Key(metricAccess, id);
+        Entry entry = ENTRIES.getIfPresent(key);
+        Buckets buckets = entry != null ? entry.buckets.get(dimensionId) : null;
+
+        if (buckets != null && !buckets.isExpired()) {
+            return buckets;
+        }
+
+        // The entry is created before the load and the buckets are only
+        // kept if it's still there afterwards, so that an invalidation
+        // during the load isn't undone.
+        Map<Key, Entry> entries = ENTRIES.asMap();
+
+        entry = entries.computeIfAbsent(key, k -> new Entry());
+        buckets = load(id, dimensionId);
+
+        synchronized (entry) {
+            entry.buckets.put(dimensionId, buckets);
+            entry.weigh();
+
+            // Put again so that it's weighed again.
+            entries.replace(key, entry, entry);
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Returns {@code true} if the metric value between the given
+     * {@code startTimestamp} and {@code endTimestamp} can be calculated
+     * from the buckets in the current window.
+     *
+     * @param startTimestamp If {@code null}, beginning of time.
+     * @param endTimestamp If {@code null}, end of time.
+     */
+    public boolean covers(Long startTimestamp, Long endTimestamp) {
+        long windowStart = metricAccess.getDatabase().now() - Settings.getOrDefault(long.class, WINDOW_SECONDS_SETTING, DEFAULT_WINDOW_SECONDS) * 1000L;
+
+        return startTimestamp != null
+                ? startTimestamp >= windowStart
+                : endTimestamp == null || endTimestamp >= windowStart;
+    }
+
+    /**
+     * Adds the given {@code amount} to the buckets for the given
+     * {@code id} and {@code dimensionId}, and to the ones for the sum of
+     * all dimensions, if they're already in memory.
+     */
+    public void increment(UUID id, UUID dimensionId, long eventDate, double amount) {
+        Entry entry = ENTRIES.getIfPresent(new Key(metricAccess, id));
+
+        if (entry == null) {
+            return;
+        }
+
+        increment(entry, dimensionId, eventDate, amount);
+
+        if (!dimensionId.equals(UuidUtils.ZERO_UUID)) {
+            increment(entry, UuidUtils.ZERO_UUID, eventDate, amount);
+        }
+    }
+
+    // Adds the amount to the buckets for the dimension in the entry, or
+    // removes them if they're full so that they're reloaded instead.
+    private void increment(Entry entry, UUID dimensionId, long eventDate, double amount) {
+        Buckets buckets = entry.buckets.get(dimensionId);
+
+        if (buckets != null && !buckets.add(eventDate, amount)) {
+            entry.buckets.remove(dimensionId, buckets);
+        }
+    }
+
+    /**
+     * Removes all buckets for the given {@code id}, so that they're
+     * reloaded on the next read.
+     */
+    public void invalidate(UUID id) {
+        ENTRIES.invalidate(new Key(metricAccess, id));
+    }
+
+    // Loads the buckets from the database, starting far enough back that
+    // reads of the whole window are covered until they're reloaded.
+    private Buckets load(UUID id, UUID dimensionId) throws SQLException {
+        long windowSeconds = Settings.getOrDefault(long.class, WINDOW_SECONDS_SETTING, DEFAULT_WINDOW_SECONDS);
+        long reconcileSeconds = Settings.getOrDefault(long.class, RECONCILE_SECONDS_SETTING, DEFAULT_RECONCILE_SECONDS);
+        long windowStart = metricAccess.getDatabase().now() - (windowSeconds + reconcileSeconds) * 1000L;
+        Double base = metricAccess.getCumulativeAmountBefore(id, dimensionId, windowStart);
+        Map<DateTime, Double> timeline = metricAccess.getIntervalAmountsSince(id, dimensionId, windowStart);
+        Buckets buckets = new Buckets(windowStart, base, timeline.size());
+
+        buckets.expireTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(reconcileSeconds);
+
+        for (Map.Entry<DateTime, Double> entry : timeline.entrySet()) {
+            buckets.add(entry.getKey().getMillis(), entry.getValue());
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Amounts of each interval for an ID and a dimension since the start
+     * of the window.
+     */
+    public static final class Buckets {
+
+        private final long windowStart;
+        private final int maximumSize;
+        private boolean baseExists;
+        private double base;
+        private long[] eventDates;
+        private double[] amounts;
+        private int size;
+        private volatile long expireTime = Long.MAX_VALUE;
+
+        /**
+         * @param capacity Number of event dates that are about to be added.
+         *        A few more can be added after that.
+         */
+        Buckets(long windowStart, Double base, int capacity) {
+            this.windowStart = windowStart;
+            this.maximumSize = capacity + GROWTH_ALLOWANCE;
+            this.baseExists = base != null;
+            this.base = base != null ? base : 0.0;
+            this.eventDates = new long[Math.max(capacity, 4)];
+            this.amounts = new double[eventDates.length];
+        }
+
+        // Returns true if these buckets should be reloaded to pick up the
+        // increments from the other servers.
+        boolean isExpired() {
+            return System.nanoTime() - expireTime >= 0L;
+        }
+
+        /**
+         * Returns {@code true} if the metric value between the given
+         * {@code startTimestamp} and {@code endTimestamp} can be calculated
+         * from these buckets, which may not be the case if the window
+         * setting changed since they were loaded.
+         *
+         * @param startTimestamp If {@code null}, beginning of time.
+         * @param endTimestamp If {@code null}, end of time.
+         */
+        public boolean covers(Long startTimestamp, Long endTimestamp) {
+            return startTimestamp != null
+                    ? startTimestamp >= windowStart
+                    : endTimestamp == null || endTimestamp >= windowStart;
+        }
+
+        /**
+         * Returns the metric value between the given {@code startTimestamp}
+         * and {@code endTimestamp}.
+         *
+         * @return {@code null} if there isn't any data in the range.
+         */
+        public synchronized Double sum(Long startTimestamp, Long endTimestamp) {
+            boolean exists = startTimestamp == null && baseExists;
+            double sum = startTimestamp == null ? base : 0.0;
+
+            for (int i = 0; i < size; ++ i) {
+                long eventDate = eventDates[i];
+
+                if ((startTimestamp == null || eventDate >= startTimestamp)
+                        && (endTimestamp == null || eventDate < endTimestamp)) {
+
+                    exists = true;
+                    sum += amounts[i];
+                }
+            }
+
+            return exists ? sum : null;
+        }
+
+        /**
+         * Returns the metric values between the given {@code startTimestamp}
+         * and {@code endTimestamp} grouped by the given {@code interval}.
+         *
+         * @param startTimestamp Can't be {@code null}.
+         * @return Never {@code null}.
+         */
+        public synchronized Map<DateTime, Double> timeline(long startTimestamp, Long endTimestamp, MetricInterval interval) {
+            Map<DateTime, Double> timeline = new CompactMap<DateTime, Double>();
+
+            for (int i = 0; i < size; ++ i) {
+                long eventDate = eventDates[i];
+
+                if (eventDate >= startTimestamp && (endTimestamp == null || eventDate < endTimestamp)) {
+                    DateTime date = new DateTime(interval.process(new DateTime(eventDate)));
+                    Double amount = timeline.get(date);
+
+                    timeline.put(date, (amount != null ? amount : 0.0) + amounts[i]);
+                }
+            }
+
+            return timeline;
+        }
+
+        // Adds the given amount to the bucket at the given event date, and
+        // returns false without adding it if there's no more room for a new
+        // event date.
+        synchronized boolean add(long eventDate, double amount) {
+            if (eventDate < windowStart) {
+                baseExists = true;
+                base += amount;
+                return true;
+            }
+
+            int index = Arrays.binarySearch(eventDates, 0, size, eventDate);
+
+            if (index >= 0) {
+                amounts[index] += amount;
+                return true;
+            }
+
+            if (size == maximumSize) {
+                return false;
+            }
+
+            index = -index - 1;
+
+            if (size == eventDates.length) {
+                int length = Math.min(size * 2, maximumSize);
+
+                eventDates = Arrays.copyOf(eventDates, length);
+                amounts = Arrays.copyOf(amounts, length);
+            }
+
+            System.arraycopy(eventDates, index, eventDates, index + 1, size - index);
+            System.arraycopy(amounts, index, amounts, index + 1, size - index);
+
+            eventDates[index] = eventDate;
+            amounts[index] = amount;
+            ++ size;
+            return true;
+        }
+    }
+
+    // Buckets of all dimensions for an ID.
+    private static final class Entry {
+
+        public final Map<UUID, Buckets> buckets = new ConcurrentHashMap<>();
+        public volatile int weight = 1;
+
+        // Updates the weight to the maximum number of buckets that can be
+        // held, which doesn't change until the buckets are replaced.
+        public void weigh() {
+            int weight = 1;
+
+            for (Buckets b : buckets.values()) {
+                weight += b.maximumSize + 1;
+            }
+
+            this.weight = weight;
+        }
+    }
+
+    private static final class Key {
+
+        public final MetricAccess metricAccess;
+        public final UUID id;
+
+        public Key(MetricAccess metricAccess, UUID id) {
+            this.metricAccess = metricAccess;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+
+            } else if (other instanceof Key) {
+                Key otherKey = (Key) other;
+
+                return metricAccess == otherKey.metricAccess
+                        && id.equals(otherKey.id);
+
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return ObjectUtils.hashCode(System.identityHashCode(metricAccess), id);
+        }
+    }
+}
@@ -25,6 +25,7 @@ final class MetricIncrementQueue {
         double executeSeconds = new BigDecimal(withinSeconds * .25d).setScale(2).doubleValue();
 
         putInMap(id, dimensionId, eventDate, metricAccess, amount, waitSeconds);
+        metricAccess.aggregateIncrement(id, dimensionId, eventDate, amount);
 
         // If the task is already running or has been scheduled, this won't do anything.
         MetricIncrementQueueTask task = MetricIncrementQueueTask.getInstance(executeSeconds, waitSeconds, QUEUED_INCREMENTS.get(waitSeconds));
@@ -165,7 +166,8 @@ final class MetricIncrementQueueTask extends Task {
             QueuedMetricIncrement queuedIncrement = queuedIncrements.remove(key);
             //LOGGER.info("Incrementing : " + queuedIncrement.metricAccess.getSymbolId() + " / " + queuedIncrement.id + " : " + queuedIncrement.dimensionId + " += " + queuedIncrement.amount );
             try {
-                queuedIncrement.metricAccess.incrementMetricByDimensionId(queuedIncrement.id, queuedIncrement.eventDate, queuedIncrement.dimensionId, queuedIncrement.amount);
+                // Already aggregated in memory when it was queued.
+                queuedIncrement.metricAccess.incrementMetricByDimensionId(queuedIncrement.id, queuedIncrement.eventDate, queuedIncrement.dimensionId, queuedIncrement.amount, false);
             } catch (SQLException ex) {
                 LOGGER.error("SQLException during incrementMetricByDimensionId: " + ex.getLocalizedMessage());
                 // TODO: log this somewhere so it can be recovered if the database fails catastrophically
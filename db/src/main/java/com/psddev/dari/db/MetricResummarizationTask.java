@@ -5,6 +5,7 @@ import java.net.UnknownHostException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -30,6 +31,8 @@ import com.psddev.dari.util.TypeReference;
  * <Environment name="dari/metricResummarize/analyticsDaily/intervalClass" type="java.lang.String" value="com.psddev.dari.db.MetricInterval$Daily" />
  * <!-- Only run on a single host (optional) -->
  * <Environment name="dari/metricResummarize/analyticsDaily/hostname" type="java.lang.String" value="task.host.com" />
+ * <!-- Number of ID ranges to resummarize in parallel (optional, defaults to 4) -->
+ * <Environment name="dari/metricResummarize/analyticsDaily/parallel" type="java.lang.Integer" value="4" />
  * }
  * </pre>
  *
@@ -59,6 +62,9 @@ import com.psddev.dari.util.TypeReference;
  * }
  * </pre>
  *
+ * <p>The progress of each run is saved as it goes, so that a run that's
+ * interrupted resumes with the same date range the next time instead of
+ * skipping it.</p>
  */
 
 public class MetricResummarizationTask extends RepeatingTask {
@@ -70,6 +76,8 @@ public class MetricResummarizationTask extends RepeatingTask {
     private static final String CONFIG_INTERVAL_CLASS = "intervalClass";
     private static final String CONFIG_DATABASE = "database";
     private static final String CONFIG_HOSTNAME = "hostname";
+    private static final String CONFIG_PARALLEL = "parallel";
+    private static final int DEFAULT_PARALLEL = 4;
     private static final Map<String, Map<String, Object>> CONFIG = Settings.get(new TypeReference<Map<String, Map<String, Object>>>() { }, CONFIG_PREFIX);
 
     @Override
@@ -121,8 +129,10 @@ public class MetricResummarizationTask extends RepeatingTask {
                 continue;
             }
 
+            Integer parallel = ObjectUtils.to(Integer.class, settings.get(CONFIG_PARALLEL));
+
             try {
-                Static.submitResummarizationTask(this, database, key, fieldSpecs, beforeDays, intervalClassName);
+                Static.submitResummarizationTask(this, database, key, fieldSpecs, beforeDays, intervalClassName, parallel != null ? parallel : DEFAULT_PARALLEL);
             } catch (ResummarizationSettingsException e) {
                 LOGGER.warn(e.getMessage());
             }
@@ -170,6 +180,8 @@ public class MetricResummarizationTask extends RepeatingTask {
 
         private Long runDate;
 
+        private Boolean completed;
+
         @Indexed(unique = true)
         private String key;
 
@@ -197,6 +209,18 @@ public class MetricResummarizationTask extends RepeatingTask {
             this.runDate = (runDate == null ? null : runDate.getMillis());
         }
 
+        /**
+         * Returns {@code false} if the resummarization of the date range
+         * was interrupted and should be resumed.
+         */
+        public boolean isCompleted() {
+            return !Boolean.FALSE.equals(completed);
+        }
+
+        public void setCompleted(boolean completed) {
+            this.completed = completed;
+        }
+
         public String getKey() {
             return key;
         }
@@ -206,19 +230,159 @@ public class MetricResummarizationTask extends RepeatingTask {
         }
     }
 
+    /**
+     * Progress of a resummarization task within a range of metric IDs,
+     * which lets an interrupted task resume where it left off.
+     */
+    public static class ResummarizationCheckpoint extends Record {
+
+        @Indexed
+        private String task;
+
+        @Indexed(unique = true)
+        private String key;
+
+        private int partition;
+
+        private int partitions;
+
+        private int symbolId;
+
+        private Long startTimestamp;
+
+        private Long endTimestamp;
+
+        private String intervalClassName;
+
+        private UUID minId;
+
+        private UUID maxId;
+
+        private UUID lastId;
+
+        private UUID lastTypeId;
+
+        private UUID lastDimensionId;
+
+        private boolean complete;
+
+        public ResummarizationCheckpoint() {
+        }
+
+        public ResummarizationCheckpoint(String task, int partition, int partitions) {
+            this.task = task;
+            this.key = task + "/" + partition;
+            this.partition = partition;
+            this.partitions = partitions;
+        }
+
+        public String getTask() {
+            return task;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public int getSymbolId() {
+            return symbolId;
+        }
+
+        public void setSymbolId(int symbolId) {
+            this.symbolId = symbolId;
+        }
+
+        public Long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public void setStartTimestamp(Long startTimestamp) {
+            this.startTimestamp = startTimestamp;
+        }
+
+        public Long getEndTimestamp() {
+            return endTimestamp;
+        }
+
+        public void setEndTimestamp(Long endTimestamp) {
+            this.endTimestamp = endTimestamp;
+        }
+
+        public String getIntervalClassName() {
+            return intervalClassName;
+        }
+
+        public void setIntervalClassName(String intervalClassName) {
+            this.intervalClassName = intervalClassName;
+        }
+
+        /** @return Inclusive. {@code null} if unbounded. */
+        public UUID getMinId() {
+            return minId;
+        }
+
+        public void setMinId(UUID minId) {
+            this.minId = minId;
+        }
+
+        /** @return Exclusive. {@code null} if unbounded. */
+        public UUID getMaxId() {
+            return maxId;
+        }
+
+        public void setMaxId(UUID maxId) {
+            this.maxId = maxId;
+        }
+
+        /**
+         * Returns the IDs that were resummarized last in this range.
+         *
+         * @return {@code null} if nothing has been resummarized yet.
+         */
+        public Metric.DistinctIds getLast() {
+            return lastId != null ? new Metric.DistinctIds(lastId, lastTypeId, lastDimensionId) : null;
+        }
+
+        public void setLast(Metric.DistinctIds last) {
+            this.lastId = last != null ? last.id : null;
+            this.lastTypeId = last != null ? last.typeId : null;
+            this.lastDimensionId = last != null ? last.dimensionId : null;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public void setComplete(boolean complete) {
+            this.complete = complete;
+        }
+    }
+
     public static final class Static {
 
         private Static() { }
 
         public static void submitResummarizationTask(Database database, String key, String[] fieldSpecs, int beforeDays, String intervalClassName) {
+            submitResummarizationTask(database, key, fieldSpecs, beforeDays, intervalClassName, DEFAULT_PARALLEL);
+        }
+
+        public static void submitResummarizationTask(Database database, String key, String[] fieldSpecs, int beforeDays, String intervalClassName, int parallel) {
             try {
-                submitResummarizationTask(null, database, key, fieldSpecs, beforeDays, intervalClassName);
+                submitResummarizationTask(null, database, key, fieldSpecs, beforeDays, intervalClassName, parallel);
             } catch (ResummarizationSettingsException e) {
                 throw new RuntimeException(e);
             }
         }
 
-        private static void submitResummarizationTask(MetricResummarizationTask parentTask, Database database, String key, String[] fieldSpecs, int beforeDays, String intervalClassName) throws ResummarizationSettingsException {
+        private static void submitResummarizationTask(MetricResummarizationTask parentTask, Database database, String key, String[] fieldSpecs, int beforeDays, String intervalClassName, int parallel) throws ResummarizationSettingsException {
 
             Set<ObjectField> fields = resolveFieldSpecs(database, key, fieldSpecs);
 
@@ -247,13 +411,22 @@ public class MetricResummarizationTask extends RepeatingTask {
                 throw new ResummarizationSettingsException(key, null, "last ran on " + last.getRunDate().toString("yyyy/MM/dd HH:mm:ss") + ", aborting.");
             }
 
-            // Set up the new date range
-            DateTime startDate = last.getEndDate();
-            DateTime endDate = new DateTime().dayOfMonth().roundFloorCopy().minusDays(beforeDays);
+            // Set up the new date range, unless the last one wasn't finished
+            DateTime startDate;
+            DateTime endDate;
+            if (last.isCompleted()) {
+                startDate = last.getEndDate();
+                endDate = new DateTime().dayOfMonth().roundFloorCopy().minusDays(beforeDays);
+            } else {
+                startDate = last.getStartDate();
+                endDate = last.getEndDate();
+            }
             last.setRunDate(new DateTime());
             last.setStartDate(startDate);
             last.setEndDate(endDate);
+            last.setCompleted(false);
             last.saveImmediately();
+            boolean completed = true;
             for (ObjectField field : fields) {
                 LOGGER.info("Submitting Metric Resummarization task : "
                         + "Database: " + database.getName() + ", "
@@ -261,7 +434,7 @@ public class MetricResummarizationTask extends RepeatingTask {
                         + "Interval: " + interval.getClass().getName() + ", "
                         + "Start Date: " + startDate + ", "
                         + "End Date: " + endDate);
-                Task task = Metric.Static.submitResummarizeAllBetweenTask(database, field.getParentType(), field, interval, startDate, endDate, 1, "Periodic Metric Resummarization", key + " (" + field.getUniqueName() + ")");
+                Task task = Metric.Static.submitResummarizeAllBetweenTask(database, field.getParentType(), field, interval, startDate, endDate, parallel, "Periodic Metric Resummarization", key + " (" + field.getUniqueName() + ")");
                 do {
                     try {
                         Thread.sleep(1000);
@@ -272,6 +445,15 @@ public class MetricResummarizationTask extends RepeatingTask {
                         break;
                     }
                 } while (parentTask == null || parentTask.shouldContinue());
+
+                if (task.isRunning() || !(task instanceof ResummarizeTask) || !((ResummarizeTask) task).isCompleted()) {
+                    completed = false;
+                }
+            }
+
+            if (completed) {
+                last.setCompleted(true);
+                last.saveImmediately();
             }
         }
 
@@ -72,6 +72,10 @@ class NullMetricAccess extends MetricAccess {
     public void incrementMetricByDimensionId(UUID id, DateTime time, UUID dimensionId, Double amount) throws SQLException {
     }
 
+    @Override
+    void incrementMetricByDimensionId(UUID id, DateTime time, UUID dimensionId, Double amount, boolean aggregate) throws SQLException {
+    }
+
     @Override
     public void setMetric(UUID id, DateTime time, String dimensionValue, Double amount) throws SQLException {
     }
@@ -2,12 +2,26 @@ package com.psddev.dari.db;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
 import com.psddev.dari.util.Profiler;
-
-/** Times all database operations using {@link Profiler}. */
+import com.psddev.dari.util.SamplingProfiler;
+
+/**
+ * Times all database operations using {@link Profiler}.
+ *
+ * <p>When the current thread uses a {@link SamplingProfiler}, the caller
+ * isn't found by walking the stack. Instead, the {@linkplain
+ * Query#getComment query comment}, which {@link QueryCommentEnhancer}
+ * sets to the source file and line that created the query, is added to
+ * the event name so that the timings are aggregated per call site. Other
+ * comments are ignored, and so are new call sites once there are 1000 of
+ * them, so that the number of distinct events stays bounded.</p>
+ */
 public class ProfilingDatabase extends ForwardingDatabase {
 
     /** Event name used to mark {@link Database#readAll} calls. */
@@ -49,9 +63,46 @@ public class ProfilingDatabase extends ForwardingDatabase {
     /** Event name used to mark {@link Database#deleteByQuery} calls. */
     public static final String DELETE_BY_QUERY_EVENT_NAME = "DB: Delete By Query";
 
+    private static final Pattern CALL_SITE_PATTERN = Pattern.compile("[^\\s:]+:\\d+");
+    private static final int MAXIMUM_CALL_SITES = 1000;
+    private static final Set<String> CALL_SITES = ConcurrentHashMap.newKeySet();
+
+    // Returns the source file and line that QueryCommentEnhancer set as the
+    // comment of the given query, or null if it's some other comment or if
+    // there are already too many call sites.
+    private static String getCallSite(Query<?> query) {
+        String comment = query.getComment();
+
+        if (comment == null || !CALL_SITE_PATTERN.matcher(comment).matches()) {
+            return null;
+
+        } else if (CALL_SITES.contains(comment)) {
+            return comment;
+
+        } else if (CALL_SITES.size() >= MAXIMUM_CALL_SITES) {
+            return null;
+
+        } else {
+            CALL_SITES.add(comment);
+            return comment;
+        }
+    }
+
     // --- ForwardingDatabase support ---
 
     private void startQueryEvent(String event, Query<?> query) {
+        Profiler profiler = Profiler.Static.getThreadProfiler();
+
+        if (profiler == null) {
+            return;
+
+        } else if (profiler instanceof SamplingProfiler) {
+            String callSite = getCallSite(query);
+
+            profiler.startEvent(callSite != null ? event + " @ " + callSite : event);
+            return;
+        }
+
         StackTraceElement caller = null;
 
         Profiler.Static.pauseThreadEvent();
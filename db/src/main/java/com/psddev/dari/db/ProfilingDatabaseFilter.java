@@ -6,6 +6,7 @@ import com.psddev.dari.util.HtmlWriter;
 import com.psddev.dari.util.JspUtils;
 import com.psddev.dari.util.Profiler;
 import com.psddev.dari.util.ProfilerFilter;
+import com.psddev.dari.util.SamplingProfiler;
 import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.StringUtils;
 
@@ -34,6 +35,18 @@ public class ProfilingDatabaseFilter extends AbstractFilter {
         if (profiler == null) {
             super.doRequest(request, response, chain);
 
+        } else if (profiler instanceof SamplingProfiler) {
+            ProfilingDatabase profiling = new ProfilingDatabase();
+            profiling.setDelegate(Database.Static.getDefault());
+
+            try {
+                Database.Static.overrideDefault(profiling);
+                super.doRequest(request, response, chain);
+
+            } finally {
+                Database.Static.restoreDefault();
+            }
+
         } else {
             ProfilingDatabase profiling = new ProfilingDatabase();
             profiling.setDelegate(Database.Static.getDefault());
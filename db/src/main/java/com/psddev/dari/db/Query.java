@@ -148,6 +148,7 @@ public class Query<E> extends Record {
     private transient boolean master;
     private transient boolean resolveInvisible;
     private transient Double timeout;
+    private transient CountStrategy countStrategy;
     private transient Map<String, Object> options;
     private final transient Map<String, String> extraSourceColumns = new HashMap<String, String>();
 
@@ -384,6 +385,27 @@ public class Query<E> extends Record {
         this.timeout = timeout;
     }
 
+    /**
+     * Returns how the number of objects matching this query should be
+     * counted.
+     *
+     * @return Never {@code null}.
+     */
+    public CountStrategy getCountStrategy() {
+        return countStrategy != null ? countStrategy : CountStrategy.EXACT;
+    }
+
+    /**
+     * Sets how the number of objects matching this query should be
+     * counted.
+     *
+     * @param countStrategy If {@code null}, {@link CountStrategy#EXACT}
+     *        is used.
+     */
+    public void setCountStrategy(CountStrategy countStrategy) {
+        this.countStrategy = countStrategy;
+    }
+
     /**
      * Returns the map of custom options that are passed to the
      * underlying database.
@@ -720,6 +742,14 @@ public class Query<E> extends Record {
         return this;
     }
 
+    /**
+     * Fluent method for {@link #setCountStrategy(CountStrategy)}.
+     */
+    public Query<E> countStrategy(CountStrategy countStrategy) {
+        setCountStrategy(countStrategy);
+        return this;
+    }
+
     /** Adds a custom option with the given {@code key} and {@code value}. */
     public Query<E> option(String key, Object value) {
         getOptions().put(key, value);
@@ -1383,6 +1413,7 @@ public class Query<E> extends Record {
         clone.setMaster(master);
         clone.setResolveInvisible(resolveInvisible);
         clone.setTimeout(timeout);
+        clone.setCountStrategy(countStrategy);
         clone.setOptions(options != null ? new HashMap<String, Object>(options) : null);
 
         return clone;
@@ -1575,6 +1606,27 @@ public class Query<E> extends Record {
         return getDatabase().readPartial(this, offset, limit);
     }
 
+    /**
+     * Returns a partial list of all objects matching this query that come
+     * after the given {@code cursor} in a {@linkplain #getDatabase database}.
+     *
+     * <p>Unlike {@link #select}, this seeks past the sort values of the
+     * last item in the previous page, so it's just as fast to select a
+     * deep page as the first one. The query is sorted by the ID after
+     * all of its sorters to make the order unique, and objects that are
+     * missing a value in any of the sort fields are excluded.</p>
+     *
+     * @param cursor If blank, returns the first page. Otherwise, must be
+     *        {@link KeysetPaginatedResult#getNextCursor} from the previous
+     *        page of the same query.
+     * @param limit Must be greater than {@code 0}.
+     * @throws IllegalArgumentException If the query is sorted by anything
+     *         other than ascending or descending fields.
+     */
+    public KeysetPaginatedResult<E> selectAfter(String cursor, int limit) {
+        return KeysetPaginatedResult.select(this, cursor, limit);
+    }
+
     /**
      * Returns a list of all objects matching this query in a
      * {@linkplain #getDatabase database}.
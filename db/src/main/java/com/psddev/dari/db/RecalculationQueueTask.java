@@ -0,0 +1,407 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.psddev.dari.util.RepeatingTask;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.TaskExecutor;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * Updates the indexes annotated with {@code \@Recalculate} shortly after
+ * the objects are saved, instead of waiting for the periodic sweep in
+ * {@link RecalculationTask}, which remains as a safety net.
+ *
+ * <p>Every save of an object with such indexes adds its ID to a pending
+ * set in memory, which is written to the database as {@link Entry}
+ * records every few seconds. There's at most one entry per object, so
+ * repeated saves are coalesced. The entries are then processed on the
+ * task host by the number of workers specified in the
+ * {@value #WORKERS_SETTING} setting (defaults to {@code 2}, and {@code 0}
+ * disables the queue), each of which owns a disjoint set of partitions.
+ * The objects that can't be recalculated are retried with an exponential
+ * backoff, and are left to the sweep after a few failures.</p>
+ *
+ * <p>Indexes that depend on a metric are still only recalculated by the
+ * sweep, since they change when the metric changes rather than when the
+ * object is saved.</p>
+ */
+public class RecalculationQueueTask extends RepeatingTask {
+
+    public static final String WORKERS_SETTING = "dari/recalculationQueueWorkers";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecalculationQueueTask.class);
+    private static final Stats STATS = new Stats("Recalculation Queue");
+    private static final String EXECUTOR = "Recalculation Queue";
+    private static final int DEFAULT_WORKERS = 2;
+    private static final int PARTITION_COUNT = 64;
+    private static final int BATCH_SIZE = 200;
+    private static final int MAXIMUM_PENDING_SIZE = 100000;
+    private static final int RUN_INTERVAL_SECONDS = 5;
+    private static final int MAXIMUM_FAILURES = 5;
+
+    private static final Map<UUID, Long> PENDING = new ConcurrentHashMap<UUID, Long>();
+
+    private static final Supplier<Collection<RecalculationTask.RecalculationContext>> CONTEXTS = Suppliers.memoizeWithExpiration(
+            RecalculationTask::getIndexableMethods,
+            1,
+            TimeUnit.MINUTES);
+
+    private static final LoadingCache<ObjectType, ObjectIndex[]> INDEXES = CacheBuilder
+            .newBuilder()
+            .weakKeys()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build(new CacheLoader<ObjectType, ObjectIndex[]>() {
+
+        @Override
+        public ObjectIndex[] load(ObjectType type) {
+            Set<ObjectIndex> indexes = new HashSet<ObjectIndex>();
+
+            for (RecalculationTask.RecalculationContext context : CONTEXTS.get()) {
+                if (context.getMetric() != null) {
+                    continue;
+                }
+
+                Set<String> groups = new HashSet<String>(type.getGroups());
+
+                groups.retainAll(context.groups);
+
+                if (!groups.isEmpty() || context.groups.contains(Object.class.getName())) {
+                    for (ObjectMethod method : context.methods) {
+                        indexes.addAll(method.findIndexes(type));
+                    }
+                }
+            }
+
+            return indexes.toArray(new ObjectIndex[indexes.size()]);
+        }
+    });
+
+    private static volatile long lag;
+
+    private final AtomicLong recalculatedCount = new AtomicLong();
+
+    /**
+     * Returns how long the most recently processed object waited in the
+     * queue on this host.
+     *
+     * @return In milliseconds.
+     */
+    public static long getLag() {
+        return lag;
+    }
+
+    /**
+     * Returns the number of object IDs that are waiting in memory on
+     * this host to be written to the queue.
+     */
+    public static int getPendingSize() {
+        return PENDING.size();
+    }
+
+    private static int getWorkers() {
+        return Settings.getOrDefault(int.class, WORKERS_SETTING, DEFAULT_WORKERS);
+    }
+
+    /**
+     * Adds the IDs of the given saved {@code states} that have indexes to
+     * be recalculated to the pending set.
+     */
+    static void enqueue(List<State> states) {
+        if (getWorkers() <= 0) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+
+            for (State state : states) {
+                ObjectType type = state.getType();
+
+                if (type != null && INDEXES.getUnchecked(type).length > 0) {
+                    if (PENDING.size() < MAXIMUM_PENDING_SIZE) {
+                        PENDING.putIfAbsent(state.getId(), now);
+
+                    } else {
+                        LOGGER.debug("Too many pending recalculations! [{}] will be picked up by the sweep.", state.getId());
+                    }
+                }
+            }
+
+        } catch (RuntimeException error) {
+            LOGGER.debug("Can't queue recalculations!", error);
+        }
+    }
+
+    @Override
+    protected DateTime calculateRunTime(DateTime currentTime) {
+        return every(currentTime, DateTimeFieldType.secondOfMinute(), 0, RUN_INTERVAL_SECONDS);
+    }
+
+    @Override
+    protected void doRepeatingTask(DateTime runTime) throws Exception {
+        int workers = getWorkers();
+
+        if (workers <= 0) {
+            return;
+        }
+
+        Database database = Database.Static.getDefault();
+
+        flush(database);
+
+        if (!RecalculationTask.isTaskHost(Settings.get(String.class, RecalculationTask.TASK_HOST_SETTING))) {
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        TaskExecutor executor = TaskExecutor.Static.getInstance(EXECUTOR);
+
+        for (int i = 0; i < workers; ++ i) {
+            List<Integer> partitions = new ArrayList<Integer>();
+
+            for (int p = i; p < PARTITION_COUNT; p += workers) {
+                partitions.add(p);
+            }
+
+            futures.add(executor.submit(() -> process(database, partitions)));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+
+            } catch (ExecutionException error) {
+                LOGGER.warn("Can't process the recalculation queue!", error.getCause());
+            }
+        }
+    }
+
+    // Writes the pending IDs to the queue.
+    private void flush(Database database) {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+
+        database.beginWrites();
+
+        try {
+            for (Iterator<Map.Entry<UUID, Long>> i = PENDING.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<UUID, Long> pending = i.next();
+                Entry entry = new Entry(pending.getKey(), pending.getValue());
+
+                entry.getState().setDatabase(database);
+                entry.getState().saveUnsafely();
+                i.remove();
+            }
+
+            database.commitWritesEventually();
+
+        } finally {
+            database.endWrites();
+        }
+    }
+
+    // Recalculates the objects in the given partitions of the queue until
+    // they're empty.
+    private void process(Database database, List<Integer> partitions) {
+        while (shouldContinue()) {
+            long start = System.currentTimeMillis();
+            List<Entry> entries = Query
+                    .from(Entry.class)
+                    .using(database)
+                    .noCache()
+                    .master()
+                    .where("partition = ?", partitions)
+                    .and("enqueueDate <= ?", start)
+                    .sortAscending("enqueueDate")
+                    .select(0, BATCH_SIZE)
+                    .getItems();
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            Stats.Timer timer = STATS.startTimer();
+            Map<UUID, Long> enqueueDates = new HashMap<UUID, Long>();
+
+            for (Entry entry : entries) {
+                enqueueDates.put(entry.getObjectId(), entry.getEnqueueDate());
+            }
+
+            Set<UUID> failures = recalculate(database, enqueueDates.keySet());
+            long now = System.currentTimeMillis();
+
+            lag = now - entries.get(entries.size() - 1).getEnqueueDate();
+
+            // Only remove the entries that weren't enqueued again while
+            // they were being processed, and retry the failed ones later.
+            database.beginWrites();
+
+            try {
+                for (Entry entry : Query
+                        .from(Entry.class)
+                        .using(database)
+                        .noCache()
+                        .master()
+                        .where("_id = ?", entries.stream().map(Entry::getId).collect(Collectors.toList()))
+                        .selectAll()) {
+
+                    UUID objectId = entry.getObjectId();
+
+                    if (!Long.valueOf(entry.getEnqueueDate()).equals(enqueueDates.get(objectId))) {
+                        continue;
+                    }
+
+                    if (!failures.contains(objectId)) {
+                        entry.delete();
+
+                    } else if (entry.failures + 1 >= MAXIMUM_FAILURES) {
+                        LOGGER.warn("Giving up on recalculating [{}] after [{}] failures! It'll be picked up by the sweep.", objectId, MAXIMUM_FAILURES);
+                        entry.delete();
+
+                    } else {
+                        ++ entry.failures;
+                        entry.enqueueDate = now + (RUN_INTERVAL_SECONDS * 1000L << entry.failures);
+                        entry.save();
+                    }
+                }
+
+                database.commitWritesEventually();
+
+            } finally {
+                database.endWrites();
+            }
+
+            timer.stop("Recalculate", entries.size());
+            setProgressIndex(recalculatedCount.addAndGet(entries.size() - failures.size()));
+        }
+    }
+
+    // Recalculates the objects with the given IDs and returns the IDs of
+    // the ones that failed.
+    private Set<UUID> recalculate(Database database, Set<UUID> ids) {
+        Set<UUID> failures = new HashSet<UUID>();
+
+        try {
+            database.beginWrites();
+
+            try {
+                for (Object object : Query
+                        .fromAll()
+                        .using(database)
+                        .noCache()
+                        .master()
+                        .where("_id = ?", ids)
+                        .selectAll()) {
+
+                    State state = State.getInstance(object);
+                    ObjectType type = state.getType();
+
+                    if (type == null) {
+                        continue;
+                    }
+
+                    ObjectIndex[] indexes = INDEXES.getUnchecked(type);
+
+                    if (indexes.length == 0) {
+                        continue;
+                    }
+
+                    try {
+                        database.recalculate(state, indexes);
+
+                    } catch (RuntimeException error) {
+                        LOGGER.debug("Can't recalculate [{}]!", state.getId(), error);
+                        failures.add(state.getId());
+                    }
+                }
+
+                database.commitWrites();
+
+            } finally {
+                database.endWrites();
+            }
+
+        } catch (RuntimeException error) {
+            // The whole batch is retried since it's unclear which object
+            // caused the failure.
+            LOGGER.debug("Can't recalculate {}!", ids, error);
+            failures.addAll(ids);
+        }
+
+        return failures;
+    }
+
+    @Override
+    public String getProgress() {
+        return "Lag: " + lag + " ms; Pending: " + PENDING.size();
+    }
+
+    /** Object that's waiting in the queue to be recalculated. */
+    public static class Entry extends Record {
+
+        private UUID objectId;
+
+        @Indexed
+        private int partition;
+
+        @Indexed
+        private long enqueueDate;
+
+        private int failures;
+
+        public Entry() {
+        }
+
+        public Entry(UUID objectId, long enqueueDate) {
+            getState().setId(UuidUtils.fromBytes(StringUtils.md5(Entry.class.getName() + "/" + objectId)));
+            this.objectId = objectId;
+            this.partition = (objectId.hashCode() & Integer.MAX_VALUE) % PARTITION_COUNT;
+            this.enqueueDate = enqueueDate;
+        }
+
+        public UUID getObjectId() {
+            return objectId;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public long getEnqueueDate() {
+            return enqueueDate;
+        }
+
+        /** Returns the number of times that the recalculation failed. */
+        public int getFailures() {
+            return failures;
+        }
+    }
+}
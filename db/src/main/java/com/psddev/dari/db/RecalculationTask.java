@@ -29,6 +29,8 @@ import com.psddev.dari.util.StringUtils;
  * Periodically updates indexes annotated with {@code \@Recalculate}.
  *
  * Optionally specify a task host with the setting "dari/recalculationTaskHost".
+ * Objects that are saved are also recalculated shortly after by
+ * {@link RecalculationQueueTask}, so this sweep is mainly a safety net.
  */
 public class RecalculationTask extends RepeatingTask {
 
@@ -37,7 +39,7 @@ public class RecalculationTask extends RepeatingTask {
     private static final int COMMIT_SIZE = 200;
     private static final Logger LOGGER = LoggerFactory.getLogger(RecalculationTask.class);
     private static final Stats STATS = new Stats("Recalculation Task");
-    private static final String TASK_HOST_SETTING = "dari/recalculationTaskHost";
+    static final String TASK_HOST_SETTING = "dari/recalculationTaskHost";
 
     private String processingKey;
 
@@ -282,7 +284,7 @@ public class RecalculationTask extends RepeatingTask {
         return progress.toString();
     }
 
-    private static boolean isTaskHost(String hostname) {
+    static boolean isTaskHost(String hostname) {
         if (hostname == null || "localhost".equals(hostname)) {
             return true;
         }
@@ -355,7 +357,7 @@ public class RecalculationTask extends RepeatingTask {
         }
     }
 
-    private static Collection<RecalculationContext> getIndexableMethods() {
+    static Collection<RecalculationContext> getIndexableMethods() {
         Map<String, RecalculationContext> contextsByGroupsAndDelayAndMetric = new HashMap<String, RecalculationContext>();
 
         for (ObjectType type : Database.Static.getDefault().getEnvironment().getTypes()) {
@@ -405,7 +407,7 @@ public class RecalculationTask extends RepeatingTask {
         return contextsByGroupsAndDelayAndMetric.values();
     }
 
-    private static final class RecalculationContext {
+    static final class RecalculationContext {
         public final ObjectType type;
         public final RecalculationDelay delay;
         public final TreeSet<String> groups;
@@ -270,6 +270,14 @@ public interface Recordable {
     public @interface MetricValue {
         Class<? extends MetricInterval> interval() default MetricInterval.Hourly.class;
         String intervalSetting() default "";
+
+        /**
+         * {@code true} if the recent values should be kept in memory, so
+         * that the frequently read ones don't need a query.
+         *
+         * @see MetricAggregationCache
+         */
+        boolean aggregateInMemory() default false;
     }
 
     /**
@@ -821,6 +829,7 @@ class MetricValueProcessor implements ObjectField.AnnotationProcessor<Recordable
             }
         }
 
+        metricFieldData.setAggregateInMemory(annotation.aggregateInMemory());
         metricFieldData.setMetricValue(true);
     }
 }
@@ -1,13 +1,36 @@
 package com.psddev.dari.db;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.TaskExecutor;
 
 /**
  * Automatically changing sequence of numbers, similar to a {@code SEQUENCE}
  * in a RDBMS.
+ *
+ * <p>By default, {@link Static#nextLong} goes to the database for every
+ * number. If {@code dari/sequence/{name}/blockSize} is set, a block of
+ * that many numbers is reserved in a single write instead, and they're
+ * handed out from memory. The next block is reserved in the background
+ * once a quarter of the current one is left. The numbers are still
+ * unique across JVMs, but they're no longer strictly increasing across
+ * them, and the unused numbers in a block are skipped when the JVM
+ * shuts down.</p>
  */
 public class Sequence extends Record {
 
+    /** Setting key for all sequence configuration. */
+    public static final String SETTING_PREFIX = "dari/sequence";
+
+    /** Sub-setting key for the number of values reserved at once. */
+    public static final String BLOCK_SIZE_SUB_SETTING = "blockSize";
+
     @Indexed(unique = true)
     @Required
     private String name;
@@ -32,10 +55,25 @@ public class Sequence extends Record {
 
     /** Returns the next number in this sequence. */
     public double next() {
+        return next(1.0);
+    }
+
+    /**
+     * Advances this sequence by the given {@code amount} and returns the
+     * new value, which reserves all numbers between the old value,
+     * exclusive, and the new value, inclusive.
+     *
+     * @param amount Must be positive.
+     */
+    public double next(double amount) {
+        if (amount <= 0.0) {
+            throw new IllegalArgumentException("Amount must be positive!");
+        }
+
         synchronized (this) {
             State state = getState();
 
-            state.incrementAtomically("value", 1.0);
+            state.incrementAtomically("value", amount);
             state.saveImmediately();
 
             return ObjectUtils.to(double.class, state.get("value"));
@@ -45,6 +83,8 @@ public class Sequence extends Record {
     /** {@link Sequence} utility methods. */
     public static final class Static {
 
+        private static final ConcurrentMap<String, Block> BLOCKS = new ConcurrentHashMap<>();
+
         /**
          * Returns the next number in the sequence with the given {@code name},
          * or the given {@code initialValue} if the sequence has never been
@@ -53,13 +93,24 @@ public class Sequence extends Record {
          * @param name Can't be blank.
          */
         public static long nextLong(String name, long initialValue) {
+            int blockSize = ObjectUtils.to(int.class, Settings.get(SETTING_PREFIX + "/" + name + "/" + BLOCK_SIZE_SUB_SETTING));
+
+            if (blockSize > 1) {
+                return BLOCKS.computeIfAbsent(name, n -> new Block(n, initialValue, blockSize)).next();
+
+            } else {
+                return (long) findOrCreate(name, initialValue).next();
+            }
+        }
+
+        private static Sequence findOrCreate(String name, long initialValue) {
             Sequence s = null;
 
             while (true) {
                 s = Query.from(Sequence.class).where("name = ?", name).master().noCache().first();
 
                 if (s != null) {
-                    break;
+                    return s;
                 }
 
                 s = new Sequence();
@@ -68,7 +119,7 @@ public class Sequence extends Record {
 
                 try {
                     s.saveImmediately();
-                    break;
+                    return s;
 
                 } catch (ValidationException error) {
                     if (s.getState().getErrors(s.getState().getField("name")).isEmpty()) {
@@ -76,8 +127,92 @@ public class Sequence extends Record {
                     }
                 }
             }
+        }
+    }
+
+    // Numbers reserved in the database that are handed out from memory.
+    private static final class Range {
+
+        public final AtomicLong next;
+        public final long last;
+
+        public Range(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    // Hands out the numbers in the sequence with a specific name from
+    // reserved ranges, and reserves the next range in the background.
+    private static final class Block {
+
+        private final String name;
+        private final long initialValue;
+        private final int size;
+        private final long refillRemaining;
+
+        private volatile Range current;
+        private CompletableFuture<Range> reserving;
+
+        public Block(String name, long initialValue, int size) {
+            this.name = name;
+            this.initialValue = initialValue;
+            this.size = size;
+            this.refillRemaining = size / 4;
+        }
+
+        public long next() {
+            while (true) {
+                Range range = current;
+
+                if (range != null) {
+                    long value = range.next.getAndIncrement();
+
+                    if (value <= range.last) {
+                        if (range.last - value == refillRemaining) {
+                            reserveInBackground();
+                        }
+
+                        return value;
+                    }
+                }
+
+                synchronized (this) {
+                    if (current == range) {
+                        current = takeReserved();
+                    }
+                }
+            }
+        }
+
+        private Range reserve() {
+            long last = (long) Static.findOrCreate(name, initialValue).next(size);
+
+            return new Range(last - size + 1, last);
+        }
+
+        private synchronized void reserveInBackground() {
+            if (reserving == null) {
+                reserving = CompletableFuture.supplyAsync(this::reserve, TaskExecutor.Static.getInstance("Sequence Blocks"));
+            }
+        }
+
+        // Must be called while synchronized.
+        private Range takeReserved() {
+            CompletableFuture<Range> future = reserving;
+
+            reserving = null;
+
+            if (future != null) {
+                try {
+                    return future.join();
+
+                } catch (CompletionException error) {
+                    // Background reservation failed, so try again below.
+                }
+            }
 
-            return (long) s.next();
+            return reserve();
         }
     }
 }
@@ -0,0 +1,32 @@
+package com.psddev.dari.db;
+
+import java.util.Arrays;
+
+import org.iq80.snappy.Snappy;
+
+/**
+ * Compresses the record data using Snappy, which is what
+ * {@link SqlDatabase} uses by default when the data should be compressed.
+ */
+public class SnappySqlDataCodec implements SqlDataCodec {
+
+    public static final byte PREFIX = 's';
+
+    @Override
+    public byte getPrefix() {
+        return PREFIX;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        byte[] encoded = new byte[Snappy.maxCompressedLength(data.length) + 1];
+
+        encoded[0] = PREFIX;
+        return Arrays.copyOf(encoded, Snappy.compress(data, 0, data.length, encoded, 1) + 1);
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int offset, int length) {
+        return Snappy.uncompress(data, offset, length);
+    }
+}
@@ -0,0 +1,107 @@
+package com.psddev.dari.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.ClassFinder;
+import com.psddev.dari.util.CodeUtils;
+import com.psddev.dari.util.Lazy;
+import com.psddev.dari.util.TypeDefinition;
+
+/**
+ * Compresses the data of the records stored in {@link SqlDatabase}.
+ *
+ * <p>The encoded data always starts with the codec's
+ * {@linkplain #getPrefix prefix} byte, so that the rows that were written
+ * with different codecs can be read from the same table. The prefix
+ * {@code '{'} is reserved for the uncompressed JSON. All concrete
+ * implementations are found automatically, and must have a public
+ * no-argument constructor.</p>
+ *
+ * @see SqlDatabase#setCompressDataCodec
+ */
+public interface SqlDataCodec {
+
+    /** Returns the byte that the data encoded by this codec starts with. */
+    byte getPrefix();
+
+    /**
+     * Encodes the given {@code data}.
+     *
+     * @param data Nonnull.
+     * @return Nonnull. Must start with the {@linkplain #getPrefix prefix}.
+     */
+    byte[] encode(byte[] data);
+
+    /**
+     * Decodes the given {@code length} bytes of {@code data} from the
+     * given {@code offset}, which is right after the prefix.
+     *
+     * @param data Nonnull.
+     * @return Nonnull.
+     */
+    byte[] decode(byte[] data, int offset, int length);
+
+    /** {@link SqlDataCodec} utility methods. */
+    final class Static {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(SqlDataCodec.class);
+
+        private static final Lazy<Map<Byte, SqlDataCodec>> CODECS = new Lazy<Map<Byte, SqlDataCodec>>() {
+
+            @Override
+            protected Map<Byte, SqlDataCodec> create() {
+                Map<Byte, SqlDataCodec> codecs = new HashMap<>();
+
+                // Built-in codecs must always be available to read the
+                // existing data.
+                codecs.put(SnappySqlDataCodec.PREFIX, new SnappySqlDataCodec());
+                codecs.put(DeflateSqlDataCodec.PREFIX, new DeflateSqlDataCodec());
+
+                for (Class<? extends SqlDataCodec> c : ClassFinder.findConcreteClasses(SqlDataCodec.class)) {
+                    if (c == SnappySqlDataCodec.class || c == DeflateSqlDataCodec.class) {
+                        continue;
+                    }
+
+                    SqlDataCodec codec = TypeDefinition.getInstance(c).newInstance();
+                    byte prefix = codec.getPrefix();
+                    SqlDataCodec existing = codecs.get(prefix);
+
+                    if (prefix == '{') {
+                        LOGGER.warn("Can't use [{}] because its prefix is reserved for JSON!", c.getName());
+
+                    } else if (existing != null) {
+                        LOGGER.warn(
+                                "Can't use [{}] because [{}] already uses the [{}] prefix!",
+                                new Object[] { c.getName(), existing.getClass().getName(), (char) prefix });
+
+                    } else {
+                        codecs.put(prefix, codec);
+                    }
+                }
+
+                return codecs;
+            }
+        };
+
+        static {
+            CodeUtils.addRedefineClassesListener(classes -> CODECS.reset());
+        }
+
+        private Static() {
+        }
+
+        /**
+         * Returns the codec that encodes the data with the given
+         * {@code prefix}.
+         *
+         * @return {@code null} if there isn't one.
+         */
+        public static SqlDataCodec getInstance(byte prefix) {
+            return CODECS.get().get(prefix);
+        }
+    }
+}
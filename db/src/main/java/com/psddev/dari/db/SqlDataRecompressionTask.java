@@ -0,0 +1,157 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.psddev.dari.util.Task;
+
+/**
+ * Rewrites the data of all records in a {@link SqlDatabase} in the
+ * background, so that the existing rows use the database's current
+ * {@linkplain SqlDatabase#getCompressDataCodec codec}, or are stored
+ * uncompressed if compression is turned off.
+ *
+ * <p>The rows are read in batches ordered by the ID, and each one is only
+ * updated if its data hasn't changed since it was read, so the concurrent
+ * saves are never overwritten.</p>
+ */
+public class SqlDataRecompressionTask extends Task {
+
+    public static final String EXECUTOR = "SQL Data Recompression";
+
+    private static final int BATCH_SIZE = 200;
+
+    private final SqlDatabase database;
+
+    public SqlDataRecompressionTask(SqlDatabase database) {
+        super(EXECUTOR, database.getName());
+        this.database = database;
+    }
+
+    /**
+     * Starts recompressing the data in the given {@code database}, unless
+     * it's already in progress.
+     */
+    public static void start(SqlDatabase database) {
+        for (Task task : Task.getInstances()) {
+            if (task instanceof SqlDataRecompressionTask
+                    && ((SqlDataRecompressionTask) task).database == database
+                    && task.isRunning()) {
+
+                return;
+            }
+        }
+
+        new SqlDataRecompressionTask(database).submit();
+    }
+
+    @Override
+    protected void doTask() throws SQLException {
+        SqlVendor vendor = database.getVendor();
+        SqlDataCodec codec = database.isCompressData() ? database.getCompressDataCodec() : null;
+        byte targetPrefix = codec != null ? codec.getPrefix() : (byte) '{';
+        UUID lastId = null;
+        long read = 0L;
+        long recompressed = 0L;
+
+        while (shouldContinue()) {
+            List<UUID> ids = new ArrayList<>();
+            List<byte[]> datas = new ArrayList<>();
+            Connection connection = database.openConnection();
+
+            try {
+                Statement statement = connection.createStatement();
+
+                try {
+                    ResultSet result = statement.executeQuery(buildSelectStatement(vendor, lastId));
+
+                    try {
+                        while (result.next()) {
+                            ids.add(vendor.getUuid(result, 1));
+                            datas.add(result.getBytes(2));
+                        }
+
+                    } finally {
+                        result.close();
+                    }
+
+                } finally {
+                    statement.close();
+                }
+
+                for (int i = 0, size = ids.size(); i < size; ++ i) {
+                    byte[] oldData = datas.get(i);
+
+                    if (oldData == null || oldData.length == 0 || oldData[0] == targetPrefix) {
+                        continue;
+                    }
+
+                    byte[] json = SqlDatabase.decodeData(oldData);
+                    byte[] newData = codec != null ? codec.encode(json) : json;
+                    List<Object> parameters = new ArrayList<>();
+                    StringBuilder update = new StringBuilder();
+
+                    update.append("UPDATE ");
+                    vendor.appendIdentifier(update, SqlDatabase.RECORD_TABLE);
+                    update.append(" SET ");
+                    vendor.appendIdentifier(update, SqlDatabase.DATA_COLUMN);
+                    update.append('=');
+                    vendor.appendBindValue(update, newData, parameters);
+                    update.append(" WHERE ");
+                    vendor.appendIdentifier(update, SqlDatabase.ID_COLUMN);
+                    update.append('=');
+                    vendor.appendBindValue(update, ids.get(i), parameters);
+                    update.append(" AND ");
+                    vendor.appendIdentifier(update, SqlDatabase.DATA_COLUMN);
+                    update.append('=');
+                    vendor.appendBindValue(update, oldData, parameters);
+
+                    recompressed += SqlDatabase.Static.executeUpdateWithList(vendor, connection, update.toString(), parameters);
+                }
+
+            } finally {
+                database.closeConnection(connection);
+            }
+
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            read += ids.size();
+            lastId = ids.get(ids.size() - 1);
+
+            setProgressIndex(read);
+            setProgress("Read: " + read + "; Recompressed: " + recompressed + "; Last ID: " + lastId);
+        }
+    }
+
+    // Builds the statement that selects the next batch of rows after the
+    // given ID.
+    private String buildSelectStatement(SqlVendor vendor, UUID lastId) {
+        StringBuilder select = new StringBuilder();
+
+        select.append("SELECT ");
+        vendor.appendIdentifier(select, SqlDatabase.ID_COLUMN);
+        select.append(", ");
+        vendor.appendIdentifier(select, SqlDatabase.DATA_COLUMN);
+        select.append(" FROM ");
+        vendor.appendIdentifier(select, SqlDatabase.RECORD_TABLE);
+
+        if (lastId != null) {
+            select.append(" WHERE ");
+            vendor.appendIdentifier(select, SqlDatabase.ID_COLUMN);
+            select.append(" > ");
+            vendor.appendValue(select, lastId);
+        }
+
+        select.append(" ORDER BY ");
+        vendor.appendIdentifier(select, SqlDatabase.ID_COLUMN);
+
+        return vendor.rewriteQueryWithLimitClause(select.toString(), BATCH_SIZE, 0L);
+    }
+}
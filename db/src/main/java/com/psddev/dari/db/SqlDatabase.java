@@ -2,6 +2,8 @@ package com.psddev.dari.db;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.lang.annotation.Documented;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -50,7 +52,6 @@ import javax.naming.NamingException;
 import javax.sql.DataSource;
 
 import com.zaxxer.hikari.HikariDataSource;
-import org.iq80.snappy.Snappy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,8 +61,10 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.IoUtils;
 import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
@@ -93,10 +96,16 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     public static final String READ_JDBC_PASSWORD_SETTING = "readJdbcPassword";
     public static final String READ_JDBC_POOL_SIZE_SETTING = "readJdbcPoolSize";
 
+    public static final String READ_REPLICAS_SUB_SETTING = "readReplicas";
+    public static final String READ_REPLICA_MAXIMUM_LAG_SUB_SETTING = "readReplicaMaximumLag";
+    public static final String READ_REPLICA_PROBE_INTERVAL_SUB_SETTING = "readReplicaProbeInterval";
+    public static final String READ_YOUR_WRITES_SECONDS_SUB_SETTING = "readYourWritesSeconds";
+
     public static final String CATALOG_SUB_SETTING = "catalog";
     public static final String METRIC_CATALOG_SUB_SETTING = "metricCatalog";
     public static final String VENDOR_CLASS_SETTING = "vendorClass";
     public static final String COMPRESS_DATA_SUB_SETTING = "compressData";
+    public static final String COMPRESS_DATA_CODEC_CLASS_SUB_SETTING = "compressDataCodecClass";
 
     @Deprecated
     public static final String CACHE_DATA_SUB_SETTING = "cacheData";
@@ -108,6 +117,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     public static final String ENABLE_FUNNEL_CACHE_SUB_SETTING = "enableFunnelCache";
     public static final String REPLICATION_CACHE_SIZE_SUB_SETTING = "replicationCacheSize";
     public static final String INDEX_SPATIAL_SUB_SETTING = "indexSpatial";
+    public static final String COUNT_CACHE_SECONDS_SUB_SETTING = "countCacheSeconds";
+    public static final String METRIC_RANKING_SIZE_SUB_SETTING = "metricRankingSize";
+    public static final String METRIC_RANKING_REFRESH_SECONDS_SUB_SETTING = "metricRankingRefreshSeconds";
+    public static final String SLOW_QUERY_THRESHOLD_SUB_SETTING = "slowQueryThreshold";
+    public static final String SLOW_QUERY_LOG_SIZE_SUB_SETTING = "slowQueryLogSize";
+    public static final String SLOW_QUERY_PLAN_SAMPLE_RATE_SUB_SETTING = "slowQueryPlanSampleRate";
 
     public static final String RECORD_TABLE = "Record";
     public static final String RECORD_UPDATE_TABLE = "RecordUpdate";
@@ -151,9 +166,19 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     private static final String REPLICATION_CACHE_PUT_PROFILER_EVENT = SHORT_NAME + " Replication Cache Put";
     private static final String FUNNEL_CACHE_GET_PROFILER_EVENT = SHORT_NAME + " Funnel Cache Get";
     private static final String FUNNEL_CACHE_PUT_PROFILER_EVENT = SHORT_NAME + " Funnel Cache Put";
+    private static final int GROUPED_FETCH_SIZE = 500;
     private static final long NOW_EXPIRATION_SECONDS = 300;
     public static final long DEFAULT_REPLICATION_CACHE_SIZE = 10000L;
     public static final long DEFAULT_DATA_CACHE_SIZE = 10000L;
+    public static final long DEFAULT_COUNT_CACHE_SECONDS = 60L;
+    public static final int DEFAULT_METRIC_RANKING_SIZE = 0;
+    public static final long DEFAULT_METRIC_RANKING_REFRESH_SECONDS = 60L;
+    public static final double DEFAULT_SLOW_QUERY_THRESHOLD = 1.0;
+    public static final int DEFAULT_SLOW_QUERY_LOG_SIZE = 200;
+    public static final double DEFAULT_SLOW_QUERY_PLAN_SAMPLE_RATE = 0.0;
+    public static final double DEFAULT_READ_REPLICA_MAXIMUM_LAG = 10.0;
+    public static final double DEFAULT_READ_REPLICA_PROBE_INTERVAL = 5.0;
+    private static final long COUNT_CACHE_SIZE = 10000L;
 
     private static final List<SqlDatabase> INSTANCES = new ArrayList<SqlDatabase>();
 
@@ -168,15 +193,23 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     private transient volatile String defaultCatalog;
     private volatile SqlVendor vendor;
     private volatile boolean compressData;
+    private volatile SqlDataCodec compressDataCodec;
     private volatile boolean enableReplicationCache;
     private volatile boolean enableFunnelCache;
     private volatile long replicationCacheMaximumSize;
     private volatile boolean indexSpatial;
+    private volatile long countCacheSeconds = DEFAULT_COUNT_CACHE_SECONDS;
+    private volatile double readYourWritesSeconds;
 
     private final transient ConcurrentMap<Class<?>, UUID> singletonIds = new ConcurrentHashMap<>();
     private transient volatile Cache<UUID, Object[]> replicationCache;
     private transient volatile MySQLBinaryLogReader mysqlBinaryLogReader;
     private transient volatile FunnelCache<SqlDatabase> funnelCache;
+    private transient volatile Cache<String, Long> countCache = createCountCache(DEFAULT_COUNT_CACHE_SECONDS);
+    private transient volatile SqlReadReplicaPool readReplicaPool;
+    private transient volatile SqlMetricRanking metricRanking;
+    private transient volatile SqlSlowQueryLog slowQueryLog = new SqlSlowQueryLog(this, DEFAULT_SLOW_QUERY_THRESHOLD, DEFAULT_SLOW_QUERY_LOG_SIZE, DEFAULT_SLOW_QUERY_PLAN_SAMPLE_RATE);
+    private final transient ThreadLocal<Long> readYourWritesUntil = new ThreadLocal<>();
     private final List<UpdateNotifier<?>> updateNotifiers = new ArrayList<>();
 
     /**
@@ -312,6 +345,27 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         this.readDataSource = readDataSource;
     }
 
+    /**
+     * Returns how long the reads on a thread go to the master after it
+     * writes, so that it sees its own writes even when the replicas lag.
+     *
+     * @return In seconds. {@code 0} if the reads always go to the
+     *         replicas.
+     */
+    public double getReadYourWritesSeconds() {
+        return readYourWritesSeconds;
+    }
+
+    /**
+     * Sets how long the reads on a thread go to the master after it
+     * writes.
+     *
+     * @param readYourWritesSeconds In seconds.
+     */
+    public void setReadYourWritesSeconds(double readYourWritesSeconds) {
+        this.readYourWritesSeconds = readYourWritesSeconds;
+    }
+
     public String getCatalog() {
         return catalog;
     }
@@ -388,6 +442,32 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         this.compressData = compressData;
     }
 
+    /**
+     * Returns the codec used to compress the data.
+     *
+     * @return Never {@code null}. Defaults to {@link SnappySqlDataCodec}.
+     */
+    public SqlDataCodec getCompressDataCodec() {
+        SqlDataCodec codec = compressDataCodec;
+
+        if (codec == null) {
+            codec = SqlDataCodec.Static.getInstance(SnappySqlDataCodec.PREFIX);
+        }
+
+        return codec;
+    }
+
+    /**
+     * Sets the codec used to compress the data. The existing data can be
+     * rewritten with it using {@link SqlDataRecompressionTask}.
+     *
+     * @param compressDataCodec If {@code null}, {@link SnappySqlDataCodec}
+     *        is used.
+     */
+    public void setCompressDataCodec(SqlDataCodec compressDataCodec) {
+        this.compressDataCodec = compressDataCodec;
+    }
+
     @Deprecated
     public boolean isCacheData() {
         return false;
@@ -430,6 +510,81 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         return this.replicationCacheMaximumSize;
     }
 
+    /**
+     * Returns how long the counts are reused for the queries that use
+     * {@link CountStrategy#CACHED}.
+     *
+     * @return In seconds.
+     */
+    public long getCountCacheSeconds() {
+        return countCacheSeconds;
+    }
+
+    /**
+     * Sets how long the counts are reused for the queries that use
+     * {@link CountStrategy#CACHED}.
+     *
+     * @param countCacheSeconds In seconds.
+     */
+    public void setCountCacheSeconds(long countCacheSeconds) {
+        if (this.countCacheSeconds != countCacheSeconds) {
+            this.countCacheSeconds = countCacheSeconds;
+            this.countCache = createCountCache(countCacheSeconds);
+        }
+    }
+
+    /**
+     * Returns the rankings that answer the queries sorted by a metric
+     * field.
+     *
+     * @return {@code null} if disabled.
+     */
+    SqlMetricRanking getMetricRanking() {
+        return metricRanking;
+    }
+
+    /**
+     * Sets the maximum number of objects in each ranking that answers the
+     * queries sorted by a metric field, and how often they're reloaded.
+     *
+     * @param size {@code 0}, the default, disables the rankings.
+     * @param refreshSeconds In seconds.
+     */
+    public void setMetricRanking(int size, long refreshSeconds) {
+        this.metricRanking = size > 0 ? new SqlMetricRanking(this, size, refreshSeconds) : null;
+    }
+
+    /**
+     * Returns the log of the queries that took longer than the threshold.
+     *
+     * @return {@code null} if disabled.
+     */
+    SqlSlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Starts recording the queries that take longer than the given
+     * {@code threshold}, replacing everything recorded so far.
+     *
+     * @param threshold In seconds. Less than or equal to {@code 0}
+     *        disables the recording.
+     * @param size Number of the most recent slow queries to keep.
+     * @param planSampleRate Fraction of the slow queries whose plans
+     *        should be fetched.
+     */
+    public void setSlowQueryLog(double threshold, int size, double planSampleRate) {
+        this.slowQueryLog = threshold > 0.0 ? new SqlSlowQueryLog(this, threshold, size, planSampleRate) : null;
+    }
+
+    private static Cache<String, Long> createCountCache(long seconds) {
+        return CacheBuilder
+                .newBuilder()
+                .maximumSize(COUNT_CACHE_SIZE)
+                .expireAfterWrite(Math.max(seconds, 0L), TimeUnit.SECONDS)
+                .build();
+    }
+
     public boolean isIndexSpatial() {
         return indexSpatial;
     }
@@ -768,6 +923,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
             ((HikariDataSource) readDataSource).close();
         }
 
+        SqlReadReplicaPool pool = readReplicaPool;
+        if (pool != null) {
+            pool.close();
+            readReplicaPool = null;
+        }
+
         setDataSource(null);
         setReadDataSource(null);
 
@@ -814,6 +975,24 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         return addComment(new SqlQuery(this, query).groupStatement(groupFields), query);
     }
 
+    /**
+     * Builds an SQL statement that can be used to get a subset of all
+     * objects matching the given {@code query} grouped by the values of
+     * the given {@code groupFields}.
+     */
+    public String buildGroupStatement(Query<?> query, long offset, int limit, String... groupFields) {
+        return addComment(new SqlQuery(this, query).groupStatement(groupFields, offset, limit), query);
+    }
+
+    /**
+     * Builds an SQL statement that can be used to count the number of
+     * groups of objects matching the given {@code query} by the values of
+     * the given {@code groupFields}.
+     */
+    public String buildGroupCountStatement(Query<?> query, String... groupFields) {
+        return addComment(new SqlQuery(this, query).groupCountStatement(groupFields), query);
+    }
+
     public String buildGroupedMetricStatement(Query<?> query, String metricFieldName, String... groupFields) {
         return addComment(new SqlQuery(this, query).groupedMetricSql(metricFieldName, groupFields), query);
     }
@@ -912,59 +1091,94 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         byte[] dataBytes = ObjectUtils.toJson(values).getBytes(StandardCharsets.UTF_8);
 
         if (isCompressData()) {
-            byte[] compressed = new byte[Snappy.maxCompressedLength(dataBytes.length)];
-            int compressedLength = Snappy.compress(dataBytes, 0, dataBytes.length, compressed, 0);
-
-            dataBytes = new byte[compressedLength + 1];
-            dataBytes[0] = 's';
-            System.arraycopy(compressed, 0, dataBytes, 1, compressedLength);
+            dataBytes = getCompressDataCodec().encode(dataBytes);
         }
 
         return dataBytes;
     }
 
-    private static byte[] decodeData(byte[] dataBytes) {
-        char format;
-
+    // Decodes the given data into the JSON bytes using the codecs that
+    // match the prefixes.
+    static byte[] decodeData(byte[] dataBytes) {
         while (true) {
-            format = (char) dataBytes[0];
+            byte format = dataBytes[0];
 
-            if (format == 's') {
-                dataBytes = Snappy.uncompress(dataBytes, 1, dataBytes.length - 1);
-
-            } else if (format == '{') {
+            if (format == '{') {
                 return dataBytes;
+            }
 
-            } else {
-                break;
+            SqlDataCodec codec = SqlDataCodec.Static.getInstance(format);
+
+            if (codec == null) {
+                throw new IllegalStateException(String.format(
+                        "Unknown format! ([%s])",
+                        (char) format));
             }
-        }
 
-        throw new IllegalStateException(String.format(
-                "Unknown format! ([%s])",
-                format));
+            dataBytes = codec.decode(dataBytes, 1, dataBytes.length - 1);
+        }
     }
 
+    // Decodes the data from the given stream into the given state. The
+    // uncompressed JSON is parsed straight from the stream, so that the
+    // raw bytes are never copied into an array. Compressed data is still
+    // buffered, since the codecs decode whole blocks.
     @SuppressWarnings("unchecked")
-    protected static Map<String, Object> unserializeData(byte[] dataBytes) {
-        char format = '\0';
+    private static void decodeDataStream(InputStream dataStream, State state) throws SQLException {
+        try {
+            PushbackInputStream input = new PushbackInputStream(dataStream, 1);
+            int format = input.read();
 
-        while (true) {
-            format = (char) dataBytes[0];
+            if (format < 0) {
+                return;
+            }
+
+            Map<String, Object> values;
+            long length;
 
-            if (format == 's') {
-                dataBytes = Snappy.uncompress(dataBytes, 1, dataBytes.length - 1);
+            if (format == '{') {
+                input.unread(format);
 
-            } else if (format == '{') {
-                return (Map<String, Object>) ObjectUtils.fromJson(dataBytes);
+                CountingInputStream countingInput = new CountingInputStream(input);
+
+                values = (Map<String, Object>) ObjectUtils.fromJson(countingInput);
+                length = countingInput.getCount();
 
             } else {
-                break;
+                SqlDataCodec codec = SqlDataCodec.Static.getInstance((byte) format);
+
+                if (codec == null) {
+                    throw new IllegalStateException(String.format(
+                            "Unknown format! ([%s])",
+                            (char) format));
+                }
+
+                byte[] compressed = IoUtils.toByteArray(input);
+                byte[] decodedData = decodeData(codec.decode(compressed, 0, compressed.length));
+
+                values = (Map<String, Object>) ObjectUtils.fromJson(decodedData);
+                length = decodedData.length;
+            }
+
+            state.setValues(values);
+            state.getExtras().put(DATA_LENGTH_EXTRA, (int) length);
+
+        } catch (IOException error) {
+            throw new SQLException("Can't read the data!", error);
+
+        } finally {
+            try {
+                dataStream.close();
+
+            } catch (IOException error) {
+                // Not likely and probably harmless.
             }
         }
+    }
 
-        throw new IllegalStateException(String.format(
-                "Unknown format! ([%s])", format));
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Object> unserializeData(byte[] dataBytes) {
+        return (Map<String, Object>) ObjectUtils.fromJson(decodeData(dataBytes));
     }
 
     private class ConnectionRef {
@@ -1014,22 +1228,30 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         }
 
         if (!objectState.isReferenceOnly()) {
-            byte[] data = resultSet.getBytes(3);
+            Boolean returnOriginal = ObjectUtils.to(Boolean.class, query.getOptions().get(RETURN_ORIGINAL_DATA_QUERY_OPTION));
+            if (returnOriginal == null) {
+                returnOriginal = Boolean.FALSE;
+            }
 
-            if (data != null) {
-                byte[] decodedData = decodeData(data);
-                @SuppressWarnings("unchecked")
-                Map<String, Object> unserializedData = (Map<String, Object>) ObjectUtils.fromJson(decodedData);
+            if (returnOriginal) {
+                byte[] data = resultSet.getBytes(3);
 
-                objectState.setValues(unserializedData);
-                objectState.getExtras().put(DATA_LENGTH_EXTRA, decodedData.length);
-                Boolean returnOriginal = ObjectUtils.to(Boolean.class, query.getOptions().get(RETURN_ORIGINAL_DATA_QUERY_OPTION));
-                if (returnOriginal == null) {
-                    returnOriginal = Boolean.FALSE;
-                }
-                if (returnOriginal) {
+                if (data != null) {
+                    byte[] decodedData = decodeData(data);
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> unserializedData = (Map<String, Object>) ObjectUtils.fromJson(decodedData);
+
+                    objectState.setValues(unserializedData);
+                    objectState.getExtras().put(DATA_LENGTH_EXTRA, decodedData.length);
                     objectState.getExtras().put(ORIGINAL_DATA_EXTRA, data);
                 }
+
+            } else {
+                InputStream dataStream = resultSet.getBinaryStream(3);
+
+                if (dataStream != null) {
+                    decodeDataStream(dataStream, objectState);
+                }
             }
         }
 
@@ -1203,6 +1425,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
             LOGGER.debug(
                     "Read from the SQL database using [{}] in [{}]ms",
                     sqlQuery, duration * 1000.0);
+
+            SqlSlowQueryLog slowQueryLog = this.slowQueryLog;
+
+            if (slowQueryLog != null) {
+                slowQueryLog.record(sqlQuery, duration);
+            }
         }
     }
 
@@ -1744,7 +1972,29 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
 
     @Override
     protected Connection doOpenReadConnection() {
-        DataSource readDataSource = getReadDataSource();
+        Long until = readYourWritesUntil.get();
+        DataSource readDataSource;
+
+        if (until != null && until > System.currentTimeMillis()) {
+            readDataSource = getDataSource();
+
+        } else {
+            SqlReadReplicaPool pool = readReplicaPool;
+
+            if (pool != null) {
+                Connection connection = openReplicaConnection(pool);
+
+                if (connection != null) {
+                    return connection;
+                }
+
+                // All replicas are unhealthy, so read from the master.
+                readDataSource = getDataSource();
+
+            } else {
+                readDataSource = getReadDataSource();
+            }
+        }
 
         if (readDataSource == null) {
             readDataSource = getDataSource();
@@ -1765,6 +2015,28 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         }
     }
 
+    // Opens a connection on the best replica in the given pool, or returns
+    // null if none of them can be used.
+    private Connection openReplicaConnection(SqlReadReplicaPool pool) {
+        for (SqlReadReplicaPool.Replica replica; (replica = pool.select()) != null;) {
+            Connection connection = null;
+
+            try {
+                connection = getConnectionFromDataSource(replica.getDataSource());
+
+                connection.setReadOnly(true);
+                pool.open(replica, connection);
+                return connection;
+
+            } catch (SQLException error) {
+                closeConnection(connection);
+                replica.eject(error.getMessage());
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public Connection openQueryConnection(Query<?> query) {
         if (query != null) {
@@ -1791,6 +2063,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     @Override
     public void closeConnection(Connection connection) {
         if (connection != null) {
+            SqlReadReplicaPool pool = readReplicaPool;
+
+            if (pool != null) {
+                pool.close(connection);
+            }
+
             try {
                 if (defaultCatalog != null) {
                     String catalog = getCatalog();
@@ -1875,11 +2153,49 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
             setCompressData(compressData);
         }
 
+        String codecClassName = ObjectUtils.to(String.class, settings.get(COMPRESS_DATA_CODEC_CLASS_SUB_SETTING));
+
+        if (codecClassName != null) {
+            Class<?> codecClass = ObjectUtils.getClassByName(codecClassName);
+
+            if (codecClass == null) {
+                throw new SettingsException(
+                        COMPRESS_DATA_CODEC_CLASS_SUB_SETTING,
+                        String.format("Can't find [%s]!",
+                        codecClassName));
+
+            } else if (!SqlDataCodec.class.isAssignableFrom(codecClass)) {
+                throw new SettingsException(
+                        COMPRESS_DATA_CODEC_CLASS_SUB_SETTING,
+                        String.format("[%s] doesn't implement [%s]!",
+                        codecClass, SqlDataCodec.class));
+            }
+
+            SqlDataCodec codec = SqlDataCodec.Static.getInstance(((SqlDataCodec) TypeDefinition.getInstance(codecClass).newInstance()).getPrefix());
+
+            if (codec == null || !codecClass.equals(codec.getClass())) {
+                throw new SettingsException(
+                        COMPRESS_DATA_CODEC_CLASS_SUB_SETTING,
+                        String.format("[%s] isn't registered, so the data written with it couldn't be read!",
+                        codecClass));
+            }
+
+            setCompressDataCodec(codec);
+        }
+
         setEnableReplicationCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_REPLICATION_CACHE_SUB_SETTING)));
         setEnableFunnelCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_FUNNEL_CACHE_SUB_SETTING)));
         Long replicationCacheMaxSize = ObjectUtils.to(Long.class, settings.get(REPLICATION_CACHE_SIZE_SUB_SETTING));
         setReplicationCacheMaximumSize(replicationCacheMaxSize != null ? replicationCacheMaxSize : DEFAULT_REPLICATION_CACHE_SIZE);
         setIndexSpatial(ObjectUtils.firstNonNull(ObjectUtils.to(Boolean.class, settings.get(INDEX_SPATIAL_SUB_SETTING)), Boolean.TRUE));
+        setCountCacheSeconds(ObjectUtils.firstNonNull(ObjectUtils.to(Long.class, settings.get(COUNT_CACHE_SECONDS_SUB_SETTING)), DEFAULT_COUNT_CACHE_SECONDS));
+        setMetricRanking(
+                ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(METRIC_RANKING_SIZE_SUB_SETTING)), DEFAULT_METRIC_RANKING_SIZE),
+                ObjectUtils.firstNonNull(ObjectUtils.to(Long.class, settings.get(METRIC_RANKING_REFRESH_SECONDS_SUB_SETTING)), DEFAULT_METRIC_RANKING_REFRESH_SECONDS));
+        setSlowQueryLog(
+                ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(SLOW_QUERY_THRESHOLD_SUB_SETTING)), DEFAULT_SLOW_QUERY_THRESHOLD),
+                ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(SLOW_QUERY_LOG_SIZE_SUB_SETTING)), DEFAULT_SLOW_QUERY_LOG_SIZE),
+                ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(SLOW_QUERY_PLAN_SAMPLE_RATE_SUB_SETTING)), DEFAULT_SLOW_QUERY_PLAN_SAMPLE_RATE));
 
         if (isEnableReplicationCache()
                 && vendor instanceof SqlVendor.MySQL
@@ -1902,6 +2218,56 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         if (isEnableFunnelCache()) {
             funnelCache = new FunnelCache<SqlDatabase>(this, settings);
         }
+
+        setReadYourWritesSeconds(ObjectUtils.to(double.class, settings.get(READ_YOUR_WRITES_SECONDS_SUB_SETTING)));
+
+        // Stop probing the old replicas before switching to the new ones.
+        SqlReadReplicaPool oldReplicaPool = readReplicaPool;
+
+        if (oldReplicaPool != null) {
+            readReplicaPool = null;
+            oldReplicaPool.close();
+        }
+
+        Object replicasSettings = settings.get(READ_REPLICAS_SUB_SETTING);
+
+        if (replicasSettings instanceof Map) {
+            Map<String, DataSource> replicaDataSources = new LinkedHashMap<>();
+            DataSource readDataSource = getReadDataSource();
+
+            if (readDataSource != null) {
+                replicaDataSources.put(READ_DATA_SOURCE_SETTING, readDataSource);
+            }
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) replicasSettings).entrySet()) {
+                Object replicaSettings = entry.getValue();
+
+                if (replicaSettings instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    DataSource replicaDataSource = createDataSource(
+                            (Map<String, Object>) replicaSettings,
+                            DATA_SOURCE_SETTING,
+                            DATA_SOURCE_JNDI_NAME_SETTING,
+                            JDBC_DRIVER_CLASS_SETTING,
+                            JDBC_URL_SETTING,
+                            JDBC_USER_SETTING,
+                            JDBC_PASSWORD_SETTING,
+                            JDBC_POOL_SIZE_SETTING);
+
+                    if (replicaDataSource != null) {
+                        replicaDataSources.put(String.valueOf(entry.getKey()), replicaDataSource);
+                    }
+                }
+            }
+
+            if (!replicaDataSources.isEmpty()) {
+                readReplicaPool = new SqlReadReplicaPool(
+                        this,
+                        replicaDataSources,
+                        ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(READ_REPLICA_MAXIMUM_LAG_SUB_SETTING)), DEFAULT_READ_REPLICA_MAXIMUM_LAG),
+                        ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(READ_REPLICA_PROBE_INTERVAL_SUB_SETTING)), DEFAULT_READ_REPLICA_PROBE_INTERVAL));
+            }
+        }
     }
 
     private static final Map<String, String> DRIVER_CLASS_NAMES; static {
@@ -2078,9 +2444,63 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         return selectListWithOptions(buildSelectStatement(query), query);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Honors the {@linkplain Query#getCountStrategy count strategy}
+     * of the given {@code query}. The cached counts are keyed by the count
+     * statement, so that they're shared by the queries with the same
+     * shape.</p>
+     */
     @Override
     public long readCount(Query<?> query) {
+        CountStrategy strategy = query.getCountStrategy();
+
+        if (strategy == CountStrategy.ESTIMATED) {
+            Long estimate = estimateCount(query);
+
+            if (estimate != null) {
+                return estimate;
+            }
+        }
+
         String sqlQuery = buildCountStatement(query);
+
+        if (strategy == CountStrategy.EXACT) {
+            return readExactCount(query, sqlQuery);
+        }
+
+        Cache<String, Long> cache = countCache;
+        Long count = cache.getIfPresent(sqlQuery);
+
+        if (count == null) {
+            count = readExactCount(query, sqlQuery);
+            cache.put(sqlQuery, count);
+        }
+
+        return count;
+    }
+
+    // Estimates the count using the vendor, or returns null if that's not
+    // possible.
+    private Long estimateCount(Query<?> query) {
+        String sqlQuery = buildSelectStatement(query);
+        Connection connection = null;
+
+        try {
+            connection = openQueryConnection(query);
+            return vendor.estimateCount(connection, sqlQuery);
+
+        } catch (SQLException error) {
+            LOGGER.debug(String.format("Can't estimate the count using [%s]!", sqlQuery), error);
+            return null;
+
+        } finally {
+            closeResources(query, connection, null, null);
+        }
+    }
+
+    private long readExactCount(Query<?> query, String sqlQuery) {
         Connection connection = null;
         Statement statement = null;
         ResultSet result = null;
@@ -2296,6 +2716,17 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         if (limit == Integer.MAX_VALUE) {
             limit --;
         }
+
+        SqlMetricRanking metricRanking = this.metricRanking;
+
+        if (metricRanking != null) {
+            PaginatedResult<T> ranked = metricRanking.readPartial(query, offset, limit);
+
+            if (ranked != null) {
+                return ranked;
+            }
+        }
+
         List<T> objects = selectListWithOptions(
                 vendor.rewriteQueryWithLimitClause(buildSelectStatement(query), limit + 1, offset),
                 query);
@@ -2313,7 +2744,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
                 @Override
                 public long getCount() {
                     if (count == null) {
-                        count = readCount(query);
+
+                        // Estimated or cached counts may be off, but there's
+                        // at least one more item after this page.
+                        count = Math.max(readCount(query), getOffset() + getLimit() + 1);
                     }
                     return count;
                 }
@@ -2335,8 +2769,15 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
             }
         }
 
+        // Guard against integer overflow
+        if (limit == Integer.MAX_VALUE) {
+            limit --;
+        }
+
+        // Select one more group than requested to determine whether there
+        // are more, like #readPartial.
         List<Grouping<T>> groupings = new ArrayList<Grouping<T>>();
-        String sqlQuery = buildGroupStatement(query, fields);
+        String sqlQuery = buildGroupStatement(query, offset, limit + 1, fields);
         Connection connection = null;
         Statement statement = null;
         ResultSet result = null;
@@ -2344,16 +2785,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
         try {
             connection = openQueryConnection(query);
             statement = connection.createStatement();
+            statement.setFetchSize(Math.min(limit + 1, GROUPED_FETCH_SIZE));
             result = executeQueryBeforeTimeout(statement, sqlQuery, getQueryReadTimeout(query));
 
             int fieldsLength = fields.length;
-            int groupingsCount = 0;
-
-            for (int i = 0, last = (int) offset + limit; result.next(); ++ i, ++ groupingsCount) {
-                if (i < offset || i >= last) {
-                    continue;
-                }
 
+            while (result.next()) {
                 List<Object> keys = new ArrayList<Object>();
 
                 SqlGrouping<T> grouping;
@@ -2383,6 +2820,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
                 groupings.add(grouping);
             }
 
+            boolean hasMore = groupings.size() > limit;
+
+            if (hasMore) {
+                groupings.remove(groupings.size() - 1);
+            }
+
             int groupingsSize = groupings.size();
             List<Integer> removes = new ArrayList<Integer>();
 
@@ -2429,7 +2872,50 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
                 groupings.remove((int) i);
             }
 
-            return new PaginatedResult<Grouping<T>>(offset, limit, groupingsCount - removes.size(), groupings);
+            if (!hasMore) {
+                return new PaginatedResult<Grouping<T>>(offset, limit, offset + groupings.size(), groupings);
+            }
+
+            // There are more groups, so count them on demand.
+            return new PaginatedResult<Grouping<T>>(offset, limit, 0, groupings) {
+
+                private Long count;
+
+                @Override
+                public long getCount() {
+                    if (count == null) {
+                        count = readGroupCount(query, fields);
+                    }
+                    return count;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+            };
+
+        } catch (SQLException ex) {
+            throw createQueryException(ex, sqlQuery, query);
+
+        } finally {
+            closeResources(query, connection, statement, result);
+        }
+    }
+
+    // Counts the number of groups of objects matching the given query.
+    private long readGroupCount(Query<?> query, String... fields) {
+        String sqlQuery = buildGroupCountStatement(query, fields);
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet result = null;
+
+        try {
+            connection = openQueryConnection(query);
+            statement = connection.createStatement();
+            result = executeQueryBeforeTimeout(statement, sqlQuery, getQueryReadTimeout(query));
+
+            return result.next() ? ObjectUtils.to(long.class, result.getObject(1)) : 0L;
 
         } catch (SQLException ex) {
             throw createQueryException(ex, sqlQuery, query);
@@ -2561,6 +3047,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> implements MetricA
     @Override
     protected void commitTransaction(Connection connection, boolean isImmediate) throws SQLException {
         connection.commit();
+
+        double seconds = getReadYourWritesSeconds();
+
+        if (seconds > 0.0) {
+            readYourWritesUntil.set(System.currentTimeMillis() + (long) (seconds * 1000.0));
+        }
     }
 
     @Override
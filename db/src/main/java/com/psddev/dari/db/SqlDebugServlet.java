@@ -7,7 +7,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
+import java.util.Date;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -27,19 +27,22 @@ public class SqlDebugServlet extends HttpServlet {
             HttpServletResponse response)
             throws IOException, ServletException {
 
+        if ("json".equals(request.getParameter("slowQueries"))) {
+            SqlSlowQueryLog slowQueryLog = findDatabase(request.getParameter("db")).getSlowQueryLog();
+
+            response.setContentType("application/json");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(ObjectUtils.toJson(slowQueryLog != null ? slowQueryLog.toSimpleValues() : null));
+            return;
+        }
+
         new DebugFilter.PageWriter(getServletContext(), request, response) { {
             startPage("Database", "SQL");
 
-                SqlDatabase database = null;
-                List<SqlDatabase> databases = Database.Static.getByClass(SqlDatabase.class);
-                for (SqlDatabase db : databases) {
-                    if (db.getName().equals(page.param(String.class, "db"))) {
-                        database = db;
-                        break;
-                    }
-                }
-                if (database == null) {
-                    database = Database.Static.getFirst(SqlDatabase.class);
+                SqlDatabase database = findDatabase(page.param(String.class, "db"));
+
+                if (page.isFormPost() && page.param(boolean.class, "recompress")) {
+                    SqlDataRecompressionTask.start(database);
                 }
 
                 String sql = page.param(String.class, "sql");
@@ -70,6 +73,18 @@ public class SqlDebugServlet extends HttpServlet {
                     writeElement("input", "class", "btn btn-primary", "type", "submit", "value", "Run");
                 writeEnd();
 
+                writeStart("h2").writeHtml("Data Compression").writeEnd();
+                writeStart("p");
+                    writeHtml("Rewrites the data of all records in the background using ");
+                    writeStart("strong").writeHtml(database.isCompressData() ? database.getCompressDataCodec().getClass().getSimpleName() : "no compression").writeEnd();
+                    writeHtml(". The progress is shown in the tasks page.");
+                writeEnd();
+                writeStart("form", "action", page.url(null), "class", "form-inline", "method", "post");
+                    writeElement("input", "type", "hidden", "name", "db", "value", database.getName());
+                    writeElement("input", "type", "hidden", "name", "recompress", "value", true);
+                    writeElement("input", "class", "btn", "type", "submit", "value", "Recompress");
+                writeEnd();
+
                 if (!ObjectUtils.isBlank(sql)) {
                     writeStart("h2").writeHtml("Result").writeEnd();
                     Connection connection = database.openConnection();
@@ -142,7 +157,97 @@ public class SqlDebugServlet extends HttpServlet {
                     }
                 }
 
+                SqlSlowQueryLog slowQueryLog = database.getSlowQueryLog();
+
+                writeStart("h2").writeHtml("Slow Queries").writeEnd();
+
+                if (slowQueryLog == null) {
+                    writeStart("p").writeHtml("Disabled. Set ").writeStart("code").writeHtml(SqlDatabase.SLOW_QUERY_THRESHOLD_SUB_SETTING).writeEnd().writeHtml(" to a positive number of seconds to enable.").writeEnd();
+
+                } else {
+                    writeStart("p");
+                        writeHtml("Queries that took longer than ");
+                        writeStart("strong").writeObject(slowQueryLog.getThreshold()).writeEnd();
+                        writeHtml(" seconds. Recorded ");
+                        writeStart("strong").writeObject(slowQueryLog.getRecordedCount()).writeEnd();
+                        writeHtml(" since the start. ");
+                        writeStart("a", "href", page.url(null, "db", database.getName(), "slowQueries", "json")).writeHtml("Export as JSON").writeEnd();
+                    writeEnd();
+
+                    writeStart("h3").writeHtml("By Shape").writeEnd();
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Shape").writeEnd();
+                                writeStart("th").writeHtml("Count").writeEnd();
+                                writeStart("th").writeHtml("Total (s)").writeEnd();
+                                writeStart("th").writeHtml("Max (s)").writeEnd();
+                                for (double bound : SqlSlowQueryLog.HISTOGRAM_BOUNDS) {
+                                    writeStart("th").writeHtml(Double.isInfinite(bound) ? "More" : "Up to " + bound).writeEnd();
+                                }
+                                writeStart("th").writeHtml("Last Comment").writeEnd();
+                                writeStart("th").writeHtml("Last Plan").writeEnd();
+                            writeEnd();
+                        writeEnd();
+                        writeStart("tbody");
+                            for (SqlSlowQueryLog.Shape shape : slowQueryLog.getShapes()) {
+                                String plan = shape.getLastPlan();
+
+                                writeStart("tr");
+                                    writeStart("td").writeStart("code").writeHtml(shape.getSql()).writeEnd().writeEnd();
+                                    writeStart("td").writeObject(shape.getCount()).writeEnd();
+                                    writeStart("td").writeObject(shape.getTotalDuration()).writeEnd();
+                                    writeStart("td").writeObject(shape.getMaximumDuration()).writeEnd();
+                                    for (long count : shape.getHistogram()) {
+                                        writeStart("td").writeObject(count).writeEnd();
+                                    }
+                                    writeStart("td").writeHtml(shape.getLastComment()).writeEnd();
+                                    writeStart("td");
+                                        if (plan != null) {
+                                            writeStart("pre").writeHtml(plan).writeEnd();
+                                        }
+                                    writeEnd();
+                                writeEnd();
+                            }
+                        writeEnd();
+                    writeEnd();
+
+                    writeStart("h3").writeHtml("Most Recent").writeEnd();
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Time").writeEnd();
+                                writeStart("th").writeHtml("Duration (s)").writeEnd();
+                                writeStart("th").writeHtml("Comment").writeEnd();
+                                writeStart("th").writeHtml("SQL").writeEnd();
+                            writeEnd();
+                        writeEnd();
+                        writeStart("tbody");
+                            for (SqlSlowQueryLog.Entry entry : slowQueryLog.getEntries()) {
+                                writeStart("tr");
+                                    writeStart("td").writeObject(new Date(entry.getTime())).writeEnd();
+                                    writeStart("td").writeObject(entry.getDuration()).writeEnd();
+                                    writeStart("td").writeHtml(entry.getComment()).writeEnd();
+                                    writeStart("td").writeStart("code").writeHtml(entry.getSql()).writeEnd().writeEnd();
+                                writeEnd();
+                            }
+                        writeEnd();
+                    writeEnd();
+                }
+
             endPage();
         } };
     }
+
+    // Finds the SQL database with the given name, or the first one if
+    // there isn't a match.
+    private static SqlDatabase findDatabase(String name) {
+        for (SqlDatabase db : Database.Static.getByClass(SqlDatabase.class)) {
+            if (db.getName().equals(name)) {
+                return db;
+            }
+        }
+
+        return Database.Static.getFirst(SqlDatabase.class);
+    }
 }
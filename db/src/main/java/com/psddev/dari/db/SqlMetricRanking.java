@@ -0,0 +1,515 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.psddev.dari.util.PaginatedResult;
+import com.psddev.dari.util.TaskExecutor;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * Answers the queries that are sorted in descending order by a metric
+ * field from a ranking of the top objects, instead of calculating the
+ * metric value of every candidate in correlated subqueries.
+ *
+ * <p>Each ranking is loaded with a single aggregate query over the metric
+ * table for a field and a date range, and it's kept up to date with the
+ * local increments until it's reloaded periodically in the background,
+ * while the queries keep using the previous ranking. The objects are then
+ * read in the ranked order, filtered by the rest of the query predicate,
+ * until the requested page is filled. The query falls back to the regular
+ * path when it has other sorters or metric predicates that the ranking
+ * can't express, or when the page isn't filled within the first few
+ * batches of candidates. The queries that fell back are remembered until
+ * the next reload, so that a selective predicate doesn't pay for the
+ * candidate reads on every call.</p>
+ *
+ * <p>Since the rankings can be slightly stale, they're only used for the
+ * queries that allow {@linkplain Query#isCache caching}.</p>
+ */
+class SqlMetricRanking {
+
+    public static final String RELOAD_EXECUTOR = "SQL Metric Rankings";
+
+    private static final int CANDIDATE_BATCH_SIZE = 200;
+    private static final int MAXIMUM_CANDIDATE_BATCHES = 3;
+    private static final int MAXIMUM_FALLBACKS = 1000;
+    private static final long EXPIRE_AFTER_ACCESS_SECONDS = 600L;
+
+    private final SqlDatabase database;
+    private final int size;
+    private final LoadingCache<Key, Ranking> rankings;
+    private final Cache<String, Boolean> fallbacks;
+
+    /**
+     * @param size Maximum number of objects in each ranking.
+     * @param refreshSeconds How often the rankings are reloaded.
+     */
+    public SqlMetricRanking(SqlDatabase database, int size, long refreshSeconds) {
+        this.database = database;
+        this.size = size;
+        this.rankings = CacheBuilder
+                .newBuilder()
+                .refreshAfterWrite(Math.max(refreshSeconds, 1L), TimeUnit.SECONDS)
+                .expireAfterAccess(EXPIRE_AFTER_ACCESS_SECONDS, TimeUnit.SECONDS)
+                .build(CacheLoader.asyncReloading(new CacheLoader<Key, Ranking>() {
+
+                    @Override
+                    public Ranking load(Key key) throws SQLException {
+                        return SqlMetricRanking.this.load(key);
+                    }
+                }, TaskExecutor.Static.getInstance(RELOAD_EXECUTOR)));
+        this.fallbacks = CacheBuilder
+                .newBuilder()
+                .maximumSize(MAXIMUM_FALLBACKS)
+                .expireAfterWrite(Math.max(refreshSeconds, 1L), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Reads the given {@code query} from a ranking, if possible.
+     *
+     * @return {@code null} if the query can't be answered from a ranking.
+     */
+    public <T> PaginatedResult<T> readPartial(Query<T> query, long offset, int limit) {
+        if (!query.isCache() || offset + limit >= size) {
+            return null;
+        }
+
+        Key key = createKey(query);
+
+        if (key == null) {
+            return null;
+        }
+
+        String fallbackKey = key.symbol + ' ' + key.startTimestamp + ' ' + key.endTimestamp + ' ' + key.restPredicate;
+
+        if (fallbacks.getIfPresent(fallbackKey) != null) {
+            return null;
+        }
+
+        List<Ranking.Entry> entries;
+
+        try {
+            entries = rankings.get(key).getEntries();
+
+        } catch (ExecutionException | UncheckedExecutionException error) {
+            Throwable cause = error.getCause();
+
+            if (cause instanceof SQLException) {
+                throw new SqlDatabaseException(database, (SQLException) cause, null, query);
+
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+
+            } else {
+                throw new DatabaseException(database, cause);
+            }
+        }
+
+        // One more than requested to determine whether there are more.
+        long needed = offset + limit + 1;
+
+        // Past the first few batches, the rest of the predicate is too
+        // selective for the ranking to beat the regular query.
+        int candidatesSize = Math.min(entries.size(), MAXIMUM_CANDIDATE_BATCHES * CANDIDATE_BATCH_SIZE);
+
+        if (needed > candidatesSize) {
+            return null;
+        }
+
+        List<T> items = new ArrayList<T>();
+
+        for (int from = 0; from < candidatesSize && items.size() < needed; from += CANDIDATE_BATCH_SIZE) {
+            List<Ranking.Entry> batch = entries.subList(from, Math.min(from + CANDIDATE_BATCH_SIZE, candidatesSize));
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for (Ranking.Entry entry : batch) {
+                ids.add(entry.id);
+            }
+
+            Query<T> candidatesQuery = query.clone();
+
+            candidatesQuery.setPredicate(key.restPredicate);
+            candidatesQuery.setSorters(new ArrayList<Sorter>());
+            candidatesQuery.and("_id = ?", ids);
+
+            Map<UUID, T> candidates = new HashMap<UUID, T>();
+
+            for (T candidate : database.readAll(candidatesQuery)) {
+                candidates.put(State.getInstance(candidate).getId(), candidate);
+            }
+
+            for (Ranking.Entry entry : batch) {
+                T candidate = candidates.get(entry.id);
+
+                // The metric rows are only counted for the current type,
+                // like in the regular query.
+                if (candidate != null && entry.typeId.equals(State.getInstance(candidate).getTypeId())) {
+                    items.add(candidate);
+
+                    if (items.size() >= needed) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // The objects without any metric values would come next, and the
+        // ranking doesn't know about them.
+        if (items.size() < needed) {
+            fallbacks.put(fallbackKey, Boolean.TRUE);
+            return null;
+        }
+
+        List<T> page = new ArrayList<T>(items.subList((int) offset, (int) offset + limit));
+
+        return new PaginatedResult<T>(offset, limit, 0, page) {
+
+            private Long count;
+
+            @Override
+            public long getCount() {
+                if (count == null) {
+                    count = Math.max(database.readCount(query), getOffset() + getLimit() + 1);
+                }
+                return count;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Adds the given {@code amount} to the given object in all rankings
+     * of the metric field with the given {@code symbol} whose date ranges
+     * include the given {@code eventDate}.
+     */
+    public void increment(String symbol, UUID id, UUID typeId, long eventDate, double amount) {
+        for (Map.Entry<Key, Ranking> entry : rankings.asMap().entrySet()) {
+            Key key = entry.getKey();
+
+            if (key.symbol.equals(symbol)
+                    && (key.startTimestamp == null || eventDate >= key.startTimestamp)
+                    && (key.endTimestamp == null || eventDate < key.endTimestamp)) {
+
+                entry.getValue().increment(id, typeId, amount);
+            }
+        }
+    }
+
+    // Creates the ranking key from the given query, or returns null if
+    // it's not sorted only by a metric field, or if it has metric
+    // predicates other than the date range.
+    Key createKey(Query<?> query) {
+        List<Sorter> sorters = query.getSorters();
+
+        if (sorters.size() != 1) {
+            return null;
+        }
+
+        Sorter sorter = sorters.get(0);
+
+        if (!Sorter.DESCENDING_OPERATOR.equals(sorter.getOperator())) {
+            return null;
+        }
+
+        ObjectField field;
+
+        try {
+            Query.MappedKey mappedKey = query.mapEmbeddedKey(database.getEnvironment(), (String) sorter.getOptions().get(0));
+
+            field = mappedKey.getField();
+
+            if (field == null || !field.isMetric() || mappedKey.getHashAttribute() != null) {
+                return null;
+            }
+
+        } catch (RuntimeException error) {
+            return null;
+        }
+
+        Predicate predicate = query.getPredicate();
+        List<Predicate> children = new ArrayList<Predicate>();
+
+        if (predicate instanceof CompoundPredicate
+                && PredicateParser.AND_OPERATOR.equals(((CompoundPredicate) predicate).getOperator())) {
+
+            children.addAll(((CompoundPredicate) predicate).getChildren());
+
+        } else if (predicate != null) {
+            children.add(predicate);
+        }
+
+        MetricInterval interval = field.as(MetricAccess.FieldData.class).getEventDateProcessor();
+        Long startTimestamp = null;
+        Long endTimestamp = null;
+        List<Predicate> restChildren = new ArrayList<Predicate>();
+
+        for (Predicate child : children) {
+            Query.MappedKey childKey = null;
+
+            if (child instanceof ComparisonPredicate) {
+                try {
+                    childKey = query.mapEmbeddedKey(database.getEnvironment(), ((ComparisonPredicate) child).getKey());
+
+                } catch (RuntimeException error) {
+                    // Not a metric key, so leave it to the candidates query.
+                }
+            }
+
+            if (childKey == null || childKey.getField() == null || !childKey.getField().isMetric()) {
+                restChildren.add(child);
+                continue;
+            }
+
+            if (!field.equals(childKey.getField()) || !Query.METRIC_DATE_ATTRIBUTE.equals(childKey.getHashAttribute())) {
+                return null;
+            }
+
+            ComparisonPredicate comparison = (ComparisonPredicate) child;
+            List<Object> values = comparison.getValues();
+            Long timestamp = values.size() == 1 ? toTimestamp(values.get(0)) : null;
+
+            if (timestamp == null) {
+                return null;
+
+            } else if (PredicateParser.GREATER_THAN_OR_EQUALS_OPERATOR.equals(comparison.getOperator())) {
+                startTimestamp = toEventDateBoundary(interval, startTimestamp != null ? Math.max(startTimestamp, timestamp) : timestamp);
+
+            } else if (PredicateParser.LESS_THAN_OPERATOR.equals(comparison.getOperator())) {
+                endTimestamp = toEventDateBoundary(interval, endTimestamp != null ? Math.min(endTimestamp, timestamp) : timestamp);
+
+            } else {
+                return null;
+            }
+        }
+
+        Predicate restPredicate;
+
+        if (restChildren.isEmpty()) {
+            restPredicate = null;
+
+        } else if (restChildren.size() == 1) {
+            restPredicate = restChildren.get(0);
+
+        } else {
+            restPredicate = new CompoundPredicate(PredicateParser.AND_OPERATOR, restChildren);
+        }
+
+        return new Key(field.getUniqueName(), startTimestamp, endTimestamp, restPredicate);
+    }
+
+    private static Long toTimestamp(Object value) {
+        if (value instanceof DateTime) {
+            return ((DateTime) value).getMillis();
+
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+
+        } else {
+            return null;
+        }
+    }
+
+    // Converts the given timestamp into the earliest one that matches the
+    // same event dates, so that the rankings are shared across the
+    // queries within the same interval. Event dates are stored in
+    // minutes, so anything after the interval start is moved to the next
+    // minute.
+    static long toEventDateBoundary(MetricInterval interval, long timestamp) {
+        long start = (interval != null ? interval : new MetricInterval.Hourly()).process(new DateTime(timestamp));
+
+        return start == timestamp ? timestamp : start + MetricAccess.DATE_DECIMAL_SHIFT;
+    }
+
+    // Loads the top objects for the given key with one aggregate query.
+    private Ranking load(Key key) throws SQLException {
+        SqlVendor vendor = database.getMetricVendor();
+        StringBuilder sql = new StringBuilder();
+        StringBuilder minData = new StringBuilder("MIN(");
+        StringBuilder maxData = new StringBuilder("MAX(");
+
+        vendor.appendIdentifier(minData, MetricAccess.METRIC_DATA_FIELD);
+        minData.append(')');
+        vendor.appendIdentifier(maxData, MetricAccess.METRIC_DATA_FIELD);
+        maxData.append(')');
+
+        sql.append("SELECT ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_ID_FIELD);
+        sql.append(", ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_TYPE_FIELD);
+        sql.append(", ");
+        MetricAccess.Static.appendSelectCalculatedAmountSql(sql, vendor, minData.toString(), maxData.toString(), false);
+        vendor.appendIdentifier(sql, "amount");
+        sql.append(" FROM ");
+        sql.append(MetricAccess.Static.getMetricTableIdentifier(database));
+        sql.append(" WHERE ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_SYMBOL_FIELD);
+        sql.append(" = ");
+        vendor.appendValue(sql, database.getReadSymbolId(key.symbol));
+        sql.append(" AND ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_DIMENSION_FIELD);
+        sql.append(" = ");
+        vendor.appendValue(sql, UuidUtils.ZERO_UUID);
+
+        if (key.startTimestamp != null) {
+            sql.append(" AND ");
+            vendor.appendIdentifier(sql, MetricAccess.METRIC_DATA_FIELD);
+            sql.append(" >= ");
+            vendor.appendMetricEncodeTimestampSql(sql, null, key.startTimestamp, '0');
+        }
+
+        if (key.endTimestamp != null) {
+            sql.append(" AND ");
+            vendor.appendIdentifier(sql, MetricAccess.METRIC_DATA_FIELD);
+            sql.append(" < ");
+            vendor.appendMetricEncodeTimestampSql(sql, null, key.endTimestamp, '0');
+        }
+
+        sql.append(" GROUP BY ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_ID_FIELD);
+        sql.append(", ");
+        vendor.appendIdentifier(sql, MetricAccess.METRIC_TYPE_FIELD);
+        sql.append(" ORDER BY ");
+        vendor.appendIdentifier(sql, "amount");
+        sql.append(" DESC");
+
+        Ranking ranking = new Ranking();
+        Connection connection = database.openReadConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery(vendor.rewriteQueryWithLimitClause(sql.toString(), size, 0L));
+
+                try {
+                    while (result.next()) {
+                        ranking.add(new Ranking.Entry(vendor.getUuid(result, 1), vendor.getUuid(result, 2), result.getDouble(3)));
+                    }
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+
+        } finally {
+            database.closeConnection(connection);
+        }
+
+        return ranking;
+    }
+
+    static final class Key {
+
+        public final String symbol;
+        public final Long startTimestamp;
+        public final Long endTimestamp;
+
+        // Not part of the identity, since the ranking doesn't depend on it.
+        public final Predicate restPredicate;
+
+        public Key(String symbol, Long startTimestamp, Long endTimestamp, Predicate restPredicate) {
+            this.symbol = symbol;
+            this.startTimestamp = startTimestamp;
+            this.endTimestamp = endTimestamp;
+            this.restPredicate = restPredicate;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+
+            } else if (other instanceof Key) {
+                Key otherKey = (Key) other;
+
+                return symbol.equals(otherKey.symbol)
+                        && Objects.equals(startTimestamp, otherKey.startTimestamp)
+                        && Objects.equals(endTimestamp, otherKey.endTimestamp);
+
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(symbol, startTimestamp, endTimestamp);
+        }
+    }
+
+    private static final class Ranking {
+
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private final Map<UUID, Entry> entriesById = new HashMap<UUID, Entry>();
+        private boolean unsorted;
+
+        public synchronized void add(Entry entry) {
+            entries.add(entry);
+            entriesById.put(entry.id, entry);
+        }
+
+        // Returns a snapshot of the entries in descending order.
+        public synchronized List<Entry> getEntries() {
+            if (unsorted) {
+                entries.sort((x, y) -> Double.compare(y.amount, x.amount));
+                unsorted = false;
+            }
+
+            return new ArrayList<Entry>(entries);
+        }
+
+        // Only the objects that are already ranked are updated, since
+        // the others can't be placed without their totals.
+        public synchronized void increment(UUID id, UUID typeId, double amount) {
+            Entry entry = entriesById.get(id);
+
+            if (entry != null && entry.typeId.equals(typeId)) {
+                entry.amount += amount;
+                unsorted = true;
+            }
+        }
+
+        private static final class Entry {
+
+            public final UUID id;
+            public final UUID typeId;
+            public double amount;
+
+            public Entry(UUID id, UUID typeId, double amount) {
+                this.id = id;
+                this.typeId = typeId;
+                this.amount = amount;
+            }
+        }
+    }
+}
@@ -58,6 +58,7 @@ class SqlQuery {
     private boolean mysqlIgnoreIndexPrimaryDisabled;
     private boolean forceLeftJoins;
     private boolean hasAnyLimitingPredicates;
+    private boolean orderGroups;
 
     private final List<Predicate> recordMetricDatePredicates = new ArrayList<Predicate>();
     private final List<Predicate> recordMetricParentDatePredicates = new ArrayList<Predicate>();
@@ -1087,6 +1088,34 @@ class SqlQuery {
         return statementBuilder.toString();
     }
 
+    /**
+     * Returns an SQL statement that can be used to get a subset of all
+     * objects grouped by the values of the given {@code groupFields}.
+     *
+     * <p>The groups are ordered by the values if the query doesn't have
+     * any sorters, so that the subsets are stable.</p>
+     */
+    public String groupStatement(String[] groupFields, long offset, int limit) {
+        orderGroups = true;
+        return vendor.rewriteQueryWithLimitClause(groupStatement(groupFields), limit, offset);
+    }
+
+    /**
+     * Returns an SQL statement that can be used to count the number of
+     * groups of objects by the values of the given {@code groupFields}.
+     */
+    public String groupCountStatement(String[] groupFields) {
+        StringBuilder statementBuilder = new StringBuilder();
+
+        statementBuilder.append("SELECT COUNT(*) FROM (");
+        statementBuilder.append(groupStatement(groupFields));
+        statementBuilder.append(") ");
+        statementBuilder.append(aliasPrefix);
+        statementBuilder.append('g');
+
+        return statementBuilder.toString();
+    }
+
     /**
      * Returns an SQL statement that can be used to get all objects
      * grouped by the values of the given {@code groupFields}.
@@ -1233,8 +1262,20 @@ class SqlQuery {
                 statementBuilder.append(entry.getValue().getValueField(entry.getKey(), null));
             }
 
-        } else {
+        } else if (orderByClause.length() > 0 || !orderGroups) {
             statementBuilder.append(orderByClause);
+
+        } else if (!groupJoins.isEmpty()) {
+
+            // By the positions of the group values in the SELECT clause,
+            // right after the count.
+            statementBuilder.append(" ORDER BY ");
+            for (int i = 0, size = groupJoins.size(); i < size; ++ i) {
+                if (i > 0) {
+                    statementBuilder.append(", ");
+                }
+                statementBuilder.append(i + 2);
+            }
         }
 
         if (hasAnyDeferredMetricPredicates()) {
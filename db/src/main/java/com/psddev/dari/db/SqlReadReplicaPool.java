@@ -0,0 +1,284 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.Task;
+
+/**
+ * Pool of read replicas that {@link SqlDatabase} balances its read
+ * connections across.
+ *
+ * <p>Each read connection is opened on the healthy replica with the
+ * fewest outstanding connections, weighted by how quickly it responded
+ * to the recent probes. A background task probes all replicas
+ * periodically, and ejects the ones that can't be reached or that lag
+ * behind the master by more than the allowed amount until they
+ * recover.</p>
+ */
+class SqlReadReplicaPool {
+
+    public static final String PROBE_EXECUTOR = "SQL Read Replica Probes";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlReadReplicaPool.class);
+
+    // Weight of the newest latency sample in the moving average.
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final SqlDatabase database;
+    private final List<Replica> replicas;
+    private final double maximumLag;
+    private final ConcurrentMap<Connection, Replica> replicaByConnection = new ConcurrentHashMap<>();
+    private final Task prober;
+
+    /**
+     * Creates an instance that balances across the given
+     * {@code dataSources} and starts probing them.
+     *
+     * @param dataSources Replica data sources keyed by their names.
+     * @param maximumLag In seconds.
+     * @param probeInterval In seconds.
+     */
+    public SqlReadReplicaPool(SqlDatabase database, Map<String, DataSource> dataSources, double maximumLag, double probeInterval) {
+        List<Replica> replicas = new ArrayList<>();
+
+        for (Map.Entry<String, DataSource> entry : dataSources.entrySet()) {
+            replicas.add(new Replica(entry.getKey(), entry.getValue()));
+        }
+
+        this.database = database;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.maximumLag = maximumLag;
+        this.prober = new Task(PROBE_EXECUTOR, database.getName()) {
+
+            @Override
+            protected void doTask() {
+                probe();
+            }
+
+            @Override
+            public String getProgress() {
+                return SqlReadReplicaPool.this.toString();
+            }
+        };
+
+        prober.scheduleWithFixedDelay(probeInterval, probeInterval);
+    }
+
+    /** @return Never {@code null}. */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Selects the replica that a new read connection should be opened on.
+     *
+     * @return {@code null} if there aren't any healthy replicas.
+     */
+    public Replica select() {
+        Replica selected = null;
+        double selectedScore = 0.0;
+
+        for (Replica replica : replicas) {
+            if (!replica.healthy) {
+                continue;
+            }
+
+            double score = (replica.outstanding.get() + 1) * Math.max(replica.latency, 1.0);
+
+            if (selected == null || score < selectedScore) {
+                selected = replica;
+                selectedScore = score;
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Tracks the given {@code connection} that was opened on the given
+     * {@code replica} as outstanding until it's {@linkplain #close closed}.
+     */
+    public void open(Replica replica, Connection connection) {
+        replica.outstanding.incrementAndGet();
+        replicaByConnection.put(connection, replica);
+    }
+
+    /**
+     * Stops tracking the given {@code connection} as outstanding. Does
+     * nothing if it wasn't opened on one of the replicas.
+     */
+    public void close(Connection connection) {
+        Replica replica = replicaByConnection.remove(connection);
+
+        if (replica != null) {
+            replica.outstanding.decrementAndGet();
+        }
+    }
+
+    /** Stops probing and closes all connection pools to the replicas. */
+    public void close() {
+        prober.stop();
+
+        for (Replica replica : replicas) {
+            DataSource dataSource = replica.getDataSource();
+
+            if (dataSource instanceof HikariDataSource) {
+                LOGGER.info("Closing read replica connection pool [{}] in {}", replica.getName(), database.getName());
+                ((HikariDataSource) dataSource).close();
+            }
+        }
+    }
+
+    // Checks the lag and the latency of all replicas.
+    void probe() {
+        SqlVendor vendor = database.getVendor();
+
+        for (Replica replica : replicas) {
+            long start = System.nanoTime();
+            Connection connection = null;
+
+            try {
+                connection = replica.getDataSource().getConnection();
+
+                Double lag = vendor != null ? vendor.getReplicationLag(connection) : null;
+
+                replica.lag = lag;
+                replica.latency = replica.latency * (1.0 - LATENCY_SMOOTHING) + ((System.nanoTime() - start) / 1e6) * LATENCY_SMOOTHING;
+
+                if (lag != null && lag > maximumLag) {
+                    replica.eject(String.format("Lagging by [%s] seconds", lag));
+
+                } else {
+                    replica.restore();
+                }
+
+            } catch (SQLException | RuntimeException error) {
+                replica.eject(error.getMessage());
+
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+
+                    } catch (SQLException error) {
+                        // Not likely and probably harmless.
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder();
+
+        for (Replica replica : replicas) {
+            if (string.length() > 0) {
+                string.append("; ");
+            }
+
+            string.append(replica);
+        }
+
+        return string.toString();
+    }
+
+    /** Read replica in the pool. */
+    public static class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile String ejectReason;
+        private volatile Double lag;
+        private volatile double latency;
+
+        public Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        /** Returns the number of connections that are open on this replica. */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /** Returns {@code true} if this replica can receive reads. */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * Returns the replication lag as of the last probe.
+         *
+         * @return In seconds. {@code null} if unknown.
+         */
+        public Double getLag() {
+            return lag;
+        }
+
+        /**
+         * Returns the moving average of the probe latency.
+         *
+         * @return In milliseconds.
+         */
+        public double getLatency() {
+            return latency;
+        }
+
+        /**
+         * Stops sending reads to this replica until the next successful
+         * probe.
+         */
+        public void eject(String reason) {
+            if (healthy) {
+                LOGGER.warn("Ejecting read replica [{}]: {}", name, reason);
+            }
+
+            ejectReason = reason;
+            healthy = false;
+        }
+
+        // Resumes sending reads to this replica.
+        private void restore() {
+            if (!healthy) {
+                LOGGER.info("Restoring read replica [{}]", name);
+            }
+
+            ejectReason = null;
+            healthy = true;
+        }
+
+        @Override
+        public String toString() {
+            return name
+                    + (healthy ? " OK" : " Ejected (" + ejectReason + ")")
+                    + ", Outstanding: " + outstanding.get()
+                    + ", Lag: " + (lag != null ? lag + " s" : "?")
+                    + ", Latency: " + Math.round(latency) + " ms";
+        }
+    }
+}
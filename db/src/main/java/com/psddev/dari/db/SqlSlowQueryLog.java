@@ -0,0 +1,453 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.TaskExecutor;
+
+/**
+ * Records the queries in a {@link SqlDatabase} that take longer than a
+ * threshold, so that they can be inspected in {@link SqlDebugServlet}
+ * without correlating the application logs with the database slow log.
+ *
+ * <p>The most recent slow queries are kept in a fixed-size ring buffer,
+ * and the durations are also aggregated into a histogram for each query
+ * shape, which is the SQL with the literals replaced by {@code ?}. If the
+ * plan sample rate is above {@code 0}, the plans of a sample of the slow
+ * queries are fetched in the background through {@link SqlVendor#explain},
+ * at most once per shape every {@value #PLAN_INTERVAL_MILLIS}
+ * milliseconds.</p>
+ */
+class SqlSlowQueryLog {
+
+    public static final String PLAN_EXECUTOR = "SQL Slow Query Plans";
+
+    /** Upper bounds of the histogram buckets in seconds. */
+    public static final double[] HISTOGRAM_BOUNDS = { 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, Double.POSITIVE_INFINITY };
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlSlowQueryLog.class);
+
+    static final int MAXIMUM_SHAPES = 500;
+    private static final int MAXIMUM_PENDING_PLANS = 4;
+    static final long PLAN_INTERVAL_MILLIS = 60000L;
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("^\\s*/\\*(.*?)\\*/\\s*", Pattern.DOTALL);
+    private static final Pattern HEX_PATTERN = Pattern.compile("(?i)\\bX\\?|\\b0x[0-9a-f]+\\b");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("(?<![\\w.])-?\\d+(\\.\\d+)?(e[+-]?\\d+)?\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LIST_PATTERN = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+    private final SqlDatabase database;
+    private final double threshold;
+    private final double planSampleRate;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicInteger pendingPlans = new AtomicInteger();
+
+    private final Map<String, Shape> shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+            return size() > MAXIMUM_SHAPES;
+        }
+    };
+
+    /**
+     * @param threshold In seconds.
+     * @param size Number of the most recent slow queries to keep.
+     * @param planSampleRate Fraction of the slow queries whose plans
+     *        should be fetched. {@code 0} disables it.
+     */
+    public SqlSlowQueryLog(SqlDatabase database, double threshold, int size, double planSampleRate) {
+        this.database = database;
+        this.threshold = threshold;
+        this.planSampleRate = planSampleRate;
+        this.entries = new AtomicReferenceArray<Entry>(Math.max(size, 1));
+    }
+
+    /**
+     * Returns the duration above which the queries are recorded.
+     *
+     * @return In seconds.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /** Returns the number of slow queries recorded since the start. */
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * Records the given {@code sqlQuery} if the given {@code duration}
+     * exceeds the threshold.
+     *
+     * @param duration In seconds.
+     */
+    public void record(String sqlQuery, double duration) {
+        if (duration < threshold) {
+            return;
+        }
+
+        Matcher commentMatcher = COMMENT_PATTERN.matcher(sqlQuery);
+        String comment = null;
+        String sql = sqlQuery;
+
+        if (commentMatcher.find()) {
+            comment = commentMatcher.group(1).trim();
+            sql = sqlQuery.substring(commentMatcher.end());
+        }
+
+        String shapeSql = toShape(sql);
+        Entry entry = new Entry(System.currentTimeMillis(), sqlQuery, shapeSql, comment, duration);
+        Shape shape;
+
+        synchronized (shapes) {
+            shape = shapes.get(shapeSql);
+
+            if (shape == null) {
+                shape = new Shape(shapeSql);
+                shapes.put(shapeSql, shape);
+            }
+        }
+
+        shape.add(entry);
+        entries.set((int) (recorded.getAndIncrement() % entries.length()), entry);
+
+        if (planSampleRate > 0.0
+                && ThreadLocalRandom.current().nextDouble() < planSampleRate
+                && shape.claimPlan(entry.time)) {
+
+            if (pendingPlans.incrementAndGet() > MAXIMUM_PENDING_PLANS) {
+                pendingPlans.decrementAndGet();
+
+            } else {
+                Shape planShape = shape;
+
+                TaskExecutor.Static.getInstance(PLAN_EXECUTOR).submit(() -> explain(planShape, entry));
+            }
+        }
+    }
+
+    // Fetches the plan of the given entry.
+    private void explain(Shape shape, Entry entry) {
+        try {
+            SqlVendor vendor = database.getVendor();
+            Connection connection = database.openReadConnection();
+
+            try {
+                String plan = vendor.explain(connection, entry.sql);
+
+                entry.plan = plan != null ? plan : "Not available for " + vendor.getClass().getSimpleName();
+
+            } finally {
+                database.closeConnection(connection);
+            }
+
+        } catch (SQLException | RuntimeException error) {
+            LOGGER.debug("Can't explain [{}]!", entry.sql, error);
+            entry.plan = "Can't explain: " + error.getMessage();
+
+        } finally {
+            shape.lastPlan = entry.plan;
+            pendingPlans.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the most recent slow queries, newest first.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<Entry>();
+
+        for (int i = 0, length = entries.length(); i < length; ++ i) {
+            Entry entry = entries.get(i);
+
+            if (entry != null) {
+                list.add(entry);
+            }
+        }
+
+        list.sort(Comparator.comparingLong((Entry e) -> e.time).reversed());
+        return list;
+    }
+
+    /**
+     * Returns the query shapes, in descending order by the total time.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Shape> getShapes() {
+        List<Shape> list;
+
+        synchronized (shapes) {
+            list = new ArrayList<Shape>(shapes.values());
+        }
+
+        list.sort(Comparator.comparingDouble(Shape::getTotalDuration).reversed());
+        return list;
+    }
+
+    /**
+     * Returns everything in this log as simple values that can be
+     * exported as JSON.
+     *
+     * @return Never {@code null}.
+     */
+    public Map<String, Object> toSimpleValues() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        List<Map<String, Object>> shapeValues = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> entryValues = new ArrayList<Map<String, Object>>();
+
+        for (Shape shape : getShapes()) {
+            shapeValues.add(shape.toSimpleValues());
+        }
+
+        for (Entry entry : getEntries()) {
+            entryValues.add(entry.toSimpleValues());
+        }
+
+        values.put("database", database.getName());
+        values.put("threshold", threshold);
+        values.put("recorded", recorded.get());
+        List<Double> bounds = new ArrayList<Double>();
+
+        // JSON doesn't allow infinity, so the last bucket is unbounded.
+        for (double bound : HISTOGRAM_BOUNDS) {
+            bounds.add(Double.isInfinite(bound) ? null : bound);
+        }
+
+        values.put("histogramBounds", bounds);
+        values.put("shapes", shapeValues);
+        values.put("entries", entryValues);
+        return values;
+    }
+
+    /**
+     * Converts the given {@code sql} into its shape by replacing all
+     * literals with {@code ?} and collapsing the lists of them.
+     *
+     * @param sql Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    static String toShape(String sql) {
+        StringBuilder shape = new StringBuilder(sql.length());
+
+        // String literals can contain anything, so they're skipped by
+        // hand instead of with a pattern.
+        for (int i = 0, length = sql.length(); i < length; ++ i) {
+            char c = sql.charAt(i);
+
+            if (c != '\'') {
+                shape.append(c);
+                continue;
+            }
+
+            for (++ i; i < length; ++ i) {
+                char s = sql.charAt(i);
+
+                if (s == '\\') {
+                    ++ i;
+
+                } else if (s == '\'') {
+                    if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                        ++ i;
+
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            shape.append('?');
+        }
+
+        String result = shape.toString();
+
+        result = HEX_PATTERN.matcher(result).replaceAll("?");
+        result = NUMBER_PATTERN.matcher(result).replaceAll("?");
+        result = LIST_PATTERN.matcher(result).replaceAll("(?+)");
+        result = WHITESPACE_PATTERN.matcher(result).replaceAll(" ");
+
+        return result.trim();
+    }
+
+    /** Slow query. */
+    public static final class Entry {
+
+        private final long time;
+        private final String sql;
+        private final String shape;
+        private final String comment;
+        private final double duration;
+        private volatile String plan;
+
+        private Entry(long time, String sql, String shape, String comment, double duration) {
+            this.time = time;
+            this.sql = sql;
+            this.shape = shape;
+            this.comment = comment;
+            this.duration = duration;
+        }
+
+        /** Returns when the query finished in milliseconds. */
+        public long getTime() {
+            return time;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        /**
+         * Returns the comment of the {@link Query} that the SQL was
+         * generated from.
+         *
+         * @return May be {@code null}.
+         */
+        public String getComment() {
+            return comment;
+        }
+
+        /** @return In seconds. */
+        public double getDuration() {
+            return duration;
+        }
+
+        /** @return {@code null} if it wasn't sampled or isn't fetched yet. */
+        public String getPlan() {
+            return plan;
+        }
+
+        private Map<String, Object> toSimpleValues() {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+            values.put("time", time);
+            values.put("duration", duration);
+            values.put("comment", comment);
+            values.put("shape", shape);
+            values.put("sql", sql);
+            values.put("plan", plan);
+            return values;
+        }
+    }
+
+    /** Aggregated durations of all slow queries with the same shape. */
+    public static final class Shape {
+
+        private final String sql;
+        private final long[] histogram = new long[HISTOGRAM_BOUNDS.length];
+        private long count;
+        private double totalDuration;
+        private double maximumDuration;
+        private String lastComment;
+        private long lastPlanTime;
+        private volatile String lastPlan;
+
+        private Shape(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /** @return In seconds. */
+        public synchronized double getTotalDuration() {
+            return totalDuration;
+        }
+
+        /** @return In seconds. */
+        public synchronized double getMaximumDuration() {
+            return maximumDuration;
+        }
+
+        /**
+         * Returns the number of queries in each bucket bounded by
+         * {@link #HISTOGRAM_BOUNDS}.
+         *
+         * @return Never {@code null}.
+         */
+        public synchronized long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /** @return May be {@code null}. */
+        public synchronized String getLastComment() {
+            return lastComment;
+        }
+
+        /** @return May be {@code null}. */
+        public String getLastPlan() {
+            return lastPlan;
+        }
+
+        private synchronized void add(Entry entry) {
+            double duration = entry.duration;
+            int bucket = 0;
+
+            while (duration > HISTOGRAM_BOUNDS[bucket]) {
+                ++ bucket;
+            }
+
+            ++ histogram[bucket];
+            ++ count;
+            totalDuration += duration;
+            maximumDuration = Math.max(maximumDuration, duration);
+
+            if (entry.comment != null) {
+                lastComment = entry.comment;
+            }
+        }
+
+        // Returns true if a plan should be fetched for this shape now.
+        synchronized boolean claimPlan(long now) {
+            if (now - lastPlanTime < PLAN_INTERVAL_MILLIS) {
+                return false;
+            }
+
+            lastPlanTime = now;
+            return true;
+        }
+
+        private synchronized Map<String, Object> toSimpleValues() {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+            values.put("sql", sql);
+            values.put("count", count);
+            values.put("totalDuration", totalDuration);
+            values.put("maximumDuration", maximumDuration);
+            values.put("histogram", histogram.clone());
+            values.put("lastComment", lastComment);
+            values.put("lastPlan", lastPlan);
+            return values;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -19,6 +20,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -726,6 +729,79 @@ public class SqlVendor {
         return null;
     }
 
+    /**
+     * Estimates the number of rows that the given {@code sqlQuery} would
+     * return, without actually executing it.
+     *
+     * @return {@code null} if the estimate isn't available.
+     * @see CountStrategy#ESTIMATED
+     */
+    public Long estimateCount(Connection connection, String sqlQuery) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Returns how far the database at the other end of the given
+     * {@code connection} lags behind the master.
+     *
+     * @return In seconds. {@code 0} if it's not a replica, {@code null}
+     *         if the lag isn't available, and
+     *         {@link Double#POSITIVE_INFINITY} if the replication is
+     *         broken.
+     */
+    public Double getReplicationLag(Connection connection) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Returns the plan that the database would use to execute the given
+     * {@code sqlQuery}, as text.
+     *
+     * @return {@code null} if the plan isn't available.
+     * @see SqlSlowQueryLog
+     */
+    public String explain(Connection connection, String sqlQuery) throws SQLException {
+        return null;
+    }
+
+    // Executes the given statement and formats the result as text, one
+    // row per line with tab-separated columns.
+    protected String explainWith(Connection connection, String explainSql) throws SQLException {
+        Statement statement = connection.createStatement();
+
+        try {
+            ResultSet result = statement.executeQuery(explainSql);
+
+            try {
+                ResultSetMetaData meta = result.getMetaData();
+                int count = meta.getColumnCount();
+                StringBuilder plan = new StringBuilder();
+
+                if (count > 1) {
+                    for (int i = 1; i <= count; ++ i) {
+                        plan.append(meta.getColumnLabel(i));
+                        plan.append(i < count ? '\t' : '\n');
+                    }
+                }
+
+                while (result.next()) {
+                    for (int i = 1; i <= count; ++ i) {
+                        plan.append(result.getString(i));
+                        plan.append(i < count ? '\t' : '\n');
+                    }
+                }
+
+                return plan.toString();
+
+            } finally {
+                result.close();
+            }
+
+        } finally {
+            statement.close();
+        }
+    }
+
     /* ******************* METRICS ******************* */
     // These are all very vendor-specific.
     public void appendMetricUpdateDataSql(StringBuilder sql, String columnIdentifier, List<Object> parameters, double amount, long eventDate, boolean increment, boolean updateFuture) {
@@ -876,6 +952,105 @@ public class SqlVendor {
             return "mysql/schema-12.sql";
         }
 
+        @Override
+        public Double getReplicationLag(Connection connection) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("SHOW SLAVE STATUS");
+
+                try {
+                    if (!result.next()) {
+                        return 0.0;
+                    }
+
+                    Object lag = result.getObject("Seconds_Behind_Master");
+
+                    return lag instanceof Number
+                            ? ((Number) lag).doubleValue()
+                            : Double.POSITIVE_INFINITY;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public String explain(Connection connection, String sqlQuery) throws SQLException {
+            return explainWith(connection, "EXPLAIN " + sqlQuery);
+        }
+
+        // Multiplies the rows examined by the fraction that's expected to
+        // pass the conditions for each table joined in the outermost
+        // select.
+        @Override
+        public Long estimateCount(Connection connection, String sqlQuery) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("EXPLAIN " + sqlQuery);
+
+                try {
+                    ResultSetMetaData meta = result.getMetaData();
+                    int idColumn = 0;
+                    int rowsColumn = 0;
+                    int filteredColumn = 0;
+
+                    for (int i = 1, count = meta.getColumnCount(); i <= count; ++ i) {
+                        String label = meta.getColumnLabel(i);
+
+                        if ("id".equalsIgnoreCase(label)) {
+                            idColumn = i;
+
+                        } else if ("rows".equalsIgnoreCase(label)) {
+                            rowsColumn = i;
+
+                        } else if ("filtered".equalsIgnoreCase(label)) {
+                            filteredColumn = i;
+                        }
+                    }
+
+                    if (rowsColumn == 0) {
+                        return null;
+                    }
+
+                    double estimate = 1.0;
+                    boolean found = false;
+
+                    while (result.next()) {
+                        if (idColumn > 0 && result.getInt(idColumn) != 1) {
+                            continue;
+                        }
+
+                        double rows = result.getDouble(rowsColumn);
+
+                        if (filteredColumn > 0) {
+                            double filtered = result.getDouble(filteredColumn);
+
+                            if (!result.wasNull()) {
+                                rows *= filtered / 100.0;
+                            }
+                        }
+
+                        estimate *= rows;
+                        found = true;
+                    }
+
+                    return found ? Math.round(estimate) : null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
         @Override
         public boolean useSavepoint() {
             return false;
@@ -1339,11 +1514,72 @@ public class SqlVendor {
 
     public static class PostgreSQL extends SqlVendor {
 
+        private static final Pattern PLAN_ROWS_PATTERN = Pattern.compile("\\brows=(\\d+)");
+
         @Override
         protected String getSetUpResourcePath() {
             return "postgres/schema-12.sql";
         }
 
+        // Reports no lag when the replica has replayed everything that it
+        // received, so that an idle master doesn't look like a lag.
+        @Override
+        public Double getReplicationLag(Connection connection) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery(
+                        "SELECT CASE"
+                                + " WHEN NOT pg_is_in_recovery() THEN 0"
+                                + " WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+                                + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)"
+                                + " END");
+
+                try {
+                    return result.next() ? result.getDouble(1) : null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public String explain(Connection connection, String sqlQuery) throws SQLException {
+            return explainWith(connection, "EXPLAIN " + sqlQuery);
+        }
+
+        // Uses the row estimate of the top plan node.
+        @Override
+        public Long estimateCount(Connection connection, String sqlQuery) throws SQLException {
+            Statement statement = connection.createStatement();
+
+            try {
+                ResultSet result = statement.executeQuery("EXPLAIN " + sqlQuery);
+
+                try {
+                    if (result.next()) {
+                        Matcher matcher = PLAN_ROWS_PATTERN.matcher(result.getString(1));
+
+                        if (matcher.find()) {
+                            return Long.parseLong(matcher.group(1));
+                        }
+                    }
+
+                    return null;
+
+                } finally {
+                    result.close();
+                }
+
+            } finally {
+                statement.close();
+            }
+        }
+
         @Override
         protected boolean hasTable(Connection connection, String tableName) throws SQLException {
             return getTables(connection).contains(tableName.toLowerCase(Locale.ENGLISH));
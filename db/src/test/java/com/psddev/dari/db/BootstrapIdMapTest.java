@@ -0,0 +1,53 @@
+package com.psddev.dari.db;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BootstrapIdMapTest {
+
+    @Test
+    public void empty() {
+        BootstrapIdMap map = new BootstrapIdMap();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(UUID.randomUUID()));
+    }
+
+    @Test
+    public void putAndGet() {
+        BootstrapIdMap map = new BootstrapIdMap();
+        Map<UUID, UUID> expected = new HashMap<>();
+
+        for (int i = 0; i < 10000; ++ i) {
+            UUID id = UUID.randomUUID();
+            UUID localId = UUID.randomUUID();
+
+            map.put(id, localId);
+            expected.put(id, localId);
+        }
+
+        assertEquals(expected.size(), map.size());
+
+        for (Map.Entry<UUID, UUID> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void putReplaces() {
+        BootstrapIdMap map = new BootstrapIdMap();
+        UUID id = new UUID(0L, 0L);
+        UUID localId = UUID.randomUUID();
+
+        map.put(id, UUID.randomUUID());
+        map.put(id, localId);
+
+        assertEquals(1, map.size());
+        assertEquals(localId, map.get(id));
+    }
+}
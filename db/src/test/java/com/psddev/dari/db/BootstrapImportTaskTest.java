@@ -0,0 +1,45 @@
+package com.psddev.dari.db;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class BootstrapImportTaskTest {
+
+    @Test
+    public void matchesCaseSensitive() {
+        BootstrapImportTask.Matches<String> matches = new BootstrapImportTask.Matches<>(new HashSet<>(Arrays.asList("Foo", "foo")), true);
+
+        matches.put("Foo", "upper");
+
+        assertTrue(matches.isQueried("foo"));
+        assertEquals("upper", matches.get("Foo"));
+        assertNull(matches.get("foo"));
+        assertNull(matches.get(" Foo "));
+    }
+
+    @Test
+    public void matchesCaseInsensitive() {
+        BootstrapImportTask.Matches<String> matches = new BootstrapImportTask.Matches<>(new HashSet<>(Arrays.asList("Foo", "foo")), false);
+
+        matches.put("Foo", "upper");
+
+        assertEquals("upper", matches.get("Foo"));
+        assertEquals("upper", matches.get("foo"));
+        assertEquals("upper", matches.get(" FOO "));
+    }
+
+    @Test
+    public void matchesExactBeforeFolded() {
+        BootstrapImportTask.Matches<String> matches = new BootstrapImportTask.Matches<>(new HashSet<>(Arrays.asList("Foo", "foo")), false);
+
+        matches.put("Foo", "upper");
+        matches.put("foo", "lower");
+
+        assertEquals("upper", matches.get("Foo"));
+        assertEquals("lower", matches.get("foo"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.psddev.dari.db;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DeflateSqlDataCodecTest {
+
+    @Test
+    public void roundTrip() {
+        DeflateSqlDataCodec codec = new DeflateSqlDataCodec();
+        StringBuilder json = new StringBuilder("{");
+
+        for (int i = 0; i < 1000; ++ i) {
+            json.append("\"field").append(i).append("\":\"value").append(i).append("\",");
+        }
+
+        json.append("\"_id\":\"0\"}");
+
+        byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = codec.encode(data);
+
+        assertEquals(DeflateSqlDataCodec.PREFIX, encoded[0]);
+        assertTrue(encoded.length < data.length);
+        assertArrayEquals(data, codec.decode(encoded, 1, encoded.length - 1));
+    }
+
+    @Test
+    public void decodeData() {
+        byte[] data = "{\"a\":1}".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(data, SqlDatabase.decodeData(new DeflateSqlDataCodec().encode(data)));
+        assertArrayEquals(data, SqlDatabase.decodeData(data));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decodeTruncated() {
+        DeflateSqlDataCodec codec = new DeflateSqlDataCodec();
+        byte[] encoded = codec.encode("{\"a\":\"bcdefghijklmnopqrstuvwxyz\"}".getBytes(StandardCharsets.UTF_8));
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+
+        codec.decode(truncated, 1, truncated.length - 1);
+    }
+}
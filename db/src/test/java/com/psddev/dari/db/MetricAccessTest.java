@@ -0,0 +1,130 @@
+package com.psddev.dari.db;
+
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.UuidUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MetricAccessTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long MINUTE = 60L * 1000L;
+
+    private MetricAccessDatabase database;
+    private Connection connection;
+    private ResultSet result;
+    private List<String> preparedSqls;
+
+    @Before
+    public void before() throws Exception {
+        database = mock(MetricAccessDatabase.class);
+        connection = mock(Connection.class);
+        result = mock(ResultSet.class);
+        preparedSqls = new ArrayList<>();
+
+        Statement statement = mock(Statement.class);
+
+        when(database.getMetricVendor()).thenReturn(new SqlVendor.PostgreSQL());
+        when(database.openConnection()).thenReturn(connection);
+        when(database.executeQueryBeforeTimeout(any(Statement.class), anyString(), anyInt())).thenReturn(result);
+        when(connection.createStatement()).thenReturn(statement);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> {
+            preparedSqls.add((String) invocation.getArguments()[0]);
+            return mock(PreparedStatement.class);
+        });
+    }
+
+    private static byte[] toBytes(long eventDate, double cumulativeAmount, double amount) {
+        return ByteBuffer.allocate(MetricAccess.DATE_BYTE_SIZE + MetricAccess.AMOUNT_BYTE_SIZE * 2)
+                .putInt((int) (eventDate / MetricAccess.DATE_DECIMAL_SHIFT))
+                .putLong((long) (cumulativeAmount * MetricAccess.AMOUNT_DECIMAL_SHIFT))
+                .putLong((long) (amount * MetricAccess.AMOUNT_DECIMAL_SHIFT))
+                .array();
+    }
+
+    @Test
+    public void resummarizeKeepsDataOfEachInterval() throws Exception {
+        long first = new MetricInterval.Hourly().process(new DateTime(1000L * HOUR));
+        long second = first + HOUR;
+
+        when(result.next()).thenReturn(true, true, true, true, false);
+        when(result.getBytes(1)).thenReturn(
+                toBytes(first + MINUTE, 1.0, 1.0),
+                toBytes(first + 2 * MINUTE, 3.0, 2.0),
+                toBytes(second + MINUTE, 7.0, 4.0),
+                toBytes(second + 2 * MINUTE, 15.0, 8.0));
+
+        MetricAccess.Static.doResummarize(database, UUID.randomUUID(), UUID.randomUUID(), 1, UUID.randomUUID(), new MetricInterval.Hourly(), null, null);
+
+        List<String> inserts = new ArrayList<>();
+
+        for (String sql : preparedSqls) {
+            if (sql.startsWith("INSERT")) {
+                inserts.add(sql);
+            }
+        }
+
+        assertEquals(2, inserts.size());
+        assertTrue(inserts.get(0).contains(StringUtils.hex(toBytes(first, 3.0, 3.0))));
+        assertTrue(inserts.get(1).contains(StringUtils.hex(toBytes(second, 15.0, 12.0))));
+        verify(connection).commit();
+    }
+
+    @Test
+    public void writeClearsPreFetchedData() throws Exception {
+        ObjectField field = mock(ObjectField.class);
+        DatabaseEnvironment environment = mock(DatabaseEnvironment.class);
+
+        // Unique name so that the MetricAccess cached by other runs isn't reused.
+        when(field.getUniqueName()).thenReturn("test/" + UUID.randomUUID());
+        when(field.getInternalName()).thenReturn("metric");
+        when(field.as(MetricAccess.FieldData.class)).thenReturn(mock(MetricAccess.FieldData.class));
+        when(environment.getField("metric")).thenReturn(field);
+        when(database.getSymbolId(anyString())).thenReturn(1);
+        when(database.getEnvironment()).thenReturn(environment);
+        when(database.openReadConnection()).thenReturn(connection);
+
+        when(result.next()).thenReturn(true, false, true, true);
+        when(result.getBytes(1)).thenReturn(
+                toBytes(1000L * HOUR, 5.0, 5.0),
+                toBytes(1000L * HOUR, 5.0, 5.0),
+                toBytes(1001L * HOUR, 6.0, 1.0));
+
+        Database.Static.overrideDefault(database);
+
+        try {
+            State owner = new State();
+
+            owner.setDatabase(database);
+            when(result.getString(2)).thenReturn(owner.getId().toString());
+
+            Metric metric = new Metric(owner, field);
+            MetricAccess metricAccess = MetricAccess.Static.getMetricAccess(database, owner.getType(), field);
+
+            MetricAccess.Static.preFetchMetricData(metricAccess, Collections.singletonList(owner), UuidUtils.ZERO_UUID, null, null, false);
+
+            assertEquals(5.0, metric.getSum(), 0.0);
+
+            metric.increment(1.0);
+
+            assertEquals(6.0, metric.getSum(), 0.0);
+
+        } finally {
+            Database.Static.restoreDefault();
+        }
+    }
+}
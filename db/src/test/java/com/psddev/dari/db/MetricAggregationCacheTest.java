@@ -0,0 +1,206 @@
+package com.psddev.dari.db;
+
+import com.psddev.dari.util.UuidUtils;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MetricAggregationCacheTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private MetricAccess metricAccess;
+    private MetricAggregationCache cache;
+
+    @Before
+    public void before() throws Exception {
+        MetricAccessDatabase database = mock(MetricAccessDatabase.class);
+
+        metricAccess = mock(MetricAccess.class);
+        cache = new MetricAggregationCache(metricAccess);
+
+        when(database.now()).thenReturn(1000L * HOUR);
+        when(metricAccess.getDatabase()).thenReturn(database);
+        when(metricAccess.getCumulativeAmountBefore(any(UUID.class), any(UUID.class), anyLong())).thenReturn(5.0);
+        when(metricAccess.getIntervalAmountsSince(any(UUID.class), any(UUID.class), anyLong()))
+                .thenAnswer(invocation -> Collections.singletonMap(new DateTime(999L * HOUR), 2.0));
+    }
+
+    @Test
+    public void sum() {
+        MetricAggregationCache.Buckets buckets = new MetricAggregationCache.Buckets(10 * HOUR, 5.0, 0);
+
+        buckets.add(12 * HOUR, 2.0);
+        buckets.add(11 * HOUR, 1.0);
+        buckets.add(12 * HOUR, 3.0);
+
+        assertEquals(11.0, buckets.sum(null, null), 0.0);
+        assertEquals(6.0, buckets.sum(null, 12 * HOUR), 0.0);
+        assertEquals(5.0, buckets.sum(12 * HOUR, null), 0.0);
+        assertEquals(1.0, buckets.sum(11 * HOUR, 12 * HOUR), 0.0);
+        assertNull(buckets.sum(13 * HOUR, null));
+    }
+
+    @Test
+    public void incrementBeforeWindow() {
+        MetricAggregationCache.Buckets buckets = new MetricAggregationCache.Buckets(10 * HOUR, null, 0);
+
+        assertNull(buckets.sum(null, null));
+        buckets.add(HOUR, 4.0);
+        assertEquals(4.0, buckets.sum(null, null), 0.0);
+        assertNull(buckets.sum(10 * HOUR, null));
+    }
+
+    @Test
+    public void covers() {
+        MetricAggregationCache.Buckets buckets = new MetricAggregationCache.Buckets(10 * HOUR, null, 0);
+
+        assertTrue(buckets.covers(null, null));
+        assertTrue(buckets.covers(10 * HOUR, null));
+        assertFalse(buckets.covers(9 * HOUR, null));
+        assertFalse(buckets.covers(null, 9 * HOUR));
+    }
+
+    @Test
+    public void timeline() {
+        MetricAggregationCache.Buckets buckets = new MetricAggregationCache.Buckets(0L, null, 0);
+
+        for (int i = 0; i < 48; ++ i) {
+            buckets.add(i * HOUR, 1.0);
+        }
+
+        Map<DateTime, Double> timeline = buckets.timeline(0L, null, new MetricInterval.Daily());
+
+        assertEquals(48.0, timeline.values().stream().mapToDouble(Double::doubleValue).sum(), 0.0);
+
+        for (Double amount : timeline.values()) {
+            assertTrue(amount <= 24.0);
+        }
+    }
+
+    @Test
+    public void bucketsBounded() {
+        MetricAggregationCache.Buckets buckets = new MetricAggregationCache.Buckets(10 * HOUR, null, 0);
+        int added = 0;
+
+        while (buckets.add((10 + added) * HOUR, 1.0)) {
+            ++ added;
+        }
+
+        assertTrue(added > 0);
+        assertTrue(buckets.add(10 * HOUR, 1.0));
+        assertTrue(buckets.add(HOUR, 1.0));
+        assertEquals(added + 2.0, buckets.sum(null, null), 0.0);
+    }
+
+    @Test
+    public void getReadsThrough() throws Exception {
+        UUID id = UUID.randomUUID();
+        MetricAggregationCache.Buckets buckets = cache.get(id, UuidUtils.ZERO_UUID);
+
+        assertEquals(7.0, buckets.sum(null, null), 0.0);
+        assertSame(buckets, cache.get(id, UuidUtils.ZERO_UUID));
+        verify(metricAccess, times(1)).getIntervalAmountsSince(eq(id), eq(UuidUtils.ZERO_UUID), anyLong());
+    }
+
+    @Test
+    public void incrementLoaded() throws Exception {
+        UUID id = UUID.randomUUID();
+        UUID dimensionId = UUID.randomUUID();
+
+        cache.increment(id, UuidUtils.ZERO_UUID, 999L * HOUR, 1.0);
+
+        MetricAggregationCache.Buckets all = cache.get(id, UuidUtils.ZERO_UUID);
+
+        cache.increment(id, dimensionId, 999L * HOUR, 1.0);
+
+        assertEquals(8.0, all.sum(null, null), 0.0);
+        assertEquals(7.0, cache.get(id, dimensionId).sum(null, null), 0.0);
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        UUID id = UUID.randomUUID();
+        UUID otherId = UUID.randomUUID();
+        UUID dimensionId = UUID.randomUUID();
+
+        cache.get(id, UuidUtils.ZERO_UUID);
+        cache.get(id, dimensionId);
+        cache.get(otherId, UuidUtils.ZERO_UUID);
+        cache.invalidate(id);
+        cache.get(id, UuidUtils.ZERO_UUID);
+        cache.get(id, dimensionId);
+        cache.get(otherId, UuidUtils.ZERO_UUID);
+
+        verify(metricAccess, times(2)).getIntervalAmountsSince(eq(id), eq(UuidUtils.ZERO_UUID), anyLong());
+        verify(metricAccess, times(2)).getIntervalAmountsSince(eq(id), eq(dimensionId), anyLong());
+        verify(metricAccess, times(1)).getIntervalAmountsSince(eq(otherId), eq(UuidUtils.ZERO_UUID), anyLong());
+    }
+
+    @Test
+    public void invalidateOnlyOwnField() throws Exception {
+        UUID id = UUID.randomUUID();
+        MetricAccess otherMetricAccess = mock(MetricAccess.class);
+
+        cache.get(id, UuidUtils.ZERO_UUID);
+        new MetricAggregationCache(otherMetricAccess).invalidate(id);
+        cache.get(id, UuidUtils.ZERO_UUID);
+
+        verify(metricAccess, times(1)).getIntervalAmountsSince(eq(id), eq(UuidUtils.ZERO_UUID), anyLong());
+    }
+
+    @Test
+    public void incrementFullReloads() throws Exception {
+        UUID id = UUID.randomUUID();
+        MetricAggregationCache.Buckets buckets = cache.get(id, UuidUtils.ZERO_UUID);
+
+        for (long eventDate = 999L * HOUR; buckets.add(eventDate, 0.0); eventDate += HOUR) {
+            // Fill up the buckets.
+        }
+
+        cache.increment(id, UuidUtils.ZERO_UUID, 2000L * HOUR, 1.0);
+
+        assertNotSame(buckets, cache.get(id, UuidUtils.ZERO_UUID));
+        verify(metricAccess, times(2)).getIntervalAmountsSince(eq(id), eq(UuidUtils.ZERO_UUID), anyLong());
+    }
+
+    @Test
+    public void invalidateDuringLoad() throws Exception {
+        UUID id = UUID.randomUUID();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+
+        when(metricAccess.getIntervalAmountsSince(eq(id), any(UUID.class), anyLong())).thenAnswer(invocation -> {
+            loading.countDown();
+            invalidated.await();
+            return Collections.singletonMap(new DateTime(999L * HOUR), 2.0);
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<MetricAggregationCache.Buckets> stale = executor.submit(() -> cache.get(id, UuidUtils.ZERO_UUID));
+
+            loading.await();
+            cache.invalidate(id);
+            invalidated.countDown();
+
+            assertNotSame(stale.get(), cache.get(id, UuidUtils.ZERO_UUID));
+            verify(metricAccess, times(2)).getIntervalAmountsSince(eq(id), eq(UuidUtils.ZERO_UUID), anyLong());
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.psddev.dari.db;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SqlMetricRankingTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private SqlMetricRanking ranking;
+    private ObjectField field;
+
+    @Before
+    public void before() {
+        ranking = new SqlMetricRanking(mock(SqlDatabase.class), 100, 60L);
+        field = mock(ObjectField.class);
+
+        MetricAccess.FieldData fieldData = mock(MetricAccess.FieldData.class);
+
+        when(fieldData.getEventDateProcessor()).thenReturn(new MetricInterval.Hourly());
+        when(field.isMetric()).thenReturn(true);
+        when(field.getUniqueName()).thenReturn("test/metric");
+        when(field.as(MetricAccess.FieldData.class)).thenReturn(fieldData);
+    }
+
+    private Query.MappedKey mapKey(ObjectField field, String hashAttribute) {
+        Query.MappedKey mappedKey = mock(Query.MappedKey.class);
+
+        when(mappedKey.getField()).thenReturn(field);
+        when(mappedKey.getHashAttribute()).thenReturn(hashAttribute);
+        return mappedKey;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Query<Object> createQuery(String sortOperator, Predicate... predicates) {
+        Query<Object> query = mock(Query.class);
+        Query.MappedKey nameKey = mapKey(mock(ObjectField.class), null);
+
+        when(query.getSorters()).thenReturn(Collections.singletonList(new Sorter(sortOperator, Collections.singletonList("metric"))));
+        when(query.mapEmbeddedKey(any(), eq("metric"))).thenReturn(mapKey(field, null));
+        when(query.mapEmbeddedKey(any(), eq("metric#date"))).thenReturn(mapKey(field, Query.METRIC_DATE_ATTRIBUTE));
+        when(query.mapEmbeddedKey(any(), eq("name"))).thenReturn(nameKey);
+
+        if (predicates.length == 1) {
+            when(query.getPredicate()).thenReturn(predicates[0]);
+
+        } else if (predicates.length > 1) {
+            when(query.getPredicate()).thenReturn(new CompoundPredicate(PredicateParser.AND_OPERATOR, Arrays.asList(predicates)));
+        }
+
+        return query;
+    }
+
+    private static ComparisonPredicate compare(String key, String operator, Object value) {
+        return new ComparisonPredicate(operator, false, key, Collections.singletonList(value));
+    }
+
+    @Test
+    public void createKeyWithDateRange() {
+        long start = new MetricInterval.Hourly().process(new DateTime(1000L * HOUR));
+        Predicate name = compare("name", PredicateParser.EQUALS_ANY_OPERATOR, "foo");
+        SqlMetricRanking.Key key = ranking.createKey(createQuery(
+                Sorter.DESCENDING_OPERATOR,
+                compare("metric#date", PredicateParser.GREATER_THAN_OR_EQUALS_OPERATOR, new DateTime(start)),
+                name,
+                compare("metric#date", PredicateParser.LESS_THAN_OPERATOR, start + 2 * HOUR)));
+
+        assertNotNull(key);
+        assertEquals("test/metric", key.symbol);
+        assertEquals(Long.valueOf(start), key.startTimestamp);
+        assertEquals(Long.valueOf(start + 2 * HOUR), key.endTimestamp);
+        assertSame(name, key.restPredicate);
+    }
+
+    @Test
+    public void createKeySharedWithinInterval() {
+        long start = new MetricInterval.Hourly().process(new DateTime(1000L * HOUR));
+
+        assertEquals(
+                ranking.createKey(createQuery(
+                        Sorter.DESCENDING_OPERATOR,
+                        compare("metric#date", PredicateParser.GREATER_THAN_OR_EQUALS_OPERATOR, start + 1000L))),
+                ranking.createKey(createQuery(
+                        Sorter.DESCENDING_OPERATOR,
+                        compare("metric#date", PredicateParser.GREATER_THAN_OR_EQUALS_OPERATOR, start + 2000L))));
+    }
+
+    @Test
+    public void createKeyWithoutPredicate() {
+        SqlMetricRanking.Key key = ranking.createKey(createQuery(Sorter.DESCENDING_OPERATOR));
+
+        assertNotNull(key);
+        assertNull(key.startTimestamp);
+        assertNull(key.endTimestamp);
+        assertNull(key.restPredicate);
+    }
+
+    @Test
+    public void createKeyNotDescending() {
+        assertNull(ranking.createKey(createQuery(Sorter.ASCENDING_OPERATOR)));
+    }
+
+    @Test
+    public void createKeyMultipleSorters() {
+        Query<Object> query = createQuery(Sorter.DESCENDING_OPERATOR);
+        List<Sorter> sorters = new ArrayList<>(query.getSorters());
+
+        sorters.add(new Sorter(Sorter.ASCENDING_OPERATOR, Collections.singletonList("name")));
+        when(query.getSorters()).thenReturn(sorters);
+
+        assertNull(ranking.createKey(query));
+    }
+
+    @Test
+    public void createKeyOtherMetricPredicate() {
+        assertNull(ranking.createKey(createQuery(
+                Sorter.DESCENDING_OPERATOR,
+                compare("metric#date", PredicateParser.EQUALS_ANY_OPERATOR, new DateTime(1000L * HOUR)))));
+    }
+
+    @Test
+    public void toEventDateBoundaryAtIntervalStart() {
+        long start = new MetricInterval.Hourly().process(new DateTime(1000L * HOUR));
+
+        assertEquals(start, SqlMetricRanking.toEventDateBoundary(new MetricInterval.Hourly(), start));
+        assertEquals(start, SqlMetricRanking.toEventDateBoundary(null, start));
+    }
+
+    @Test
+    public void toEventDateBoundaryWithinInterval() {
+        long start = new MetricInterval.Hourly().process(new DateTime(1000L * HOUR));
+        long boundary = SqlMetricRanking.toEventDateBoundary(new MetricInterval.Hourly(), start + 1000L);
+
+        assertEquals(start + MetricAccess.DATE_DECIMAL_SHIFT, boundary);
+        assertEquals(boundary, SqlMetricRanking.toEventDateBoundary(new MetricInterval.Hourly(), start + HOUR - 1L));
+    }
+}
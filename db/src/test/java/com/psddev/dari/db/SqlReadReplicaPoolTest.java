@@ -0,0 +1,129 @@
+package com.psddev.dari.db;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SqlReadReplicaPoolTest {
+
+    private static final double PROBE_INTERVAL = 3600.0;
+
+    private SqlDatabase database;
+    private DataSource first;
+    private DataSource second;
+    private SqlReadReplicaPool pool;
+
+    @Before
+    public void before() throws SQLException {
+        database = mock(SqlDatabase.class);
+        first = mock(DataSource.class);
+        second = mock(DataSource.class);
+
+        when(database.getName()).thenReturn("SqlReadReplicaPoolTest");
+        when(first.getConnection()).thenReturn(mock(Connection.class));
+        when(second.getConnection()).thenReturn(mock(Connection.class));
+
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+
+        dataSources.put("first", first);
+        dataSources.put("second", second);
+        pool = new SqlReadReplicaPool(database, dataSources, 10.0, PROBE_INTERVAL);
+    }
+
+    @After
+    public void after() {
+        pool.close();
+    }
+
+    private SqlReadReplicaPool.Replica getReplica(String name) {
+        for (SqlReadReplicaPool.Replica replica : pool.getReplicas()) {
+            if (replica.getName().equals(name)) {
+                return replica;
+            }
+        }
+
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void selectFewestOutstanding() {
+        Connection connection = mock(Connection.class);
+
+        assertEquals("first", pool.select().getName());
+
+        pool.open(pool.select(), connection);
+
+        assertEquals(1, getReplica("first").getOutstanding());
+        assertEquals("second", pool.select().getName());
+
+        pool.close(connection);
+
+        assertEquals(0, getReplica("first").getOutstanding());
+        assertEquals("first", pool.select().getName());
+    }
+
+    @Test
+    public void selectSkipsEjected() {
+        getReplica("first").eject("test");
+
+        assertFalse(getReplica("first").isHealthy());
+        assertEquals("second", pool.select().getName());
+
+        getReplica("second").eject("test");
+
+        assertNull(pool.select());
+    }
+
+    @Test
+    public void probeEjectsAndRestores() throws SQLException {
+        when(first.getConnection()).thenThrow(new SQLException("down"));
+
+        pool.probe();
+
+        assertFalse(getReplica("first").isHealthy());
+        assertTrue(getReplica("second").isHealthy());
+        assertEquals("second", pool.select().getName());
+
+        reset(first);
+        when(first.getConnection()).thenReturn(mock(Connection.class));
+
+        pool.probe();
+
+        assertTrue(getReplica("first").isHealthy());
+    }
+
+    @Test
+    public void probeEjectsLagging() throws SQLException {
+        SqlVendor vendor = mock(SqlVendor.class);
+
+        when(database.getVendor()).thenReturn(vendor);
+        when(vendor.getReplicationLag(any(Connection.class))).thenReturn(60.0, 1.0);
+
+        pool.probe();
+
+        assertFalse(getReplica("first").isHealthy());
+        assertTrue(getReplica("second").isHealthy());
+        assertEquals(Double.valueOf(60.0), getReplica("first").getLag());
+    }
+
+    @Test
+    public void closeClosesPools() {
+        HikariDataSource hikari = mock(HikariDataSource.class);
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+
+        dataSources.put("hikari", hikari);
+        new SqlReadReplicaPool(database, dataSources, 10.0, PROBE_INTERVAL).close();
+
+        verify(hikari).close();
+    }
+}
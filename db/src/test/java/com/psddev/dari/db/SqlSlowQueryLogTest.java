@@ -0,0 +1,134 @@
+package com.psddev.dari.db;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SqlSlowQueryLogTest {
+
+    @Test
+    public void toShapeReplacesLiterals() {
+        assertEquals(
+                "SELECT * FROM `Record` r0 WHERE r0.`typeId` = ? AND r0.`name` = ? LIMIT ?",
+                SqlSlowQueryLog.toShape("SELECT * FROM `Record` r0 WHERE r0.`typeId` = X'0a1b' AND r0.`name` = 'it''s \\' here' LIMIT 10"));
+    }
+
+    @Test
+    public void toShapeCollapsesLists() {
+        assertEquals(
+                SqlSlowQueryLog.toShape("SELECT id FROM t WHERE id IN (1, 2, 3)"),
+                SqlSlowQueryLog.toShape("SELECT id\n  FROM t\n  WHERE id IN (0x01,0x02)"));
+        assertEquals(
+                "SELECT id FROM t WHERE id IN (?)",
+                SqlSlowQueryLog.toShape("SELECT id FROM t WHERE id IN (-1.5e3)"));
+    }
+
+    @Test
+    public void recordIgnoresFastQueries() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 1.0, 10, 0.0);
+
+        log.record("SELECT 1", 0.5);
+        assertEquals(0, log.getRecordedCount());
+        assertTrue(log.getEntries().isEmpty());
+        assertTrue(log.getShapes().isEmpty());
+    }
+
+    @Test
+    public void entriesWrapAround() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 1.0, 3, 0.0);
+
+        for (int i = 0; i < 5; ++ i) {
+            log.record("SELECT * FROM t" + i, 1.0);
+        }
+
+        Set<String> sqls = new HashSet<>();
+
+        for (SqlSlowQueryLog.Entry entry : log.getEntries()) {
+            sqls.add(entry.getSql());
+        }
+
+        assertEquals(5, log.getRecordedCount());
+        assertEquals(3, sqls.size());
+        assertTrue(sqls.contains("SELECT * FROM t2"));
+        assertTrue(sqls.contains("SELECT * FROM t3"));
+        assertTrue(sqls.contains("SELECT * FROM t4"));
+    }
+
+    @Test
+    public void recordSplitsComment() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 1.0, 3, 0.0);
+
+        log.record("/* Foo.java:12 */ SELECT * FROM t WHERE id = 5", 1.0);
+
+        SqlSlowQueryLog.Entry entry = log.getEntries().get(0);
+
+        assertEquals("Foo.java:12", entry.getComment());
+        assertEquals("SELECT * FROM t WHERE id = ?", entry.getShape());
+        assertEquals("Foo.java:12", log.getShapes().get(0).getLastComment());
+    }
+
+    @Test
+    public void histogramBuckets() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 0.0, 10, 0.0);
+
+        log.record("SELECT * FROM t WHERE id = 1", 0.05);
+        log.record("SELECT * FROM t WHERE id = 2", 0.1);
+        log.record("SELECT * FROM t WHERE id = 3", 0.3);
+        log.record("SELECT * FROM t WHERE id = 4", 2.5);
+        log.record("SELECT * FROM t WHERE id = 5", 60.0);
+
+        List<SqlSlowQueryLog.Shape> shapes = log.getShapes();
+
+        assertEquals(1, shapes.size());
+
+        SqlSlowQueryLog.Shape shape = shapes.get(0);
+
+        assertArrayEquals(new long[] { 2, 0, 1, 0, 1, 0, 0, 1 }, shape.getHistogram());
+        assertEquals(5, shape.getCount());
+        assertEquals(62.95, shape.getTotalDuration(), 0.0001);
+        assertEquals(60.0, shape.getMaximumDuration(), 0.0);
+    }
+
+    @Test
+    public void shapesEvictLeastRecentlyUsed() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 1.0, 10, 0.0);
+
+        for (int i = 0; i < SqlSlowQueryLog.MAXIMUM_SHAPES; ++ i) {
+            log.record("SELECT * FROM t" + i, 1.0);
+        }
+
+        log.record("SELECT * FROM t0", 1.0);
+        log.record("SELECT * FROM new", 1.0);
+
+        Set<String> shapes = new HashSet<>();
+
+        for (SqlSlowQueryLog.Shape shape : log.getShapes()) {
+            shapes.add(shape.getSql());
+        }
+
+        assertEquals(SqlSlowQueryLog.MAXIMUM_SHAPES, shapes.size());
+        assertTrue(shapes.contains("SELECT * FROM t0"));
+        assertFalse(shapes.contains("SELECT * FROM t1"));
+        assertTrue(shapes.contains("SELECT * FROM new"));
+    }
+
+    @Test
+    public void claimPlanRateLimited() {
+        SqlSlowQueryLog log = new SqlSlowQueryLog(null, 1.0, 10, 0.0);
+
+        log.record("SELECT * FROM t", 1.0);
+
+        SqlSlowQueryLog.Shape shape = log.getShapes().get(0);
+        long now = System.currentTimeMillis();
+
+        assertTrue(shape.claimPlan(now));
+        assertFalse(shape.claimPlan(now));
+        assertFalse(shape.claimPlan(now + SqlSlowQueryLog.PLAN_INTERVAL_MILLIS - 1));
+        assertTrue(shape.claimPlan(now + SqlSlowQueryLog.PLAN_INTERVAL_MILLIS));
+        assertFalse(shape.claimPlan(now + SqlSlowQueryLog.PLAN_INTERVAL_MILLIS + 1));
+    }
+}
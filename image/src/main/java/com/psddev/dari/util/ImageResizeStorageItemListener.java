@@ -5,17 +5,117 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
 import org.imgscalr.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Creates intermediate sizes of images after they're saved so that
+ * {@link #overridePathWithNearestSize} can serve a smaller file.
+ *
+ * <p>The original is decoded once and each of the sizes configured in
+ * {@value #SIZES_SETTING} is created and saved in a bounded worker pool.
+ * The thread saving the original only marks it as
+ * {@linkplain #RESIZES_STATUS_PENDING pending}. Once all sizes are done,
+ * they're written, smallest first, to the {@code resizes} and
+ * {@value #RESIZES_STATUS_METADATA} metadata of the original item, and the
+ * {@link CompletionListener}s are notified so that they can persist the
+ * results in whatever owns the item. Until then, the original is served
+ * as is.</p>
+ *
+ * <p>If {@value #ASYNC_SETTING} is {@code false}, the thread saving the
+ * original waits for all sizes instead.</p>
+ */
 public class ImageResizeStorageItemListener implements StorageItemListener {
 
+    /** Setting key for the list of intermediate sizes to create. */
+    public static final String SIZES_SETTING = "dari/intermediateImageSizes";
+
+    /** Setting key for whether the intermediate sizes should be created asynchronously. Defaults to {@code true}. */
+    public static final String ASYNC_SETTING = "dari/intermediateImageSizesAsync";
+
+    /** Setting key for the number of threads used to create the intermediate sizes. */
+    public static final String THREADS_SETTING = "dari/intermediateImageSizeThreads";
+
+    /** Setting key for the number of resizes that can wait for a thread. */
+    public static final String QUEUE_SIZE_SETTING = "dari/intermediateImageSizeQueueSize";
+
+    /** Metadata key for the status of the intermediate sizes. */
+    public static final String RESIZES_STATUS_METADATA = "resizesStatus";
+
+    public static final String RESIZES_STATUS_PENDING = "pending";
+    public static final String RESIZES_STATUS_COMPLETE = "complete";
+    public static final String RESIZES_STATUS_FAILED = "failed";
+
+    private static final List<Integer> DEFAULT_SIZES = Collections.unmodifiableList(Arrays.asList(500, 1500));
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageResizeStorageItemListener.class);
+
+    private static final Set<CompletionListener> COMPLETION_LISTENERS = new CopyOnWriteArraySet<CompletionListener>();
+
+    private static volatile Executor executor;
+
+    /**
+     * Listener that's notified when the intermediate sizes of an item are
+     * done being created asynchronously.
+     */
+    public interface CompletionListener {
+
+        /**
+         * Called from one of the workers when all sizes are done.
+         *
+         * @param item Original item. Its metadata already contains the
+         *        results.
+         * @param resizes Never {@code null}. Smallest first.
+         * @param status Either {@link #RESIZES_STATUS_COMPLETE} or
+         *        {@link #RESIZES_STATUS_FAILED}.
+         */
+        void completed(StorageItem item, List<StorageItem> resizes, String status);
+    }
+
+    /**
+     * Adds the given {@code listener} to be notified when the intermediate
+     * sizes are created asynchronously.
+     *
+     * @param listener If {@code null}, does nothing.
+     */
+    public static void addCompletionListener(CompletionListener listener) {
+        if (listener != null) {
+            COMPLETION_LISTENERS.add(listener);
+        }
+    }
+
+    /**
+     * Removes the given {@code listener} so that it's no longer notified
+     * when the intermediate sizes are created asynchronously.
+     *
+     * @param listener If {@code null}, does nothing.
+     */
+    public static void removeCompletionListener(CompletionListener listener) {
+        if (listener != null) {
+            COMPLETION_LISTENERS.remove(listener);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static boolean overridePathWithNearestSize(StorageItem item, Integer width, Integer height) {
         Map<String, Object> metadata = item.getMetadata();
@@ -70,37 +170,195 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
         return false;
     }
 
+    @Override
     public void afterSave(StorageItem item) throws IOException {
         if (item.getPublicUrl().startsWith("file://")) {
             return;
         }
 
         String contentType = item.getContentType();
-        InputStream data = item.getData();
-        try {
-            if (contentType != null && contentType.startsWith("image/")) {
-                BufferedImage original = ImageIO.read(data);
 
-                if (original == null) {
-                    return;
+        if (contentType == null || !contentType.startsWith("image/")) {
+            return;
+        }
+
+        List<Integer> sizes = getSizes();
+
+        if (sizes.isEmpty()) {
+            return;
+        }
+
+        String imageType = contentType.substring(6);
+        Map<String, Object> metadata = item.getMetadata();
+        boolean async = Settings.getOrDefault(boolean.class, ASYNC_SETTING, true);
+
+        // Each size writes to its own slot so that the resizes are stored
+        // in the order of the sizes, regardless of which finishes first.
+        StorageItem[] dimsItems = new StorageItem[sizes.size()];
+        Executor executor = getExecutor();
+        CompletableFuture<Void> resizes = CompletableFuture
+                .supplyAsync(() -> readOriginal(item, sizes.get(sizes.size() - 1)), executor)
+                .thenCompose(original -> {
+                    if (original == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+
+                    for (int i = 0, size = sizes.size(); i < size; ++ i) {
+                        int index = i;
+
+                        futures.add(CompletableFuture.runAsync(() -> dimsItems[index] = processSize(item, sizes.get(index), original, imageType), executor));
+                    }
+
+                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+                });
+
+        if (async) {
+            metadata.put(RESIZES_STATUS_METADATA, RESIZES_STATUS_PENDING);
+
+            resizes.whenComplete((result, error) -> {
+                String status;
+
+                if (error != null) {
+                    status = RESIZES_STATUS_FAILED;
+                    LOGGER.warn(String.format("Can't create intermediate sizes for [%s]!", item), error);
+
+                } else {
+                    status = RESIZES_STATUS_COMPLETE;
+                }
+
+                List<StorageItem> completed = Collections.unmodifiableList(toList(dimsItems));
+
+                synchronized (metadata) {
+                    metadata.put("resizes", new ArrayList<StorageItem>(completed));
+                    metadata.put(RESIZES_STATUS_METADATA, status);
                 }
 
-                String imageType = contentType.substring(6);
+                for (CompletionListener listener : COMPLETION_LISTENERS) {
+                    try {
+                        listener.completed(item, completed, status);
 
-                List<StorageItem> dimsItems = new ArrayList<StorageItem>();
-                item.getMetadata().put("resizes", dimsItems);
+                    } catch (RuntimeException listenerError) {
+                        LOGGER.warn(String.format("Can't notify [%s] about the intermediate sizes for [%s]!", listener, item), listenerError);
+                    }
+                }
+            });
 
-                processSize(item, 500, original, imageType, dimsItems);
-                processSize(item, 1500, original, imageType, dimsItems);
+            return;
+        }
+
+        try {
+            resizes.join();
+
+        } catch (CompletionException error) {
+            metadata.put("resizes", toList(dimsItems));
+            metadata.put(RESIZES_STATUS_METADATA, RESIZES_STATUS_FAILED);
+
+            Throwable cause = error.getCause();
+
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+
+            } else {
+                throw error;
             }
-        } finally {
-            if (data != null) {
-                data.close();
+        }
+
+        metadata.put("resizes", toList(dimsItems));
+        metadata.put(RESIZES_STATUS_METADATA, RESIZES_STATUS_COMPLETE);
+    }
+
+    // Returns the resizes that were created, in the order of the sizes.
+    private static List<StorageItem> toList(StorageItem[] dimsItems) {
+        List<StorageItem> list = new ArrayList<StorageItem>();
+
+        for (StorageItem dimsItem : dimsItems) {
+            if (dimsItem != null) {
+                list.add(dimsItem);
             }
         }
+
+        return list;
     }
 
-    private void processSize(StorageItem item, int newSize, BufferedImage original, String imageType, List<StorageItem> items) throws IOException {
+    /**
+     * Returns the sizes that should be created, from the
+     * {@value #SIZES_SETTING} setting.
+     *
+     * @return Never {@code null}. Sorted from the smallest.
+     */
+    private static List<Integer> getSizes() {
+        Object setting = Settings.get(SIZES_SETTING);
+
+        if (setting == null) {
+            return DEFAULT_SIZES;
+        }
+
+        List<Integer> sizes = new ArrayList<Integer>();
+
+        for (Object size : ObjectUtils.to(List.class, setting)) {
+            Integer s = ObjectUtils.to(Integer.class, size);
+
+            if (s != null && s > 0) {
+                sizes.add(s);
+            }
+        }
+
+        Collections.sort(sizes);
+        return sizes;
+    }
+
+    private static Executor getExecutor() {
+        if (executor == null) {
+            synchronized (ImageResizeStorageItemListener.class) {
+                if (executor == null) {
+                    int threads = Settings.getOrDefault(int.class, THREADS_SETTING, Runtime.getRuntime().availableProcessors());
+                    int queueSize = Settings.getOrDefault(int.class, QUEUE_SIZE_SETTING, DEFAULT_QUEUE_SIZE);
+
+                    ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            60L,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(queueSize),
+                            new ThreadFactory() {
+
+                                private final AtomicInteger count = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "Image Resize " + count.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            },
+
+                            // Slows down the uploads instead of dropping
+                            // the resizes when the workers can't keep up.
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+
+                    newExecutor.allowCoreThreadTimeOut(true);
+                    executor = newExecutor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    private static BufferedImage readOriginal(StorageItem item, int maximumSize) {
+        try (InputStream data = item.getData()) {
+            return data != null ? JavaImageReader.fit(maximumSize, maximumSize).read(data) : null;
+
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    // Creates and saves the given size, or returns null if the original
+    // is already small enough.
+    private static StorageItem processSize(StorageItem item, int newSize, BufferedImage original, String imageType) {
         int width = original.getWidth();
         int height = original.getHeight();
         float aspect = (float) width / (float) height;
@@ -131,16 +389,24 @@ public class ImageResizeStorageItemListener implements StorageItemListener {
             dimsItem.setPath(pathBuilder.toString());
             dimsItem.setContentType(item.getContentType());
 
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(resizedImage, imageType, os);
-            InputStream is = new ByteArrayInputStream(os.toByteArray());
+            try {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                ImageIO.write(resizedImage, imageType, os);
+                InputStream is = new ByteArrayInputStream(os.toByteArray());
+
+                dimsItem.getMetadata().put("width", width);
+                dimsItem.getMetadata().put("height", height);
+                dimsItem.setData(is);
+                dimsItem.save();
+
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
 
-            dimsItem.getMetadata().put("width", width);
-            dimsItem.getMetadata().put("height", height);
-            dimsItem.setData(is);
-            dimsItem.save();
+            return dimsItem;
 
-            items.add(dimsItem);
+        } else {
+            return null;
         }
     }
 }
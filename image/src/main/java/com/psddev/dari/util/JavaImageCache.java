@@ -0,0 +1,346 @@
+package com.psddev.dari.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.psddev.dari.util.JavaImageEditor.MEGA_BYTE;
+
+/**
+ * In-memory index of the files in the {@link JavaImageEditor} disk cache.
+ *
+ * <p>The index is rebuilt once from the file system through
+ * {@link #rebuild} and is kept up to date afterwards through {@link #put}
+ * and {@link #get}, so that the total cache size never requires a walk of
+ * the cache directory. When the total size exceeds the maximum, the least
+ * recently used files are evicted until the cache is back down to 80% of
+ * the limit.</p>
+ *
+ * <p>Hits, misses and evictions are measured through {@link Stats}, which
+ * is typically available at {@code /_debug/stats}.</p>
+ */
+public class JavaImageCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JavaImageCache.class);
+    private static final Stats STATS = new Stats("Java Image Cache");
+    private static final double EVICTION_TARGET_RATIO = 0.8;
+
+    private final File directory;
+    private volatile long maximumSizeInBytes;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong filesEvicted = new AtomicLong();
+    private final AtomicLong bytesEvicted = new AtomicLong();
+
+    private final Object evictionLock = new Object();
+    private boolean evictionRequested;
+
+    /**
+     * Creates an instance that indexes the files in the given
+     * {@code directory}.
+     *
+     * @param directory Can't be {@code null}.
+     * @param maximumSizeInBytes Must be positive.
+     */
+    public JavaImageCache(File directory, long maximumSizeInBytes) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Cache directory can't be null!");
+        }
+
+        this.directory = directory;
+        setMaximumSizeInBytes(maximumSizeInBytes);
+    }
+
+    /**
+     * Returns the cache directory.
+     *
+     * @return Never {@code null}.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaximumSizeInBytes() {
+        return maximumSizeInBytes;
+    }
+
+    public void setMaximumSizeInBytes(long maximumSizeInBytes) {
+        if (maximumSizeInBytes <= 0) {
+            throw new IllegalArgumentException("Maximum cache size must be positive!");
+        }
+
+        this.maximumSizeInBytes = maximumSizeInBytes;
+    }
+
+    /** Returns the current size of all indexed files in bytes. */
+    public long getSize() {
+        return size.get();
+    }
+
+    /** Returns the number of indexed files. */
+    public int getCount() {
+        return entries.size();
+    }
+
+    /** Returns the number of requests served from the cache. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of requests that weren't in the cache. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the ratio of hits to all requests.
+     *
+     * @return Between {@code 0.0} and {@code 1.0}, or {@link Double#NaN}
+     *         if there haven't been any requests.
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+
+        return total > 0 ? (double) h / total : Double.NaN;
+    }
+
+    /** Returns the number of files evicted from the cache. */
+    public long getFilesEvicted() {
+        return filesEvicted.get();
+    }
+
+    /** Returns the number of bytes evicted from the cache. */
+    public long getBytesEvicted() {
+        return bytesEvicted.get();
+    }
+
+    /**
+     * Clears the index and rebuilds it by walking the cache directory.
+     * This should only be called once at startup.
+     */
+    public void rebuild() throws IOException {
+        Stats.Timer timer = STATS.startTimer();
+
+        // Removed one at a time instead of resetting the size, so that the
+        // size stays consistent with the entries that are concurrently put.
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+
+            if (entries.remove(e.getKey(), entry)) {
+                size.addAndGet(-entry.size);
+            }
+        }
+
+        if (directory.isDirectory()) {
+            Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                    if (attributes.isRegularFile() && !Files.isHidden(path)) {
+                        long lastAccess = attributes.lastAccessTime() != null
+                                ? attributes.lastAccessTime().toMillis()
+                                : attributes.lastModifiedTime().toMillis();
+
+                        index(path.toFile().getAbsolutePath(), attributes.size(), lastAccess);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException error) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        timer.stop("Rebuild", entries.size());
+        LOGGER.info(String.format("Indexed %s files (%.2fmb) in image cache [%s]", entries.size(), ((float) getSize() / MEGA_BYTE), directory));
+        requestEvictionIfNecessary();
+    }
+
+    /**
+     * Returns {@code true} if the given {@code file} is in the cache, and
+     * marks it as recently used.
+     *
+     * @param file Can't be {@code null}.
+     */
+    public boolean get(File file) {
+        Stats.Timer timer = STATS.startTimer();
+        String path = file.getAbsolutePath();
+        Entry entry = entries.get(path);
+
+        if (!file.isFile()) {
+            if (entry != null && entries.remove(path, entry)) {
+                size.addAndGet(-entry.size);
+            }
+
+            misses.incrementAndGet();
+            timer.stop("Miss");
+            return false;
+        }
+
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+
+        } else {
+
+            // Written before the index was rebuilt or by another process.
+            index(path, file.length(), System.currentTimeMillis());
+            requestEvictionIfNecessary();
+        }
+
+        hits.incrementAndGet();
+        timer.stop("Hit");
+        return true;
+    }
+
+    /**
+     * Adds the given newly written {@code file} to the index, and schedules
+     * an eviction if the cache is now over the limit.
+     *
+     * @param file Can't be {@code null}.
+     */
+    public void put(File file) {
+        index(file.getAbsolutePath(), file.length(), System.currentTimeMillis());
+        requestEvictionIfNecessary();
+    }
+
+    /**
+     * Blocks until {@link #put} or {@link #get} detects that the cache is
+     * over the limit.
+     */
+    public void awaitEviction() throws InterruptedException {
+        synchronized (evictionLock) {
+            while (!evictionRequested) {
+                evictionLock.wait();
+            }
+
+            evictionRequested = false;
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is at 80% of
+     * the limit, if it's currently over the limit.
+     *
+     * @return Number of bytes deleted.
+     */
+    public long evict() {
+        long currentSize = getSize();
+        long maximumSize = getMaximumSizeInBytes();
+
+        if (currentSize <= maximumSize) {
+            return 0L;
+        }
+
+        Stats.Timer timer = STATS.startTimer();
+        long targetSize = (long) (maximumSize * EVICTION_TARGET_RATIO);
+        long minimumBytesToDelete = currentSize - targetSize;
+
+        LOGGER.info(String.format("Image cache size (%.2fmb) exceeds limit of %.2fmb. Attempting to resize to 80%% of limit.", ((float) currentSize / MEGA_BYTE), ((float) maximumSize / MEGA_BYTE)));
+
+        // Snapshot the access times so that concurrent gets don't break
+        // the sort contract.
+        List<Candidate> candidates = new ArrayList<Candidate>(entries.size());
+
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            candidates.add(new Candidate(e.getKey(), e.getValue()));
+        }
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+
+            @Override
+            public int compare(Candidate x, Candidate y) {
+                return Long.compare(x.lastAccess, y.lastAccess);
+            }
+        });
+
+        long bytesDeleted = 0L;
+        int filesDeleted = 0;
+
+        for (Candidate candidate : candidates) {
+            String path = candidate.path;
+            Entry entry = candidate.entry;
+            File file = new File(path);
+
+            if ((file.delete() || !file.exists()) && entries.remove(path, entry)) {
+                size.addAndGet(-entry.size);
+                bytesDeleted += entry.size;
+                ++ filesDeleted;
+
+                if (bytesDeleted >= minimumBytesToDelete) {
+                    break;
+                }
+            }
+        }
+
+        filesEvicted.addAndGet(filesDeleted);
+        bytesEvicted.addAndGet(bytesDeleted);
+        timer.stop("Evict", filesDeleted);
+
+        if (bytesDeleted < minimumBytesToDelete) {
+            LOGGER.error(String.format("Unable to resize image cache to less than %.2fmb. Current size %.2fmb", ((float) targetSize / MEGA_BYTE), ((float) getSize() / MEGA_BYTE)));
+        } else {
+            LOGGER.info(String.format("Removed %s files, recovered %.2fmb. Current size %.2fmb", filesDeleted, ((float) bytesDeleted / MEGA_BYTE), ((float) getSize() / MEGA_BYTE)));
+        }
+
+        return bytesDeleted;
+    }
+
+    private void index(String path, long fileSize, long lastAccess) {
+        Entry oldEntry = entries.put(path, new Entry(fileSize, lastAccess));
+
+        size.addAndGet(oldEntry != null ? fileSize - oldEntry.size : fileSize);
+    }
+
+    private void requestEvictionIfNecessary() {
+        if (getSize() > getMaximumSizeInBytes()) {
+            synchronized (evictionLock) {
+                evictionRequested = true;
+                evictionLock.notifyAll();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        public final long size;
+        public volatile long lastAccess;
+
+        public Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Candidate {
+
+        public final String path;
+        public final Entry entry;
+        public final long lastAccess;
+
+        public Candidate(String path, Entry entry) {
+            this.path = path;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+}
@@ -11,14 +11,15 @@ import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ConvolveOp;
 import java.awt.image.Kernel;
+import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 import javax.servlet.http.HttpServletRequest;
 import org.imgscalr.Scalr;
 import org.slf4j.Logger;
@@ -106,6 +107,9 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
     private static final Logger LOGGER = LoggerFactory.getLogger(JavaImageEditor.class);
     public static final long MEGA_BYTE = 1048576;
 
+    /** Number of rows in each tile processed in parallel by the per-pixel operations. */
+    private static final int TILE_HEIGHT = 64;
+
     /** Setting key for quality to use for the output images. */
     private static final String QUALITY_SETTING = "quality";
 
@@ -119,6 +123,7 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
     private boolean disableCache;
     private String cachePath;
     private Long cacheLimitInMegaBytes = 500L;
+    private transient JavaImageCache cache;
 
     public Scalr.Method getQuality() {
         return quality;
@@ -186,6 +191,16 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
         this.cacheLimitInMegaBytes = cacheLimitInMegaBytes;
     }
 
+    /**
+     * Returns the index of the disk cache.
+     *
+     * @return May be {@code null} if the cache is disabled or hasn't been
+     *         initialized.
+     */
+    public JavaImageCache getCache() {
+        return cache;
+    }
+
     @Override
     public String getBaseUrl() {
 
@@ -470,11 +485,16 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
             maximumCacheSizeInBytes = cacheLimitInMegaBytes * MEGA_BYTE;
         }
 
-        WatchService watcher;
         try {
-            watcher = FileSystems.getDefault().newWatchService();
-            JavaImageDirectoryWatch javaImageDirectoryWatch = new JavaImageDirectoryWatch(this, watcher, maximumCacheSizeInBytes);
-            Thread javaImageDirectoryWatchThread = new Thread(javaImageDirectoryWatch);
+            if (cache != null) {
+                cache.setMaximumSizeInBytes(maximumCacheSizeInBytes);
+                return;
+            }
+
+            cache = new JavaImageCache(new File(getCachePath()), maximumCacheSizeInBytes);
+            JavaImageDirectoryWatch javaImageDirectoryWatch = new JavaImageDirectoryWatch(this, cache);
+            Thread javaImageDirectoryWatchThread = new Thread(javaImageDirectoryWatch, "JavaImageDirectoryWatch");
+            javaImageDirectoryWatchThread.setDaemon(true);
             javaImageDirectoryWatchThread.start();
 
         } catch (IOException ex) {
@@ -635,23 +655,21 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
 
         }
 
-        for (int x = 0; x < sourceImage.getWidth(); x++) {
-            for (int y = 0; y < sourceImage.getHeight(); y++) {
-                int rgb = sourceImage.getRGB(x, y);
-                int alpha = (rgb >> 24) & 0xFF;
-                int red   = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue  = rgb & 0xFF;
+        final int finalMultiply = multiply;
+        final int finalAdd = add;
 
-                red = adjustColor(red, multiply, add);
-                green = adjustColor(green, multiply, add);
-                blue = adjustColor(blue, multiply, add);
+        filterRgb(sourceImage, resultImage, rgb -> {
+            int alpha = (rgb >> 24) & 0xFF;
+            int red   = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue  = rgb & 0xFF;
 
-                int newRgb = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            red = adjustColor(red, finalMultiply, finalAdd);
+            green = adjustColor(green, finalMultiply, finalAdd);
+            blue = adjustColor(blue, finalMultiply, finalAdd);
 
-                resultImage.setRGB(x, y, newRgb);
-            }
-        }
+            return (alpha << 24) | (red << 16) | (green << 8) | blue;
+        });
 
         return resultImage;
     }
@@ -731,19 +749,14 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
     public BufferedImage invert(BufferedImage sourceImage) {
         BufferedImage resultImage =  new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), sourceImage.getType());
 
-        for (int x = 0; x < sourceImage.getWidth(); x++) {
-            for (int y = 0; y < sourceImage.getHeight(); y++) {
-                int rgb = sourceImage.getRGB(x, y);
-                int alpha = (rgb >> 24) & 0xFF;
-                int red   = 255 - (rgb >> 16) & 0xFF;
-                int green = 255 - (rgb >> 8) & 0xFF;
-                int blue  = 255 - rgb & 0xFF;
-
-                int newRgb = (alpha << 24) | (red << 16) | (green << 8) | blue;
+        filterRgb(sourceImage, resultImage, rgb -> {
+            int alpha = (rgb >> 24) & 0xFF;
+            int red   = 255 - (rgb >> 16) & 0xFF;
+            int green = 255 - (rgb >> 8) & 0xFF;
+            int blue  = 255 - rgb & 0xFF;
 
-                resultImage.setRGB(x, y, newRgb);
-            }
-        }
+            return (alpha << 24) | (red << 16) | (green << 8) | blue;
+        });
 
         return resultImage;
     }
@@ -780,27 +793,22 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
     public BufferedImage sepia(BufferedImage sourceImage) {
         BufferedImage resultImage = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), sourceImage.getType());
 
-        for (int x = 0; x < sourceImage.getWidth(); x++) {
-            for (int y = 0; y < sourceImage.getHeight(); y++) {
-                int rgb = sourceImage.getRGB(x, y);
-                int alpha = (rgb >> 24) & 0xFF;
-                int red   = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue  = rgb & 0xFF;
-
-                int newRed = (new Double((red * .393) + (green * .769) + (blue * .189))).intValue();
-                int newGreen = (new Double((red * .349) + (green * .686) + (blue * .168))).intValue();
-                int newBlue = (new Double((red * .272) + (green * .534) + (blue * .131))).intValue();
+        filterRgb(sourceImage, resultImage, rgb -> {
+            int alpha = (rgb >> 24) & 0xFF;
+            int red   = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue  = rgb & 0xFF;
 
-                newRed = colorMinMax(newRed);
-                newGreen = colorMinMax(newGreen);
-                newBlue = colorMinMax(newBlue);
+            int newRed = (int) ((red * .393) + (green * .769) + (blue * .189));
+            int newGreen = (int) ((red * .349) + (green * .686) + (blue * .168));
+            int newBlue = (int) ((red * .272) + (green * .534) + (blue * .131));
 
-                int newRgb = (alpha << 24) | (newRed << 16) | (newGreen << 8) | newBlue;
+            newRed = colorMinMax(newRed);
+            newGreen = colorMinMax(newGreen);
+            newBlue = colorMinMax(newBlue);
 
-                resultImage.setRGB(x, y, newRgb);
-            }
-        }
+            return (alpha << 24) | (newRed << 16) | (newGreen << 8) | newBlue;
+        });
 
         return resultImage;
     }
@@ -947,6 +955,30 @@ public class JavaImageEditor extends AbstractUrlImageEditor {
         return resultImage;
     }
 
+    /**
+     * Applies the given {@code filter} to every pixel in the given
+     * {@code sourceImage} and writes the results to the given
+     * {@code resultImage}. The image is split into horizontal tiles that
+     * are processed in parallel.
+     */
+    private static void filterRgb(BufferedImage sourceImage, BufferedImage resultImage, IntUnaryOperator filter) {
+        int width = sourceImage.getWidth();
+        int height = sourceImage.getHeight();
+        int tiles = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+
+        IntStream.range(0, tiles).parallel().forEach(tile -> {
+            int y = tile * TILE_HEIGHT;
+            int tileHeight = Math.min(TILE_HEIGHT, height - y);
+            int[] rgbs = sourceImage.getRGB(0, y, width, tileHeight, null, 0, width);
+
+            for (int i = 0, length = rgbs.length; i < length; ++ i) {
+                rgbs[i] = filter.applyAsInt(rgbs[i]);
+            }
+
+            resultImage.setRGB(0, y, width, tileHeight, rgbs, 0, width);
+        });
+    }
+
     private static void addPoint(Polygon polygon, int h, int x, int y) {
         if (x > 0) {
             Double size = h * (x / 100.0);
@@ -0,0 +1,247 @@
+package com.psddev.dari.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes source images for {@link JavaImageServlet}, reading only the
+ * area and resolution that the requested commands actually need.
+ *
+ * <p>The command chain is planned up front through {@link #plan}. A
+ * leading {@code crop} is turned into an {@link ImageReadParam} source
+ * region, and a leading {@code resize} or {@code thumbnail} that shrinks
+ * the image is turned into source subsampling that still keeps at least
+ * twice the target resolution, so that the final resize quality isn't
+ * affected.</p>
+ */
+public class JavaImageReader {
+
+    private static final List<String> PASS_THROUGH_COMMANDS = Arrays.asList("format", "quality");
+    private static final List<String> PIXEL_COMMANDS = Arrays.asList(
+            ImageEditor.CROP_COMMAND, ImageEditor.RESIZE_COMMAND, JavaImageEditor.THUMBNAIL_COMMAND,
+            "blur", "brightness", "circle", "contrast", "flipflop", "flipH", "flipV", "grayscale",
+            "invert", "rotate", "sepia", "sharpen", "star", "starburst");
+
+    private static final int MINIMUM_OVERSAMPLING = 2;
+
+    private int cropIndex = -1;
+    private Rectangle sourceRegion;
+    private Integer targetWidth;
+    private Integer targetHeight;
+
+    /**
+     * Plans how the source image should be read for the given
+     * {@code parameters}.
+     *
+     * @param parameters Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static JavaImageReader plan(String[] parameters) {
+        JavaImageReader reader = new JavaImageReader();
+        int i = reader.nextPixelCommand(parameters, 0);
+
+        if (i < 0) {
+            return reader;
+        }
+
+        if (ImageEditor.CROP_COMMAND.equals(parameters[i]) && i + 1 < parameters.length) {
+            Integer[] crop = JavaImageServlet.parseCrop(parameters[i + 1]);
+
+            if (crop[2] != null && crop[3] != null && crop[2] > 0 && crop[3] > 0) {
+                reader.cropIndex = i;
+                reader.sourceRegion = new Rectangle(crop[0], crop[1], crop[2], crop[3]);
+                i = reader.nextPixelCommand(parameters, i + 2);
+            }
+        }
+
+        if (i < 0 || i + 1 >= parameters.length) {
+            return reader;
+        }
+
+        String command = parameters[i];
+        String value = parameters[i + 1];
+
+        if (ImageEditor.RESIZE_COMMAND.equals(command)) {
+
+            // Only enlarging can't benefit from reading a smaller image.
+            if (value.endsWith("<")) {
+                return reader;
+            }
+
+        } else if (!JavaImageEditor.THUMBNAIL_COMMAND.equals(command)) {
+            return reader;
+        }
+
+        if (value.endsWith("!") || value.endsWith(">") || value.endsWith("^")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        String[] wh = value.split("x");
+
+        // Thumbnails without both dimensions are skipped by the servlet, so
+        // reading a smaller image would shrink the output.
+        if (JavaImageEditor.THUMBNAIL_COMMAND.equals(command) && wh.length < 2) {
+            return reader;
+        }
+
+        try {
+            reader.targetWidth = wh.length > 0 && !StringUtils.isBlank(wh[0]) ? Integer.valueOf(wh[0]) : null;
+            reader.targetHeight = wh.length > 1 && !StringUtils.isBlank(wh[1]) ? Integer.valueOf(wh[1]) : null;
+
+        } catch (NumberFormatException error) {
+            reader.targetWidth = null;
+            reader.targetHeight = null;
+        }
+
+        return reader;
+    }
+
+    /**
+     * Plans to read an image so that it can be shrunk to fit within the
+     * given {@code width} and {@code height}.
+     *
+     * @return Never {@code null}.
+     */
+    public static JavaImageReader fit(Integer width, Integer height) {
+        JavaImageReader reader = new JavaImageReader();
+        reader.targetWidth = width;
+        reader.targetHeight = height;
+        return reader;
+    }
+
+    // Finds the next command that changes the pixels, skipping over the
+    // signature and the commands that don't.
+    private int nextPixelCommand(String[] parameters, int start) {
+        for (int i = start, length = parameters.length; i < length; ++ i) {
+            String parameter = parameters[i];
+
+            if (PIXEL_COMMANDS.contains(parameter)) {
+                return i;
+
+            } else if (PASS_THROUGH_COMMANDS.contains(parameter)) {
+                ++ i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the index of the {@code crop} command within the parameters
+     * that's already applied while reading, so that it can be skipped.
+     *
+     * @return {@code -1} if there isn't one.
+     */
+    public int getCropIndex() {
+        return cropIndex;
+    }
+
+    /**
+     * Returns the area of the source image that'll be read.
+     *
+     * @return May be {@code null} to read the whole image.
+     */
+    public Rectangle getSourceRegion() {
+        return sourceRegion;
+    }
+
+    /**
+     * Returns the subsampling factor to use for the source image with the
+     * given {@code region}.
+     *
+     * @return At least {@code 1}.
+     */
+    public int getSubsampling(Rectangle region) {
+        double scale;
+
+        if (targetWidth != null && targetWidth > 0 && targetHeight != null && targetHeight > 0) {
+            scale = Math.min((double) region.width / targetWidth, (double) region.height / targetHeight);
+
+        } else if (targetWidth != null && targetWidth > 0) {
+            scale = (double) region.width / targetWidth;
+
+        } else if (targetHeight != null && targetHeight > 0) {
+            scale = (double) region.height / targetHeight;
+
+        } else {
+            return 1;
+        }
+
+        return Math.max(1, (int) Math.floor(scale / MINIMUM_OVERSAMPLING));
+    }
+
+    /**
+     * Reads the image at the given {@code url} according to this plan.
+     *
+     * @param url Can't be {@code null}.
+     * @return May be {@code null} if the image format isn't supported.
+     */
+    public BufferedImage read(URL url) throws IOException {
+        try (InputStream input = url.openStream()) {
+            return read(input);
+        }
+    }
+
+    /**
+     * Reads the image from the given {@code input} according to this plan.
+     * The given stream isn't closed.
+     *
+     * @param input Can't be {@code null}.
+     * @return May be {@code null} if the image format isn't supported.
+     */
+    public BufferedImage read(InputStream input) throws IOException {
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+
+            if (imageInput == null) {
+                return null;
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(imageInput, true, true);
+
+                Rectangle bounds = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                Rectangle region = sourceRegion != null ? sourceRegion.intersection(bounds) : bounds;
+
+                if (region.isEmpty()) {
+                    throw new IOException(String.format(
+                            "Crop [%s] is outside of the image bounds [%s]!",
+                            sourceRegion, bounds));
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(region);
+
+                if (!region.equals(bounds)) {
+                    param.setSourceRegion(region);
+                }
+
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+
+                return reader.read(0, param);
+
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
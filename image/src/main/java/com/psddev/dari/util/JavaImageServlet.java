@@ -1,12 +1,12 @@
 package com.psddev.dari.util;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -140,20 +140,17 @@ public class JavaImageServlet extends HttpServlet {
 
                 filePath = imageFolder + "/" + filePath;
                 file = new File(filePath);
-                if (file.exists() && !file.isDirectory()) {
+                JavaImageCache cache = javaImageEditor.getCache();
+                if (cache != null ? cache.get(file) : file.exists() && !file.isDirectory()) {
                     ServletOutputStream out = response.getOutputStream();
 
                     response.setHeader("Content-Type", "image/" + imageType);
                     response.setContentLength((int) file.length());
 
-                    BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-
-                    int b;
-                    while ((b = inputStream.read()) != -1) {
-                        out.write(b);
+                    try (InputStream inputStream = new FileInputStream(file)) {
+                        IoUtils.copy(inputStream, out);
                     }
 
-                    inputStream.close();
                     out.close();
 
                     return;
@@ -161,6 +158,7 @@ public class JavaImageServlet extends HttpServlet {
             }
 
             BufferedImage bufferedImage;
+            JavaImageReader readPlan = JavaImageReader.plan(parameters);
 
             try {
                 if (!imageUrl.startsWith("http")) {
@@ -172,8 +170,9 @@ public class JavaImageServlet extends HttpServlet {
 
                 if ((imageUrl.endsWith("tif") || imageUrl.endsWith("tiff")) && ObjectUtils.getClassByName(JavaImageEditor.TIFF_READER_CLASS) != null) {
                     bufferedImage = JavaImageTiffReader.readTiff(uri.toString());
+                    readPlan = JavaImageReader.plan(new String[0]);
                 } else {
-                    bufferedImage = ImageIO.read(new URL(uri.toString()));
+                    bufferedImage = readPlan.read(new URL(uri.toString()));
                 }
             } catch (URISyntaxException ex) {
                 bufferedImage = null;
@@ -229,37 +228,14 @@ public class JavaImageServlet extends HttpServlet {
                     bufferedImage = javaImageEditor.reSize(bufferedImage, width, height, option, quality);
 
                 } else if (command.equals(ImageEditor.CROP_COMMAND)) {
-                    Integer x = 0;
-                    Integer y = 0;
-                    Integer width = null;
-                    Integer height = null;
-                    String[] size;
-
-                    if (value.contains("+")) {
-                        int delimiter = value.indexOf("+");
-                        String[] xy = value.substring(delimiter + 1).split("\\+");
-
-                        x = parseInteger(xy[0]) != null ? parseInteger(xy[0]) : 0;
-                        y = parseInteger(xy[1]) != null ? parseInteger(xy[1]) : 0;
-
-                        size = value.substring(0, delimiter).split("x");
-
-                    } else {
-                        size = value.split("x");
-                        if (size.length > 3) {
-                            x = parseInteger(size[0]) != null ? parseInteger(size[0]) : 0;
-                            y = parseInteger(size[1]) != null ? parseInteger(size[1]) : 0;
-                            size[0] = size[2];
-                            size[1] = size[3];
-                        }
-                    }
 
-                    width = parseInteger(size[0]);
-                    if (size.length > 1) {
-                        height = parseInteger(size[1]);
+                    // Already cropped while reading.
+                    if (i == readPlan.getCropIndex()) {
+                        continue;
                     }
 
-                    bufferedImage = javaImageEditor.crop(bufferedImage, x, y, width, height);
+                    Integer[] crop = parseCrop(value);
+                    bufferedImage = javaImageEditor.crop(bufferedImage, crop[0], crop[1], crop[2], crop[3]);
 
                 } else if (command.equals(JavaImageEditor.THUMBNAIL_COMMAND)) {
                     String option = null;
@@ -447,9 +423,6 @@ public class JavaImageServlet extends HttpServlet {
                 expiresDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
             }
             response.setHeader("Expires", expiresDateFormat.format(expires.toDate()));
-            ServletOutputStream out = response.getOutputStream();
-            ImageIO.write(bufferedImage, imageType, out);
-
             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
             ImageIO.write(bufferedImage, imageType, byteArrayOutputStream);
             byteArrayOutputStream.flush();
@@ -468,9 +441,19 @@ public class JavaImageServlet extends HttpServlet {
                 //No Such Algorithm Exception don't write eTag
             }
 
+            ServletOutputStream out = response.getOutputStream();
+            response.setContentLength(data.length);
+            out.write(data);
+
             if (cacheImage) {
-                FileOutputStream fileOutputStream = new FileOutputStream(file);
-                ImageIO.write(bufferedImage, imageType, fileOutputStream);
+                try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+                    fileOutputStream.write(data);
+                }
+
+                JavaImageCache cache = javaImageEditor.getCache();
+                if (cache != null) {
+                    cache.put(file);
+                }
             }
 
             out.close();
@@ -479,7 +462,48 @@ public class JavaImageServlet extends HttpServlet {
         }
     }
 
-    private Integer parseInteger(String integer) {
+    /**
+     * Parses the given crop command {@code value} in either the
+     * {@code WxH+X+Y} or the {@code XxYxWxH} format.
+     *
+     * @return Never {@code null}. An array of x, y, width and height, in
+     *         that order. Width and height may be {@code null}.
+     */
+    static Integer[] parseCrop(String value) {
+        Integer x = 0;
+        Integer y = 0;
+        Integer width = null;
+        Integer height = null;
+        String[] size;
+
+        if (value.contains("+")) {
+            int delimiter = value.indexOf("+");
+            String[] xy = value.substring(delimiter + 1).split("\\+");
+
+            x = parseInteger(xy[0]) != null ? parseInteger(xy[0]) : 0;
+            y = parseInteger(xy[1]) != null ? parseInteger(xy[1]) : 0;
+
+            size = value.substring(0, delimiter).split("x");
+
+        } else {
+            size = value.split("x");
+            if (size.length > 3) {
+                x = parseInteger(size[0]) != null ? parseInteger(size[0]) : 0;
+                y = parseInteger(size[1]) != null ? parseInteger(size[1]) : 0;
+                size[0] = size[2];
+                size[1] = size[3];
+            }
+        }
+
+        width = parseInteger(size[0]);
+        if (size.length > 1) {
+            height = parseInteger(size[1]);
+        }
+
+        return new Integer[] { x, y, width, height };
+    }
+
+    private static Integer parseInteger(String integer) {
         if (StringUtils.isBlank(integer) || integer.matches("null")) {
             return null;
         } else {
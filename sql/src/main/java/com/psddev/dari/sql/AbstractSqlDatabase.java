@@ -1336,6 +1336,38 @@ public abstract class AbstractSqlDatabase extends AbstractDatabase<Connection> {
         return addComment(new SqlQuery(this, query).groupStatement(fields), query);
     }
 
+    /**
+     * Builds an SQL statement that can be used to get a subset of the
+     * objects grouped by the values of the given {@code fields}.
+     *
+     * @param query Nonnull.
+     * @param fields Nonnull. Nonempty.
+     * @return Nonnull.
+     */
+    public String buildGroupStatement(Query<?> query, long offset, int limit, String... fields) {
+        Preconditions.checkNotNull(query);
+        Preconditions.checkNotNull(fields);
+        Preconditions.checkArgument(fields.length > 0);
+        Preconditions.checkArgument(offset >= 0L);
+        Preconditions.checkArgument(limit > 0);
+        return addComment(new SqlQuery(this, query).groupStatement((int) offset, limit, fields), query);
+    }
+
+    /**
+     * Builds an SQL statement that can be used to count the number of
+     * groups of objects by the values of the given {@code fields}.
+     *
+     * @param query Nonnull.
+     * @param fields Nonnull. Nonempty.
+     * @return Nonnull.
+     */
+    public String buildGroupCountStatement(Query<?> query, String... fields) {
+        Preconditions.checkNotNull(query);
+        Preconditions.checkNotNull(fields);
+        Preconditions.checkArgument(fields.length > 0);
+        return addComment(new SqlQuery(this, query).groupCountStatement(fields), query);
+    }
+
     @Override
     public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
         for (String field : fields) {
@@ -1345,18 +1377,20 @@ public abstract class AbstractSqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
-        String sqlQuery = buildGroupStatement(query, fields);
+        // Select one more group than requested to determine whether there
+        // are more, like #readPartial.
+        if (limit == Integer.MAX_VALUE) {
+            -- limit;
+        }
+
+        int groupLimit = limit;
+        String sqlQuery = buildGroupStatement(query, offset, groupLimit + 1, fields);
 
         return select(sqlQuery, query, result -> {
             List<Grouping<T>> groupings = new ArrayList<>();
             int fieldsLength = fields.length;
-            int groupingsCount = 0;
-
-            for (int i = 0, last = (int) offset + limit; result.next(); ++ i, ++ groupingsCount) {
-                if (i < offset || i >= last) {
-                    continue;
-                }
 
+            while (result.next()) {
                 List<Object> keys = new ArrayList<>();
 
                 SqlGrouping<T> grouping;
@@ -1374,6 +1408,12 @@ public abstract class AbstractSqlDatabase extends AbstractDatabase<Connection> {
                 groupings.add(grouping);
             }
 
+            boolean hasMore = groupings.size() > groupLimit;
+
+            if (hasMore) {
+                groupings.remove(groupings.size() - 1);
+            }
+
             int groupingsSize = groupings.size();
             List<Integer> removes = new ArrayList<>();
 
@@ -1420,7 +1460,33 @@ public abstract class AbstractSqlDatabase extends AbstractDatabase<Connection> {
                 groupings.remove((int) i);
             }
 
-            return new PaginatedResult<>(offset, limit, groupingsCount - removes.size(), groupings);
+            if (!hasMore) {
+                return new PaginatedResult<>(offset, groupLimit, offset + groupings.size(), groupings);
+            }
+
+            // There are more groups, so count them on demand.
+            return new PaginatedResult<Grouping<T>>(offset, groupLimit, 0, groupings) {
+
+                private final Lazy<Long> count = new Lazy<Long>() {
+
+                    @Override
+                    protected Long create() {
+                        return select(buildGroupCountStatement(query, fields), query, result -> result.next()
+                                ? ObjectUtils.to(long.class, result.getObject(1))
+                                : 0L);
+                    }
+                };
+
+                @Override
+                public long getCount() {
+                    return count.get();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+            };
         });
     }
 
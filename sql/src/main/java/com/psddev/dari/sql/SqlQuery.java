@@ -25,9 +25,11 @@ import org.jooq.DSLContext;
 import org.jooq.DataType;
 import org.jooq.Field;
 import org.jooq.JoinType;
+import org.jooq.Record;
 import org.jooq.RenderContext;
 import org.jooq.Select;
 import org.jooq.SelectField;
+import org.jooq.SelectHavingStep;
 import org.jooq.SortField;
 import org.jooq.Table;
 import org.jooq.conf.ParamType;
@@ -461,10 +463,54 @@ class SqlQuery {
      * @throws NullPointerException If {@code groupKeys} is {@code null}.
      */
     public String groupStatement(String... groupKeys) {
-        Preconditions.checkNotNull(groupKeys, "[groupKeys] can't be null!");
-        Preconditions.checkArgument(groupKeys.length > 0, "[groupKeys] can't be empty!");
+        return tableRenderContext.render(groupSelect(groupKeys, new ArrayList<>()).orderBy(orderByFields));
+    }
 
+    /**
+     * Returns an SQL statement that can be used to get a subset of the
+     * groups of rows by the values of the given {@code groupKeys}.
+     *
+     * <p>The groups are ordered by the values if the query doesn't have any
+     * sorters, so that the subsets are stable.</p>
+     *
+     * @param groupKeys Can't be {@code null} or empty.
+     * @throws IllegalArgumentException If {@code groupKeys} is empty.
+     * @throws NullPointerException If {@code groupKeys} is {@code null}.
+     */
+    public String groupStatement(int offset, int limit, String... groupKeys) {
         List<Field<?>> groupByFields = new ArrayList<>();
+        SelectHavingStep<Record> select = groupSelect(groupKeys, groupByFields);
+        List<SortField<?>> sortFields = new ArrayList<>(orderByFields);
+
+        if (sortFields.isEmpty()) {
+            groupByFields.forEach(f -> sortFields.add(f.asc()));
+        }
+
+        return tableRenderContext.render(select
+                .orderBy(sortFields)
+                .offset(offset)
+                .limit(limit));
+    }
+
+    /**
+     * Returns an SQL statement that can be used to count the number of
+     * groups of rows by the values of the given {@code groupKeys}.
+     *
+     * @param groupKeys Can't be {@code null} or empty.
+     * @throws IllegalArgumentException If {@code groupKeys} is empty.
+     * @throws NullPointerException If {@code groupKeys} is {@code null}.
+     */
+    public String groupCountStatement(String... groupKeys) {
+        return tableRenderContext.render(dslContext
+                .selectCount()
+                .from(groupSelect(groupKeys, new ArrayList<>()).asTable(aliasPrefix + "g")));
+    }
+
+    // Builds the select that groups the rows by the values of the given
+    // groupKeys, and adds the fields that it groups by to the given list.
+    private SelectHavingStep<Record> groupSelect(String[] groupKeys, List<Field<?>> groupByFields) {
+        Preconditions.checkNotNull(groupKeys, "[groupKeys] can't be null!");
+        Preconditions.checkArgument(groupKeys.length > 0, "[groupKeys] can't be empty!");
 
         for (String groupKey : groupKeys) {
             Query.MappedKey mappedKey = query.mapEmbeddedKey(database.getEnvironment(), groupKey);
@@ -496,12 +542,11 @@ class SqlQuery {
 
         selectFields.addAll(groupByFields);
 
-        return tableRenderContext.render(dslContext
+        return dslContext
                 .select(selectFields)
                 .from(table)
                 .where(whereCondition)
-                .groupBy(groupByFields)
-                .orderBy(orderByFields));
+                .groupBy(groupByFields);
     }
 
     /**
@@ -1,15 +1,25 @@
 package com.psddev.dari.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,8 +70,44 @@ public abstract class AbstractStorageItem implements StorageItem {
      */
     public static final String HASH_ALGORITHM_SUB_SETTING = "hashAlgorithm";
 
+    /**
+     * Sub-setting key for the size of each part in bytes when saving data
+     * through {@link StorageItemMultipartUpload}. Set to {@code 0} to
+     * disable multipart uploads.
+     */
+    public static final String MULTIPART_PART_SIZE_SUB_SETTING = "multipartPartSize";
+
+    /**
+     * Sub-setting key for the number of parts that are uploaded
+     * concurrently when saving data through
+     * {@link StorageItemMultipartUpload}.
+     */
+    public static final String MULTIPART_THREADS_SUB_SETTING = "multipartThreads";
+
+    /**
+     * Sub-setting key for the number of times that each part is retried
+     * when saving data through {@link StorageItemMultipartUpload}.
+     */
+    public static final String MULTIPART_RETRIES_SUB_SETTING = "multipartRetries";
+
+    /**
+     * Sub-setting key for whether the data should be
+     * {@linkplain #isContentAddressed content-addressed}.
+     */
+    public static final String CONTENT_ADDRESSED_SUB_SETTING = "contentAddressed";
+
+    /**
+     * Metadata key for the hex-encoded SHA-256 hash of the data, which is
+     * set on save when the item is {@linkplain #isContentAddressed
+     * content-addressed}.
+     */
+    public static final String CONTENT_HASH_METADATA = "contentHash";
+
     public static final String HTTP_HEADERS = "http.headers";
 
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    private static final int CONTENT_BUFFER_SIZE = 1024 * 1024;
+
     private transient String baseUrl;
     private transient String secureBaseUrl;
     private transient List<String> baseUrls;
@@ -73,6 +119,10 @@ public abstract class AbstractStorageItem implements StorageItem {
     private transient InputStream data;
     private transient List<StorageItemListener> listeners;
     private transient StorageItemHash hashAlgorithm;
+    private transient int multipartPartSize = StorageItemMultipartUploader.DEFAULT_PART_SIZE;
+    private transient int multipartThreads = StorageItemMultipartUploader.DEFAULT_THREADS;
+    private transient int multipartRetries = StorageItemMultipartUploader.DEFAULT_RETRIES;
+    private transient boolean contentAddressed;
 
     /**
      * Returns the base URL that's used to construct the
@@ -168,6 +218,101 @@ public abstract class AbstractStorageItem implements StorageItem {
         this.hashAlgorithm = hashAlgorithm;
     }
 
+    /**
+     * Returns the size of each part in bytes when saving data through
+     * {@link StorageItemMultipartUpload}.
+     *
+     * @return {@code 0} if multipart uploads are disabled.
+     */
+    public int getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    /**
+     * Sets the size of each part in bytes when saving data through
+     * {@link StorageItemMultipartUpload}.
+     *
+     * @param multipartPartSize {@code 0} to disable multipart uploads.
+     */
+    public void setMultipartPartSize(int multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    /** Returns the number of parts that are uploaded concurrently. */
+    public int getMultipartThreads() {
+        return multipartThreads;
+    }
+
+    /** Sets the number of parts that are uploaded concurrently. */
+    public void setMultipartThreads(int multipartThreads) {
+        this.multipartThreads = multipartThreads;
+    }
+
+    /** Returns the number of times that each part is retried. */
+    public int getMultipartRetries() {
+        return multipartRetries;
+    }
+
+    /** Sets the number of times that each part is retried. */
+    public void setMultipartRetries(int multipartRetries) {
+        this.multipartRetries = multipartRetries;
+    }
+
+    /**
+     * Returns {@code true} if saving data that's identical to what's
+     * already in this storage should reuse the existing path instead.
+     *
+     * <p>The data is hashed before it's saved, and the hash is looked up
+     * in the {@link StorageItemContentIndex}. If there's a match that's
+     * still {@linkplain #isInStorage in storage}, this item's path is
+     * changed to it and nothing is saved. Otherwise, the data is saved to
+     * a path that's derived from the hash, so that it's never written over
+     * by different data.</p>
+     *
+     * <p>The items with the same content share the same path, so the data
+     * at such a path must not be deleted through any one of them.</p>
+     */
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
+
+    /**
+     * Sets whether saving data that's identical to what's already in this
+     * storage should reuse the existing path instead.
+     */
+    public void setContentAddressed(boolean contentAddressed) {
+        this.contentAddressed = contentAddressed;
+    }
+
+    /**
+     * Changes this item's path to where the content with the given
+     * {@code contentHash} was previously saved in this storage, if it's
+     * still there.
+     *
+     * @return {@code true} if the path was changed.
+     */
+    boolean reuseContent(String contentHash) {
+        String storage = getStorage();
+        String existingPath = StorageItemContentIndex.getPath(storage, contentHash);
+
+        if (existingPath == null) {
+            return false;
+        }
+
+        String path = getPath();
+
+        setPath(existingPath);
+
+        if (isInStorage()) {
+            return true;
+
+        } else {
+            StorageItemContentIndex.removePath(storage, contentHash);
+            setPath(path);
+            return false;
+        }
+    }
+
     /** Selects a base URL from the {@code baseUrls} list using this storage
      *  item's configured hash algorithm. */
     private String getBaseUrlFromHash(List<String> baseUrls) {
@@ -216,6 +361,23 @@ public abstract class AbstractStorageItem implements StorageItem {
 
         setHashAlgorithm(StorageItemHash.Static.getInstanceOrDefault(
                 ObjectUtils.to(String.class, settings.get(HASH_ALGORITHM_SUB_SETTING))));
+
+        Integer partSize = ObjectUtils.to(Integer.class, settings.get(MULTIPART_PART_SIZE_SUB_SETTING));
+        if (partSize != null) {
+            setMultipartPartSize(partSize);
+        }
+
+        Integer threads = ObjectUtils.to(Integer.class, settings.get(MULTIPART_THREADS_SUB_SETTING));
+        if (threads != null) {
+            setMultipartThreads(threads);
+        }
+
+        Integer retries = ObjectUtils.to(Integer.class, settings.get(MULTIPART_RETRIES_SUB_SETTING));
+        if (retries != null) {
+            setMultipartRetries(retries);
+        }
+
+        setContentAddressed(ObjectUtils.to(boolean.class, settings.get(CONTENT_ADDRESSED_SUB_SETTING)));
     }
 
     @Override
@@ -341,7 +503,12 @@ public abstract class AbstractStorageItem implements StorageItem {
 
         InputStream data = getData();
         try {
-            saveData(data);
+            if (isContentAddressed()) {
+                saveContent(data);
+
+            } else {
+                saveStream(data);
+            }
         } finally {
             data.close();
         }
@@ -357,6 +524,214 @@ public abstract class AbstractStorageItem implements StorageItem {
         }
     }
 
+    // Hashes the data before saving it, so that it can be skipped entirely
+    // if the same content is already in storage. Small data is kept in
+    // memory. Larger data is hashed while it's saved to a temporary path
+    // and then moved, if the storage supports it, since the whole stream
+    // has to be read to hash it. Otherwise, the rest of it is spooled to a
+    // temporary file.
+    private void saveContent(InputStream data) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+
+        InputStream hashed = new DigestInputStream(data, digest);
+        byte[] head = readContentBuffer(hashed);
+
+        if (head.length == CONTENT_BUFFER_SIZE && this instanceof StorageItemMove) {
+            saveMovedContent(new SequenceInputStream(new ByteArrayInputStream(head), hashed), digest);
+            return;
+        }
+
+        Path spool = null;
+
+        try {
+            if (head.length == CONTENT_BUFFER_SIZE) {
+                spool = Files.createTempFile("dari-storage-", ".tmp");
+
+                try (OutputStream output = Files.newOutputStream(spool)) {
+                    output.write(head);
+                    IoUtils.copy(hashed, output);
+                }
+
+                head = null;
+            }
+
+            String contentHash = StringUtils.hex(digest.digest());
+
+            getMetadata().put(CONTENT_HASH_METADATA, contentHash);
+
+            if (reuseContent(contentHash)) {
+                return;
+            }
+
+            setPath(createContentPath(contentHash, getPath()));
+
+            try (InputStream content = spool != null ? Files.newInputStream(spool) : new ByteArrayInputStream(head)) {
+                saveStream(content);
+            }
+
+            StorageItemContentIndex.putPath(getStorage(), contentHash, getPath());
+
+        } finally {
+            if (spool != null) {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    // Saves the data to a temporary path while it's hashed, and then moves
+    // it to the content path, or deletes it if the same content is already
+    // in storage.
+    private void saveMovedContent(InputStream data, MessageDigest digest) throws IOException {
+        StorageItemMove move = (StorageItemMove) this;
+        String path = getPath();
+        String temporaryPath = createTemporaryContentPath(path);
+        String contentHash;
+
+        setPath(temporaryPath);
+
+        try {
+            saveStream(data);
+
+            // Makes sure that the whole data was hashed even if saving
+            // stopped reading early.
+            byte[] buffer = new byte[8192];
+
+            while (data.read(buffer) > -1) {
+                // Discard.
+            }
+
+            contentHash = StringUtils.hex(digest.digest());
+
+        } catch (IOException | RuntimeException error) {
+            try {
+                move.deleteData();
+
+            } catch (IOException | RuntimeException deleteError) {
+                error.addSuppressed(deleteError);
+            }
+
+            setPath(path);
+            throw error;
+        }
+
+        getMetadata().put(CONTENT_HASH_METADATA, contentHash);
+        setPath(path);
+
+        if (reuseContent(contentHash)) {
+            String contentPath = getPath();
+
+            setPath(temporaryPath);
+            move.deleteData();
+            setPath(contentPath);
+            return;
+        }
+
+        String contentPath = createContentPath(contentHash, path);
+
+        setPath(temporaryPath);
+        move.moveData(contentPath);
+        setPath(contentPath);
+        StorageItemContentIndex.putPath(getStorage(), contentHash, contentPath);
+    }
+
+    // Reads the data up to the content buffer size.
+    private static byte[] readContentBuffer(InputStream data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int remaining = CONTENT_BUFFER_SIZE;
+        int read;
+
+        while (remaining > 0 && (read = data.read(buffer, 0, Math.min(buffer.length, remaining))) > -1) {
+            output.write(buffer, 0, read);
+            remaining -= read;
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates the path where the content with the given {@code contentHash}
+     * is saved, keeping the file name from the given {@code path} so that
+     * the content type can still be detected from it.
+     *
+     * <p>Since the path is derived from the content, saving to it can only
+     * ever write the same bytes, so the items that share it can't overwrite
+     * each other's data.</p>
+     */
+    static String createContentPath(String contentHash, String path) {
+        StringBuilder contentPath = new StringBuilder();
+
+        contentPath.append(contentHash, 0, 2);
+        contentPath.append('/');
+        contentPath.append(contentHash, 2, 4);
+        contentPath.append('/');
+        contentPath.append(contentHash, 4, contentHash.length());
+
+        if (!ObjectUtils.isBlank(path)) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+
+            if (!fileName.isEmpty()) {
+                contentPath.append('/');
+                contentPath.append(fileName);
+            }
+        }
+
+        return contentPath.toString();
+    }
+
+    /**
+     * Creates the temporary path where the content is saved while it's
+     * being hashed, keeping the file name from the given {@code path} as
+     * the suffix.
+     */
+    static String createTemporaryContentPath(String path) {
+        StringBuilder temporaryPath = new StringBuilder();
+
+        temporaryPath.append("tmp/");
+        temporaryPath.append(UUID.randomUUID());
+
+        if (!ObjectUtils.isBlank(path)) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+
+            if (!fileName.isEmpty()) {
+                temporaryPath.append('-');
+                temporaryPath.append(fileName);
+            }
+        }
+
+        return temporaryPath.toString();
+    }
+
+    private void saveStream(InputStream data) throws IOException {
+        if (this instanceof StorageItemMultipartUpload && getMultipartPartSize() > 0) {
+            StorageItemMultipartUploader uploader = new StorageItemMultipartUploader(
+                    (StorageItemMultipartUpload) this,
+                    getMultipartPartSize(),
+                    Math.max(1, getMultipartThreads()),
+                    Math.max(0, getMultipartRetries()));
+
+            byte[] firstPart = uploader.readFirstPart(data);
+
+            // Small enough to save in a single request.
+            if (firstPart.length < uploader.getPartSize()) {
+                saveData(new ByteArrayInputStream(firstPart));
+
+            } else {
+                uploader.upload(firstPart, data);
+            }
+
+        } else {
+            saveData(data);
+        }
+    }
+
     /** Saves the given {@code data} stream. */
     protected abstract void saveData(InputStream data) throws IOException;
 
@@ -1,13 +1,18 @@
 package com.psddev.dari.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.ServiceException;
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.impl.rest.httpclient.RestS3Service;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.security.AWSCredentials;
 
@@ -30,7 +35,7 @@ import org.jets3t.service.security.AWSCredentials;
  * {@code com.psddev:dari-aws} instead.
  */
 @Deprecated
-public class AmazonStorageItem extends AbstractStorageItem {
+public class AmazonStorageItem extends AbstractStorageItem implements StorageItemMultipartUpload {
 
     /** Setting key for S3 access key. */
     public static final String ACCESS_SETTING = "access";
@@ -117,70 +122,80 @@ public class AmazonStorageItem extends AbstractStorageItem {
             RestS3Service service = null;
 
             try {
-                service = new RestS3Service(new AWSCredentials(getAccess(), getSecret()));
-                S3Object object = new S3Object(getPath());
+                service = createService();
+                S3Object object = createObject();
 
-                object.setContentType(getContentType());
+                object.setDataInputStream(data);
+                service.putObject(getBucket(), object);
 
-                Map<String, Object> metadata = getMetadata();
-                @SuppressWarnings("unchecked")
-                Map<String, List<String>> headers = (Map<String, List<String>>) metadata.get(HTTP_HEADERS);
+            } finally {
+                if (service != null) {
+                    service.shutdown();
+                }
+            }
 
-                if (headers != null) {
-                    for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-                        String key = entry.getKey();
-                        List<String> values = entry.getValue();
+        } catch (ServiceException error) {
+            throw new IOException(String.format(
+                    "Can't store [%s] file!", getPath()),
+                    error);
+        }
+    }
 
-                        if (values != null && !values.isEmpty()) {
-                            String value = values.get(0);
+    private RestS3Service createService() throws S3ServiceException {
+        return new RestS3Service(new AWSCredentials(getAccess(), getSecret()));
+    }
 
-                            if (key.equalsIgnoreCase("Content-Disposition")) {
-                                object.setContentDisposition(value);
+    private S3Object createObject() {
+        S3Object object = new S3Object(getPath());
 
-                            } else if (key.equalsIgnoreCase("Content-Language")) {
-                                object.setContentLanguage(value);
+        object.setContentType(getContentType());
 
-                            } else if (key.equalsIgnoreCase("Content-Length")) {
-                                object.setContentLength(ObjectUtils.to(long.class, value));
+        Map<String, Object> metadata = getMetadata();
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> headers = (Map<String, List<String>>) metadata.get(HTTP_HEADERS);
 
-                            } else if (key.equalsIgnoreCase("Content-Encoding")) {
-                                object.setContentEncoding(value);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String key = entry.getKey();
+                List<String> values = entry.getValue();
 
-                            } else if (key.equalsIgnoreCase("Content-Type")) {
-                                object.setContentType(value);
+                if (values != null && !values.isEmpty()) {
+                    String value = values.get(0);
 
-                            } else {
-                                object.addMetadata(key, value);
-                            }
-                        }
-                    }
-                }
+                    if (key.equalsIgnoreCase("Content-Disposition")) {
+                        object.setContentDisposition(value);
 
-                // TODO: Decide which additional metadata is relevant to this StorageItem
-                /*
-                for (Map.Entry<String, Object> entry : metadata.entrySet()) {
-                    Object value = entry.getValue();
-                    if (value instanceof String) {
-                        object.addMetadata(entry.getKey(), (String) value);
-                    }
-                }
-                */
+                    } else if (key.equalsIgnoreCase("Content-Language")) {
+                        object.setContentLanguage(value);
 
-                object.setDataInputStream(data);
-                object.setAcl(AccessControlList.REST_CANNED_PUBLIC_READ);
-                service.putObject(getBucket(), object);
+                    } else if (key.equalsIgnoreCase("Content-Length")) {
+                        object.setContentLength(ObjectUtils.to(long.class, value));
 
-            } finally {
-                if (service != null) {
-                    service.shutdown();
+                    } else if (key.equalsIgnoreCase("Content-Encoding")) {
+                        object.setContentEncoding(value);
+
+                    } else if (key.equalsIgnoreCase("Content-Type")) {
+                        object.setContentType(value);
+
+                    } else {
+                        object.addMetadata(key, value);
+                    }
                 }
             }
+        }
 
-        } catch (ServiceException error) {
-            throw new IOException(String.format(
-                    "Can't store [%s] file!", getPath()),
-                    error);
+        // TODO: Decide which additional metadata is relevant to this StorageItem
+        /*
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                object.addMetadata(entry.getKey(), (String) value);
+            }
         }
+        */
+
+        object.setAcl(AccessControlList.REST_CANNED_PUBLIC_READ);
+        return object;
     }
 
     @Override
@@ -204,6 +219,98 @@ public class AmazonStorageItem extends AbstractStorageItem {
         }
     }
 
+    // --- StorageItemMultipartUpload support ---
+
+    @Override
+    public String startMultipartUpload() throws IOException {
+        try {
+            RestS3Service service = createService();
+
+            try {
+                S3Object object = createObject();
+
+                // Each part sets its own length.
+                object.removeMetadata(S3Object.METADATA_HEADER_CONTENT_LENGTH);
+                return service.multipartStartUpload(getBucket(), object).getUploadId();
+
+            } finally {
+                service.shutdown();
+            }
+
+        } catch (ServiceException error) {
+            throw new IOException(String.format(
+                    "Can't start multipart upload of [%s] file!", getPath()),
+                    error);
+        }
+    }
+
+    @Override
+    public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException {
+        try {
+            RestS3Service service = createService();
+
+            try {
+                S3Object object = new S3Object(getPath());
+
+                object.setDataInputStream(new ByteArrayInputStream(data, 0, length));
+                object.setContentLength(length);
+                return service.multipartUploadPart(new MultipartUpload(uploadId, getBucket(), getPath()), partNumber, object).getEtag();
+
+            } finally {
+                service.shutdown();
+            }
+
+        } catch (ServiceException error) {
+            throw new IOException(String.format(
+                    "Can't store part [%s] of [%s] file!", partNumber, getPath()),
+                    error);
+        }
+    }
+
+    @Override
+    public void completeMultipartUpload(String uploadId, List<String> partTags) throws IOException {
+        try {
+            RestS3Service service = createService();
+
+            try {
+                List<MultipartPart> parts = new ArrayList<MultipartPart>();
+
+                for (int i = 0, size = partTags.size(); i < size; ++ i) {
+                    parts.add(new MultipartPart(i + 1, null, partTags.get(i), null));
+                }
+
+                service.multipartCompleteUpload(new MultipartUpload(uploadId, getBucket(), getPath()), parts);
+
+            } finally {
+                service.shutdown();
+            }
+
+        } catch (ServiceException error) {
+            throw new IOException(String.format(
+                    "Can't complete multipart upload of [%s] file!", getPath()),
+                    error);
+        }
+    }
+
+    @Override
+    public void abortMultipartUpload(String uploadId) throws IOException {
+        try {
+            RestS3Service service = createService();
+
+            try {
+                service.multipartAbortUpload(new MultipartUpload(uploadId, getBucket(), getPath()));
+
+            } finally {
+                service.shutdown();
+            }
+
+        } catch (ServiceException error) {
+            throw new IOException(String.format(
+                    "Can't abort multipart upload of [%s] file!", getPath()),
+                    error);
+        }
+    }
+
     // --- Nested ---
 
     /** Wraps an input stream to shut down the S3 service on close. */
@@ -5,10 +5,17 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /** Item stored in the local file system. */
-public class LocalStorageItem extends AbstractStorageItem implements StorageItemOriginUrl {
+public class LocalStorageItem extends AbstractStorageItem implements StorageItemOriginUrl, StorageItemMultipartUpload, StorageItemMove {
 
     /** Setting key for root path. */
     public static final String ROOT_PATH_SETTING = "rootPath";
@@ -93,4 +100,67 @@ public class LocalStorageItem extends AbstractStorageItem implements StorageItem
 
         return createPublicUrl(getOriginBaseUrl(), getPath());
     }
+
+    // --- StorageItemMultipartUpload support ---
+
+    // Parts are written directly at their offsets in a temporary file next
+    // to the final one, which is moved into place on completion.
+    private File getMultipartFile(String uploadId) {
+        return new File(getRootPath() + "/" + getPath() + "." + uploadId + ".part");
+    }
+
+    @Override
+    public String startMultipartUpload() throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        File partFile = getMultipartFile(uploadId);
+
+        IoUtils.createFile(partFile);
+        return uploadId;
+    }
+
+    @Override
+    public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(getMultipartFile(uploadId), "rw")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+            long position = offset;
+
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        return String.valueOf(partNumber);
+    }
+
+    @Override
+    public void completeMultipartUpload(String uploadId, List<String> partTags) throws IOException {
+        Files.move(
+                getMultipartFile(uploadId).toPath(),
+                new File(getRootPath() + "/" + getPath()).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void abortMultipartUpload(String uploadId) throws IOException {
+        Files.deleteIfExists(getMultipartFile(uploadId).toPath());
+    }
+
+    // --- StorageItemMove support ---
+
+    @Override
+    public void moveData(String newPath) throws IOException {
+        File newFile = new File(getRootPath() + "/" + newPath);
+
+        IoUtils.createParentDirectories(newFile);
+        Files.move(
+                new File(getRootPath() + "/" + getPath()).toPath(),
+                newFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void deleteData() throws IOException {
+        Files.deleteIfExists(new File(getRootPath() + "/" + getPath()).toPath());
+    }
 }
@@ -152,16 +152,35 @@ public interface StorageItem extends SettingsBackedObject {
         /**
          * Copies the given {@code item} into the given {@code newStorage}
          * system and returns the newly created item.
+         *
+         * <p>If the new storage is {@linkplain
+         * AbstractStorageItem#isContentAddressed content-addressed} and
+         * already contains the item's content, only the metadata is copied,
+         * and the returned item points to the existing path.</p>
          */
         public static StorageItem copy(StorageItem item, String newStorage) throws IOException {
+            StorageItem newItem = createIn(newStorage);
+
+            newItem.setPath(item.getPath());
+            newItem.setContentType(item.getContentType());
+            newItem.setMetadata(item.getMetadata());
+
+            if (newItem instanceof AbstractStorageItem) {
+                AbstractStorageItem base = (AbstractStorageItem) newItem;
+                String contentHash = ObjectUtils.to(String.class, item.getMetadata().get(AbstractStorageItem.CONTENT_HASH_METADATA));
+
+                if (base.isContentAddressed()
+                        && contentHash != null
+                        && base.reuseContent(contentHash)) {
+
+                    return newItem;
+                }
+            }
+
             InputStream data = null;
 
             try {
                 data = item.getData();
-                StorageItem newItem = createIn(newStorage);
-                newItem.setPath(item.getPath());
-                newItem.setContentType(item.getContentType());
-                newItem.setMetadata(item.getMetadata());
                 newItem.setData(data);
                 newItem.save();
                 return newItem;
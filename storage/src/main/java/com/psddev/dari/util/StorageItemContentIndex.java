@@ -0,0 +1,68 @@
+package com.psddev.dari.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Local index of the paths where content with a specific hash has been
+ * saved, used by {@linkplain AbstractStorageItem#isContentAddressed
+ * content-addressed} storage items to avoid saving the same bytes twice.
+ *
+ * <p>The index is bounded and only remembers the content saved or copied
+ * by this JVM, so a miss simply means that the data is saved again.
+ * Entries are verified against the storage system before being reused.</p>
+ */
+public final class StorageItemContentIndex {
+
+    /** Setting key for the maximum number of entries in the index. */
+    public static final String MAXIMUM_SIZE_SETTING = "dari/storageContentIndexSize";
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 100000L;
+
+    private static final Cache<String, String> PATHS = CacheBuilder
+            .newBuilder()
+            .maximumSize(Settings.getOrDefault(long.class, MAXIMUM_SIZE_SETTING, DEFAULT_MAXIMUM_SIZE))
+            .build();
+
+    private StorageItemContentIndex() {
+    }
+
+    private static String createKey(String storage, String contentHash) {
+        return (storage != null ? storage : "") + "\0" + contentHash;
+    }
+
+    /**
+     * Returns the path where the content with the given {@code contentHash}
+     * was last saved in the given {@code storage}.
+     *
+     * @return May be {@code null}.
+     */
+    public static String getPath(String storage, String contentHash) {
+        return contentHash != null ? PATHS.getIfPresent(createKey(storage, contentHash)) : null;
+    }
+
+    /**
+     * Records that the content with the given {@code contentHash} has been
+     * saved to the given {@code path} in the given {@code storage}.
+     */
+    public static void putPath(String storage, String contentHash, String path) {
+        if (contentHash != null && !ObjectUtils.isBlank(path)) {
+            PATHS.put(createKey(storage, contentHash), path);
+        }
+    }
+
+    /**
+     * Removes the entry for the content with the given {@code contentHash}
+     * in the given {@code storage}, typically because it's no longer there.
+     */
+    public static void removePath(String storage, String contentHash) {
+        if (contentHash != null) {
+            PATHS.invalidate(createKey(storage, contentHash));
+        }
+    }
+
+    /** Removes all entries from the index. */
+    public static void clear() {
+        PATHS.invalidateAll();
+    }
+}
@@ -0,0 +1,28 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+
+/**
+ * {@link StorageItem} that can move its data to another path within the
+ * same storage without reading it.
+ *
+ * <p>{@link AbstractStorageItem#save} uses this for content-addressed items
+ * so that large data can be hashed while it's being saved to a temporary
+ * path, instead of being spooled to the local disk first.</p>
+ */
+public interface StorageItemMove {
+
+    /**
+     * Moves the data at this item's path to the given {@code newPath},
+     * replacing any data that's already there. This item's path isn't
+     * changed.
+     *
+     * @param newPath Can't be blank.
+     */
+    public void moveData(String newPath) throws IOException;
+
+    /**
+     * Deletes the data at this item's path.
+     */
+    public void deleteData() throws IOException;
+}
@@ -0,0 +1,51 @@
+package com.psddev.dari.util;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link StorageItem} that can save its data in multiple parts that are
+ * uploaded concurrently.
+ *
+ * <p>{@link AbstractStorageItem#save} uses this automatically through
+ * {@link StorageItemMultipartUploader} when the data is larger than a
+ * single part, so that large files are never buffered in their entirety.</p>
+ */
+public interface StorageItemMultipartUpload {
+
+    /**
+     * Starts a new multipart upload to this item's path.
+     *
+     * @return Never blank. Upload ID passed to the other methods.
+     */
+    public String startMultipartUpload() throws IOException;
+
+    /**
+     * Saves the given part of the data. May be called concurrently and
+     * more than once for the same part if a previous attempt failed.
+     *
+     * @param uploadId Upload ID from {@link #startMultipartUpload}.
+     * @param partNumber Starts at {@code 1}.
+     * @param offset Position of the part within the whole data.
+     * @param data Can't be {@code null}.
+     * @param length Number of bytes in {@code data} that belong to the part.
+     * @return Never {@code null}. Tag that identifies the saved part.
+     */
+    public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException;
+
+    /**
+     * Completes the multipart upload by combining all parts.
+     *
+     * @param uploadId Upload ID from {@link #startMultipartUpload}.
+     * @param partTags Tags from {@link #saveDataPart} ordered by the part
+     *        number.
+     */
+    public void completeMultipartUpload(String uploadId, List<String> partTags) throws IOException;
+
+    /**
+     * Aborts the multipart upload and discards all saved parts.
+     *
+     * @param uploadId Upload ID from {@link #startMultipartUpload}.
+     */
+    public void abortMultipartUpload(String uploadId) throws IOException;
+}
@@ -0,0 +1,255 @@
+package com.psddev.dari.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves data to a {@link StorageItemMultipartUpload} by splitting it into
+ * parts that are uploaded concurrently.
+ *
+ * <p>The data is read sequentially, and at most {@code threads + 1} parts
+ * are held in memory at any time, so the memory used is bounded by the
+ * part size regardless of how large the data is. Each part is retried
+ * independently with an exponential backoff, and the whole upload is
+ * aborted if any part fails permanently.</p>
+ */
+public class StorageItemMultipartUploader {
+
+    /** Default size of each part in bytes. */
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    /** Default number of parts uploaded concurrently. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** Default number of times each part is retried. */
+    public static final int DEFAULT_RETRIES = 3;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageItemMultipartUploader.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long RETRY_INITIAL_DELAY = 100L;
+
+    private final StorageItemMultipartUpload item;
+    private final int partSize;
+    private final int threads;
+    private final int retries;
+
+    /**
+     * Creates an instance that uploads to the given {@code item}.
+     *
+     * @param item Can't be {@code null}.
+     * @param partSize Must be positive.
+     * @param threads Must be positive.
+     * @param retries Must not be negative.
+     */
+    public StorageItemMultipartUploader(StorageItemMultipartUpload item, int partSize, int threads, int retries) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item can't be null!");
+        } else if (partSize <= 0) {
+            throw new IllegalArgumentException("Part size must be positive!");
+        } else if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive!");
+        } else if (retries < 0) {
+            throw new IllegalArgumentException("Number of retries can't be negative!");
+        }
+
+        this.item = item;
+        this.partSize = partSize;
+        this.threads = threads;
+        this.retries = retries;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Reads the first part of the given {@code data}, without allocating
+     * the whole part up front.
+     *
+     * @return Never {@code null}. If the length is less than the part size,
+     *         the data has been read completely and should be saved in a
+     *         single request.
+     */
+    public byte[] readFirstPart(InputStream data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.min(partSize, READ_BUFFER_SIZE));
+        byte[] buffer = new byte[Math.min(partSize, READ_BUFFER_SIZE)];
+        int remaining = partSize;
+        int read;
+
+        while (remaining > 0 && (read = data.read(buffer, 0, Math.min(buffer.length, remaining))) > -1) {
+            output.write(buffer, 0, read);
+            remaining -= read;
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Uploads the given {@code firstPart}, which should come from
+     * {@link #readFirstPart}, and the rest of the given {@code data}.
+     * The given stream isn't closed.
+     */
+    public void upload(byte[] firstPart, InputStream data) throws IOException {
+        String uploadId = item.startMultipartUpload();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new UploadThreadFactory(uploadId));
+        Semaphore buffers = new Semaphore(threads + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        boolean completed = false;
+
+        try {
+            byte[] part = firstPart;
+            int length = firstPart.length;
+            long offset = 0L;
+            int partNumber = 1;
+
+            buffers.acquire();
+
+            while (length > 0) {
+                futures.add(executor.submit(new PartUpload(uploadId, partNumber, offset, part, length, buffers, failure)));
+
+                offset += length;
+                ++ partNumber;
+
+                buffers.acquire();
+
+                if (failure.get() != null) {
+                    break;
+                }
+
+                part = new byte[partSize];
+                length = readFully(data, part);
+            }
+
+            List<String> partTags = new ArrayList<String>(futures.size());
+
+            for (Future<String> future : futures) {
+                partTags.add(future.get());
+            }
+
+            item.completeMultipartUpload(uploadId, partTags);
+            completed = true;
+
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+
+            } else {
+                throw new IOException(String.format("Can't upload [%s]!", item), cause);
+            }
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted while uploading [%s]!", item), error);
+
+        } finally {
+            executor.shutdownNow();
+
+            if (!completed) {
+                try {
+                    item.abortMultipartUpload(uploadId);
+
+                } catch (IOException error) {
+                    LOGGER.warn(String.format("Can't abort upload [%s] to [%s]!", uploadId, item), error);
+                }
+            }
+        }
+    }
+
+    private static int readFully(InputStream data, byte[] part) throws IOException {
+        int length = 0;
+        int read;
+
+        while (length < part.length && (read = data.read(part, length, part.length - length)) > -1) {
+            length += read;
+        }
+
+        return length;
+    }
+
+    private class PartUpload implements Callable<String> {
+
+        private final String uploadId;
+        private final int partNumber;
+        private final long offset;
+        private final byte[] data;
+        private final int length;
+        private final Semaphore buffers;
+        private final AtomicReference<Throwable> failure;
+
+        public PartUpload(String uploadId, int partNumber, long offset, byte[] data, int length, Semaphore buffers, AtomicReference<Throwable> failure) {
+            this.uploadId = uploadId;
+            this.partNumber = partNumber;
+            this.offset = offset;
+            this.data = data;
+            this.length = length;
+            this.buffers = buffers;
+            this.failure = failure;
+        }
+
+        @Override
+        public String call() throws Exception {
+            try {
+                for (int attempt = 0; ; ++ attempt) {
+                    try {
+                        return item.saveDataPart(uploadId, partNumber, offset, data, length);
+
+                    } catch (IOException | RuntimeException error) {
+                        if (attempt >= retries || failure.get() != null) {
+                            failure.compareAndSet(null, error);
+                            throw error;
+                        }
+
+                        LOGGER.debug(String.format("Retrying part [%s] of [%s]", partNumber, item), error);
+                        Thread.sleep(RETRY_INITIAL_DELAY << attempt);
+                    }
+                }
+
+            } finally {
+                buffers.release();
+            }
+        }
+    }
+
+    private static class UploadThreadFactory implements ThreadFactory {
+
+        private final String uploadId;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public UploadThreadFactory(String uploadId) {
+            this.uploadId = uploadId;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Multipart Upload " + uploadId + " #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
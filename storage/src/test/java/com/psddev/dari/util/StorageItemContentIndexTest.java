@@ -0,0 +1,176 @@
+package com.psddev.dari.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StorageItemContentIndexTest {
+
+    private static final String STORAGE = "contentIndexTest";
+
+    private File root;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("contentIndex").toFile();
+        StorageItemContentIndex.clear();
+    }
+
+    @After
+    public void after() throws IOException {
+        Settings.setOverride(StorageItem.SETTING_PREFIX + "/" + STORAGE, null);
+        StorageItemContentIndex.clear();
+        IoUtils.delete(root);
+    }
+
+    private LocalStorageItem createItem(String path) {
+        LocalStorageItem item = new LocalStorageItem();
+        item.setStorage(STORAGE);
+        item.setRootPath(root.getPath());
+        item.setPath(path);
+        item.setContentAddressed(true);
+        return item;
+    }
+
+    private LocalStorageItem saveItem(String path, byte[] bytes) throws IOException {
+        LocalStorageItem item = createItem(path);
+        item.setData(new ByteArrayInputStream(bytes));
+        item.save();
+        return item;
+    }
+
+    private byte[] read(StorageItem item) throws IOException {
+        return IoUtils.toByteArray(new File(root, item.getPath()));
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    @Test
+    public void saveToContentPath() throws IOException {
+        byte[] bytes = "foo".getBytes(StandardCharsets.UTF_8);
+        LocalStorageItem item = saveItem("a/foo.txt", bytes);
+        String contentHash = (String) item.getMetadata().get(AbstractStorageItem.CONTENT_HASH_METADATA);
+
+        assertEquals(AbstractStorageItem.createContentPath(contentHash, "a/foo.txt"), item.getPath());
+        assertTrue(item.getPath().endsWith("/foo.txt"));
+        assertArrayEquals(bytes, read(item));
+    }
+
+    @Test
+    public void saveDeduplicated() throws IOException {
+        byte[] bytes = "foo".getBytes(StandardCharsets.UTF_8);
+        LocalStorageItem first = saveItem("a/first.txt", bytes);
+        LocalStorageItem second = saveItem("b/second.txt", bytes);
+
+        assertEquals(first.getPath(), second.getPath());
+        assertEquals(1, countFiles(root));
+    }
+
+    @Test
+    public void saveLargeDeduplicated() throws IOException {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 123];
+        new Random(bytes.length).nextBytes(bytes);
+        LocalStorageItem first = saveItem("a/first.bin", bytes);
+        LocalStorageItem second = saveItem("b/second.bin", bytes);
+
+        assertEquals(first.getPath(), second.getPath());
+        assertArrayEquals(bytes, read(first));
+        assertEquals(1, countFiles(root));
+    }
+
+    @Test
+    public void saveLargeToContentPath() throws IOException, NoSuchAlgorithmException {
+        byte[] bytes = new byte[2 * 1024 * 1024 + 45];
+        new Random(bytes.length).nextBytes(bytes);
+        LocalStorageItem item = saveItem("a/large.bin", bytes);
+        String contentHash = StringUtils.hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+
+        assertEquals(contentHash, item.getMetadata().get(AbstractStorageItem.CONTENT_HASH_METADATA));
+        assertEquals(AbstractStorageItem.createContentPath(contentHash, "a/large.bin"), item.getPath());
+        assertArrayEquals(bytes, read(item));
+        assertEquals(1, countFiles(root));
+    }
+
+    @Test
+    public void saveDifferentContentKeepsShared() throws IOException {
+        byte[] bytes = "foo".getBytes(StandardCharsets.UTF_8);
+        LocalStorageItem first = saveItem("a/first.txt", bytes);
+        LocalStorageItem second = saveItem("b/second.txt", bytes);
+
+        second.setData(new ByteArrayInputStream("bar".getBytes(StandardCharsets.UTF_8)));
+        second.save();
+
+        assertNotEquals(first.getPath(), second.getPath());
+        assertArrayEquals(bytes, read(first));
+        assertArrayEquals("bar".getBytes(StandardCharsets.UTF_8), read(second));
+    }
+
+    @Test
+    public void indexMissWhenContentGone() throws IOException {
+        byte[] bytes = "foo".getBytes(StandardCharsets.UTF_8);
+        LocalStorageItem first = saveItem("a/first.txt", bytes);
+        String contentHash = (String) first.getMetadata().get(AbstractStorageItem.CONTENT_HASH_METADATA);
+
+        assertTrue(new File(root, first.getPath()).delete());
+        assertFalse(first.reuseContent(contentHash));
+        assertEquals(null, StorageItemContentIndex.getPath(STORAGE, contentHash));
+
+        LocalStorageItem second = saveItem("b/second.txt", bytes);
+
+        assertNotEquals(first.getPath(), second.getPath());
+        assertArrayEquals(bytes, read(second));
+        assertEquals(second.getPath(), StorageItemContentIndex.getPath(STORAGE, contentHash));
+    }
+
+    @Test
+    public void copyReusesContent() throws IOException {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(Settings.CLASS_SUB_SETTING, LocalStorageItem.class.getName());
+        settings.put(LocalStorageItem.ROOT_PATH_SETTING, root.getPath());
+        settings.put(AbstractStorageItem.CONTENT_ADDRESSED_SUB_SETTING, true);
+        Settings.setOverride(StorageItem.SETTING_PREFIX + "/" + STORAGE, settings);
+
+        byte[] bytes = "foo".getBytes(StandardCharsets.UTF_8);
+        File sourceRoot = new File(root, "source");
+        LocalStorageItem source = new LocalStorageItem();
+
+        source.setRootPath(sourceRoot.getPath());
+        source.setPath("a/foo.txt");
+        source.setData(new ByteArrayInputStream(bytes));
+        source.save();
+
+        StorageItem first = StorageItem.Static.copy(source, STORAGE);
+
+        assertArrayEquals(bytes, read(first));
+        assertTrue(first.getMetadata().containsKey(AbstractStorageItem.CONTENT_HASH_METADATA));
+
+        // The data isn't read again when the content is already there.
+        assertTrue(new File(sourceRoot, "a/foo.txt").delete());
+
+        StorageItem second = StorageItem.Static.copy(source, STORAGE);
+
+        assertEquals(first.getPath(), second.getPath());
+    }
+}
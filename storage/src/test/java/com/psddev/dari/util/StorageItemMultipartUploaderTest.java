@@ -0,0 +1,141 @@
+package com.psddev.dari.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StorageItemMultipartUploaderTest {
+
+    private File root;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("multipart").toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        IoUtils.delete(root);
+    }
+
+    private LocalStorageItem createItem(int partSize) {
+        LocalStorageItem item = new LocalStorageItem();
+        item.setRootPath(root.getPath());
+        item.setPath("a/b/test.bin");
+        item.setMultipartPartSize(partSize);
+        item.setMultipartThreads(3);
+        return item;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void saveMultipleParts() throws IOException {
+        byte[] bytes = randomBytes(10 * 1024 + 123);
+        LocalStorageItem item = createItem(1024);
+
+        item.setData(new ByteArrayInputStream(bytes));
+        item.save();
+
+        File file = new File(root, "a/b/test.bin");
+        assertArrayEquals(bytes, IoUtils.toByteArray(file));
+        assertEquals(1, file.getParentFile().list().length);
+    }
+
+    @Test
+    public void saveSinglePart() throws IOException {
+        byte[] bytes = randomBytes(100);
+        LocalStorageItem item = createItem(1024);
+
+        item.setData(new ByteArrayInputStream(bytes));
+        item.save();
+
+        assertArrayEquals(bytes, IoUtils.toByteArray(new File(root, "a/b/test.bin")));
+    }
+
+    @Test
+    public void retryFailedPart() throws IOException {
+        byte[] bytes = randomBytes(4096);
+        AtomicInteger failures = new AtomicInteger();
+        LocalStorageItem item = new LocalStorageItem() {
+
+            @Override
+            public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException {
+                if (partNumber == 2 && failures.getAndIncrement() < 2) {
+                    throw new IOException("Simulated failure!");
+                }
+
+                return super.saveDataPart(uploadId, partNumber, offset, data, length);
+            }
+        };
+
+        item.setRootPath(root.getPath());
+        item.setPath("retry.bin");
+
+        StorageItemMultipartUploader uploader = new StorageItemMultipartUploader(item, 1024, 2, 3);
+        ByteArrayInputStream data = new ByteArrayInputStream(bytes);
+
+        uploader.upload(uploader.readFirstPart(data), data);
+
+        assertEquals(3, failures.get());
+        assertArrayEquals(bytes, IoUtils.toByteArray(new File(root, "retry.bin")));
+    }
+
+    @Test
+    public void abortAfterRetries() throws IOException {
+        AtomicInteger aborts = new AtomicInteger();
+        LocalStorageItem item = new LocalStorageItem() {
+
+            @Override
+            public String saveDataPart(String uploadId, int partNumber, long offset, byte[] data, int length) throws IOException {
+                throw new IOException("Simulated failure!");
+            }
+
+            @Override
+            public void abortMultipartUpload(String uploadId) throws IOException {
+                aborts.incrementAndGet();
+                super.abortMultipartUpload(uploadId);
+            }
+
+            @Override
+            public void completeMultipartUpload(String uploadId, List<String> partTags) throws IOException {
+                throw new AssertionError("Shouldn't complete!");
+            }
+        };
+
+        item.setRootPath(root.getPath());
+        item.setPath("abort.bin");
+
+        StorageItemMultipartUploader uploader = new StorageItemMultipartUploader(item, 1024, 2, 1);
+        ByteArrayInputStream data = new ByteArrayInputStream(randomBytes(4096));
+        boolean failed = false;
+
+        try {
+            uploader.upload(uploader.readFirstPart(data), data);
+
+        } catch (IOException error) {
+            failed = true;
+        }
+
+        assertTrue(failed);
+        assertEquals(1, aborts.get());
+        assertFalse(new File(root, "abort.bin").exists());
+        assertEquals(0, root.list().length);
+    }
+}
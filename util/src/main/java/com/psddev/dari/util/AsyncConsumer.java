@@ -1,5 +1,12 @@
 package com.psddev.dari.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,19 +23,33 @@ import org.slf4j.LoggerFactory;
  *
  * <ul>
  * <li>{@link #beforeStart}
+ * <li>{@link #consumeBatch}
  * <li>{@link #handleError}
  * <li>{@link #finished}
+ *
+ * <p>If the {@linkplain #setBatchSize batch size} is greater than
+ * {@code 1}, items are removed from the input queue in batches through
+ * {@link AsyncQueue#drainTo} and passed to {@link #consumeBatch}.
  */
 public abstract class AsyncConsumer<E> extends Task {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncConsumer.class);
 
+    /** Default amount of time to wait for a batch to fill up. */
+    public static final long DEFAULT_BATCH_TIMEOUT = 10L;
+
     private final AsyncQueue<E> input;
+    private int batchSize = 1;
+    private long batchTimeout = DEFAULT_BATCH_TIMEOUT;
 
     private long consumeCount;
     private long consumeDuration;
     private long errorCount;
 
+    // Items in the current batch that were already passed to handleError
+    // through handleBatchError.
+    private final Set<E> batchErrorItems = Collections.newSetFromMap(new IdentityHashMap<E, Boolean>());
+
     /**
      * Creates an instance that runs in the given {@code executor} and
      * consumes items in the given {@code input} queue.
@@ -56,6 +77,37 @@ public abstract class AsyncConsumer<E> extends Task {
         return input;
     }
 
+    /** Returns the maximum number of items passed to {@link #consumeBatch}. */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of items passed to {@link #consumeBatch}.
+     *
+     * @param batchSize If less than or equal to {@code 1}, items are
+     *        consumed one at a time.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the maximum amount of time in milliseconds to wait for a
+     * batch to fill up before consuming what's available.
+     */
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    /**
+     * Sets the maximum amount of time in milliseconds to wait for a
+     * batch to fill up before consuming what's available.
+     */
+    public void setBatchTimeout(long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
     public long getConsumeCount() {
         return consumeCount;
     }
@@ -79,6 +131,41 @@ public abstract class AsyncConsumer<E> extends Task {
     /** Called to consume the given {@code item}. */
     protected abstract void consume(E item) throws Exception;
 
+    /**
+     * Called to consume the given batch of {@code items} when the
+     * {@linkplain #getBatchSize batch size} is greater than {@code 1}.
+     * Default implementation calls {@link #consume} and, if necessary,
+     * {@link #handleError} with each item.
+     *
+     * <p>If this method throws an exception, {@link #handleError} is
+     * called with each item in the batch that wasn't already passed to
+     * {@link #handleBatchError}.</p>
+     *
+     * @param items Never {@code null} or empty. Reused after this method
+     *        returns, so it shouldn't be retained.
+     */
+    protected void consumeBatch(List<E> items) throws Exception {
+        for (E item : items) {
+            try {
+                consume(item);
+
+            } catch (Exception ex) {
+                handleBatchError(item, ex);
+            }
+        }
+    }
+
+    /**
+     * Counts the given {@code error} that occurred while consuming the
+     * given {@code item} within {@link #consumeBatch} and calls
+     * {@link #handleError}.
+     */
+    protected final void handleBatchError(E item, Exception error) {
+        ++ errorCount;
+        batchErrorItems.add(item);
+        handleError(item, error);
+    }
+
     /**
      * Called to handle the given {@code error} that occurred during
      * {@link #consume}. Default implementation logs the error at the
@@ -103,22 +190,27 @@ public abstract class AsyncConsumer<E> extends Task {
         beforeStart();
 
         try {
-            for (E item;
-                    shouldContinue() && (item = input.remove()) != null;
-                    addProgressIndex(1)) {
+            if (batchSize > 1) {
+                consumeBatches();
+
+            } else {
+                for (E item;
+                        shouldContinue() && (item = input.remove()) != null;
+                        addProgressIndex(1)) {
 
-                try {
-                    long startTime = System.nanoTime();
                     try {
-                        consume(item);
-                        ++ consumeCount;
-                    } finally {
-                        consumeDuration += System.nanoTime() - startTime;
-                    }
+                        long startTime = System.nanoTime();
+                        try {
+                            consume(item);
+                            ++ consumeCount;
+                        } finally {
+                            consumeDuration += System.nanoTime() - startTime;
+                        }
 
-                } catch (Exception ex) {
-                    ++ errorCount;
-                    handleError(item, ex);
+                    } catch (Exception ex) {
+                        ++ errorCount;
+                        handleError(item, ex);
+                    }
                 }
             }
 
@@ -126,4 +218,44 @@ public abstract class AsyncConsumer<E> extends Task {
             finished();
         }
     }
+
+    private void consumeBatches() {
+        List<E> items = new ArrayList<E>(batchSize);
+
+        while (shouldContinue()) {
+            int count = input.drainTo(items, batchSize, batchTimeout, TimeUnit.MILLISECONDS);
+
+            if (count < 0) {
+                break;
+
+            } else if (count == 0) {
+                continue;
+            }
+
+            long oldErrorCount = errorCount;
+
+            try {
+                long startTime = System.nanoTime();
+                try {
+                    consumeBatch(items);
+                    consumeCount += count - (errorCount - oldErrorCount);
+                } finally {
+                    consumeDuration += System.nanoTime() - startTime;
+                }
+
+            } catch (Exception ex) {
+                for (E item : items) {
+                    if (!batchErrorItems.contains(item)) {
+                        ++ errorCount;
+                        handleError(item, ex);
+                    }
+                }
+
+            } finally {
+                batchErrorItems.clear();
+                items.clear();
+                addProgressIndex(count);
+            }
+        }
+    }
 }
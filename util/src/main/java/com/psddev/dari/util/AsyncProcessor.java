@@ -1,5 +1,8 @@
 package com.psddev.dari.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +20,7 @@ import org.slf4j.LoggerFactory;
  *
  * <ul>
  * <li>{@link #beforeStart}
+ * <li>{@link #processBatch}
  * <li>{@link #handleError}
  * <li>{@link #finished}
  */
@@ -62,6 +66,32 @@ public abstract class AsyncProcessor<S, D> extends AsyncConsumer<S> {
     /** Called to process the given {@code item}. */
     protected abstract D process(S item) throws Exception;
 
+    /**
+     * Called to process the given batch of {@code items} when the
+     * {@linkplain #getBatchSize batch size} is greater than {@code 1}.
+     * Default implementation calls {@link #process} and, if necessary,
+     * {@link #handleError} with each item.
+     *
+     * @param items Never {@code null} or empty. Reused after this method
+     *        returns, so it shouldn't be retained.
+     * @return Never {@code null}. {@code null} items won't be added to
+     *         the output queue.
+     */
+    protected List<D> processBatch(List<S> items) throws Exception {
+        List<D> processed = new ArrayList<D>(items.size());
+
+        for (S item : items) {
+            try {
+                processed.add(process(item));
+
+            } catch (Exception error) {
+                handleBatchError(item, error);
+            }
+        }
+
+        return processed;
+    }
+
     // --- AsyncConsumer support ---
 
     @Override
@@ -69,6 +99,11 @@ public abstract class AsyncProcessor<S, D> extends AsyncConsumer<S> {
         output.add(process(item));
     }
 
+    @Override
+    protected final void consumeBatch(List<S> items) throws Exception {
+        output.addAll(processBatch(items));
+    }
+
     @Override
     protected void handleError(S item, Exception error) {
         LOGGER.warn(String.format("Failed to process [%s]!", item), error);
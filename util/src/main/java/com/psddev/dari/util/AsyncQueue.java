@@ -1,5 +1,6 @@
 package com.psddev.dari.util;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -19,6 +20,8 @@ public class AsyncQueue<E> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQueue.class);
 
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
     private final String id = UUID.randomUUID().toString();
     private final BlockingQueue<E> queue;
     private boolean isCloseAutomatically;
@@ -82,6 +85,58 @@ public class AsyncQueue<E> {
         }
     }
 
+    /**
+     * Adds all given {@code items} to this queue. This is equivalent to
+     * calling {@link #add} with each item, but the statistics are only
+     * updated once for the whole batch. This method may block until more
+     * space becomes available in this queue. If interrupted while blocked,
+     * this queue will be closed.
+     *
+     * @param items Can't be {@code null}. {@code null} items won't be
+     *        added.
+     * @return Number of items that were added successfully.
+     * @throws IllegalStateException If this queue is closed.
+     */
+    public int addAll(Collection<? extends E> items) {
+        if (isClosed()) {
+            throw new IllegalStateException("Can't add to a closed queue!");
+        }
+
+        long startTime = System.nanoTime();
+        int successCount = 0;
+        int failureCount = 0;
+
+        try {
+            for (E item : items) {
+                if (item == null) {
+                    ++ failureCount;
+                    continue;
+                }
+
+                if (!queue.offer(item)) {
+                    while (true) {
+                        try {
+                            if (queue.offer(item, 10, TimeUnit.MILLISECONDS)) {
+                                break;
+                            }
+                        } catch (InterruptedException ex) {
+                            handleInterrupt(item, ex);
+                        }
+                    }
+                }
+
+                ++ successCount;
+            }
+
+            return successCount;
+
+        } finally {
+            addSuccessCount.addAndGet(successCount);
+            addFailureCount.addAndGet(failureCount);
+            addWait.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
     /**
      * Removes an item from this queue and returns it. This method may
      * block until more items become available in this queue. If interrupted
@@ -120,6 +175,62 @@ public class AsyncQueue<E> {
         }
     }
 
+    /**
+     * Removes up to {@code max} items from this queue into the given
+     * {@code items}. This method blocks until {@code max} items have been
+     * removed, the given {@code timeout} elapses, or this queue is closed
+     * and empty, whichever happens first. If interrupted while blocked,
+     * this queue will be closed.
+     *
+     * @param items Can't be {@code null}.
+     * @param max Maximum number of items to remove.
+     * @param timeout Maximum amount of time to wait for more items.
+     * @param unit Can't be {@code null}.
+     * @return Number of items removed, or {@code -1} if there aren't any
+     *         more items, which also implies that this queue is closed.
+     */
+    public int drainTo(Collection<? super E> items, int max, long timeout, TimeUnit unit) {
+        long startTime = System.nanoTime();
+        long deadline = startTime + unit.toNanos(timeout);
+        int count = 0;
+
+        try {
+            while (true) {
+                count += queue.drainTo(items, max - count);
+
+                if (count >= max) {
+                    return count;
+
+                } else if (isClosed()) {
+                    count += queue.drainTo(items, max - count);
+                    return count > 0 ? count : -1;
+                }
+
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0L) {
+                    return count;
+                }
+
+                try {
+                    E item = queue.poll(Math.min(remaining, POLL_INTERVAL), TimeUnit.NANOSECONDS);
+
+                    if (item != null) {
+                        items.add(item);
+                        ++ count;
+                    }
+
+                } catch (InterruptedException ex) {
+                    handleInterrupt(null, ex);
+                }
+            }
+
+        } finally {
+            removeCount.addAndGet(count);
+            removeWait.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
     public void closeAutomatically() {
         if (producers.isEmpty()) {
             close();
@@ -0,0 +1,214 @@
+package com.psddev.dari.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Histogram of non-negative values, typically latencies in microseconds,
+ * that's cheap enough to record into from many threads at once.
+ *
+ * <p>Values are counted in logarithmic buckets that each cover 1/8 of
+ * a power of two, so that the percentiles are accurate to within 12.5%
+ * across the whole range, which is up to 2<sup>41</sup> (about 25 days
+ * in microseconds). Larger values are clamped.</p>
+ *
+ * <p>Each thread records into one of several striped sets of counters
+ * that are allocated on first use, and all stripes are merged when
+ * a {@link #snapshot} is taken.</p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAXIMUM_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAXIMUM_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    private static final long MAXIMUM_VALUE = (1L << (MAXIMUM_EXPONENT + 1)) - 1;
+    private static final int STRIPE_COUNT;
+
+    static {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        int stripeCount = 1;
+
+        while (stripeCount < processors) {
+            stripeCount <<= 1;
+        }
+
+        STRIPE_COUNT = stripeCount;
+    }
+
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<Stripe>(STRIPE_COUNT);
+
+    // Returns the index of the bucket that the given value belongs in.
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    // Returns the largest value that belongs in the bucket at the given
+    // index.
+    static long getBucketMaximum(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records the given {@code value}.
+     *
+     * @param value Negative values are recorded as {@code 0}.
+     */
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+
+        } else if (value > MAXIMUM_VALUE) {
+            value = MAXIMUM_VALUE;
+        }
+
+        int stripeIndex = (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+        Stripe stripe = stripes.get(stripeIndex);
+
+        if (stripe == null) {
+            stripes.compareAndSet(stripeIndex, null, new Stripe());
+            stripe = stripes.get(stripeIndex);
+        }
+
+        stripe.counts.incrementAndGet(getBucketIndex(value));
+
+        for (long maximum; value > (maximum = stripe.maximum.get());) {
+            if (stripe.maximum.compareAndSet(maximum, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Removes all recorded values. Values recorded concurrently may or
+     * may not be removed.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPE_COUNT; ++ i) {
+            Stripe stripe = stripes.get(i);
+
+            if (stripe != null) {
+                for (int b = 0; b < BUCKET_COUNT; ++ b) {
+                    stripe.counts.set(b, 0L);
+                }
+
+                stripe.maximum.set(0L);
+            }
+        }
+    }
+
+    /**
+     * Merges all recorded values into a point-in-time snapshot.
+     *
+     * @return Never {@code null}.
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+
+        for (int i = 0; i < STRIPE_COUNT; ++ i) {
+            Stripe stripe = stripes.get(i);
+
+            if (stripe != null) {
+                for (int b = 0; b < BUCKET_COUNT; ++ b) {
+                    long count = stripe.counts.get(b);
+
+                    snapshot.counts[b] += count;
+                    snapshot.count += count;
+                }
+
+                snapshot.maximum = Math.max(snapshot.maximum, stripe.maximum.get());
+            }
+        }
+
+        return snapshot;
+    }
+
+    private static class Stripe {
+
+        public final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        public final AtomicLong maximum = new AtomicLong();
+    }
+
+    /** Point-in-time copy of the values recorded in a {@link LatencyHistogram}. */
+    public static class Snapshot {
+
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long count;
+        private long maximum;
+
+        /** Returns the number of recorded values. */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return {@code 0} if there aren't any values.
+         */
+        public long getMaximum() {
+            return maximum;
+        }
+
+        /**
+         * Returns the value that the given {@code percentile} of all
+         * recorded values are less than or equal to.
+         *
+         * @param percentile Between {@code 0.0} and {@code 100.0}.
+         * @return {@code 0} if there aren't any values.
+         */
+        public long getValueAtPercentile(double percentile) {
+            Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0);
+
+            if (count == 0L) {
+                return 0L;
+            }
+
+            long target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0L;
+
+            for (int b = 0; b < BUCKET_COUNT; ++ b) {
+                seen += counts[b];
+
+                if (seen >= target) {
+                    return Math.min(getBucketMaximum(b), maximum);
+                }
+            }
+
+            return maximum;
+        }
+
+        /**
+         * Adds all values from the given {@code other} snapshot into this
+         * one.
+         *
+         * @param other Can't be {@code null}.
+         * @return This snapshot.
+         */
+        public Snapshot add(Snapshot other) {
+            for (int b = 0; b < BUCKET_COUNT; ++ b) {
+                counts[b] += other.counts[b];
+            }
+
+            count += other.count;
+            maximum = Math.max(maximum, other.maximum);
+            return this;
+        }
+    }
+}
@@ -428,6 +428,16 @@ public abstract class ObjectUtils {
         return JSON_PROCESSOR.parse(bytes);
     }
 
+    /**
+     * Parses the JSON from the given {@code stream} into an object,
+     * without reading all of it into memory first.
+     *
+     * @see JsonProcessor#parse(InputStream)
+     */
+    public static Object fromJson(InputStream stream) throws IOException {
+        return JSON_PROCESSOR.parse(stream);
+    }
+
     /**
      * Generates a JSON string based on the given {@code object}.
      *
@@ -7,6 +7,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 
 import javax.servlet.FilterChain;
@@ -17,9 +18,20 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * Automatically uses {@link Profiler} to keep track of all events
  * that occur during a HTTP request.
+ *
+ * <p>Outside of {@linkplain Settings#isDebug debug mode}, a fraction of
+ * the requests, configured through {@link #SAMPLE_RATE_SETTING}, is
+ * profiled with a {@link SamplingProfiler} instead.</p>
  */
 public class ProfilerFilter extends AbstractFilter {
 
+    /**
+     * Setting key for the fraction of requests, between {@code 0.0} and
+     * {@code 1.0}, that should be profiled with a {@link SamplingProfiler}
+     * when not in debug mode.
+     */
+    public static final String SAMPLE_RATE_SETTING = "dari/profilerSampleRate";
+
     private static final String ATTRIBUTE_PREFIX = ProfilerFilter.class.getName() + ".";
     private static final String PROFILER_ATTRIBUTE = ATTRIBUTE_PREFIX + "profiler";
 
@@ -33,11 +45,30 @@ public class ProfilerFilter extends AbstractFilter {
         if (Settings.isDebug()) {
             super.doDispatch(request, response, chain);
 
+        } else if (Profiler.Static.getThreadProfiler() == null && isSampled()) {
+            Profiler profiler = new SamplingProfiler();
+
+            try {
+                Profiler.Static.setThreadProfiler(profiler);
+                profiler.startEvent("Request");
+                chain.doFilter(request, response);
+
+            } finally {
+                profiler.stopEvent();
+                Profiler.Static.setThreadProfiler(null);
+            }
+
         } else {
             chain.doFilter(request, response);
         }
     }
 
+    private boolean isSampled() {
+        double sampleRate = Settings.getOrDefault(double.class, SAMPLE_RATE_SETTING, 0.0);
+
+        return sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
     private MarkingProfiler getOrCreateMarkingProfiler(HttpServletRequest request) {
         MarkingProfiler profiler = (MarkingProfiler) request.getAttribute(PROFILER_ATTRIBUTE);
 
@@ -0,0 +1,63 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * {@link Profiler} for the requests that {@link ProfilerFilter} samples in
+ * production.
+ *
+ * <p>Unlike the base profiler, it doesn't keep the event tree or the
+ * associated objects around. Each event is only timed and published to
+ * the {@link Stats} returned by {@link #getStats}, where it can be seen
+ * through {@link StatsDebugServlet}. Instrumented code should also avoid
+ * expensive work, such as walking the stack to find the caller, when
+ * this profiler is active, and instead include a cheap identifier of the
+ * call site in the event name.</p>
+ *
+ * <p>This class is NOT thread-safe.</p>
+ */
+public class SamplingProfiler extends Profiler {
+
+    private static final Stats STATS = new Stats("Sampled Profiler");
+
+    private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+    private final ArrayDeque<Stats.Timer> timers = new ArrayDeque<Stats.Timer>();
+
+    /**
+     * Returns the stats that all sampled events are published to.
+     *
+     * @return Never {@code null}.
+     */
+    public static Stats getStats() {
+        return STATS;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The given {@code objects} are ignored.</p>
+     */
+    @Override
+    public Event startEvent(String name, Object... objects) {
+        Event event = new Event(null, name);
+
+        events.addFirst(event);
+        timers.addFirst(STATS.startTimer());
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The given {@code objects} are ignored.</p>
+     */
+    @Override
+    public Event stopEvent(Object... objects) {
+        Event current = events.removeFirst();
+        String name = current.getName();
+
+        current.stop();
+        timers.removeFirst().stop(name);
+        return current;
+    }
+}
@@ -228,6 +228,8 @@ public class Stats {
         private final AtomicDouble totalDuration = new AtomicDouble();
         private final List<ExponentialMovingAverage> countAverages = new ArrayList<ExponentialMovingAverage>();
         private final List<ExponentialMovingAverage> durationAverages = new ArrayList<ExponentialMovingAverage>();
+        private final LatencyHistogram durationHistogram = new LatencyHistogram();
+        private final List<WindowedHistogram> durationWindows = new ArrayList<WindowedHistogram>();
 
         {
             double keepDuration = getKeepDuration();
@@ -236,6 +238,7 @@ public class Stats {
             for (double averageInterval : getAverageIntervals()) {
                 countAverages.add(new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval));
                 durationAverages.add(new ExponentialMovingAverage(keepDuration, measureInterval, averageInterval));
+                durationWindows.add(new WindowedHistogram((long) (averageInterval * 1e9)));
             }
         }
 
@@ -290,6 +293,27 @@ public class Stats {
                     countAverages.get(intervalIndex).getAverages().subIterable(begin, end));
         }
 
+        /**
+         * Returns the histogram of all durations in microseconds.
+         *
+         * @return Never {@code null}.
+         */
+        public LatencyHistogram.Snapshot getOverallDurationHistogram() {
+            return durationHistogram.snapshot();
+        }
+
+        /**
+         * Returns the histogram of the recent durations in microseconds
+         * within the interval identified by the given
+         * {@code intervalIndex}. To keep recording cheap, the histogram
+         * covers between one and two intervals.
+         *
+         * @return Never {@code null}.
+         */
+        public LatencyHistogram.Snapshot getCurrentDurationHistogram(int intervalIndex) {
+            return durationWindows.get(intervalIndex).snapshot(System.nanoTime());
+        }
+
         /**
          * Updates all count and duration averages based on the given
          * {@code end} and {@code duration}.
@@ -313,6 +337,65 @@ public class Stats {
             for (ExponentialMovingAverage durationAverage : durationAverages) {
                 durationAverage.updateAt(end, duration);
             }
+
+            long micros = (long) (duration * 1e6);
+
+            durationHistogram.record(micros);
+
+            for (WindowedHistogram durationWindow : durationWindows) {
+                durationWindow.record(end, micros);
+            }
+        }
+    }
+
+    // Histogram over a tumbling window that keeps the previous window
+    // around so that reads always cover at least one full interval.
+    private static class WindowedHistogram {
+
+        private final long interval;
+        private volatile long windowStart = System.nanoTime();
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous = new LatencyHistogram();
+
+        public WindowedHistogram(long interval) {
+            this.interval = interval;
+        }
+
+        private void rotate(long now) {
+            if (now - windowStart < interval) {
+                return;
+            }
+
+            synchronized (this) {
+                long elapsed = now - windowStart;
+
+                if (elapsed < interval) {
+                    return;
+
+                } else if (elapsed < interval * 2) {
+                    LatencyHistogram oldPrevious = previous;
+
+                    oldPrevious.reset();
+                    previous = current;
+                    current = oldPrevious;
+                    windowStart += interval;
+
+                } else {
+                    current.reset();
+                    previous.reset();
+                    windowStart = now;
+                }
+            }
+        }
+
+        public void record(long end, long value) {
+            rotate(end);
+            current.record(value);
+        }
+
+        public LatencyHistogram.Snapshot snapshot(long now) {
+            rotate(now);
+            return current.snapshot().add(previous.snapshot());
         }
     }
 
@@ -15,6 +15,8 @@ import javax.servlet.http.HttpServletResponse;
 @SuppressWarnings("serial")
 public class StatsDebugServlet extends HttpServlet {
 
+    private static final double[] PERCENTILES = { 50.0, 95.0, 99.0 };
+
     private enum Type {
         COUNT,
         DURATION
@@ -239,6 +241,41 @@ public class StatsDebugServlet extends HttpServlet {
                         writeEnd();
                     writeEnd();
 
+                    writeStart("h3").writeHtml("Latency Percentiles (ms)").writeEnd();
+                    writeStart("table", "class", "table table-condensed");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Operation").writeEnd();
+                                for (double averageInterval : stats.getAverageIntervals()) {
+                                    writeStart("th", "colspan", PERCENTILES.length + 1).writeHtml("Over ").writeObject((int) averageInterval).writeHtml("s").writeEnd();
+                                }
+                                writeStart("th", "colspan", PERCENTILES.length + 1).writeHtml("Over All").writeEnd();
+                            writeEnd();
+                            writeStart("tr");
+                                writeStart("th").writeEnd();
+                                for (int j = 0, size = stats.getAverageIntervals().size(); j <= size; ++ j) {
+                                    for (double percentile : PERCENTILES) {
+                                        writeStart("th").writeHtml("p").writeObject((int) percentile).writeEnd();
+                                    }
+                                    writeStart("th").writeHtml("max").writeEnd();
+                                }
+                            writeEnd();
+                        writeEnd();
+                        writeStart("tbody");
+                            for (Map.Entry<String, Stats.Measurement> entry : stats.getMeasurements().entrySet()) {
+                                Stats.Measurement measurement = entry.getValue();
+
+                                writeStart("tr");
+                                    writeStart("th").writeHtml(entry.getKey()).writeEnd();
+                                    for (int j = 0, size = stats.getAverageIntervals().size(); j < size; ++ j) {
+                                        writePercentiles(measurement.getCurrentDurationHistogram(j));
+                                    }
+                                    writePercentiles(measurement.getOverallDurationHistogram());
+                                writeEnd();
+                            }
+                        writeEnd();
+                    writeEnd();
+
                     if (i.hasNext()) {
                         writeElement("hr");
                     }
@@ -264,6 +301,20 @@ public class StatsDebugServlet extends HttpServlet {
                 writeEnd();
             }
 
+            private void writePercentiles(LatencyHistogram.Snapshot histogram) throws IOException {
+                if (histogram.getCount() == 0L) {
+                    for (int j = 0; j <= PERCENTILES.length; ++ j) {
+                        writeStart("td").writeStart("span", "class", "label").writeHtml("N/A").writeEnd().writeEnd();
+                    }
+
+                } else {
+                    for (double percentile : PERCENTILES) {
+                        writeStart("td").writeObject(histogram.getValueAtPercentile(percentile) / 1e3).writeEnd();
+                    }
+                    writeStart("td").writeObject(histogram.getMaximum() / 1e3).writeEnd();
+                }
+            }
+
             private void writeCountAndDuration(Stats stats, String operation, int intervalIndex, double count, double duration) throws IOException {
                 boolean link = intervalIndex >= 0;
                 String statsName = stats.getName();
@@ -51,6 +51,31 @@ public class TaskDebugServlet extends HttpServlet {
 
                     writeStart("h2").writeHtml(executor.getName()).writeEnd();
 
+                    int maximumThreads = executor.getMaximumThreads();
+                    long blockedCount = executor.getBlockedCount();
+
+                    writeStart("p");
+                        writeHtml("Threads: ");
+                        writeStart("strong").writeObject(executor.getActiveThreadCount()).writeEnd();
+                        writeHtml(" active / ");
+                        writeStart("strong").writeObject(executor.getPoolSize()).writeEnd();
+                        writeHtml(" pooled / ");
+                        writeStart("strong").writeHtml(maximumThreads > 0 ? String.valueOf(maximumThreads) : "unbounded").writeEnd();
+                        writeHtml(" maximum; Queued: ");
+                        writeStart("strong").writeObject(executor.getQueueSize()).writeEnd();
+                        writeHtml("; Blocked: ");
+                        writeStart("strong").writeObject(blockedCount).writeEnd();
+
+                        if (blockedCount > 0) {
+                            writeHtml(" (");
+                            writeStart("strong").writeObject(((double) executor.getBlockedWait()) / blockedCount / 1e6).writeEnd();
+                            writeHtml(" ms/block)");
+                        }
+
+                        writeHtml("; Rejected: ");
+                        writeStart("strong").writeObject(executor.getRejectedCount()).writeEnd();
+                    writeEnd();
+
                     writeStart("form", "method", "post", "style", "position: absolute; right: 0; top: 0;");
                         writeElement("input",
                                 "name", "executor",
@@ -6,14 +6,22 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -26,16 +34,66 @@ import org.slf4j.LoggerFactory;
 
 /**
  * {@link ScheduledExecutorService} optimized for use with {@link Task}.
+ *
+ * <p>By default, a new thread is created for every task that's submitted
+ * while all others are busy. The number of threads can be bounded per
+ * executor through the settings under {@code dari/taskExecutor/{name}}
+ * (or {@code dari/taskExecutor/_default} for all executors):</p>
+ *
+ * <ul>
+ * <li>{@code maximumThreads} - Maximum number of threads.
+ * <li>{@code queueSize} - Number of tasks that can wait for a thread
+ *     before the callers that submit more tasks are blocked.
+ * <li>{@code workStealing} - {@code true} to use a work-stealing
+ *     {@link ForkJoinPool} instead of a thread pool.
+ * </ul>
+ *
+ * <p>Note that long-running tasks, such as {@link AsyncConsumer}s, hold
+ * on to their threads, so the bounds must allow for all tasks in a
+ * pipeline to run at the same time.</p>
+ *
+ * <p>All submission methods, including {@link #invokeAll} and
+ * {@link #invokeAny}, count against the same bounds. A task that submits
+ * more tasks to its own bounded executor and waits for them can block
+ * forever once all threads and queue slots are taken by such tasks, so
+ * nested work should go to a different executor.</p>
  */
 public final class TaskExecutor implements ScheduledExecutorService {
 
+    /** Setting key for all task executor configuration. */
+    public static final String SETTING_PREFIX = "dari/taskExecutor";
+
+    /** Name of the settings that apply to all task executors. */
+    public static final String DEFAULT_SETTINGS_NAME = "_default";
+
+    /** Sub-setting key for the maximum number of threads. */
+    public static final String MAXIMUM_THREADS_SUB_SETTING = "maximumThreads";
+
+    /**
+     * Sub-setting key for the number of tasks that can wait for a thread
+     * before the callers are blocked.
+     */
+    public static final String QUEUE_SIZE_SUB_SETTING = "queueSize";
+
+    /** Sub-setting key for whether a work-stealing pool should be used. */
+    public static final String WORK_STEALING_SUB_SETTING = "workStealing";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutor.class);
 
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
     private final String name;
+    private final int maximumThreads;
     private final ExecutorService executor;
     private final ScheduledExecutorService scheduledExecutor;
     private final List<WeakReference<Object>> tasks = new ArrayList<WeakReference<Object>>();
 
+    private final Semaphore permits;
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedWait = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final ExecutorService invoker = new BoundedInvoker();
+
     /**
      * Creates an instance with the given {@code name}. This should only
      * be called within {@link Static#getInstance} which makes sure that
@@ -52,9 +110,51 @@ public final class TaskExecutor implements ScheduledExecutorService {
         LOGGER.info("Creating [{}]", name);
 
         TaskThreadFactory threadFactory = new TaskThreadFactory(name);
+        int maximumThreads = getSetting(name, int.class, MAXIMUM_THREADS_SUB_SETTING);
+        int queueSize = Math.max(0, getSetting(name, int.class, QUEUE_SIZE_SUB_SETTING));
+        boolean workStealing = getSetting(name, boolean.class, WORK_STEALING_SUB_SETTING);
+
         this.name = name;
-        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+
+        if (workStealing) {
+            this.maximumThreads = maximumThreads > 0 ? maximumThreads : Runtime.getRuntime().availableProcessors();
+            this.executor = new ForkJoinPool(this.maximumThreads, threadFactory, null, true);
+            this.permits = maximumThreads > 0 ? new Semaphore(maximumThreads + queueSize) : null;
+
+        } else if (maximumThreads > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maximumThreads, maximumThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+
+            pool.allowCoreThreadTimeOut(true);
+
+            this.maximumThreads = maximumThreads;
+            this.executor = pool;
+            this.permits = new Semaphore(maximumThreads + queueSize);
+
+        } else {
+            this.maximumThreads = 0;
+            this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+            this.permits = null;
+        }
+
         this.scheduledExecutor = new ScheduledThreadPoolExecutor(5, threadFactory);
+
+        if (this.maximumThreads > 0) {
+            LOGGER.info(
+                    "Bounding [{}] to [{}] threads and [{}] queued tasks{}",
+                    new Object[] { name, this.maximumThreads, queueSize, workStealing ? " with work-stealing" : "" });
+        }
+    }
+
+    // Returns the setting specific to the executor with the given name,
+    // or the one for all executors.
+    private static <T> T getSetting(String name, Class<T> returnClass, String subSetting) {
+        Object value = Settings.get(SETTING_PREFIX + "/" + name + "/" + subSetting);
+
+        if (value == null) {
+            value = Settings.get(SETTING_PREFIX + "/" + DEFAULT_SETTINGS_NAME + "/" + subSetting);
+        }
+
+        return ObjectUtils.to(returnClass, value);
     }
 
     /** Returns the unique name of this task executor. */
@@ -79,6 +179,78 @@ public final class TaskExecutor implements ScheduledExecutorService {
         return tasks;
     }
 
+    /**
+     * Returns the maximum number of threads used to run the submitted
+     * tasks.
+     *
+     * @return {@code 0} if unbounded.
+     */
+    public int getMaximumThreads() {
+        return maximumThreads;
+    }
+
+    /** Returns the approximate number of threads that are running tasks. */
+    public int getActiveThreadCount() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+
+        } else if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getActiveThreadCount();
+
+        } else {
+            return 0;
+        }
+    }
+
+    /** Returns the number of threads in the pool. */
+    public int getPoolSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+
+        } else if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getPoolSize();
+
+        } else {
+            return 0;
+        }
+    }
+
+    /** Returns the approximate number of tasks waiting for a thread. */
+    public long getQueueSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+
+        } else if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+
+            return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+
+        } else {
+            return 0L;
+        }
+    }
+
+    /**
+     * Returns the number of times that a caller was blocked because the
+     * queue was full.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * Returns the total amount of time in nanoseconds that the callers
+     * were blocked because the queue was full.
+     */
+    public long getBlockedWait() {
+        return blockedWait.get();
+    }
+
+    /** Returns the number of tasks that were rejected. */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
     /** Tries to pause all tasks currently running in this executor. */
     public void pauseTasks() {
         for (Object task : getTasks()) {
@@ -148,7 +320,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
         for (Callable<?> callable : callables) {
             addTask(callable);
         }
-        return executor.invokeAll(callables);
+        return invoker.invokeAll(callables);
     }
 
     @Override
@@ -156,7 +328,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
         for (Callable<?> callable : callables) {
             addTask(callable);
         }
-        return executor.invokeAll(callables, timeout, unit);
+        return invoker.invokeAll(callables, timeout, unit);
     }
 
     @Override
@@ -164,7 +336,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
         for (Callable<?> callable : callables) {
             addTask(callable);
         }
-        return executor.invokeAny(callables);
+        return invoker.invokeAny(callables);
     }
 
     @Override
@@ -172,7 +344,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
         for (Callable<?> callable : callables) {
             addTask(callable);
         }
-        return executor.invokeAny(callables, timeout, unit);
+        return invoker.invokeAny(callables, timeout, unit);
     }
 
     @Override
@@ -218,28 +390,127 @@ public final class TaskExecutor implements ScheduledExecutorService {
         return remaining;
     }
 
+    // Executes the given runnable, blocking the caller if this executor is
+    // bounded and its queue is full.
+    private void executeBounded(Runnable runnable) {
+        if (permits == null) {
+            try {
+                executor.execute(runnable);
+
+            } catch (RejectedExecutionException error) {
+                rejectedCount.incrementAndGet();
+                throw error;
+            }
+
+            return;
+        }
+
+        if (!permits.tryAcquire()) {
+            long startTime = System.nanoTime();
+
+            blockedCount.incrementAndGet();
+
+            try {
+                permits.acquire();
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException(String.format(
+                        "Interrupted while waiting to execute [%s] in [%s]!",
+                        runnable, name), error);
+
+            } finally {
+                blockedWait.addAndGet(System.nanoTime() - startTime);
+            }
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    runnable.run();
+
+                } finally {
+                    permits.release();
+                }
+            });
+
+        } catch (RejectedExecutionException error) {
+            permits.release();
+            rejectedCount.incrementAndGet();
+            throw error;
+        }
+    }
+
     @Override
     public <T> Future<T> submit(Callable<T> callable) {
         addTask(callable);
-        return executor.submit(callable);
+
+        RunnableFuture<T> future = new FutureTask<T>(callable);
+
+        executeBounded(future);
+        return future;
     }
 
     @Override
     public Future<?> submit(Runnable runnable) {
         addTask(runnable);
-        return executor.submit(runnable);
+
+        RunnableFuture<Object> future = new FutureTask<Object>(runnable, null);
+
+        executeBounded(future);
+        return future;
     }
 
     @Override
     public <T> Future<T> submit(Runnable runnable, T result) {
         addTask(runnable);
-        return executor.submit(runnable, result);
+
+        RunnableFuture<T> future = new FutureTask<T>(runnable, result);
+
+        executeBounded(future);
+        return future;
     }
 
     @Override
     public void execute(Runnable runnable) {
         addTask(runnable);
-        executor.execute(runnable);
+        executeBounded(runnable);
+    }
+
+    // Runs invokeAll and invokeAny through the bounded execute so that
+    // they're subject to the same permits and rejection metrics.
+    private class BoundedInvoker extends AbstractExecutorService {
+
+        @Override
+        public void execute(Runnable runnable) {
+            executeBounded(runnable);
+        }
+
+        @Override
+        public void shutdown() {
+            TaskExecutor.this.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return TaskExecutor.this.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return TaskExecutor.this.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return TaskExecutor.this.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return TaskExecutor.this.awaitTermination(timeout, unit);
+        }
     }
 
     /** {@link TaskExecutor} utility methods. */
@@ -289,7 +560,7 @@ public final class TaskExecutor implements ScheduledExecutorService {
     }
 
     /** Thread factory optimized for use with {@link Task}. */
-    private static class TaskThreadFactory implements ThreadFactory {
+    private static class TaskThreadFactory implements ThreadFactory, ForkJoinPool.ForkJoinWorkerThreadFactory {
 
         private static final AtomicLong THREAD_INDEX = new AtomicLong();
 
@@ -321,6 +592,24 @@ public final class TaskExecutor implements ScheduledExecutorService {
             thread.setPriority(Thread.NORM_PRIORITY);
             return thread;
         }
+
+        // --- ForkJoinWorkerThreadFactory support ---
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) { };
+            String threadName;
+
+            if (Static.DEFAULT_INSTANCE_NAME.equals(name)) {
+                threadName = "Worker #";
+            } else {
+                threadName = name + ": Worker #";
+            }
+
+            thread.setName(threadName + THREAD_INDEX.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     // --- Deprecated ---
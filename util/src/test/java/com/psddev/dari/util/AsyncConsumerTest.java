@@ -0,0 +1,73 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class AsyncConsumerTest {
+
+    @Test
+    public void consumeBatchErrorsHandledOnce() {
+        AsyncQueue<String> queue = new AsyncQueue<String>();
+        List<String> errors = new ArrayList<String>();
+
+        queue.addAll(Arrays.asList("a", "b", "c"));
+        queue.close();
+
+        AsyncConsumer<String> consumer = new AsyncConsumer<String>(null, queue) {
+
+            @Override
+            protected void consume(String item) {
+            }
+
+            @Override
+            protected void consumeBatch(List<String> items) throws Exception {
+                handleBatchError(items.get(0), new Exception());
+                throw new Exception();
+            }
+
+            @Override
+            protected void handleError(String item, Exception error) {
+                errors.add(item);
+            }
+        };
+
+        consumer.setBatchSize(3);
+        consumer.doTask();
+
+        assertEquals(Arrays.asList("a", "b", "c"), errors);
+        assertEquals(3, consumer.getErrorCount());
+        assertEquals(0, consumer.getConsumeCount());
+    }
+
+    @Test
+    public void consumeBatchPartialErrors() {
+        AsyncQueue<String> queue = new AsyncQueue<String>();
+
+        queue.addAll(Arrays.asList("a", "b", "c"));
+        queue.close();
+
+        AsyncConsumer<String> consumer = new AsyncConsumer<String>(null, queue) {
+
+            @Override
+            protected void consume(String item) throws Exception {
+                if ("b".equals(item)) {
+                    throw new Exception();
+                }
+            }
+
+            @Override
+            protected void handleError(String item, Exception error) {
+            }
+        };
+
+        consumer.setBatchSize(3);
+        consumer.doTask();
+
+        assertEquals(1, consumer.getErrorCount());
+        assertEquals(2, consumer.getConsumeCount());
+    }
+}
@@ -0,0 +1,58 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncQueueTest {
+
+    @Test
+    public void addAllSkipsNull() {
+        AsyncQueue<String> queue = new AsyncQueue<String>();
+
+        assertEquals(2, queue.addAll(Arrays.asList("a", null, "b")));
+        assertEquals(2, queue.getAddSuccessCount());
+        assertEquals(1, queue.getAddFailureCount());
+    }
+
+    @Test
+    public void drainToMaximum() {
+        AsyncQueue<Integer> queue = new AsyncQueue<Integer>();
+        List<Integer> items = new ArrayList<Integer>();
+
+        queue.addAll(Arrays.asList(1, 2, 3, 4, 5));
+
+        assertEquals(3, queue.drainTo(items, 3, 1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3), items);
+        assertEquals(3, queue.getRemoveCount());
+    }
+
+    @Test
+    public void drainToTimeout() {
+        AsyncQueue<Integer> queue = new AsyncQueue<Integer>();
+        List<Integer> items = new ArrayList<Integer>();
+        long startTime = System.nanoTime();
+
+        queue.add(1);
+
+        assertEquals(1, queue.drainTo(items, 10, 30, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void drainToClosed() {
+        AsyncQueue<Integer> queue = new AsyncQueue<Integer>(new AsyncRingBuffer<Integer>(8));
+        List<Integer> items = new ArrayList<Integer>();
+
+        queue.addAll(Arrays.asList(1, 2));
+        queue.close();
+
+        assertEquals(2, queue.drainTo(items, 10, 1, TimeUnit.MINUTES));
+        assertEquals(-1, queue.drainTo(items, 10, 1, TimeUnit.MINUTES));
+    }
+}
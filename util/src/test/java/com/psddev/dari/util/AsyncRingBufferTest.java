@@ -0,0 +1,214 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRingBufferTest {
+
+    @Test
+    public void capacityRoundedUp() {
+        assertEquals(8, new AsyncRingBuffer<Object>(5).getCapacity());
+        assertEquals(1, new AsyncRingBuffer<Object>(1).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityZero() {
+        new AsyncRingBuffer<Object>(0);
+    }
+
+    @Test
+    public void offerAndPollInOrder() {
+        AsyncRingBuffer<Integer> buffer = new AsyncRingBuffer<Integer>(4);
+
+        for (int i = 0; i < 4; ++ i) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(0, buffer.remainingCapacity());
+        assertEquals(Integer.valueOf(0), buffer.peek());
+
+        for (int i = 0; i < 4; ++ i) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void drainToMaximum() {
+        AsyncRingBuffer<Integer> buffer = new AsyncRingBuffer<Integer>(8);
+        List<Integer> drained = new ArrayList<Integer>();
+
+        for (int i = 0; i < 6; ++ i) {
+            buffer.offer(i);
+        }
+
+        assertEquals(4, buffer.drainTo(drained, 4));
+        assertEquals(2, buffer.drainTo(drained));
+        assertEquals(6, drained.size());
+        assertEquals(Integer.valueOf(5), drained.get(5));
+    }
+
+    @Test
+    public void iteratorSnapshot() {
+        AsyncRingBuffer<Integer> buffer = new AsyncRingBuffer<Integer>(4);
+
+        buffer.offer(0);
+        buffer.offer(1);
+        buffer.poll();
+        buffer.offer(2);
+        buffer.offer(3);
+        buffer.offer(4);
+
+        Iterator<Integer> iterator = buffer.iterator();
+
+        buffer.poll();
+        buffer.offer(5);
+
+        List<Integer> items = new ArrayList<Integer>();
+
+        while (iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4), items);
+        assertEquals(Arrays.asList(2, 3, 4, 5), new ArrayList<Integer>(buffer));
+        assertArrayEquals(new Object[] { 2, 3, 4, 5 }, buffer.toArray());
+        assertTrue(buffer.contains(4));
+        assertFalse(buffer.contains(1));
+    }
+
+    @Test
+    public void removeSkippedByPoll() {
+        AsyncRingBuffer<Integer> buffer = new AsyncRingBuffer<Integer>(8);
+
+        for (int i = 0; i < 5; ++ i) {
+            buffer.offer(i);
+        }
+
+        assertTrue(buffer.remove(Integer.valueOf(0)));
+        assertTrue(buffer.remove(Integer.valueOf(2)));
+        assertFalse(buffer.remove(Integer.valueOf(2)));
+        assertEquals(Integer.valueOf(1), buffer.peek());
+        assertEquals(Integer.valueOf(1), buffer.poll());
+        assertEquals(Integer.valueOf(3), buffer.poll());
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void iteratorRemove() {
+        AsyncRingBuffer<Integer> buffer = new AsyncRingBuffer<Integer>(4);
+
+        for (int i = 0; i < 4; ++ i) {
+            buffer.offer(i);
+        }
+
+        for (Iterator<Integer> i = buffer.iterator(); i.hasNext();) {
+            if (i.next() % 2 == 0) {
+                i.remove();
+            }
+        }
+
+        List<Integer> drained = new ArrayList<Integer>();
+
+        buffer.drainTo(drained);
+        assertEquals(Arrays.asList(1, 3), drained);
+    }
+
+    @Test
+    public void addAllFromBuffer() {
+        AsyncRingBuffer<Integer> source = new AsyncRingBuffer<Integer>(4);
+        AsyncRingBuffer<Integer> target = new AsyncRingBuffer<Integer>(4);
+
+        source.offer(1);
+        source.offer(2);
+
+        assertTrue(target.addAll(source));
+        assertEquals(Integer.valueOf(1), target.poll());
+        assertEquals(Integer.valueOf(2), target.poll());
+        assertEquals(2, source.size());
+    }
+
+    @Test
+    public void pollTimeout() throws InterruptedException {
+        AsyncRingBuffer<Object> buffer = new AsyncRingBuffer<Object>(2);
+        long startTime = System.nanoTime();
+
+        assertNull(buffer.poll(20, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void concurrentProducersAndConsumers() throws InterruptedException {
+        final AsyncRingBuffer<Long> buffer = new AsyncRingBuffer<Long>(16);
+        final int producerCount = 4;
+        final int itemsPerProducer = 20000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong consumed = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int p = 0; p < producerCount; ++ p) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (long i = 1; i <= itemsPerProducer; ++ i) {
+                            buffer.put(i);
+                        }
+                    } catch (InterruptedException error) {
+                        throw new IllegalStateException(error);
+                    }
+                }
+            });
+        }
+
+        for (int c = 0; c < 3; ++ c) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (consumed.get() < producerCount * itemsPerProducer) {
+                            Long item = buffer.poll(10, TimeUnit.MILLISECONDS);
+
+                            if (item != null) {
+                                sum.addAndGet(item);
+                                consumed.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException error) {
+                        throw new IllegalStateException(error);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long n = itemsPerProducer;
+
+        assertEquals(producerCount * itemsPerProducer, consumed.get());
+        assertEquals(producerCount * n * (n + 1) / 2, sum.get());
+    }
+}
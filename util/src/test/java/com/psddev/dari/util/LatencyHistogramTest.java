@@ -0,0 +1,98 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        int previous = -1;
+
+        for (long value = 0L; value < 100000L; ++ value) {
+            int index = LatencyHistogram.getBucketIndex(value);
+
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(value <= LatencyHistogram.getBucketMaximum(index));
+            previous = index;
+        }
+    }
+
+    @Test
+    public void empty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0L, snapshot.getCount());
+        assertEquals(0L, snapshot.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1L; value <= 10000L; ++ value) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(10000L, snapshot.getCount());
+        assertEquals(10000L, snapshot.getMaximum());
+        assertWithin(5000L, snapshot.getValueAtPercentile(50.0));
+        assertWithin(9500L, snapshot.getValueAtPercentile(95.0));
+        assertWithin(9900L, snapshot.getValueAtPercentile(99.0));
+        assertEquals(10000L, snapshot.getValueAtPercentile(100.0));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " isn't close to " + expected, actual >= expected && actual <= expected * 1.125);
+    }
+
+    @Test
+    public void resetAndAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+
+        first.record(10L);
+        second.record(1000L);
+
+        LatencyHistogram.Snapshot merged = first.snapshot().add(second.snapshot());
+
+        assertEquals(2L, merged.getCount());
+        assertEquals(1000L, merged.getMaximum());
+
+        first.reset();
+        assertEquals(0L, first.snapshot().getCount());
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; ++ t) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; ++ i) {
+                        histogram.record(i);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000L, histogram.snapshot().getCount());
+    }
+}
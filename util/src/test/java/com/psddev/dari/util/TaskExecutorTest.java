@@ -0,0 +1,126 @@
+package com.psddev.dari.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TaskExecutorTest {
+
+    private TaskExecutor executor;
+
+    private TaskExecutor createExecutor(int maximumThreads, int queueSize) {
+        String name = "TaskExecutorTest " + UUID.randomUUID();
+        String prefix = TaskExecutor.SETTING_PREFIX + "/" + name + "/";
+
+        Settings.setOverride(prefix + TaskExecutor.MAXIMUM_THREADS_SUB_SETTING, maximumThreads);
+        Settings.setOverride(prefix + TaskExecutor.QUEUE_SIZE_SUB_SETTING, queueSize);
+
+        try {
+            executor = new TaskExecutor(name);
+
+        } finally {
+            Settings.setOverride(prefix + TaskExecutor.MAXIMUM_THREADS_SUB_SETTING, null);
+            Settings.setOverride(prefix + TaskExecutor.QUEUE_SIZE_SUB_SETTING, null);
+        }
+
+        return executor;
+    }
+
+    @After
+    public void after() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void invokeAllBounded() throws Exception {
+        TaskExecutor executor = createExecutor(1, 0);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maximumRunning = new AtomicInteger();
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+
+        for (int i = 0; i < 4; ++ i) {
+            int index = i;
+
+            callables.add(() -> {
+                maximumRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20L);
+                running.decrementAndGet();
+                return index;
+            });
+        }
+
+        List<Future<Integer>> futures = executor.invokeAll(callables);
+
+        for (int i = 0; i < 4; ++ i) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get());
+        }
+
+        assertEquals(1, maximumRunning.get());
+        assertTrue(executor.getBlockedCount() > 0);
+    }
+
+    @Test
+    public void invokeAnyBounded() throws Exception {
+        TaskExecutor executor = createExecutor(1, 0);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        executor.submit(() -> {
+            latch.await();
+            return null;
+        });
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50L);
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+
+            latch.countDown();
+        });
+
+        releaser.start();
+
+        assertEquals("done", executor.invokeAny(Collections.singletonList(() -> "done"), 1L, TimeUnit.SECONDS));
+        assertEquals(1L, executor.getBlockedCount());
+    }
+
+    @Test
+    public void rejectedCounted() throws Exception {
+        TaskExecutor executor = createExecutor(1, 0);
+
+        executor.shutdown();
+
+        try {
+            executor.submit(() -> { });
+            fail();
+
+        } catch (RejectedExecutionException error) {
+            assertEquals(1L, executor.getRejectedCount());
+        }
+
+        try {
+            executor.invokeAll(Collections.singletonList(() -> null));
+            fail();
+
+        } catch (RejectedExecutionException error) {
+            assertEquals(2L, executor.getRejectedCount());
+        }
+    }
+}